@@ -0,0 +1,508 @@
+package com.kartik.rapid;
+
+
+import static com.kartik.rapid.io.RapidClusteringProperties.LOOKUP_CACHE_SIZE;
+import static com.kartik.rapid.io.RapidClusteringProperties.LOOKUP_PAGE_SIZE;
+import static com.kartik.rapid.io.RapidClusteringProperties.LOOKUP_PORT;
+import static com.kartik.rapid.io.RapidClusteringProperties.LOOKUP_RELOAD_SECONDS;
+import static com.kartik.rapid.io.RapidClusteringProperties.LOOKUP_THREADS;
+import static com.kartik.rapid.io.RapidClusteringProperties.RESULT_FILE;
+import static com.kartik.rapid.io.RapidClusteringProperties.getProperty;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.io.ClusterLookupSnapshot;
+import com.kartik.rapid.io.ClusteringResultFile;
+import com.kartik.rapid.utility.RunMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * The Class ClusterLookupServer.
+ * Answers which cluster an id is in and who else is in it over HTTP, from a {@link ClusterLookupSnapshot} of the resultFile, so that
+ * nobody has to query the cluster id column of the input table. All the answers are JSON.
+ *
+ * GET /cluster?id=X - the clusterID and the size of the cluster of id X
+ * GET /members?clusterId=C or ?id=X, &offset=0&limit=N - a page of the members of a cluster, in ascending order of their ids, or of
+ * their codes for ids which are not numeric. limit defaults to, and is capped at, the lookupPageSize
+ * GET /status - the snapshot served and the counters of the server
+ * POST /reload - loads the resultFile again
+ *
+ * The member pages of the large clusters are kept in an LRU cache, as rendering them costs far more than answering anything else.
+ * When a run replaces the resultFile, the server loads it in the background and swaps the new snapshot and an empty cache in at once,
+ * a request is answered from the snapshot it started with. A snapshot which fails to load leaves the one served in place.
+ */
+public class ClusterLookupServer
+{
+	static final Logger					log					= Logger.getLogger(ClusterLookupServer.class);
+
+	/** Rendering the members of a smaller cluster costs less than caching them. */
+	private static final int			CACHED_CLUSTER_SIZE	= 100;
+
+	private final File					resultFile;
+	private final int					pageSize;
+	private final int					cacheSize;
+
+	private final AtomicLong			requests			= new AtomicLong();
+	private final AtomicLong			cacheHits			= new AtomicLong();
+	private final AtomicLong			cacheMisses			= new AtomicLong();
+	private final AtomicLong			reloads				= new AtomicLong();
+
+	private volatile Served				served;
+	private HttpServer					server;
+	private ExecutorService				handlerPool;
+	private ScheduledExecutorService	watcher;
+
+	/**
+	 * The snapshot served and the cache of its member pages, swapped together.
+	 */
+	private static final class Served
+	{
+		final ClusterLookupSnapshot			snapshot;
+		final long							fileModified;
+		final long							fileLength;
+		final Map<PageKey, byte[]>			memberPages;
+
+		Served(ClusterLookupSnapshot snapshot, long fileModified, long fileLength, final int cacheSize)
+		{
+			this.snapshot = snapshot;
+			this.fileModified = fileModified;
+			this.fileLength = fileLength;
+			this.memberPages = new LinkedHashMap<PageKey, byte[]>(16, 0.75f, true)
+			{
+				private static final long	serialVersionUID	= 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Entry<PageKey, byte[]> eldest)
+				{
+					return size() > cacheSize;
+				}
+			};
+		}
+	}
+
+	private static final class PageKey
+	{
+		final int	cluster;
+		final int	offset;
+		final int	limit;
+
+		PageKey(int cluster, int offset, int limit)
+		{
+			this.cluster = cluster;
+			this.offset = offset;
+			this.limit = limit;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (other instanceof PageKey == false)
+				return false;
+			PageKey key = (PageKey) other;
+			return cluster == key.cluster && offset == key.offset && limit == key.limit;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (cluster * 31 + offset) * 31 + limit;
+		}
+	}
+
+	/**
+	 * Instantiates a new cluster lookup server and loads the result file.
+	 *
+	 * @param resultFile - the file written by {@link ClusteringResultFile}, and the resultFile.ids next to it if there is one
+	 * @param pageSize - the largest number of members answered at once
+	 * @param cacheSize - the number of member pages kept in the cache
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public ClusterLookupServer(File resultFile, int pageSize, int cacheSize) throws IOException
+	{
+		super();
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize has to be at least 1 but was " + pageSize);
+
+		this.resultFile = resultFile;
+		this.pageSize = pageSize;
+		this.cacheSize = cacheSize;
+		reload();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		String resultFile = getProperty(RESULT_FILE, "");
+		if (resultFile.isEmpty())
+			throw new IllegalStateException("The lookup server serves the resultFile, which is not set");
+
+		ClusterLookupServer lookupServer = new ClusterLookupServer(new File(resultFile), Integer.parseInt(getProperty(LOOKUP_PAGE_SIZE, "1000")),
+			Integer.parseInt(getProperty(LOOKUP_CACHE_SIZE, "1024")));
+		lookupServer.start(Integer.parseInt(getProperty(LOOKUP_PORT, "8086")), Integer.parseInt(getProperty(LOOKUP_THREADS, "8")));
+		lookupServer.watch(Integer.parseInt(getProperty(LOOKUP_RELOAD_SECONDS, "10")));
+	}
+
+	/**
+	 * Starts answering requests.
+	 *
+	 * @param port - the port
+	 * @param threads - the number of requests answered at once
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void start(int port, int threads) throws IOException
+	{
+		handlerPool = Executors.newFixedThreadPool(threads, daemonThreads("lookup-handler"));
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.setExecutor(handlerPool);
+		server.createContext("/cluster", new Handler()
+		{
+			@Override
+			byte[] answer(Map<String, String> parameters)
+			{
+				return answerCluster(parameters);
+			}
+		});
+		server.createContext("/members", new Handler()
+		{
+			@Override
+			byte[] answer(Map<String, String> parameters)
+			{
+				return answerMembers(parameters);
+			}
+		});
+		server.createContext("/status", new Handler()
+		{
+			@Override
+			byte[] answer(Map<String, String> parameters)
+			{
+				return answerStatus();
+			}
+		});
+		server.createContext("/reload", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				if ("POST".equals(exchange.getRequestMethod()) == false)
+				{
+					respond(exchange, 405, error("reload has to be POSTed"));
+					return;
+				}
+
+				try
+				{
+					reload();
+				}
+				catch (IOException | RuntimeException e)
+				{
+					log.error("Could not reload " + resultFile, e);
+					respond(exchange, 500, error("Could not reload " + resultFile + " :: " + e));
+					return;
+				}
+				respond(exchange, 200, answerStatus());
+			}
+		});
+		server.start();
+		log.info("Serving the clusters of " + resultFile + " on port " + port + " with " + threads + " threads");
+	}
+
+	/**
+	 * Checks the result file every few seconds and loads it again once a run has replaced it.
+	 *
+	 * @param seconds - the seconds between 2 checks, 0 to not check at all
+	 */
+	public synchronized void watch(int seconds)
+	{
+		if (seconds <= 0)
+			return;
+
+		watcher = Executors.newSingleThreadScheduledExecutor(daemonThreads("lookup-watcher"));
+		watcher.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Served current = served;
+				if (resultFile.lastModified() == current.fileModified && resultFile.length() == current.fileLength)
+					return;
+
+				try
+				{
+					reload();
+				}
+				catch (IOException | RuntimeException e)
+				{
+					// most likely the ids file of the run is not there yet, the next check tries again
+					log.warn("Could not reload the replaced " + resultFile + ", still serving the snapshot of " + current.snapshot.getLoadedAt() + " :: " + e);
+				}
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Loads the result file and swaps it in for the snapshot served.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred, in which case the snapshot served stays in place.
+	 */
+	public synchronized void reload() throws IOException
+	{
+		// taken before loading, so a file replaced while it is loaded is loaded once more
+		long fileModified = resultFile.lastModified();
+		long fileLength = resultFile.length();
+
+		served = new Served(ClusterLookupSnapshot.load(resultFile), fileModified, fileLength, cacheSize);
+		reloads.incrementAndGet();
+	}
+
+	/**
+	 * Stops answering requests and checking the result file.
+	 */
+	public synchronized void stop()
+	{
+		if (watcher != null)
+			watcher.shutdownNow();
+		if (server != null)
+		{
+			server.stop(0);
+			handlerPool.shutdown();
+		}
+	}
+
+	private byte[] answerCluster(Map<String, String> parameters)
+	{
+		ClusterLookupSnapshot snapshot = served.snapshot;
+		int index = snapshot.indexOf(getParameter(parameters, "id", null));
+		if (index == ClusterLookupSnapshot.NOT_FOUND)
+			return null;
+
+		int cluster = snapshot.getClusterOf(index);
+		StringBuilder json = new StringBuilder("{\"id\":");
+		appendId(json, snapshot, index);
+		json.append(",\"clusterId\":").append(snapshot.getClusterId(cluster));
+		json.append(",\"size\":").append(snapshot.getClusterSize(cluster)).append('}');
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private byte[] answerMembers(Map<String, String> parameters)
+	{
+		Served current = served;
+		ClusterLookupSnapshot snapshot = current.snapshot;
+
+		int cluster;
+		if (parameters.containsKey("clusterId"))
+		{
+			cluster = snapshot.findCluster(Long.parseLong(parameters.get("clusterId")));
+		}
+		else
+		{
+			int index = snapshot.indexOf(getParameter(parameters, "id", null));
+			cluster = index == ClusterLookupSnapshot.NOT_FOUND ? ClusterLookupSnapshot.NOT_FOUND : snapshot.getClusterOf(index);
+		}
+		if (cluster == ClusterLookupSnapshot.NOT_FOUND)
+			return null;
+
+		int offset = Integer.parseInt(getParameter(parameters, "offset", "0"));
+		int limit = Math.min(pageSize, Integer.parseInt(getParameter(parameters, "limit", Integer.toString(pageSize))));
+		if (offset < 0 || limit < 1)
+			throw new IllegalArgumentException("offset can not be negative and limit has to be at least 1");
+
+		int size = snapshot.getClusterSize(cluster);
+		PageKey key = null;
+		if (size >= CACHED_CLUSTER_SIZE)
+		{
+			key = new PageKey(cluster, offset, limit);
+			byte[] page;
+			synchronized (current.memberPages)
+			{
+				page = current.memberPages.get(key);
+			}
+			if (page != null)
+			{
+				cacheHits.incrementAndGet();
+				return page;
+			}
+			cacheMisses.incrementAndGet();
+		}
+
+		int end = (int) Math.min((long) offset + limit, size);
+		StringBuilder json = new StringBuilder("{\"clusterId\":").append(snapshot.getClusterId(cluster));
+		json.append(",\"size\":").append(size);
+		json.append(",\"offset\":").append(offset);
+		json.append(",\"members\":[");
+		for (int member = offset; member < end; member++)
+		{
+			if (member > offset)
+				json.append(',');
+			appendId(json, snapshot, snapshot.getMember(cluster, member));
+		}
+		byte[] page = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+
+		if (key != null)
+		{
+			synchronized (current.memberPages)
+			{
+				current.memberPages.put(key, page);
+			}
+		}
+		return page;
+	}
+
+	private byte[] answerStatus()
+	{
+		Served current = served;
+		int cachedPages;
+		synchronized (current.memberPages)
+		{
+			cachedPages = current.memberPages.size();
+		}
+
+		StringBuilder json = new StringBuilder("{\"resultFile\":");
+		RunMetrics.appendString(json, resultFile.getPath());
+		json.append(",\"loadedAt\":").append(current.snapshot.getLoadedAt());
+		json.append(",\"ids\":").append(current.snapshot.getIdCount());
+		json.append(",\"clusters\":").append(current.snapshot.getClusterCount());
+		json.append(",\"reloads\":").append(reloads.get());
+		json.append(",\"requests\":").append(requests.get());
+		json.append(",\"cacheHits\":").append(cacheHits.get());
+		json.append(",\"cacheMisses\":").append(cacheMisses.get());
+		json.append(",\"cachedPages\":").append(cachedPages).append('}');
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String getParameter(Map<String, String> parameters, String name, String defaultValue)
+	{
+		String value = parameters.get(name);
+		if (value != null)
+			return value;
+		if (defaultValue == null)
+			throw new IllegalArgumentException(name + " is missing");
+		return defaultValue;
+	}
+
+	private static void appendId(StringBuilder json, ClusterLookupSnapshot snapshot, int index)
+	{
+		if (snapshot.isNumeric())
+			json.append(snapshot.getId(index));
+		else
+			RunMetrics.appendString(json, snapshot.getId(index));
+	}
+
+	/**
+	 * A GET request answered with the JSON returned by {@link #answer(Map)}, with 404 if it returned null and with 400 if the request is wrong.
+	 */
+	private abstract class Handler implements HttpHandler
+	{
+		/**
+		 * Answers a request.
+		 *
+		 * @return the JSON, or null if there is nothing to answer with
+		 * @throws IllegalArgumentException if a parameter is missing or wrong
+		 */
+		abstract byte[] answer(Map<String, String> parameters);
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			requests.incrementAndGet();
+			if ("GET".equals(exchange.getRequestMethod()) == false)
+			{
+				respond(exchange, 405, error("Only GET is answered"));
+				return;
+			}
+
+			byte[] body;
+			try
+			{
+				body = answer(parseQuery(exchange.getRequestURI().getRawQuery()));
+			}
+			catch (IllegalArgumentException e)
+			{
+				respond(exchange, 400, error(e.getMessage()));
+				return;
+			}
+			catch (RuntimeException e)
+			{
+				log.error("Could not answer " + exchange.getRequestURI(), e);
+				respond(exchange, 500, error(e.toString()));
+				return;
+			}
+
+			if (body == null)
+				respond(exchange, 404, error("Not found"));
+			else
+				respond(exchange, 200, body);
+		}
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException
+	{
+		Map<String, String> parameters = new HashMap<>();
+		if (query == null)
+			return parameters;
+
+		for (String parameter : query.split("&"))
+		{
+			int equals = parameter.indexOf('=');
+			if (equals > 0)
+				parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+		}
+		return parameters;
+	}
+
+	private static byte[] error(String message)
+	{
+		StringBuilder json = new StringBuilder("{\"error\":");
+		RunMetrics.appendString(json, message);
+		return json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException
+	{
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (
+			OutputStream out = exchange.getResponseBody();)
+		{
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Daemon threads, the HttpServer keeps the process alive on its own.
+	 */
+	private static ThreadFactory daemonThreads(final String name)
+	{
+		return new ThreadFactory()
+		{
+			private final AtomicLong	created	= new AtomicLong();
+
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, name + "-" + created.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -1,32 +1,115 @@
 package com.kartik.rapid;
 
 
+import static com.kartik.rapid.io.RapidClusteringProperties.BACK_UPDATE_WRITERS;
+import static com.kartik.rapid.io.RapidClusteringProperties.CHECKPOINT_BIGRAMS;
+import static com.kartik.rapid.io.RapidClusteringProperties.CHECKPOINT_DIRECTORY;
+import static com.kartik.rapid.io.RapidClusteringProperties.CHECKPOINT_MAX_OVERHEAD;
+import static com.kartik.rapid.io.RapidClusteringProperties.CLUSTERING_ENGINE;
 import static com.kartik.rapid.io.RapidClusteringProperties.COLUMN_DELIM;
 import static com.kartik.rapid.io.RapidClusteringProperties.CONNECTION_STRING;
 import static com.kartik.rapid.io.RapidClusteringProperties.DATA_DELIM;
 import static com.kartik.rapid.io.RapidClusteringProperties.DESCRIPTION_COLUMNS;
 import static com.kartik.rapid.io.RapidClusteringProperties.ENDNODE_STR;
+import static com.kartik.rapid.io.RapidClusteringProperties.FETCH_SIZE;
+import static com.kartik.rapid.io.RapidClusteringProperties.HEAP_BUDGET_MB;
 import static com.kartik.rapid.io.RapidClusteringProperties.ID_COLUMN;
+import static com.kartik.rapid.io.RapidClusteringProperties.ID_TYPE;
+import static com.kartik.rapid.io.RapidClusteringProperties.INCREMENTAL_MODE;
+import static com.kartik.rapid.io.RapidClusteringProperties.INGESTION_MODE;
+import static com.kartik.rapid.io.RapidClusteringProperties.INPUT_FILE;
+import static com.kartik.rapid.io.RapidClusteringProperties.INPUT_SOURCE;
+import static com.kartik.rapid.io.RapidClusteringProperties.METRICS_REPORT;
+import static com.kartik.rapid.io.RapidClusteringProperties.MINHASH_BANDS;
+import static com.kartik.rapid.io.RapidClusteringProperties.MINHASH_BUCKET_CANDIDATES;
+import static com.kartik.rapid.io.RapidClusteringProperties.MINHASH_JACCARD_THRESHOLD;
+import static com.kartik.rapid.io.RapidClusteringProperties.MINHASH_ROWS_PER_BAND;
+import static com.kartik.rapid.io.RapidClusteringProperties.MINHASH_SHINGLE_SIZE;
+import static com.kartik.rapid.io.RapidClusteringProperties.MODIFIED_COLUMN;
+import static com.kartik.rapid.io.RapidClusteringProperties.PARTITION;
+import static com.kartik.rapid.io.RapidClusteringProperties.PARTITION_COUNT;
+import static com.kartik.rapid.io.RapidClusteringProperties.PARTITION_DIRECTORY;
+import static com.kartik.rapid.io.RapidClusteringProperties.PARTITION_ROLE;
+import static com.kartik.rapid.io.RapidClusteringProperties.PLAN_SAMPLE_FRACTION;
+import static com.kartik.rapid.io.RapidClusteringProperties.READER_THREADS;
+import static com.kartik.rapid.io.RapidClusteringProperties.RESULT_FILE;
+import static com.kartik.rapid.io.RapidClusteringProperties.SNAPSHOT_FILE;
+import static com.kartik.rapid.io.RapidClusteringProperties.SORT_BUDGET_MB;
+import static com.kartik.rapid.io.RapidClusteringProperties.SPILL_DIRECTORY;
+import static com.kartik.rapid.io.RapidClusteringProperties.STAGING_TABLE;
+import static com.kartik.rapid.io.RapidClusteringProperties.STATE_DIRECTORY;
+import static com.kartik.rapid.io.RapidClusteringProperties.STOP_BIGRAM_MAX_FRACTION;
+import static com.kartik.rapid.io.RapidClusteringProperties.STOP_BIGRAM_MAX_ROWS;
+import static com.kartik.rapid.io.RapidClusteringProperties.STOP_BIGRAM_SAMPLE_FRACTION;
+import static com.kartik.rapid.io.RapidClusteringProperties.STOP_BIGRAM_SKETCH_WIDTH;
 import static com.kartik.rapid.io.RapidClusteringProperties.TABLE_NAME;
+import static com.kartik.rapid.io.RapidClusteringProperties.WORKER_THREADS;
+import static com.kartik.rapid.io.RapidClusteringProperties.WRITE_BACK_BASELINE;
 import static com.kartik.rapid.io.RapidClusteringProperties.getProperty;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPOutputStream;
+
+import javax.management.JMException;
 
 import org.apache.log4j.Logger;
 
 import com.kartik.rapid.dao.InputTableDao;
+import com.kartik.rapid.io.AssignmentDiff;
+import com.kartik.rapid.io.ClusteringResultFile;
+import com.kartik.rapid.io.ClusteringStateStore;
+import com.kartik.rapid.io.DelimitedFileSource;
+import com.kartik.rapid.io.ExternalPostingSorter;
+import com.kartik.rapid.io.InputSource;
+import com.kartik.rapid.io.MappedPostingStore;
+import com.kartik.rapid.io.PartitionSnapshot;
+import com.kartik.rapid.io.PostingSnapshot;
+import com.kartik.rapid.io.RunCheckpoint;
+import com.kartik.rapid.logic.BiGramFrequencySketch;
+import com.kartik.rapid.logic.BiGramIndex;
+import com.kartik.rapid.logic.ExecutionPlanner;
+import com.kartik.rapid.logic.IdEncoder;
+import com.kartik.rapid.logic.IdType;
+import com.kartik.rapid.logic.IncrementalClusterer;
+import com.kartik.rapid.logic.MinHashClusterer;
+import com.kartik.rapid.logic.PartitionMerger;
+import com.kartik.rapid.logic.RapidCore;
+import com.kartik.rapid.logic.ShardedBiGramIndex;
+import com.kartik.rapid.logic.StreamingClusterer;
+import com.kartik.rapid.pojo.ClusteringResult;
+import com.kartik.rapid.utility.ExecutionPlan;
+import com.kartik.rapid.utility.RunMetrics;
+import com.kartik.rapid.utility.RunMetrics.Phase;
+import com.kartik.rapid.utility.StopBiGramFilter;
 
 
 public class StandAloneClient
 {
 
-	static final Logger	log	= Logger.getLogger(StandAloneClient.class);
+	static final Logger			log	= Logger.getLogger(StandAloneClient.class);
+
+	private final RunMetrics	metrics;
+	private final IdEncoder		idEncoder;
+
+	/**
+	 * Instantiates a new stand alone client.
+	 *
+	 * @param metrics - the metrics every part of the run adds to
+	 * @param idEncoder - the encoder the ids of the input are read with
+	 */
+	public StandAloneClient(RunMetrics metrics, IdEncoder idEncoder)
+	{
+		super();
+		this.metrics = metrics;
+		this.idEncoder = idEncoder;
+	}
 
 	public static void main(String[] args) throws ClassNotFoundException, SQLException, IOException
 	{
@@ -50,34 +133,693 @@ public class StandAloneClient
 		log.info("columns " + columns);
 		log.info("connectionString "+ connectionString);
 
-		new StandAloneClient().startProcess(tableName, idColumn, columns, columnDelim, connectionString, dataDelim, endnodeStr);
+		InputTableDao dao = new InputTableDao(tableName, idColumn, columns, columnDelim, connectionString, dataDelim, endnodeStr);
+		InputSource source = dao;
+		if ("file".equalsIgnoreCase(getProperty(INPUT_SOURCE, "jdbc")))
+		{
+			log.info("inputFile " + getProperty(INPUT_FILE));
+			source = new DelimitedFileSource(new File(getProperty(INPUT_FILE)), columnDelim, dataDelim, endnodeStr);
+		}
+		String ingestionMode = getProperty(INGESTION_MODE, "heap");
+
+		RunMetrics metrics = new RunMetrics();
+		try
+		{
+			metrics.register();
+		}
+		catch (JMException e)
+		{
+			log.warn("Could not register the run metrics with JMX, they are still reported at the end of the run", e);
+		}
+		dao.setMetrics(metrics);
+		source.setMetrics(metrics);
+
+		IdEncoder idEncoder = IdType.valueOf(getProperty(ID_TYPE, "numeric").toUpperCase()).newEncoder();
+		dao.setIdEncoder(idEncoder);
+		source.setIdEncoder(idEncoder);
+		StandAloneClient client = new StandAloneClient(metrics, idEncoder);
+
+		boolean incrementalMode = Boolean.parseBoolean(getProperty(INCREMENTAL_MODE, "false"));
+		boolean minHashEngine = "minhash".equalsIgnoreCase(getProperty(CLUSTERING_ENGINE, "bigram"));
+		if (minHashEngine && (incrementalMode || "snapshot".equalsIgnoreCase(ingestionMode)))
+			throw new IllegalStateException("clusteringEngine=minhash needs the rows, it can not be used with incrementalMode or ingestionMode=snapshot");
+
+		String partitionRole = getProperty(PARTITION_ROLE, "");
+		int partitionCount = Integer.parseInt(getProperty(PARTITION_COUNT, "1"));
+		int partition = Integer.parseInt(getProperty(PARTITION, "0"));
+		File partitionDirectory = new File(getProperty(PARTITION_DIRECTORY, "rapidPartitions"));
+		boolean partitioned = partitionRole.isEmpty() == false;
+		if (partitioned && (incrementalMode || minHashEngine || "snapshot".equalsIgnoreCase(ingestionMode)))
+			throw new IllegalStateException("partitionRole can not be used with incrementalMode, clusteringEngine=minhash or ingestionMode=snapshot");
+
+		// the codes of ids which are not numeric only mean something to the encoder of this process, they can not be kept for another one
+		boolean keepsIds = incrementalMode || partitioned || "snapshot".equalsIgnoreCase(ingestionMode) || getProperty(SNAPSHOT_FILE, "").isEmpty() == false;
+		if (idEncoder.getType() != IdType.NUMERIC && keepsIds)
+			throw new IllegalStateException("idType=" + idEncoder.getType() + " can not be used with incrementalMode, partitionRole, ingestionMode=snapshot or a snapshotFile");
+
+		// a diff is only written back over the cluster ids of the previous run, which the column keeps while the table is read
+		String writeBackBaseline = getProperty(WRITE_BACK_BASELINE, "");
+		if (writeBackBaseline.isEmpty() == false)
+		{
+			if (idEncoder.getType() != IdType.NUMERIC)
+				throw new IllegalStateException("writeBackBaseline can not be used with idType=" + idEncoder.getType());
+			dao.setKeepClusterIDColumn(new File(writeBackBaseline).exists());
+		}
+
+		// a checkpointed run streams the table in the order of its ids, so that the last id read tells where to resume
+		String checkpointDirectory = getProperty(CHECKPOINT_DIRECTORY, "");
+		boolean checkpointed = checkpointDirectory.isEmpty() == false;
+		if (checkpointed && (source != dao || incrementalMode || partitioned || minHashEngine || "snapshot".equalsIgnoreCase(ingestionMode)
+			|| idEncoder.getType() != IdType.NUMERIC || writeBackBaseline.isEmpty() == false))
+			throw new IllegalStateException("checkpointDirectory can only be used with inputSource=jdbc and numeric ids, not with incrementalMode, partitionRole, "
+				+ "clusteringEngine=minhash, ingestionMode=snapshot or a writeBackBaseline");
+
+		// the coordinator does not read any rows, the workers find the stop bigrams of all the rows on their own
+		boolean readsRows = partitioned == false || "worker".equalsIgnoreCase(partitionRole);
+		if (incrementalMode == false && "snapshot".equalsIgnoreCase(ingestionMode) == false && readsRows)
+		{
+			StopBiGramFilter stopBiGrams = client.findStopBiGrams(source);
+			if (stopBiGrams != null)
+			{
+				dao.setStopBiGramFilter(stopBiGrams);
+				source.setStopBiGramFilter(stopBiGrams);
+				metrics.setStopBiGramFilter(stopBiGrams);
+			}
+		}
+
+		// an auto run picks the fastest of the heap, mapped and external modes whose heap the planner estimates to fit the budget
+		long sortBudget = Long.parseLong(getProperty(SORT_BUDGET_MB, "256")) << 20;
+		int readerThreads = Integer.parseInt(getProperty(READER_THREADS, "1"));
+		if ("auto".equalsIgnoreCase(ingestionMode) && incrementalMode == false && partitioned == false && minHashEngine == false && checkpointed == false)
+		{
+			ExecutionPlan plan = client.planExecution(source, sortBudget);
+			ingestionMode = plan.getMode().name().toLowerCase();
+			sortBudget = plan.getSortBudget();
+		}
+
+		if (incrementalMode)
+		{
+			if (source != dao)
+				throw new IllegalStateException("incrementalMode needs the modifiedColumn of the table, it can not be used with inputSource=file");
+			dao.setModifiedColumn(getProperty(MODIFIED_COLUMN));
+			client.startIncrementalProcess(dao, new File(getProperty(STATE_DIRECTORY, "rapidState")));
+		}
+		else if ("worker".equalsIgnoreCase(partitionRole))
+			client.startPartitionWorkerProcess(source, partition, partitionCount, partitionDirectory);
+		else if ("coordinator".equalsIgnoreCase(partitionRole))
+			client.startPartitionCoordinatorProcess(source, partitionCount, partitionDirectory);
+		else if ("local".equalsIgnoreCase(partitionRole))
+		{
+			client.launchPartitionWorkers(partitionCount, partitionDirectory);
+			client.startPartitionCoordinatorProcess(source, partitionCount, partitionDirectory);
+		}
+		else if (partitioned)
+			throw new IllegalStateException("partitionRole has to be worker, coordinator or local but was " + partitionRole);
+		else if (checkpointed)
+			client.startCheckpointedProcess(dao, new File(checkpointDirectory));
+		else if ("snapshot".equalsIgnoreCase(ingestionMode))
+			client.startReplayProcess(new File(getProperty(SNAPSHOT_FILE)));
+		else if (minHashEngine)
+			client.startMinHashProcess(source);
+		else if ("streaming".equalsIgnoreCase(ingestionMode))
+			client.startStreamingProcess(source);
+		else if ("mapped".equalsIgnoreCase(ingestionMode))
+			client.startMappedProcess(source, new File(getProperty(SPILL_DIRECTORY, "rapidSpill")));
+		else if ("external".equalsIgnoreCase(ingestionMode))
+			client.startExternalProcess(source, new File(getProperty(SPILL_DIRECTORY, "rapidSpill")), sortBudget);
+		else if (source != dao)
+			client.startIndexProcess(source);
+		else if (readerThreads > 1)
+		{
+			int workerThreads = Integer.parseInt(getProperty(WORKER_THREADS, "4"));
+			int fetchSize = Integer.parseInt(getProperty(FETCH_SIZE, "1000"));
+			client.startPartitionedProcess(dao, readerThreads, workerThreads, fetchSize);
+		}
+		else
+			client.startProcess(dao);
 		log.info("Total Time Taken is " + (System.currentTimeMillis() - startTime) / 1000 + " seconds ");
+
+		metrics.finish();
+		log.info("Run metrics :: " + metrics.getReport());
+		String reportFile = getProperty(METRICS_REPORT, "");
+		if (reportFile.isEmpty() == false && "worker".equalsIgnoreCase(partitionRole))
+			metrics.writeReport(new File(reportFile + ".partition-" + partition));
+		else if (reportFile.isEmpty() == false)
+			metrics.writeReport(new File(reportFile));
 	}
 
-	private void startProcess(String tableName, String idColumn, String columns, String columnDelim, String connectionString, String dataDelim, String endnodeStr)
-		throws ClassNotFoundException, SQLException, IOException
+	/**
+	 * Creates the RapidCore of a run, adding to the metrics of the run.
+	 *
+	 * @return the rapid core
+	 */
+	private RapidCore<Object> newRapidCore()
 	{
-		log.debug("Calling createDataMapFromTable ");
-		InputTableDao dao = new InputTableDao(tableName, idColumn, columns, columnDelim, connectionString, dataDelim, endnodeStr);
-		Map<Object, Set<Long>> map = dao.createDataMapFromTable();
-		
-		//Saving of object in a file
-          FileOutputStream file = new FileOutputStream("C:\\Users\\kartik.iyer\\Desktop\\mapCompressed.gz");
-          GZIPOutputStream gz = new GZIPOutputStream(file);
-          ObjectOutputStream out = new ObjectOutputStream(gz);
-           
-          // Method for serialization of object
-          out.writeObject(map);
-           
-          out.close();
-          file.close();
-
-	/*	log.debug("Starting RapidCluster ");
-		RapidCore cluster = new RapidCore();
-		ClusteringResult result = cluster.performQuickClustering(map, dao.getDistinctIDCount());
-		Map<Integer, Set<Long>> clusterSet = result.getClusterSet();
-
-		log.debug("Starting BackUpdate of ClusterIDs");
-		dao.performBackUpdateToDatabase(clusterSet);*/
+		RapidCore<Object> cluster = new RapidCore<>();
+		cluster.setMetrics(metrics);
+		return cluster;
+	}
+
+	/**
+	 * Finds the stop bigrams of the input with a pre-pass over all of it, or over a sample, if a stop bigram threshold is set.
+	 *
+	 * @param source - the input source
+	 * @return the stop bigrams, null if no threshold is set
+	 */
+	private StopBiGramFilter findStopBiGrams(InputSource source) throws SQLException, IOException
+	{
+		String maxRowsProperty = getProperty(STOP_BIGRAM_MAX_ROWS, "");
+		String maxFractionProperty = getProperty(STOP_BIGRAM_MAX_FRACTION, "");
+		long maxRows;
+		if (maxRowsProperty.isEmpty() == false)
+			maxRows = Long.parseLong(maxRowsProperty);
+		else if (maxFractionProperty.isEmpty() == false)
+			maxRows = (long) Math.ceil(Double.parseDouble(maxFractionProperty) * source.getTotalRowCount());
+		else
+			return null;
+
+		double sampleFraction = Double.parseDouble(getProperty(STOP_BIGRAM_SAMPLE_FRACTION, "1"));
+		int sketchWidth = Integer.parseInt(getProperty(STOP_BIGRAM_SKETCH_WIDTH, "1048576"));
+		log.info("Looking for the stop bigrams of more than " + maxRows + " rows in a sample of " + sampleFraction + " of the rows");
+
+		BiGramFrequencySketch sketch = new BiGramFrequencySketch(sketchWidth, 4, maxRows, sampleFraction);
+		source.readSample(sketch, sampleFraction);
+		return sketch.createFilter();
+	}
+
+	/**
+	 * Plans the ingestion of the input from a pre-pass over a sample of it, check {@link ExecutionPlanner}.
+	 *
+	 * @param source - the input source
+	 * @param sortBudget - the most bytes of heap the postings may take in the external mode
+	 * @return the plan, which is also set on the metrics
+	 */
+	private ExecutionPlan planExecution(InputSource source, long sortBudget) throws SQLException, IOException
+	{
+		String heapBudgetProperty = getProperty(HEAP_BUDGET_MB, "");
+		long heapBudget = heapBudgetProperty.isEmpty() ? Runtime.getRuntime().maxMemory() / 4 * 3 : Long.parseLong(heapBudgetProperty) << 20;
+		double sampleFraction = Double.parseDouble(getProperty(PLAN_SAMPLE_FRACTION, "0.1"));
+		log.info("Planning the ingestion within a heap budget of " + (heapBudget >> 20) + " MB from a sample of " + sampleFraction + " of the rows");
+
+		ExecutionPlanner planner = new ExecutionPlanner();
+		source.readSample(planner, sampleFraction);
+		ExecutionPlan plan = planner.plan(source.getTotalRowCount(), heapBudget, sortBudget);
+		metrics.setExecutionPlan(plan);
+		return plan;
+	}
+
+	/**
+	 * Clusters the whole table read over a single connection into a bigram index on the heap, the heap mode of the table.
+	 *
+	 * @param dao - the dao
+	 */
+	private void startProcess(InputTableDao dao) throws ClassNotFoundException, SQLException, IOException
+	{
+		log.debug("Calling createBiGramIndexFromTable ");
+		BiGramIndex index = dao.createBiGramIndexFromTable();
+
+		String snapshotFile = getProperty(SNAPSHOT_FILE, "");
+		if (snapshotFile.isEmpty() == false)
+			PostingSnapshot.write(index, dao.getDistinctIDCount(), new File(snapshotFile));
+
+		log.debug("Starting RapidCluster ");
+		ClusteringResult result = newRapidCore().performQuickClustering(index, dao.getDistinctIDCount(), 1);
+		publish(dao, result);
+	}
+
+	/**
+	 * Clusters the whole input held as a bigram index on the heap, the heap mode of a source other than the table.
+	 *
+	 * @param source - the input source
+	 */
+	private void startIndexProcess(InputSource source) throws SQLException, IOException
+	{
+		BiGramIndex index = new BiGramIndex((int) Math.min(source.getTotalRowCount(), 1 << 24));
+		int distinctIDCount = source.read(index);
+
+		log.debug("Starting RapidCluster ");
+		ClusteringResult result = newRapidCore().performQuickClustering(index, distinctIDCount, 1);
+		publish(source, result);
+	}
+
+	/**
+	 * Clusters the whole table while it is read, in ascending order of the ids, and writes the result back in batches, checkpointing
+	 * both on the way so that a run which dies resumes from the last checkpoint, check {@link RunCheckpoint}. Without a checkpoint
+	 * the run starts from the first row, with the checkpoint of the ingestion it resumes after the last id read and with the result
+	 * of the ingestion it only writes back the batches which were not committed yet.
+	 *
+	 * @param dao - the dao
+	 * @param checkpointDirectory - the directory the checkpoints are kept in
+	 */
+	private void startCheckpointedProcess(InputTableDao dao, File checkpointDirectory) throws SQLException, IOException
+	{
+		long biGramInterval = Long.parseLong(getProperty(CHECKPOINT_BIGRAMS, "10000000"));
+		double maxOverhead = Double.parseDouble(getProperty(CHECKPOINT_MAX_OVERHEAD, "0.05"));
+		RunCheckpoint checkpoint = new RunCheckpoint(checkpointDirectory, biGramInterval, maxOverhead, metrics);
+
+		ClusteringResult result = checkpoint.loadResult();
+		if (result == null)
+		{
+			StreamingClusterer clusterer = checkpoint.loadIngestion();
+			Long afterId = null;
+			if (clusterer == null)
+				clusterer = new StreamingClusterer((int) dao.getTotalRowCount());
+			else
+			{
+				// the column was prepared by the run which took the checkpoint, it only has to be there
+				afterId = checkpoint.getLastId();
+				dao.setKeepClusterIDColumn(true);
+			}
+			clusterer.setMetrics(metrics);
+			dao.readFrom(checkpoint.checkpointing(clusterer), afterId);
+
+			// the result is written back in the order it is loaded in, which is the same for a run and its resume
+			checkpoint.saveResult(clusterer.getResult());
+			result = checkpoint.loadResult();
+		}
+		exportResult(result);
+
+		long writeStart = System.nanoTime();
+		int writtenRows = dao.performBackUpdateToDatabase(result, checkpoint);
+		metrics.addPhaseNanos(Phase.WRITE_BACK, System.nanoTime() - writeStart);
+		metrics.addWriteBack(writtenRows, 0);
+		checkpoint.clear();
+	}
+
+	/**
+	 * Clusters the posting map saved by an earlier run once more, without going to the database. The result is only written to the resultFile.
+	 *
+	 * @param snapshotFile - the snapshot written by heap mode
+	 */
+	private void startReplayProcess(File snapshotFile) throws IOException
+	{
+		ClusteringResult result;
+		try (
+			PostingSnapshot snapshot = new PostingSnapshot(snapshotFile);)
+		{
+			log.info("Replaying " + snapshotFile + " :: " + snapshot.getBiGramCount() + " biGrams with " + snapshot.getPostingCount() + " postings");
+			result = newRapidCore().performQuickClustering(snapshot.cursor(), snapshot.getDistinctIDCount());
+		}
+		exportResult(result);
+	}
+
+	/**
+	 * Clusters the whole input while it is read, so that the clustering is done when the read is.
+	 *
+	 * @param source - the input source
+	 */
+	private void startStreamingProcess(InputSource source) throws SQLException, IOException
+	{
+		StreamingClusterer clusterer = new StreamingClusterer((int) source.getTotalRowCount());
+		clusterer.setMetrics(metrics);
+		source.read(clusterer);
+		ClusteringResult result = clusterer.getResult();
+		publish(source, result);
+	}
+
+	/**
+	 * Clusters the whole input by the similarity of the rows, hashing every row into the LSH buckets of its MinHash signature while it is read.
+	 *
+	 * @param source - the input source
+	 */
+	private void startMinHashProcess(InputSource source) throws SQLException, IOException
+	{
+		int bands = Integer.parseInt(getProperty(MINHASH_BANDS, "8"));
+		int rowsPerBand = Integer.parseInt(getProperty(MINHASH_ROWS_PER_BAND, "4"));
+		double jaccardThreshold = Double.parseDouble(getProperty(MINHASH_JACCARD_THRESHOLD, "0.5"));
+		int shingleSize = Integer.parseInt(getProperty(MINHASH_SHINGLE_SIZE, "1"));
+		int bucketCandidates = Integer.parseInt(getProperty(MINHASH_BUCKET_CANDIDATES, "8"));
+		log.info("Clustering by MinHash :: " + bands + " bands x " + rowsPerBand + " hashes, shingles of " + shingleSize + " bigrams, Jaccard threshold "
+			+ jaccardThreshold + ", " + bucketCandidates + " candidates per bucket");
+
+		MinHashClusterer clusterer = new MinHashClusterer((int) source.getTotalRowCount(), bands, rowsPerBand, jaccardThreshold, shingleSize, bucketCandidates);
+		clusterer.setMetrics(metrics);
+		source.read(clusterer);
+		ClusteringResult result = clusterer.getResult();
+		publish(source, result);
+	}
+
+	/**
+	 * Clusters one partition of the input, as a worker process of a partitioned run, and leaves its partial clustering in the partition
+	 * directory for the coordinator. The rows are clustered while they are read, as in the streaming mode.
+	 *
+	 * @param source - the input source
+	 * @param partition - the partition to read
+	 * @param partitionCount - the number of partitions of the run
+	 * @param partitionDirectory - the directory the partition snapshots of the run are exchanged in
+	 */
+	private void startPartitionWorkerProcess(InputSource source, int partition, int partitionCount, File partitionDirectory) throws SQLException, IOException
+	{
+		if (partitionDirectory.isDirectory() == false && partitionDirectory.mkdirs() == false)
+			throw new IOException("Could not create partition directory " + partitionDirectory);
+
+		source.setPartition(partition, partitionCount);
+		StreamingClusterer clusterer = new StreamingClusterer((int) source.getTotalRowCount());
+		clusterer.setMetrics(metrics);
+		source.read(clusterer);
+		clusterer.finish();
+
+		long writeStart = System.nanoTime();
+		PartitionSnapshot.write(clusterer, partition, partitionCount, PartitionSnapshot.getFile(partitionDirectory, partition));
+		metrics.addPhaseNanos(Phase.WRITE_BACK, System.nanoTime() - writeStart);
+	}
+
+	/**
+	 * Merges the partition snapshots of all the workers of a partitioned run into the global result and hands it on, as the coordinator.
+	 *
+	 * @param source - the input source the workers read, which the result is written back to if it is the table
+	 * @param partitionCount - the number of partitions of the run
+	 * @param partitionDirectory - the directory the partition snapshots of the run are exchanged in
+	 */
+	private void startPartitionCoordinatorProcess(InputSource source, int partitionCount, File partitionDirectory) throws SQLException, IOException
+	{
+		List<PartitionSnapshot> snapshots = new ArrayList<>();
+		ClusteringResult result;
+		try
+		{
+			long idCount = 0;
+			for (int partition = 0; partition < partitionCount; partition++)
+			{
+				File snapshotFile = PartitionSnapshot.getFile(partitionDirectory, partition);
+				if (snapshotFile.isFile() == false)
+					throw new IOException("Partition " + partition + " of " + partitionCount + " has not been written to " + snapshotFile);
+
+				PartitionSnapshot snapshot = new PartitionSnapshot(snapshotFile);
+				snapshots.add(snapshot);
+				if (snapshot.getPartition() != partition || snapshot.getPartitionCount() != partitionCount)
+					throw new IOException(snapshotFile + " holds partition " + snapshot.getPartition() + " of " + snapshot.getPartitionCount() + " instead of "
+						+ partition + " of " + partitionCount);
+				idCount += snapshot.getIDCount();
+			}
+			if (idCount > Integer.MAX_VALUE)
+				throw new IllegalStateException("The partitions hold " + idCount + " ids, more than a single clustering can take");
+
+			long mergeStart = System.nanoTime();
+			PartitionMerger merger = new PartitionMerger((int) idCount);
+			merger.setMetrics(metrics);
+			for (PartitionSnapshot snapshot : snapshots)
+				merger.addForest(snapshot.getKeys(), snapshot.getRoots());
+			merger.addBoundary(PartitionSnapshot.mergeBoundaries(snapshots));
+			metrics.addPhaseNanos(Phase.UNION, System.nanoTime() - mergeStart);
+
+			result = merger.getResult(Integer.parseInt(getProperty(WORKER_THREADS, "4")));
+		}
+		finally
+		{
+			for (PartitionSnapshot snapshot : snapshots)
+				snapshot.close();
+		}
+
+		// the workers of a partitioned run leave the cluster id column to the coordinator
+		if (source instanceof InputTableDao)
+			((InputTableDao) source).prepareClusterIDColumn();
+		publish(source, result);
+	}
+
+	/**
+	 * Runs the workers of a partitioned run as local processes, each a JVM of its own with the arguments and the class path of this one,
+	 * and waits for all of them. The output of every worker goes to a log file in the partition directory.
+	 *
+	 * @param partitionCount - the number of partitions, ie of worker processes
+	 * @param partitionDirectory - the directory the partition snapshots of the run are exchanged in
+	 */
+	private void launchPartitionWorkers(int partitionCount, File partitionDirectory) throws IOException
+	{
+		if (partitionDirectory.isDirectory() == false && partitionDirectory.mkdirs() == false)
+			throw new IOException("Could not create partition directory " + partitionDirectory);
+
+		String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		List<Process> workers = new ArrayList<>();
+		try
+		{
+			for (int partition = 0; partition < partitionCount; partition++)
+			{
+				// the snapshot of an earlier run must not be taken for the one of this run
+				File snapshotFile = PartitionSnapshot.getFile(partitionDirectory, partition);
+				if (snapshotFile.exists() && snapshotFile.delete() == false)
+					throw new IOException("Could not remove the snapshot of an earlier run " + snapshotFile);
+
+				List<String> command = new ArrayList<>();
+				command.add(java);
+				for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+				{
+					// a debugger or a remote JMX port can only be bound by one process
+					if (argument.startsWith("-agentlib:jdwp") == false && argument.startsWith("-Dcom.sun.management.jmxremote.port") == false)
+						command.add(argument);
+				}
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add("-D" + PARTITION_ROLE + "=worker");
+				command.add("-D" + PARTITION + "=" + partition);
+				command.add("-D" + PARTITION_COUNT + "=" + partitionCount);
+				command.add("-D" + PARTITION_DIRECTORY + "=" + partitionDirectory.getPath());
+				command.add(StandAloneClient.class.getName());
+
+				File logFile = new File(partitionDirectory, "worker-" + partition + ".log");
+				log.info("Starting the worker of partition " + partition + " of " + partitionCount + ", logging to " + logFile);
+				workers.add(new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(logFile).start());
+			}
+
+			List<Integer> failedPartitions = new ArrayList<>();
+			for (int partition = 0; partition < workers.size(); partition++)
+			{
+				if (workers.get(partition).waitFor() != 0)
+					failedPartitions.add(partition);
+			}
+			if (failedPartitions.isEmpty() == false)
+				throw new IOException("The workers of the partitions " + failedPartitions + " failed, check their logs in " + partitionDirectory);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the workers", e);
+		}
+		finally
+		{
+			for (Process worker : workers)
+				worker.destroy();
+		}
+	}
+
+	/**
+	 * Clusters the whole table read over readerThreads connections, with workerThreads generating the bigrams and clustering them.
+	 *
+	 * @param dao - the dao
+	 * @param readerThreads - the number of connections the table is read over
+	 * @param workerThreads - the number of bigram generating and clustering threads
+	 * @param fetchSize - the rows fetched per round trip by every connection
+	 */
+	private void startPartitionedProcess(InputTableDao dao, int readerThreads, int workerThreads, int fetchSize) throws ClassNotFoundException, SQLException, IOException
+	{
+		ShardedBiGramIndex index = dao.createBiGramIndexFromTable(readerThreads, workerThreads, fetchSize);
+
+		log.debug("Starting RapidCluster ");
+		ClusteringResult result = newRapidCore().performQuickClustering(index, dao.getDistinctIDCount(), workerThreads);
+		publish(dao, result);
+	}
+
+	/**
+	 * Clusters the whole input with its postings kept off the heap, in a memory mapped file which is removed once the clustering is done.
+	 *
+	 * @param source - the input source
+	 * @param spillDirectory - the directory the posting file is created in
+	 */
+	private void startMappedProcess(InputSource source, File spillDirectory) throws SQLException, IOException
+	{
+		if (spillDirectory.isDirectory() == false && spillDirectory.mkdirs() == false)
+			throw new IOException("Could not create spill directory " + spillDirectory);
+
+		ClusteringResult result;
+		try (
+			MappedPostingStore store = new MappedPostingStore(File.createTempFile("postings", ".bin", spillDirectory));)
+		{
+			int distinctIDCount = source.read(store);
+			log.info("Read " + distinctIDCount + " rows into " + store.getPostingCount() + " postings");
+
+			log.debug("Starting RapidCluster ");
+			result = newRapidCore().performQuickClustering(store.cursor(), distinctIDCount);
+		}
+		publish(source, result);
+	}
+
+	/**
+	 * Clusters the whole input with its postings sorted into runs on disk, so that no more than sortBudget bytes of them are held on the heap.
+	 *
+	 * @param source - the input source
+	 * @param spillDirectory - the directory the run files are written to
+	 * @param sortBudget - the bytes of heap the postings may take
+	 */
+	private void startExternalProcess(InputSource source, File spillDirectory, long sortBudget) throws SQLException, IOException
+	{
+		log.info("Sorting the postings with a budget of " + (sortBudget >> 20) + " MB");
+
+		ClusteringResult result;
+		try (
+			ExternalPostingSorter sorter = new ExternalPostingSorter(spillDirectory, sortBudget);)
+		{
+			int distinctIDCount = source.read(sorter);
+			log.info("Read " + distinctIDCount + " rows into " + sorter.getPostingCount() + " postings and " + sorter.getRunCount() + " runs");
+
+			log.debug("Starting RapidCluster ");
+			result = newRapidCore().performQuickClustering(sorter.cursor(), distinctIDCount);
+		}
+		publish(source, result);
+	}
+
+	/**
+	 * Clusters only the rows which changed since the previous run, merging them into its saved state and writing back
+	 * the clusters which changed. Without a saved state the whole table is read, as for the very first run.
+	 * With a writeBackBaseline the whole assignment is diffed against it instead, as after a full clustering.
+	 *
+	 * @param dao - the dao with its modifiedColumn set
+	 * @param stateDirectory - the directory the clustering state is kept in between runs
+	 */
+	private void startIncrementalProcess(InputTableDao dao, File stateDirectory) throws ClassNotFoundException, SQLException, IOException
+	{
+		ClusteringStateStore store = new ClusteringStateStore(stateDirectory);
+
+		// taken before reading, so that rows modified while this run reads are read again by the next one
+		Timestamp runStart = dao.getDatabaseTimestamp();
+
+		IncrementalClusterer clusterer;
+		Map<Object, Set<Long>> map;
+		boolean firstRun = store.exists() == false;
+
+		if (firstRun)
+		{
+			log.info("No clustering state found in " + stateDirectory + " .. clustering the whole table");
+			map = dao.createDataMapFromTable();
+			clusterer = new IncrementalClusterer(dao.getDistinctIDCount());
+		}
+		else
+		{
+			map = dao.createDeltaDataMapFromTable(store.getLastRunStart());
+			clusterer = store.load(dao.getDistinctIDCount());
+		}
+
+		clusterer.merge(map);
+
+		String writeBackBaseline = getProperty(WRITE_BACK_BASELINE, "");
+		if (writeBackBaseline.isEmpty())
+		{
+			ClusteringResult changedClusters = clusterer.getChangedClusters();
+			log.debug("Starting BackUpdate of changed ClusterIDs");
+			backUpdate(dao, changedClusters, firstRun);
+		}
+		else
+		{
+			log.debug("Starting BackUpdate of the ClusterIDs changed since the baseline");
+			backUpdateChanges(dao, clusterer.getClusters(), new File(writeBackBaseline));
+		}
+
+		store.save(clusterer, runStart);
+	}
+
+	/**
+	 * Hands the result of a full clustering on, to the resultFile and, when the input is the table, back to the table.
+	 * With a writeBackBaseline only the cluster ids which changed since the previous run are written back.
+	 *
+	 * @param source - the input source the result was clustered from
+	 * @param result - the result
+	 */
+	private void publish(InputSource source, ClusteringResult result) throws SQLException, IOException
+	{
+		exportResult(result);
+
+		if (source instanceof InputTableDao)
+		{
+			log.debug("Starting BackUpdate of ClusterIDs");
+			String writeBackBaseline = getProperty(WRITE_BACK_BASELINE, "");
+			if (writeBackBaseline.isEmpty())
+				backUpdate((InputTableDao) source, result, true);
+			else
+				backUpdateChanges((InputTableDao) source, result, new File(writeBackBaseline));
+		}
+	}
+
+	/**
+	 * Writes back only the ids whose canonical cluster id differs from the baseline, the assignment the table was last written back with,
+	 * clears the ids which are gone and then replaces the baseline with the result. Without a baseline, ie on the first run, the whole
+	 * result is written back.
+	 *
+	 * @param dao - the dao
+	 * @param result - all the clusters, of a full clustering or of the state of an incremental one
+	 * @param baselineFile - the baseline, a {@link ClusteringResultFile}
+	 */
+	private void backUpdateChanges(InputTableDao dao, ClusteringResult result, File baselineFile) throws SQLException, IOException
+	{
+		if (baselineFile.exists() == false)
+		{
+			log.info("No write back baseline " + baselineFile + " yet, writing back all the cluster ids");
+			backUpdate(dao, result, true);
+		}
+		else
+		{
+			long diffStart = System.nanoTime();
+			AssignmentDiff diff = AssignmentDiff.compute(result, baselineFile);
+			metrics.addPhaseNanos(Phase.WRITE_BACK, System.nanoTime() - diffStart);
+			metrics.addWriteBack(0, diff.getUnchangedCount());
+
+			// the column holds the cluster ids of the baseline, which a failure must not wipe
+			if (diff.getChanged().getIdCount() > 0 || diff.getClearedIds().length > 0)
+				backUpdate(dao, diff.getChanged(), diff.getClearedIds(), false);
+			else
+				log.info("No cluster id changed since the previous run, nothing to write back");
+		}
+
+		// only once the table has the result, so that the next run diffs against the old baseline again after a failed back update
+		long writeStart = System.nanoTime();
+		ClusteringResultFile.write(result, baselineFile);
+		metrics.addPhaseNanos(Phase.WRITE_BACK, System.nanoTime() - writeStart);
+	}
+
+	/**
+	 * Writes the result to the resultFile property, if one is set. The file can be looked up by {@link ClusteringResultFile} or served by
+	 * {@link ClusterLookupServer} without the database.
+	 *
+	 * @param result - the result of a full clustering
+	 */
+	private void exportResult(ClusteringResult result) throws IOException
+	{
+		String resultFile = getProperty(RESULT_FILE, "");
+		if (resultFile.isEmpty() == false)
+		{
+			long writeStart = System.nanoTime();
+			// the ids first, as a ClusterLookupServer loads them along as soon as the result file is replaced
+			File idFile = new File(resultFile + ".ids");
+			if (idEncoder.getType() != IdType.NUMERIC)
+				ClusteringResultFile.writeIds(result, idEncoder, idFile);
+			else if (idFile.delete())
+				log.info("Deleted " + idFile + " of an earlier run with ids which were not numeric");
+			ClusteringResultFile.write(result, new File(resultFile));
+			metrics.addPhaseNanos(Phase.WRITE_BACK, System.nanoTime() - writeStart);
+		}
+	}
+
+	/**
+	 * Writes the cluster ids back through the staging table, which falls back to the row-wise update on its own.
+	 *
+	 * @param dao - the dao
+	 * @param result - the clusters to write back
+	 * @param revertByRecreatingColumn - whether a failure drops and creates the cluster id column
+	 */
+	private void backUpdate(InputTableDao dao, ClusteringResult result, boolean revertByRecreatingColumn) throws SQLException
+	{
+		backUpdate(dao, result, new long[0], revertByRecreatingColumn);
+	}
+
+	/**
+	 * Writes the cluster ids back, check {@link #backUpdate(InputTableDao, ClusteringResult, boolean)}, and clears the ones of the clearedIds.
+	 */
+	private void backUpdate(InputTableDao dao, ClusteringResult result, long[] clearedIds, boolean revertByRecreatingColumn) throws SQLException
+	{
+		String stagingTable = getProperty(STAGING_TABLE, "");
+		if (stagingTable.isEmpty() == false)
+			dao.setStagingTableName(stagingTable);
+
+		long writeStart = System.nanoTime();
+		dao.performBackUpdateToDatabase(result, clearedIds, Integer.parseInt(getProperty(BACK_UPDATE_WRITERS, "4")), revertByRecreatingColumn);
+		metrics.addPhaseNanos(Phase.WRITE_BACK, System.nanoTime() - writeStart);
+		metrics.addWriteBack(result.getIdCount() + clearedIds.length, 0);
 	}
 }
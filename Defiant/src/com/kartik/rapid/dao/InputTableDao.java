@@ -1,20 +1,38 @@
 package com.kartik.rapid.dao;
 
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.CharBuffer;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import com.kartik.rapid.io.InputSource;
+import com.kartik.rapid.io.RunCheckpoint;
+import com.kartik.rapid.logic.BiGramIndex;
+import com.kartik.rapid.logic.BiGramSink;
+import com.kartik.rapid.logic.IdEncoder;
+import com.kartik.rapid.logic.IdType;
+import com.kartik.rapid.logic.NumericIdEncoder;
+import com.kartik.rapid.logic.ShardedBiGramIndex;
+import com.kartik.rapid.pojo.ClusteringResult;
 import com.kartik.rapid.utility.BiGramUtility;
+import com.kartik.rapid.utility.FingerprintBuffer;
+import com.kartik.rapid.utility.RunMetrics;
+import com.kartik.rapid.utility.StopBiGramFilter;
 
 
 /**
@@ -22,10 +40,12 @@ import com.kartik.rapid.utility.BiGramUtility;
  *
  * @author Kartik Iyer
  */
-public class InputTableDao
+public class InputTableDao implements InputSource
 {
 	static final Logger			log				= Logger.getLogger(InputTableDao.class);
 	private static final String	CLUSTERID_COLUMN_NAME	= "cluid";
+	private static final int	SAMPLE_SEED				= 17;
+	private static final int	BACK_UPDATE_BATCH_SIZE	= 5000;
 
 
 	private String				tableName;
@@ -33,10 +53,68 @@ public class InputTableDao
 	private String				columns;
 	private String				columnDelim;
 	private String				connectionString;
+	private String				modifiedColumn;
+	private String				stagingTableName;
 	private BiGramUtility		biGramGenerator;
 	private Integer			distinctIDCount;
+	private RunMetrics			metrics;
+	private int					partition;
+	private int					partitionCount	= 1;
+	private IdEncoder			idEncoder		= new NumericIdEncoder();
+	private boolean				keepClusterIDColumn;
 
 
+	@Override
+	public void setMetrics(RunMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets the stop bigrams, which are left out of every bigram map, index and sink the table is read into from now on.
+	 */
+	@Override
+	public void setStopBiGramFilter(StopBiGramFilter stopBiGramFilter)
+	{
+		biGramGenerator.setStopBiGramFilter(stopBiGramFilter);
+	}
+
+	/**
+	 * Sets the encoder of the idColumn, which every bigram map, index and sink the table is read into gets the codes of, and which the
+	 * back update binds the decoded ids with. Only numeric ids can be read over several connections, which split the idColumn into ranges.
+	 */
+	@Override
+	public void setIdEncoder(IdEncoder idEncoder)
+	{
+		this.idEncoder = idEncoder;
+	}
+
+	/**
+	 * Restricts the rows streamed into a sink, and the row count, to the rows whose idColumn hashes to the partition through ORA_HASH,
+	 * so that all the rows of an id end up in the same partition. The cluster id column is then left to the coordinator of the run,
+	 * check {@link #prepareClusterIDColumn()}.
+	 */
+	@Override
+	public void setPartition(int partition, int partitionCount)
+	{
+		if (partitionCount < 1 || partition < 0 || partition >= partitionCount)
+			throw new IllegalArgumentException("partition has to be from 0 to " + (partitionCount - 1) + " but was " + partition);
+
+		this.partition = partition;
+		this.partitionCount = partitionCount;
+	}
+
+	/**
+	 * Keeps the cluster ids of the previous run in the cluster id column while the table is read, instead of dropping and creating
+	 * the column, for a back update which only writes the ids whose cluster id changed. The column is still created if it is missing.
+	 *
+	 * @param keepClusterIDColumn - whether the cluster id column is kept
+	 */
+	public void setKeepClusterIDColumn(boolean keepClusterIDColumn)
+	{
+		this.keepClusterIDColumn = keepClusterIDColumn;
+	}
+
 	/**
 	 * Gets the distinct id count.
 	 *
@@ -48,6 +126,27 @@ public class InputTableDao
 		return distinctIDCount;
 	}
 
+	/**
+	 * Sets the column holding the last modification time of a row. Required only for reading the changed rows in an incremental run.
+	 *
+	 * @param modifiedColumn - the modified column
+	 */
+	public void setModifiedColumn(String modifiedColumn)
+	{
+		this.modifiedColumn = modifiedColumn;
+	}
+
+	/**
+	 * Sets the staging table the staged back update loads the cluster ids into. Defaults to the table name suffixed with _STG.
+	 * The table is created and dropped by every back update, so it must not be a table of any other use.
+	 *
+	 * @param stagingTableName - the staging table name
+	 */
+	public void setStagingTableName(String stagingTableName)
+	{
+		this.stagingTableName = stagingTableName;
+	}
+
 	/**
 	 * Instantiates a new input table dao.
 	 *
@@ -67,6 +166,7 @@ public class InputTableDao
 		this.columns = columns;
 		this.columnDelim = columnDelim;
 		this.connectionString = connectionString;
+		this.stagingTableName = tableName + "_STG";
 		biGramGenerator = new BiGramUtility(dataDelim, endnodeStr);
 	}
 
@@ -86,8 +186,6 @@ public class InputTableDao
 
 		Class.forName("oracle.jdbc.driver.OracleDriver");
 
-		Integer id = new Integer(0);
-		Set<Long> longSet;
 		Map<Object, Set<Long>> dataMap = new HashMap<Object, Set<Long>>();
 
 		log.info("Conn established");
@@ -95,7 +193,7 @@ public class InputTableDao
 		long totalRowCount = getTotalRowCount();
 
 		// Done to prevent data inconsistency which might happen due to data present from previous run.
-		dropAndCreateClusterIDColumn();
+		prepareClusterIDColumn();
 
 		try (
 			Connection conn = DriverManager.getConnection(connectionString);
@@ -106,52 +204,462 @@ public class InputTableDao
 			try (
 				ResultSet rs = stmt.executeQuery(selectQuery);)
 			{
+				distinctIDCount = siphonRows(rs, dataMap, totalRowCount);
+			}
+		}
 
-				int tableSiphonCounter = 0;
-				while (rs.next())
-				{
-					StringBuilder row = new StringBuilder();
+		return dataMap;
+	}
 
-					for (String columnLabel : columns.split(","))
-					{
-						row.append(rs.getString(columnLabel) + columnDelim);
-					}
-					row.deleteCharAt(row.length() - 1);
+	/**
+	 * Creates the bigram index from the input table. Reads the same rows and generates the same bigrams as {@link #createDataMapFromTable()},
+	 * but keys them by their 64 bit fingerprints in a {@link BiGramIndex}, so no bigram String, boxed id or HashSet is created per row.
+	 *
+	 * @return the bigram index
+	 * @throws SQLException the SQL exception
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	public BiGramIndex createBiGramIndexFromTable() throws SQLException, ClassNotFoundException
+	{
+		log.info("Initiating createBiGramIndexFromTable");
+
+		Class.forName("oracle.jdbc.driver.OracleDriver");
+
+		long totalRowCount = getTotalRowCount();
+		BiGramIndex index = new BiGramIndex((int) Math.min(totalRowCount, 1 << 24));
+		siphonTable(index, totalRowCount);
+
+		log.info("Read " + distinctIDCount + " rows into " + index.getBiGramCount() + " bigrams");
+		return index;
+	}
+
+	/**
+	 * Creates a sharded bigram index from the input table with a pipeline of threads, check {@link PartitionedTableReader}.
+	 * The idColumn range of the table is split into readerCount ranges, each read over a connection of its own with the fetchSize given,
+	 * while workerCount threads turn the rows into the same bigrams {@link #createBiGramIndexFromTable()} generates.
+	 *
+	 * @param readerCount - the number of connections the table is read over
+	 * @param workerCount - the number of bigram generating threads
+	 * @param fetchSize - the rows fetched per round trip by every connection
+	 * @return the sharded bigram index
+	 * @throws SQLException the SQL exception
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	public ShardedBiGramIndex createBiGramIndexFromTable(int readerCount, int workerCount, int fetchSize) throws SQLException, ClassNotFoundException
+	{
+		log.info("Initiating createBiGramIndexFromTable over " + readerCount + " connections and " + workerCount + " workers");
+		if (idEncoder.getType() != IdType.NUMERIC)
+			throw new IllegalStateException("The idColumn can only be split into ranges for numeric ids, not for ids of type " + idEncoder.getType());
+
+		Class.forName("oracle.jdbc.driver.OracleDriver");
+
+		long totalRowCount = getTotalRowCount();
+		ShardedBiGramIndex index = new ShardedBiGramIndex(workerCount * 4, (int) Math.min(totalRowCount, 1 << 24));
+
+		// Done to prevent data inconsistency which might happen due to data present from previous run.
+		prepareClusterIDColumn();
+
+		long minId;
+		long maxId;
+		String rangeQuery = "select min(" + idColumn + "), max(" + idColumn + ") from " + tableName;
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery(rangeQuery))
+		{
+			rs.next();
+			minId = rs.getLong(1);
+			maxId = rs.getLong(2);
+			if (rs.wasNull())
+			{
+				distinctIDCount = 0;
+				return index;
+			}
+		}
+
+		String selectQuery = "select " + idColumn + "," + columns + " from " + tableName + " where " + idColumn + " between ? and ?";
+		log.debug(selectQuery);
+		PartitionedTableReader reader = new PartitionedTableReader(this, connectionString, selectQuery, columns.split(",").length, readerCount, workerCount, fetchSize, metrics);
+		distinctIDCount = reader.read(index, minId, maxId, totalRowCount);
+
+		log.info("Read " + distinctIDCount + " rows into " + index.getBiGramCount() + " bigrams");
+		return index;
+	}
+
+	/**
+	 * Streams the input table into the sink, row after row, without building anything in between. Used to cluster the rows while they are
+	 * read, with a {@link com.kartik.rapid.logic.StreamingClusterer} sized by {@link #getTotalRowCount()}.
+	 *
+	 * @param sink - the sink every row with at least one bigram is handed to
+	 * @throws SQLException the SQL exception
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	public void streamTable(BiGramSink sink) throws SQLException, ClassNotFoundException
+	{
+		log.info("Initiating streamTable");
+
+		Class.forName("oracle.jdbc.driver.OracleDriver");
+
+		siphonTable(sink, -1);
+		log.info("Streamed " + distinctIDCount + " rows");
+	}
+
+	/**
+	 * Reads the input table into the sink, as the {@link InputSource} of the sink based ingestions.
+	 * The cluster id column is dropped and created again, ready for the back update of the result.
+	 */
+	@Override
+	public int read(BiGramSink sink) throws SQLException
+	{
+		try
+		{
+			streamTable(sink);
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new SQLException("The Oracle JDBC driver is not on the classpath", e);
+		}
+		return distinctIDCount;
+	}
+
+	/**
+	 * Reads the rows of the input table into the sink in ascending order of their ids, from the first id after afterId on, so that a run
+	 * checkpointed with the last id it read can resume there, check {@link com.kartik.rapid.io.RunCheckpoint}. The cluster id column is
+	 * prepared as for {@link #read(BiGramSink)}, which a resumed run has to keep with {@link #setKeepClusterIDColumn(boolean)}.
+	 *
+	 * @param sink - the sink every row with at least one bigram is handed to
+	 * @param afterId - the last id read before, null to read from the first row
+	 * @return the number of rows read which had at least one non null column
+	 * @throws SQLException the SQL exception
+	 */
+	public int readFrom(BiGramSink sink, Long afterId) throws SQLException
+	{
+		if (idEncoder.getType() != IdType.NUMERIC)
+			throw new IllegalStateException("The rows can only be read from an id on for numeric ids, not for ids of type " + idEncoder.getType());
+
+		try
+		{
+			Class.forName("oracle.jdbc.driver.OracleDriver");
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new SQLException("The Oracle JDBC driver is not on the classpath", e);
+		}
+
+		prepareClusterIDColumn();
+
+		String selectQuery = "select " + idColumn + "," + columns + " from " + tableName + (afterId == null ? "" : " where " + idColumn + " > ?")
+			+ " order by " + idColumn;
+		log.info("Reading the rows in the order of their ids" + (afterId == null ? "" : " after " + afterId) + " :: " + selectQuery);
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			PreparedStatement pstmt = conn.prepareStatement(selectQuery);)
+		{
+			if (afterId != null)
+				pstmt.setLong(1, afterId);
+			try (
+				ResultSet rs = pstmt.executeQuery();)
+			{
+				distinctIDCount = siphonRows(rs, sink, -1);
+			}
+		}
+		log.info("Read " + distinctIDCount + " rows");
+		return distinctIDCount;
+	}
+
+	/**
+	 * Reads a sample of the input table through the SAMPLE clause of Oracle, which picks every row with a probability of sampleFraction.
+	 * Neither the cluster id column nor the distinctIDCount are touched.
+	 */
+	@Override
+	public int readSample(BiGramSink sink, double sampleFraction) throws SQLException
+	{
+		if (sampleFraction <= 0 || sampleFraction > 1)
+			throw new IllegalArgumentException("sampleFraction has to be above 0 and at most 1 but was " + sampleFraction);
+
+		try
+		{
+			Class.forName("oracle.jdbc.driver.OracleDriver");
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new SQLException("The Oracle JDBC driver is not on the classpath", e);
+		}
+
+		// seeded, so that the workers of a partitioned run all sample the same rows
+		String selectQuery = "select " + idColumn + "," + columns + " from " + tableName;
+		if (sampleFraction < 1)
+			selectQuery += " sample(" + BigDecimal.valueOf(sampleFraction * 100).toPlainString() + ") seed(" + SAMPLE_SEED + ")";
+		log.info("Reading a sample of " + sampleFraction + " of the rows :: " + selectQuery);
+
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery(selectQuery);)
+		{
+			return siphonRows(rs, sink, -1);
+		}
+	}
+
+	/**
+	 * Reads the whole input table into the sink and sets the distinctIDCount.
+	 */
+	private void siphonTable(BiGramSink sink, long totalRowCount) throws SQLException
+	{
+		// Done to prevent data inconsistency which might happen due to data present from previous run.
+		if (partitionCount == 1)
+			prepareClusterIDColumn();
+
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			Statement stmt = conn.createStatement();)
+		{
+			String selectQuery = "select " + idColumn + "," + columns + " from " + tableName + getPartitionClause();
+			log.debug(selectQuery);
+			try (
+				ResultSet rs = stmt.executeQuery(selectQuery);)
+			{
+				distinctIDCount = siphonRows(rs, sink, totalRowCount);
+			}
+		}
+	}
+
+	/**
+	 * Creates the data map from only those rows of the input table whose modifiedColumn is at or after modifiedSince.
+	 * Unlike {@link #createDataMapFromTable()} the cluster id column is left as it is, since the rows which did not change keep their cluster ids.
+	 *
+	 * @param modifiedSince - rows modified at or after this instant are read
+	 * @return the map of the changed rows
+	 * @throws SQLException the SQL exception
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	public Map<Object, Set<Long>> createDeltaDataMapFromTable(Timestamp modifiedSince) throws SQLException, ClassNotFoundException
+	{
+		if (modifiedColumn == null || modifiedColumn.isEmpty())
+			throw new IllegalStateException("modifiedColumn has to be set for reading the changed rows of " + tableName);
+
+		log.info("Initiating createDeltaDataMapFromTable for rows modified since " + modifiedSince);
+
+		Class.forName("oracle.jdbc.driver.OracleDriver");
+
+		Map<Object, Set<Long>> dataMap = new HashMap<Object, Set<Long>>();
+
+		String selectQuery = "select " + idColumn + "," + columns + " from " + tableName + " where " + modifiedColumn + " >= ?";
+		log.debug(selectQuery);
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			PreparedStatement pstmt = conn.prepareStatement(selectQuery);)
+		{
+			pstmt.setTimestamp(1, modifiedSince);
+			try (
+				ResultSet rs = pstmt.executeQuery();)
+			{
+				distinctIDCount = siphonRows(rs, dataMap, -1);
+			}
+		}
+
+		log.info("Read " + distinctIDCount + " changed rows into " + dataMap.size() + " bigrams");
+		return dataMap;
+	}
 
-					boolean generateID = false;
+	/**
+	 * Gets the current timestamp of the database. Used as the start of an incremental run, so that the next one can pick up
+	 * all the rows modified from there on without depending on the clock of this machine.
+	 *
+	 * @return the database timestamp
+	 * @throws SQLException the SQL exception
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	public Timestamp getDatabaseTimestamp() throws SQLException, ClassNotFoundException
+	{
+		Class.forName("oracle.jdbc.driver.OracleDriver");
+
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery("select current_timestamp from dual"))
+		{
+			rs.next();
+			return rs.getTimestamp(1);
+		}
+	}
+
+	/**
+	 * Reads all the rows of the result set into the dataMap, bigram by bigram.
+	 * Package private, so that the benchmarks can drive it with a synthetic result set.
+	 *
+	 * @param rs - the result set with the idColumn followed by the description columns
+	 * @param dataMap - the map the bigrams and their ids are added to
+	 * @param totalRowCount - the total row count, used for logging only. -1 if unknown.
+	 * @return the number of rows which had at least one non null column
+	 * @throws SQLException the SQL exception
+	 */
+	int siphonRows(ResultSet rs, Map<Object, Set<Long>> dataMap, long totalRowCount) throws SQLException
+	{
+		int id = 0;
+		Set<Long> longSet;
+
+		int tableSiphonCounter = 0;
+		long readStart = System.nanoTime();
+		long generationNanos = 0;
+		while (rs.next())
+		{
+			StringBuilder row = new StringBuilder();
+
+			for (String columnLabel : columns.split(","))
+			{
+				row.append(rs.getString(columnLabel) + columnDelim);
+			}
+			row.deleteCharAt(row.length() - 1);
+
+			boolean generateID = false;
 
-					for (String columnData : row.toString().split("\\" + columnDelim))
+			for (String columnData : row.toString().split("\\" + columnDelim))
+			{
+				if (columnData.equalsIgnoreCase("null") == false)
+				{
+					generateID = true;
+					long generationStart = System.nanoTime();
+					List<String> biGrams = biGramGenerator.generateBiGram(columnData);
+					generationNanos += System.nanoTime() - generationStart;
+					for (String biGram : biGrams)
 					{
-						if (columnData.equalsIgnoreCase("null") == false)
-						{
-							generateID = true;
-							for (String biGram : biGramGenerator.generateBiGram(columnData))
-							{
-								if (dataMap.containsKey(biGram))
-									longSet = dataMap.get(biGram);
-								else
-									longSet = new HashSet<Long>();
-
-								longSet.add(Long.parseLong(rs.getString(idColumn)));
-								dataMap.put(biGram, longSet);
-							}
-						}
-					}
+						if (biGramGenerator.isStopBiGram(biGram))
+							continue;
 
-					// finished processing current row .. going for next one
-					if (generateID == true)
-						id++;
+						if (dataMap.containsKey(biGram))
+							longSet = dataMap.get(biGram);
+						else
+							longSet = new HashSet<Long>();
 
-					// counter used for logging purposes.
-					tableSiphonCounter++;
-					if (tableSiphonCounter % 10000 == 0)
-						log.info("Reading row --> " + tableSiphonCounter + " :: Total Rows " + totalRowCount);
+						longSet.add(idEncoder.encode(rs.getString(1)));
+						dataMap.put(biGram, longSet);
+					}
 				}
 			}
+
+			// finished processing current row .. going for next one
+			if (generateID == true)
+				id++;
+
+			// counter used for logging purposes.
+			tableSiphonCounter++;
+			if (tableSiphonCounter % 10000 == 0)
+			{
+				log.info("Reading row --> " + tableSiphonCounter + " :: Total Rows " + totalRowCount);
+				readStart = addRead(readStart, generationNanos, 10000);
+				generationNanos = 0;
+			}
 		}
+		addRead(readStart, generationNanos, tableSiphonCounter % 10000);
+		return id;
+	}
 
-		distinctIDCount = id;
-		return dataMap;
+
+	/**
+	 * Reads all the rows of the result set into the sink, one row at a time.
+	 * The description columns are read by position and a value holding the columnDelim is tokenized on it, so the bigrams match the
+	 * ones {@link #siphonRows(ResultSet, Map, long)} generates from the joined row. Null values, as well as the literal "null", are skipped.
+	 *
+	 * @param rs - the result set with the idColumn followed by the description columns
+	 * @param sink - the sink every row with at least one bigram is handed to
+	 * @param totalRowCount - the total row count, used for logging only. -1 if unknown.
+	 * @return the number of rows which had at least one non null column
+	 * @throws SQLException the SQL exception
+	 */
+	int siphonRows(ResultSet rs, BiGramSink sink, long totalRowCount) throws SQLException
+	{
+		int columnCount = columns.split(",").length;
+		FingerprintBuffer rowFingerprints = new FingerprintBuffer();
+		int id = 0;
+
+		int tableSiphonCounter = 0;
+		long readStart = System.nanoTime();
+		long generationNanos = 0;
+		while (rs.next())
+		{
+			rowFingerprints.clear();
+			boolean generateID = false;
+
+			long generationStart = System.nanoTime();
+			for (int column = 2; column <= columnCount + 1; column++)
+				generateID |= addColumnData(rs.getString(column), rowFingerprints);
+			generationNanos += System.nanoTime() - generationStart;
+
+			// finished processing current row .. going for next one
+			if (generateID == true)
+			{
+				id++;
+				if (rowFingerprints.size() > 0)
+					sink.accept(idEncoder.encode(rs.getString(1)), rowFingerprints.getFingerprints(), rowFingerprints.size());
+			}
+
+			// counter used for logging purposes.
+			tableSiphonCounter++;
+			if (tableSiphonCounter % 10000 == 0)
+			{
+				log.info("Reading row --> " + tableSiphonCounter + " :: Total Rows " + totalRowCount);
+				readStart = addRead(readStart, generationNanos, 10000);
+				generationNanos = 0;
+			}
+		}
+		addRead(readStart, generationNanos, tableSiphonCounter % 10000);
+		return id;
+	}
+
+	/**
+	 * Adds the reading since readStart to the metrics, if any.
+	 *
+	 * @return the time the next stretch of reading starts at
+	 */
+	private long addRead(long readStart, long generationNanos, long rows)
+	{
+		if (metrics == null)
+			return readStart;
+
+		long readEnd = System.nanoTime();
+		metrics.addRead(readEnd - readStart, generationNanos, rows);
+		return readEnd;
+	}
+
+	/**
+	 * Adds the bigram fingerprints of one column value to the fingerprints of its row. A value holding the columnDelim is tokenized on it,
+	 * every part counting as a column of its own. Shared by the worker threads of a {@link PartitionedTableReader}, hence it must not touch any state.
+	 *
+	 * @param columnData - the column value, may be null
+	 * @param rowFingerprints - the fingerprints of the row
+	 * @return true if the value held anything but null
+	 */
+	boolean addColumnData(String columnData, FingerprintBuffer rowFingerprints)
+	{
+		if (columnData == null)
+			return false;
+
+		int end = columnData.indexOf(columnDelim);
+		if (end == -1)
+			return addColumnPart(columnData, rowFingerprints);
+
+		// rare case of the delimiter inside the data, every part counts as a column of its own
+		boolean hasData = false;
+		int start = 0;
+		while (start <= columnData.length())
+		{
+			if (end == -1)
+				end = columnData.length();
+			hasData |= addColumnPart(CharBuffer.wrap(columnData, start, end), rowFingerprints);
+			start = end + columnDelim.length();
+			end = columnData.indexOf(columnDelim, start);
+		}
+		return hasData;
+	}
+
+	private boolean addColumnPart(CharSequence columnData, FingerprintBuffer rowFingerprints)
+	{
+		if (columnData.length() == 4 && columnData.toString().equalsIgnoreCase("null"))
+			return false;
+
+		biGramGenerator.generateBiGramFingerprints(columnData, rowFingerprints);
+		return true;
 	}
 
 
@@ -163,6 +671,28 @@ public class InputTableDao
 	 * @throws SQLException the SQL exception
 	 */
 	public void performBackUpdateToDatabase(Map<Integer, Set<Long>> clusterSet) throws SQLException
+	{
+		performBackUpdateToDatabase(clusterSet, true);
+	}
+
+	/**
+	 * Performs back update of ClusterIDs wrt the ParentIDs in the database.
+	 * An incremental run only updates the rows of the clusters which changed, hence on a failure it must not wipe the cluster ids
+	 * of all the other rows. It just rolls back its own updates instead of dropping and creating the cluster id column.
+	 *
+	 * @param clusterSet the cluster set
+	 * @param revertByRecreatingColumn - whether a failure drops and creates the cluster id column
+	 * @throws SQLException the SQL exception
+	 */
+	public void performBackUpdateToDatabase(Map<Integer, Set<Long>> clusterSet, boolean revertByRecreatingColumn) throws SQLException
+	{
+		performBackUpdateToDatabase(clusterSet, new long[0], revertByRecreatingColumn);
+	}
+
+	/**
+	 * Performs back update of ClusterIDs wrt the ParentIDs in the database, and clears the ClusterIDs of the clearedIds in the same transaction.
+	 */
+	private void performBackUpdateToDatabase(Map<? extends Number, Set<Long>> clusterSet, long[] clearedIds, boolean revertByRecreatingColumn) throws SQLException
 	{
 
 		long totalRowCount = getTotalRowCount();
@@ -179,17 +709,17 @@ public class InputTableDao
 			{
 				int batchCounter = 0;
 
-				for (Integer cluID : clusterSet.keySet())
+				for (Number cluID : clusterSet.keySet())
 				{
 					for (Long i : clusterSet.get(cluID))
 					{
 						Long primaryKey = i;
 						pstmt.setString(1, cluID.toString());
-						pstmt.setLong(2, primaryKey);
+						StagedBackUpdater.setId(pstmt, 2, idEncoder, primaryKey);
 						pstmt.addBatch();
 						batchCounter++;
 
-						if (batchCounter % 5000 == 0)
+						if (batchCounter % BACK_UPDATE_BATCH_SIZE == 0)
 						{
 							pstmt.executeBatch();
 							log.info("Executed batches --> " + batchCounter + " :: Total rows --> " + totalRowCount);
@@ -197,18 +727,136 @@ public class InputTableDao
 					}
 				}
 
+				for (long clearedId : clearedIds)
+				{
+					pstmt.setNull(1, Types.VARCHAR);
+					StagedBackUpdater.setId(pstmt, 2, idEncoder, clearedId);
+					pstmt.addBatch();
+					batchCounter++;
+
+					if (batchCounter % BACK_UPDATE_BATCH_SIZE == 0)
+					{
+						pstmt.executeBatch();
+						log.info("Executed batches --> " + batchCounter + " :: Total rows --> " + totalRowCount);
+					}
+				}
+
 				pstmt.executeBatch();
 			}
+			catch (SQLException e)
+			{
+				connAutoCommitOff.rollback();
+				throw e;
+			}
 			connAutoCommitOff.commit();
 		}
 		catch (SQLException e)
 		{
+			if (revertByRecreatingColumn == false)
+			{
+				log.error("Batch Backupdate of clusterID failed. The updates of this run were rolled back, the cluster ids of the previous run are left as they are", e);
+				throw new SQLException("Batch Backupdate of clusterID failed", e);
+			}
+
 			log.error("Batch Backupdate of clusterID failed. Hence reverting the run by dropping and then creating the column "+CLUSTERID_COLUMN_NAME,e);
 			dropAndCreateClusterIDColumn();
 			throw new SQLException("Batch Backupdate of clusterID failed",e);
 		}
 	}
 
+	/**
+	 * Performs back update of ClusterIDs wrt the ParentIDs in the database through a staging table, check {@link StagedBackUpdater}.
+	 * The ids and their cluster ids are bulk loaded over writerCount connections and then applied by a single MERGE. If the staging
+	 * path fails, eg as the user may not create tables, the input table is left untouched by it and the row-wise update is run instead,
+	 * with its usual handling of a failure.
+	 *
+	 * @param result the clustering result
+	 * @param writerCount - the number of connections the staging table is loaded over
+	 * @param revertByRecreatingColumn - whether a failure of the row-wise update drops and creates the cluster id column
+	 * @throws SQLException the SQL exception
+	 */
+	public void performBackUpdateToDatabase(ClusteringResult result, int writerCount, boolean revertByRecreatingColumn) throws SQLException
+	{
+		performBackUpdateToDatabase(result, new long[0], writerCount, revertByRecreatingColumn);
+	}
+
+	/**
+	 * Performs the staged back update of ClusterIDs, check {@link #performBackUpdateToDatabase(ClusteringResult, int, boolean)}, and clears
+	 * the ClusterIDs of the clearedIds along, eg the ids of an {@link com.kartik.rapid.io.AssignmentDiff} which are gone from the result.
+	 *
+	 * @param result the clustering result
+	 * @param clearedIds - the ids whose cluster id is set to null
+	 * @param writerCount - the number of connections the staging table is loaded over
+	 * @param revertByRecreatingColumn - whether a failure of the row-wise update drops and creates the cluster id column
+	 * @throws SQLException the SQL exception
+	 */
+	public void performBackUpdateToDatabase(ClusteringResult result, long[] clearedIds, int writerCount, boolean revertByRecreatingColumn) throws SQLException
+	{
+		log.info("Starting staged backupdating of " + (result.getIdCount() + clearedIds.length) + " rows through " + stagingTableName);
+		try
+		{
+			new StagedBackUpdater(connectionString, tableName, idColumn, CLUSTERID_COLUMN_NAME, stagingTableName, writerCount, idEncoder).backUpdate(result, clearedIds);
+			return;
+		}
+		catch (SQLException e)
+		{
+			log.warn("Staged backupdate of clusterID failed, falling back to the row-wise backupdate", e);
+		}
+
+		performBackUpdateToDatabase(result.getClusterMembers(), clearedIds, revertByRecreatingColumn);
+	}
+
+	/**
+	 * Performs the row-wise back update of ClusterIDs in ascending order of the ids, committing every batch and saving the number of rows
+	 * committed to the checkpoint, so that a run which died in the middle of it resumes after the last batch committed. Hence a failure
+	 * neither rolls back the batches committed before nor drops the cluster id column.
+	 *
+	 * @param result - the clustering result, with its ids in ascending order as loaded by {@link RunCheckpoint#loadResult()}
+	 * @param checkpoint - the checkpoint of the run
+	 * @return the number of rows written back by this run, ie without the ones committed before
+	 * @throws SQLException the SQL exception
+	 * @throws IOException Signals that the checkpoint could not be saved.
+	 */
+	public int performBackUpdateToDatabase(ClusteringResult result, RunCheckpoint checkpoint) throws SQLException, IOException
+	{
+		int idCount = result.getIdCount();
+		int committedRowCount = checkpoint.getCommittedRowCount(result);
+		log.info("Starting checkpointed backupdating of " + (idCount - committedRowCount) + " of " + idCount + " rows");
+		try (
+			Connection connAutoCommitOff = DriverManager.getConnection(connectionString);)
+		{
+			connAutoCommitOff.setAutoCommit(false);
+			String backUpdateSql = "update " + tableName + " set " + CLUSTERID_COLUMN_NAME + "=? where " + idColumn + "=?";
+			log.debug(backUpdateSql);
+
+			try (
+				PreparedStatement pstmt = connAutoCommitOff.prepareStatement(backUpdateSql);)
+			{
+				for (int index = committedRowCount; index < idCount; index++)
+				{
+					pstmt.setString(1, Long.toString(result.getClusterId(result.getClusterOf(index))));
+					StagedBackUpdater.setId(pstmt, 2, idEncoder, result.getId(index));
+					pstmt.addBatch();
+
+					if ((index + 1) % BACK_UPDATE_BATCH_SIZE == 0 || index + 1 == idCount)
+					{
+						pstmt.executeBatch();
+						connAutoCommitOff.commit();
+						checkpoint.saveCommittedRows(index + 1, result.getId(index));
+						log.info("Committed batches --> " + (index + 1) + " :: Total rows --> " + idCount);
+					}
+				}
+			}
+			catch (SQLException e)
+			{
+				connAutoCommitOff.rollback();
+				log.error("Checkpointed backupdate of clusterID failed. The batches committed before are kept, the run resumes after them", e);
+				throw e;
+			}
+		}
+		return idCount - committedRowCount;
+	}
+
 	/**
 	 * Drops and then creates the cluster id column.
 	 *
@@ -233,15 +881,43 @@ public class InputTableDao
 				log.warn(e.toString());
 			}
 
-			try
-			{
-				log.debug("Creating column " + CLUSTERID_COLUMN_NAME + " if it does not exists");
-				stmt.execute("Alter table " + tableName + " add " + CLUSTERID_COLUMN_NAME + " varchar(50)");
-			}
-			catch (Exception e)
-			{
-				log.warn(e.toString());
-			}
+			addClusterIDColumn(stmt);
+		}
+	}
+
+	/**
+	 * Drops and creates the cluster id column, or with {@link #setKeepClusterIDColumn(boolean)} only creates it if it is missing.
+	 * Public for the coordinator of a partitioned run, whose workers leave the column alone.
+	 *
+	 * @throws SQLException the SQL exception
+	 */
+	public void prepareClusterIDColumn() throws SQLException
+	{
+		if (keepClusterIDColumn == false)
+		{
+			dropAndCreateClusterIDColumn();
+			return;
+		}
+
+		log.info("Keeping column " + CLUSTERID_COLUMN_NAME + " with the cluster ids of the previous run");
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			Statement stmt = conn.createStatement();)
+		{
+			addClusterIDColumn(stmt);
+		}
+	}
+
+	private void addClusterIDColumn(Statement stmt)
+	{
+		try
+		{
+			log.debug("Creating column " + CLUSTERID_COLUMN_NAME + " if it does not exists");
+			stmt.execute("Alter table " + tableName + " add " + CLUSTERID_COLUMN_NAME + " varchar(50)");
+		}
+		catch (Exception e)
+		{
+			log.warn(e.toString());
 		}
 	}
 
@@ -252,11 +928,12 @@ public class InputTableDao
 	 * @return the total row count
 	 * @throws SQLException the SQL exception
 	 */
-	private long getTotalRowCount() throws SQLException
+	@Override
+	public long getTotalRowCount() throws SQLException
 	{
 		long totalRowCount;
 
-		String totalRowCountQuery = "select count(" + idColumn + ") from " + tableName;
+		String totalRowCountQuery = "select count(" + idColumn + ") from " + tableName + getPartitionClause();
 		try (
 			Connection conn = DriverManager.getConnection(connectionString);
 			Statement stmt = conn.createStatement();
@@ -270,4 +947,15 @@ public class InputTableDao
 		return totalRowCount;
 	}
 
+	/**
+	 * Gets the where clause selecting the rows of the partition, ORA_HASH spreading the ids over the buckets 0 to partitionCount - 1.
+	 */
+	private String getPartitionClause()
+	{
+		if (partitionCount == 1)
+			return "";
+
+		return " where ora_hash(" + idColumn + ", " + (partitionCount - 1) + ") = " + partition;
+	}
+
 }
@@ -0,0 +1,285 @@
+package com.kartik.rapid.dao;
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.ShardedBiGramIndex;
+import com.kartik.rapid.utility.FingerprintBuffer;
+import com.kartik.rapid.utility.RunMetrics;
+import com.kartik.rapid.utility.RunMetrics.Phase;
+
+
+/**
+ * The Class PartitionedTableReader.
+ * Reads the input table as a pipeline. Reader threads each select one range of the idColumn over a connection of their own, with a
+ * large fetch size, and hand the raw rows in batches to a bounded queue. Worker threads take the batches, generate the bigram fingerprints
+ * and write them into a {@link ShardedBiGramIndex}. The queue keeps the readers from running ahead of the workers by more than a few batches.
+ *
+ * The first failure of any thread stops all the others and is rethrown to the caller.
+ */
+class PartitionedTableReader
+{
+	static final Logger				log				= Logger.getLogger(PartitionedTableReader.class);
+
+	private static final int		BATCH_SIZE		= 1024;
+	private static final RowBatch	END_OF_ROWS		= new RowBatch(0, 0);
+
+	private final InputTableDao		dao;
+	private final String			connectionString;
+	private final String			rangeQuery;
+	private final int				columnCount;
+	private final int				readerCount;
+	private final int				workerCount;
+	private final int				fetchSize;
+
+	private final RunMetrics		metrics;
+
+	private final AtomicLong		rowsRead		= new AtomicLong();
+
+	/**
+	 * Instantiates a new partitioned table reader.
+	 *
+	 * @param dao - the dao whose columns the rows are turned into bigrams with
+	 * @param connectionString - the connection string, every reader opens a connection of its own
+	 * @param rangeQuery - the select of the idColumn followed by the description columns, with 2 parameters for the lowest and the highest id of a range
+	 * @param columnCount - the number of description columns
+	 * @param readerCount - the number of reader threads, ie of id ranges
+	 * @param workerCount - the number of bigram generating threads
+	 * @param fetchSize - the fetch size of every reader
+	 * @param metrics - the metrics the readers add their scan time to and the workers their bigram generation time, may be null
+	 */
+	PartitionedTableReader(InputTableDao dao, String connectionString, String rangeQuery, int columnCount, int readerCount, int workerCount, int fetchSize,
+		RunMetrics metrics)
+	{
+		super();
+		if (readerCount < 1 || workerCount < 1)
+			throw new IllegalArgumentException("readerCount and workerCount have to be at least 1 but were " + readerCount + " and " + workerCount);
+
+		this.dao = dao;
+		this.connectionString = connectionString;
+		this.rangeQuery = rangeQuery;
+		this.columnCount = columnCount;
+		this.readerCount = readerCount;
+		this.workerCount = workerCount;
+		this.fetchSize = fetchSize;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Reads all the rows with an id from minId to maxId into the index.
+	 *
+	 * @param index - the index
+	 * @param minId - the lowest id of the table
+	 * @param maxId - the highest id of the table
+	 * @param totalRowCount - the total row count, used for logging only
+	 * @return the number of rows which had at least one non null column
+	 * @throws SQLException the SQL exception
+	 */
+	int read(final ShardedBiGramIndex index, long minId, long maxId, final long totalRowCount) throws SQLException
+	{
+		final BlockingQueue<RowBatch> queue = new ArrayBlockingQueue<>(workerCount * 4);
+		final AtomicInteger runningReaders = new AtomicInteger(readerCount);
+
+		ExecutorService pool = Executors.newFixedThreadPool(readerCount + workerCount);
+		CompletionService<Integer> completion = new ExecutorCompletionService<>(pool);
+
+		long span = (maxId - minId) / readerCount + 1;
+		for (int reader = 0; reader < readerCount; reader++)
+		{
+			final long fromId = minId + reader * span;
+			final long toId = reader == readerCount - 1 ? maxId : fromId + span - 1;
+			completion.submit(new Callable<Integer>()
+			{
+				@Override
+				public Integer call() throws Exception
+				{
+					int rows = readRange(fromId, toId, queue, totalRowCount);
+
+					// the last reader to finish tells every worker that no more rows are coming
+					if (runningReaders.decrementAndGet() == 0)
+					{
+						for (int worker = 0; worker < workerCount; worker++)
+							queue.put(END_OF_ROWS);
+					}
+					return rows;
+				}
+			});
+		}
+
+		List<Future<Integer>> workers = new ArrayList<>(workerCount);
+		for (int worker = 0; worker < workerCount; worker++)
+		{
+			workers.add(completion.submit(new Callable<Integer>()
+			{
+				@Override
+				public Integer call() throws Exception
+				{
+					return generateBiGrams(queue, index.newWriter());
+				}
+			}));
+		}
+
+		int rowsWithData = 0;
+		try
+		{
+			// taken in the order the threads finish, so that a failure is seen right away whichever thread it happens in
+			for (int task = 0; task < readerCount + workerCount; task++)
+			{
+				Future<Integer> done = completion.take();
+				int rows = done.get();
+				if (workers.contains(done))
+					rowsWithData += rows;
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while reading the table", e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof SQLException)
+				throw (SQLException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException("Reading the table failed", e.getCause());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		log.info("Read " + rowsRead.get() + " rows over " + readerCount + " connections into " + index.getBiGramCount() + " bigrams");
+		return rowsWithData;
+	}
+
+	/**
+	 * Read all the rows of one id range into batches on the queue.
+	 */
+	private int readRange(long fromId, long toId, BlockingQueue<RowBatch> queue, long totalRowCount) throws SQLException, InterruptedException
+	{
+		int rows = 0;
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			PreparedStatement pstmt = conn.prepareStatement(rangeQuery);)
+		{
+			pstmt.setFetchSize(fetchSize);
+			pstmt.setLong(1, fromId);
+			pstmt.setLong(2, toId);
+
+			try (
+				ResultSet rs = pstmt.executeQuery();)
+			{
+				RowBatch batch = new RowBatch(BATCH_SIZE, columnCount);
+				long fetchStart = System.nanoTime();
+				while (rs.next())
+				{
+					batch.ids[batch.size] = Long.parseLong(rs.getString(1));
+					for (int column = 0; column < columnCount; column++)
+						batch.values[batch.size * columnCount + column] = rs.getString(column + 2);
+					batch.size++;
+					rows++;
+
+					if (batch.size == BATCH_SIZE)
+					{
+						// the time blocked on a full queue is the workers' and not the scan's
+						if (metrics != null)
+							metrics.addPhaseNanos(Phase.SCAN, System.nanoTime() - fetchStart);
+						queue.put(batch);
+						fetchStart = System.nanoTime();
+						batch = new RowBatch(BATCH_SIZE, columnCount);
+
+						// counter used for logging purposes.
+						long totalRowsRead = rowsRead.addAndGet(BATCH_SIZE);
+						if (totalRowsRead % (BATCH_SIZE * 100) == 0)
+							log.info("Reading row --> " + totalRowsRead + " :: Total Rows " + totalRowCount);
+					}
+				}
+
+				if (metrics != null)
+					metrics.addPhaseNanos(Phase.SCAN, System.nanoTime() - fetchStart);
+				if (batch.size > 0)
+				{
+					queue.put(batch);
+					rowsRead.addAndGet(batch.size);
+				}
+			}
+		}
+
+		log.debug("Read " + rows + " rows with ids from " + fromId + " to " + toId);
+		return rows;
+	}
+
+	/**
+	 * Turns the batches of the queue into bigram postings till the end of the rows is met.
+	 */
+	private int generateBiGrams(BlockingQueue<RowBatch> queue, ShardedBiGramIndex.Writer writer) throws InterruptedException
+	{
+		FingerprintBuffer rowFingerprints = new FingerprintBuffer();
+		int rowsWithData = 0;
+
+		for (RowBatch batch = queue.take(); batch != END_OF_ROWS; batch = queue.take())
+		{
+			long generationStart = System.nanoTime();
+			for (int row = 0; row < batch.size; row++)
+			{
+				rowFingerprints.clear();
+				boolean generateID = false;
+
+				for (int column = 0; column < columnCount; column++)
+					generateID |= dao.addColumnData(batch.values[row * columnCount + column], rowFingerprints);
+
+				if (generateID == true)
+				{
+					rowsWithData++;
+					if (rowFingerprints.size() > 0)
+						writer.accept(batch.ids[row], rowFingerprints.getFingerprints(), rowFingerprints.size());
+				}
+			}
+
+			if (metrics != null)
+			{
+				metrics.addPhaseNanos(Phase.BIGRAM_GENERATION, System.nanoTime() - generationStart);
+				metrics.addRows(batch.size);
+			}
+		}
+
+		writer.flush();
+		return rowsWithData;
+	}
+
+	/**
+	 * The raw ids and column values of up to BATCH_SIZE rows, row after row.
+	 */
+	private static class RowBatch
+	{
+		final long[]	ids;
+		final String[]	values;
+		int				size;
+
+		RowBatch(int capacity, int columnCount)
+		{
+			ids = new long[capacity];
+			values = new String[capacity * columnCount];
+		}
+	}
+}
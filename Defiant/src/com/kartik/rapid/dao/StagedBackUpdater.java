@@ -0,0 +1,292 @@
+package com.kartik.rapid.dao;
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.IdEncoder;
+import com.kartik.rapid.pojo.ClusteringResult;
+
+
+/**
+ * The Class StagedBackUpdater.
+ * Writes the cluster ids back in 2 steps instead of one update per row. First the (id, cluster id) pairs are bulk loaded into a staging table,
+ * split over several connections which insert their share in large batches, the id bound as the type of the idColumn, check {@link IdEncoder}.
+ * Then a single set based MERGE copies the cluster ids of all the staged ids into the input table, within one transaction which is rolled back as a whole on failure.
+ * Ids to be cleared are staged with a null cluster id, which the MERGE copies like any other. The staging table is dropped again in any case.
+ */
+class StagedBackUpdater
+{
+	static final Logger			log			= Logger.getLogger(StagedBackUpdater.class);
+
+	private static final int	BATCH_SIZE	= 10000;
+
+	private final String		connectionString;
+	private final String		tableName;
+	private final String		idColumn;
+	private final String		clusterIdColumn;
+	private final String		stagingTableName;
+	private final int			writerCount;
+	private final IdEncoder		idEncoder;
+
+	private final AtomicLong	rowsStaged	= new AtomicLong();
+
+	/**
+	 * Instantiates a new staged back updater.
+	 *
+	 * @param connectionString - the connection string, every writer opens a connection of its own
+	 * @param tableName - the input table
+	 * @param idColumn - the id column of the input table
+	 * @param clusterIdColumn - the cluster id column of the input table
+	 * @param stagingTableName - the staging table, created and dropped by the updater
+	 * @param writerCount - the number of connections the staging table is loaded over
+	 * @param idEncoder - the encoder the ids of the result were encoded with
+	 */
+	StagedBackUpdater(String connectionString, String tableName, String idColumn, String clusterIdColumn, String stagingTableName, int writerCount, IdEncoder idEncoder)
+	{
+		super();
+		if (writerCount < 1)
+			throw new IllegalArgumentException("writerCount has to be at least 1 but was " + writerCount);
+
+		this.connectionString = connectionString;
+		this.tableName = tableName;
+		this.idColumn = idColumn;
+		this.clusterIdColumn = clusterIdColumn;
+		this.stagingTableName = stagingTableName;
+		this.writerCount = writerCount;
+		this.idEncoder = idEncoder;
+	}
+
+	/**
+	 * Binds the id of a code to a parameter, as the type of the idColumn, so the database does not have to convert the column to compare it.
+	 *
+	 * @param pstmt the statement
+	 * @param parameterIndex the index of the parameter
+	 * @param idEncoder the encoder the code was handed out by
+	 * @param code the code of the id
+	 * @throws SQLException the SQL exception
+	 */
+	static void setId(PreparedStatement pstmt, int parameterIndex, IdEncoder idEncoder, long code) throws SQLException
+	{
+		switch (idEncoder.getType())
+		{
+			case STRING:
+				pstmt.setString(parameterIndex, (String) idEncoder.decode(code));
+				break;
+			case UUID:
+				pstmt.setBytes(parameterIndex, (byte[]) idEncoder.decode(code));
+				break;
+			default:
+				pstmt.setLong(parameterIndex, code);
+		}
+	}
+
+	/**
+	 * Writes the cluster id of every id of the result back to the input table, and clears the cluster id of the clearedIds.
+	 *
+	 * @param result - the clustering result
+	 * @param clearedIds - the ids whose cluster id is set to null
+	 * @return the number of rows the MERGE updated
+	 * @throws SQLException the SQL exception, in which case the input table is left as it was
+	 */
+	int backUpdate(ClusteringResult result, long[] clearedIds) throws SQLException
+	{
+		createStagingTable();
+		try
+		{
+			stage(result, clearedIds);
+			return merge();
+		}
+		finally
+		{
+			dropStagingTable();
+		}
+	}
+
+	private void createStagingTable() throws SQLException
+	{
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			Statement stmt = conn.createStatement();)
+		{
+			try
+			{
+				// left over by a run which died before it could clean up
+				stmt.execute("drop table " + stagingTableName);
+				log.warn("Dropped the stale staging table " + stagingTableName);
+			}
+			catch (SQLException e)
+			{
+				log.debug("No staging table " + stagingTableName + " to drop :: " + e);
+			}
+
+			log.info("Creating staging table " + stagingTableName);
+			stmt.execute("create table " + stagingTableName + " (id " + getIdSqlType() + " not null, cluid numeric(19))");
+		}
+	}
+
+	/**
+	 * Loads the result and the cleared ids into the staging table, every writer taking an equal and contiguous share of both,
+	 * the cleared ids following the ids of the result.
+	 */
+	private void stage(final ClusteringResult result, final long[] clearedIds) throws SQLException
+	{
+		final int idCount = result.getIdCount() + clearedIds.length;
+		log.info("Staging " + idCount + " cluster ids, " + clearedIds.length + " of them cleared, over " + writerCount + " connections");
+
+		ExecutorService pool = Executors.newFixedThreadPool(writerCount);
+		List<Future<Integer>> writers = new ArrayList<>(writerCount);
+		for (int writer = 0; writer < writerCount; writer++)
+		{
+			final int from = (int) ((long) idCount * writer / writerCount);
+			final int to = (int) ((long) idCount * (writer + 1) / writerCount);
+			writers.add(pool.submit(new Callable<Integer>()
+			{
+				@Override
+				public Integer call() throws SQLException
+				{
+					return stageRange(result, clearedIds, from, to);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		// every writer is waited for, even after a failure, so that the staging table is not dropped under a running insert
+		SQLException failure = null;
+		for (Future<Integer> writer : writers)
+		{
+			try
+			{
+				writer.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while staging the cluster ids", e);
+			}
+			catch (ExecutionException e)
+			{
+				if (failure == null)
+					failure = e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException("Staging the cluster ids failed", e.getCause());
+			}
+		}
+
+		if (failure != null)
+			throw failure;
+	}
+
+	private int stageRange(ClusteringResult result, long[] clearedIds, int from, int to) throws SQLException
+	{
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);)
+		{
+			conn.setAutoCommit(false);
+			try (
+				PreparedStatement pstmt = conn.prepareStatement("insert into " + stagingTableName + " (id, cluid) values (?, ?)");)
+			{
+				int resultIdCount = result.getIdCount();
+				for (int index = from; index < to; index++)
+				{
+					if (index < resultIdCount)
+					{
+						setId(pstmt, 1, idEncoder, result.getId(index));
+						pstmt.setLong(2, result.getClusterId(result.getClusterOf(index)));
+					}
+					else
+					{
+						setId(pstmt, 1, idEncoder, clearedIds[index - resultIdCount]);
+						pstmt.setNull(2, Types.NUMERIC);
+					}
+					pstmt.addBatch();
+
+					if ((index - from + 1) % BATCH_SIZE == 0)
+					{
+						pstmt.executeBatch();
+
+						// counter used for logging purposes.
+						long staged = rowsStaged.addAndGet(BATCH_SIZE);
+						if (staged % (BATCH_SIZE * 50) == 0)
+							log.info("Staged rows --> " + staged + " :: Total rows --> " + (resultIdCount + clearedIds.length));
+					}
+				}
+				pstmt.executeBatch();
+			}
+			catch (SQLException e)
+			{
+				conn.rollback();
+				throw e;
+			}
+			conn.commit();
+		}
+		return to - from;
+	}
+
+	private int merge() throws SQLException
+	{
+		String mergeSql = "merge into " + tableName + " t using " + stagingTableName + " s on (t." + idColumn + " = s.id)"
+			+ " when matched then update set t." + clusterIdColumn + " = s.cluid";
+		log.debug(mergeSql);
+
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);)
+		{
+			conn.setAutoCommit(false);
+			int updated;
+			try (
+				Statement stmt = conn.createStatement();)
+			{
+				updated = stmt.executeUpdate(mergeSql);
+			}
+			catch (SQLException e)
+			{
+				conn.rollback();
+				throw e;
+			}
+			conn.commit();
+
+			log.info("Merged the cluster ids of " + updated + " rows into " + tableName);
+			return updated;
+		}
+	}
+
+	private String getIdSqlType()
+	{
+		switch (idEncoder.getType())
+		{
+			case STRING:
+				return "varchar2(4000)";
+			case UUID:
+				return "raw(16)";
+			default:
+				return "numeric(19)";
+		}
+	}
+
+	private void dropStagingTable()
+	{
+		try (
+			Connection conn = DriverManager.getConnection(connectionString);
+			Statement stmt = conn.createStatement();)
+		{
+			stmt.execute("drop table " + stagingTableName);
+		}
+		catch (SQLException e)
+		{
+			log.warn("Could not drop the staging table " + stagingTableName + " :: " + e);
+		}
+	}
+}
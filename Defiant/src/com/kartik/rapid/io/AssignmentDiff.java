@@ -0,0 +1,169 @@
+package com.kartik.rapid.io;
+
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.pojo.ClusteringResult;
+import com.kartik.rapid.utility.LongIntHashMap;
+
+
+/**
+ * The Class AssignmentDiff.
+ * The difference between the result of a run and the assignment the table was last written back with, kept as a {@link ClusteringResultFile}.
+ * Only the ids whose clusterID changed, or which are new, have to be written back, and the ids which are gone from the result have to be
+ * cleared. With canonical clusterIDs a cluster which did not change keeps its clusterID, so on a table which changes a little between
+ * runs the diff is a small fraction of it.
+ *
+ * Both sides are sorted by id and walked side by side, so computing the diff costs 2 sorts and the ids of both in memory.
+ */
+public class AssignmentDiff
+{
+	static final Logger				log	= Logger.getLogger(AssignmentDiff.class);
+
+	private final ClusteringResult	changed;
+	private final long[]			clearedIds;
+	private final int				unchangedCount;
+
+	private AssignmentDiff(ClusteringResult changed, long[] clearedIds, int unchangedCount)
+	{
+		super();
+		this.changed = changed;
+		this.clearedIds = clearedIds;
+		this.unchangedCount = unchangedCount;
+	}
+
+	/**
+	 * Computes the diff of a result against the assignment written back before.
+	 *
+	 * @param result - the result of the run
+	 * @param baselineFile - the assignment written back before, written by {@link ClusteringResultFile#write(ClusteringResult, File)}
+	 * @return the diff
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static AssignmentDiff compute(ClusteringResult result, File baselineFile) throws IOException
+	{
+		int idCount = result.getIdCount();
+		long[] ids = new long[idCount];
+		long[] clusterIds = new long[idCount];
+		for (int index = 0; index < idCount; index++)
+		{
+			ids[index] = result.getId(index);
+			clusterIds[index] = result.getClusterId(result.getClusterOf(index));
+		}
+		ClusteringResultFile.sort(ids, clusterIds, 0, idCount - 1);
+
+		long[] baselineIds;
+		long[] baselineClusterIds;
+		try (
+			ClusteringResultFile baseline = new ClusteringResultFile(baselineFile);)
+		{
+			baselineIds = new long[baseline.getIdCount()];
+			baselineClusterIds = new long[baseline.getIdCount()];
+			baseline.readAll(baselineIds, baselineClusterIds);
+		}
+
+		// the changed ids are moved to the front of ids, the cleared ones to the front of baselineIds
+		int changedCount = 0;
+		int clearedCount = 0;
+		int index = 0;
+		int baselineIndex = 0;
+		while (index < idCount || baselineIndex < baselineIds.length)
+		{
+			if (baselineIndex == baselineIds.length || (index < idCount && ids[index] < baselineIds[baselineIndex]))
+			{
+				ids[changedCount] = ids[index];
+				clusterIds[changedCount++] = clusterIds[index++];
+			}
+			else if (index == idCount || baselineIds[baselineIndex] < ids[index])
+			{
+				baselineIds[clearedCount++] = baselineIds[baselineIndex++];
+			}
+			else
+			{
+				if (clusterIds[index] != baselineClusterIds[baselineIndex])
+				{
+					ids[changedCount] = ids[index];
+					clusterIds[changedCount++] = clusterIds[index];
+				}
+				index++;
+				baselineIndex++;
+			}
+		}
+
+		long[] clearedIds = new long[clearedCount];
+		System.arraycopy(baselineIds, 0, clearedIds, 0, clearedCount);
+
+		AssignmentDiff diff = new AssignmentDiff(group(ids, clusterIds, changedCount), clearedIds, idCount - changedCount);
+		log.info("Diffed " + idCount + " ids against the " + baselineIds.length + " of " + baselineFile + " :: " + changedCount + " changed, "
+			+ clearedCount + " cleared, " + diff.unchangedCount + " unchanged");
+		return diff;
+	}
+
+	/**
+	 * Groups the first count ids by their clusterIDs into a result, which keeps the ids in the order given.
+	 */
+	static ClusteringResult group(long[] ids, long[] clusterIds, int count)
+	{
+		LongIntHashMap clusterIndex = new LongIntHashMap(Math.max(16, count / 4));
+		int[] assignment = new int[count];
+		int clusterCount = 0;
+		for (int index = 0; index < count; index++)
+		{
+			int cluster = clusterIndex.putIfAbsent(clusterIds[index], clusterCount);
+			assignment[index] = cluster == LongIntHashMap.NO_VALUE ? clusterCount++ : cluster;
+		}
+
+		int[] offsets = new int[clusterCount + 1];
+		long[] clusterIdOf = new long[clusterCount];
+		for (int index = 0; index < count; index++)
+		{
+			offsets[assignment[index] + 1]++;
+			clusterIdOf[assignment[index]] = clusterIds[index];
+		}
+		for (int cluster = 0; cluster < clusterCount; cluster++)
+			offsets[cluster + 1] += offsets[cluster];
+
+		int[] cursors = new int[clusterCount];
+		System.arraycopy(offsets, 0, cursors, 0, clusterCount);
+		long[] memberIds = new long[count];
+		for (int index = 0; index < count; index++)
+			memberIds[cursors[assignment[index]]++] = ids[index];
+
+		long[] changedIds = new long[count];
+		System.arraycopy(ids, 0, changedIds, 0, count);
+		return new ClusteringResult(changedIds, assignment, memberIds, offsets, clusterIdOf);
+	}
+
+	/**
+	 * Gets the ids to be written back, those which are new or whose clusterID changed, grouped by their clusterIDs.
+	 *
+	 * @return the changed ids
+	 */
+	public ClusteringResult getChanged()
+	{
+		return changed;
+	}
+
+	/**
+	 * Gets the ids of the assignment written back before which are not in the result any more, whose clusterID is to be cleared.
+	 *
+	 * @return the cleared ids
+	 */
+	public long[] getClearedIds()
+	{
+		return clearedIds;
+	}
+
+	/**
+	 * Gets the number of ids of the result whose clusterID is written back already.
+	 *
+	 * @return the unchanged count
+	 */
+	public int getUnchangedCount()
+	{
+		return unchangedCount;
+	}
+}
@@ -0,0 +1,278 @@
+package com.kartik.rapid.io;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.StringIdEncoder;
+import com.kartik.rapid.utility.LongIntHashMap;
+
+
+/**
+ * The Class ClusterLookupSnapshot.
+ * A {@link ClusteringResultFile}, and the resultFile.ids next to it if there is one, loaded onto the heap in the form which answers
+ * both the id to cluster and the cluster to members questions without touching the file again.
+ *
+ * ids - all the ids in ascending order, an id is found by binary search and known by its index from then on
+ * clusterOf - the cluster of every index, clusters are numbered 0 .. clusterCount-1 in the order of their smallest id
+ * offsets & members - the indexes of the members of cluster c, ascending, are members[offsets[c]] .. members[offsets[c+1]-1]
+ * clusterIds - the clusterID of every cluster, clusterIndex maps them back
+ * texts - the original ids of a file whose ids are codes, the code of every text being the index of its id
+ *
+ * A snapshot is never changed after it is loaded, so it can be read by any number of threads at once and a newer one can take its
+ * place at any time.
+ */
+public class ClusterLookupSnapshot
+{
+	static final Logger				log			= Logger.getLogger(ClusterLookupSnapshot.class);
+
+	/** Returned for an id or a clusterID which is not in the snapshot. */
+	public static final int			NOT_FOUND	= -1;
+
+	private final File				resultFile;
+	private final long				loadedAt;
+	private final long[]			ids;
+	private final int[]				clusterOf;
+	private final int[]				offsets;
+	private final int[]				members;
+	private final long[]			clusterIds;
+	private final LongIntHashMap	clusterIndex;
+	private final StringIdEncoder	texts;
+
+	private ClusterLookupSnapshot(File resultFile, long[] ids, int[] clusterOf, int[] offsets, int[] members, long[] clusterIds,
+		LongIntHashMap clusterIndex, StringIdEncoder texts)
+	{
+		super();
+		this.resultFile = resultFile;
+		this.loadedAt = System.currentTimeMillis();
+		this.ids = ids;
+		this.clusterOf = clusterOf;
+		this.offsets = offsets;
+		this.members = members;
+		this.clusterIds = clusterIds;
+		this.clusterIndex = clusterIndex;
+		this.texts = texts;
+	}
+
+	/**
+	 * Loads a result file, together with its original ids when the file resultFile.ids exists.
+	 *
+	 * @param resultFile - the file written by {@link ClusteringResultFile#write(com.kartik.rapid.pojo.ClusteringResult, File)}
+	 * @return the snapshot
+	 * @throws IOException Signals that an I/O exception has occurred, or that the files do not belong together.
+	 */
+	public static ClusterLookupSnapshot load(File resultFile) throws IOException
+	{
+		long loadStart = System.currentTimeMillis();
+
+		long[] ids;
+		long[] fileClusterIds;
+		int[] sizes;
+		try (
+			ClusteringResultFile file = new ClusteringResultFile(resultFile);)
+		{
+			ids = new long[file.getIdCount()];
+			fileClusterIds = new long[file.getIdCount()];
+			sizes = new int[file.getClusterCount()];
+			file.readAll(ids, fileClusterIds);
+		}
+
+		// the clusters are numbered in the order of their smallest id, counting their members on the way
+		LongIntHashMap clusterIndex = new LongIntHashMap(sizes.length);
+		int[] clusterOf = new int[ids.length];
+		int clusterCount = 0;
+		for (int index = 0; index < ids.length; index++)
+		{
+			int cluster = clusterIndex.putIfAbsent(fileClusterIds[index], clusterCount);
+			if (cluster == LongIntHashMap.NO_VALUE)
+			{
+				if (clusterCount == sizes.length)
+					throw new IOException(resultFile + " has more clusters than the " + sizes.length + " of its header");
+				cluster = clusterCount++;
+			}
+			clusterOf[index] = cluster;
+			sizes[cluster]++;
+		}
+
+		int[] offsets = new int[clusterCount + 1];
+		long[] clusterIds = new long[clusterCount];
+		for (int cluster = 0; cluster < clusterCount; cluster++)
+			offsets[cluster + 1] = offsets[cluster] + sizes[cluster];
+
+		int[] members = new int[ids.length];
+		int[] next = Arrays.copyOf(offsets, clusterCount);
+		for (int index = 0; index < ids.length; index++)
+		{
+			members[next[clusterOf[index]]++] = index;
+			clusterIds[clusterOf[index]] = fileClusterIds[index];
+		}
+
+		File idFile = new File(resultFile.getPath() + ".ids");
+		StringIdEncoder texts = idFile.exists() ? readTexts(idFile, ids) : null;
+
+		log.info("Loaded " + ids.length + " ids of " + clusterCount + " clusters from " + resultFile + (texts == null ? "" : " and " + idFile)
+			+ " :: " + (System.currentTimeMillis() - loadStart) + " ms");
+		return new ClusterLookupSnapshot(resultFile, ids, clusterOf, offsets, members, clusterIds, clusterIndex, texts);
+	}
+
+	/**
+	 * Reads the original ids, one code and its id per line, into a dictionary which gives every id the index of its code as code.
+	 */
+	private static StringIdEncoder readTexts(File idFile, long[] ids) throws IOException
+	{
+		String[] textOfIndex = new String[ids.length];
+		try (
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(idFile), "UTF-8"), 1 << 20);)
+		{
+			String line;
+			int lineNumber = 0;
+			while ((line = in.readLine()) != null)
+			{
+				lineNumber++;
+				int tab = line.indexOf('\t');
+				int index = tab < 0 ? -1 : Arrays.binarySearch(ids, Long.parseLong(line.substring(0, tab)));
+				if (index < 0 || textOfIndex[index] != null)
+					throw new IOException("Line " + lineNumber + " of " + idFile + " does not belong to the result file next to it");
+				textOfIndex[index] = line.substring(tab + 1);
+			}
+			if (lineNumber != ids.length)
+				throw new IOException(idFile + " has " + lineNumber + " ids for the " + ids.length + " codes of the result file next to it");
+		}
+
+		StringIdEncoder texts = new StringIdEncoder(ids.length);
+		for (int index = 0; index < ids.length; index++)
+		{
+			if (texts.encode(textOfIndex[index]) != index)
+				throw new IOException("The id " + textOfIndex[index] + " is listed for 2 codes in " + idFile);
+		}
+		return texts;
+	}
+
+	/**
+	 * Finds an id, given as the text of its original id or, without resultFile.ids, as a number.
+	 *
+	 * @param id the id
+	 * @return the index of the id, or {@link #NOT_FOUND}
+	 */
+	public int indexOf(String id)
+	{
+		if (texts != null)
+			return (int) texts.find(id);
+
+		long numericId;
+		try
+		{
+			numericId = Long.parseLong(id.trim());
+		}
+		catch (NumberFormatException e)
+		{
+			return NOT_FOUND;
+		}
+		int index = Arrays.binarySearch(ids, numericId);
+		return index < 0 ? NOT_FOUND : index;
+	}
+
+	/**
+	 * Gets the original id of an index, the text of a non numeric id or else the number.
+	 *
+	 * @param index the index
+	 * @return the id
+	 */
+	public String getId(int index)
+	{
+		return texts != null ? texts.toString(index) : Long.toString(ids[index]);
+	}
+
+	/**
+	 * Checks if the ids are numbers rather than texts.
+	 *
+	 * @return true, if the ids are numeric
+	 */
+	public boolean isNumeric()
+	{
+		return texts == null;
+	}
+
+	/**
+	 * Gets the cluster of an index.
+	 *
+	 * @param index the index
+	 * @return the cluster, from 0 to {@link #getClusterCount()} - 1
+	 */
+	public int getClusterOf(int index)
+	{
+		return clusterOf[index];
+	}
+
+	/**
+	 * Finds the cluster of a clusterID.
+	 *
+	 * @param clusterId the clusterID
+	 * @return the cluster, or {@link #NOT_FOUND}
+	 */
+	public int findCluster(long clusterId)
+	{
+		int cluster = clusterIndex.get(clusterId);
+		return cluster == LongIntHashMap.NO_VALUE ? NOT_FOUND : cluster;
+	}
+
+	/**
+	 * Gets the clusterID of a cluster.
+	 *
+	 * @param cluster the cluster
+	 * @return the clusterID
+	 */
+	public long getClusterId(int cluster)
+	{
+		return clusterIds[cluster];
+	}
+
+	/**
+	 * Gets the number of members of a cluster.
+	 *
+	 * @param cluster the cluster
+	 * @return the size
+	 */
+	public int getClusterSize(int cluster)
+	{
+		return offsets[cluster + 1] - offsets[cluster];
+	}
+
+	/**
+	 * Gets the index of a member of a cluster. The members are in ascending order of their ids, ie of their codes for text ids.
+	 *
+	 * @param cluster the cluster
+	 * @param member the member, from 0 to {@link #getClusterSize(int)} - 1
+	 * @return the index of the member
+	 */
+	public int getMember(int cluster, int member)
+	{
+		return members[offsets[cluster] + member];
+	}
+
+	public int getIdCount()
+	{
+		return ids.length;
+	}
+
+	public int getClusterCount()
+	{
+		return clusterIds.length;
+	}
+
+	public File getResultFile()
+	{
+		return resultFile;
+	}
+
+	public long getLoadedAt()
+	{
+		return loadedAt;
+	}
+}
@@ -0,0 +1,412 @@
+package com.kartik.rapid.io;
+
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.IdEncoder;
+import com.kartik.rapid.pojo.ClusteringResult;
+
+
+/**
+ * The Class ClusteringResultFile.
+ * A compact binary export of a {@link ClusteringResult}, and the reader answering id to clusterID lookups straight from the mapped file.
+ *
+ * header - magic, version, idCount, clusterCount, blockSize, blockCount and the offsets of the 3 sections below
+ * id column - the ids in ascending order, in blocks of blockSize. The first id of a block is kept in the block index,
+ * every following one as the varint of its difference to the previous one
+ * cluster column - the clusterID of every id, in the order of the id column, 8 bytes each
+ * block index - the first id and the byte offset within the id column of every block
+ *
+ * A lookup binary searches the block index and decodes at most one block, so opening a file costs nothing but the mapping
+ * and the OS pages in only the parts which are looked at. All the sections start at a multiple of 8 bytes.
+ * A file is written next to its place first and then moved in place, so a reader never opens a half written one.
+ *
+ * The ids of the file are the long ids of the clustering, ie the codes of an {@link IdEncoder} for ids which are not numeric.
+ * Their original ids are written next to it by {@link #writeIds(ClusteringResult, IdEncoder, File)}.
+ */
+public class ClusteringResultFile implements Closeable
+{
+	static final Logger				log					= Logger.getLogger(ClusteringResultFile.class);
+
+	/** Returned by {@link #getClusterId(long)} for an id which is not in the file. */
+	public static final long		NO_CLUSTER			= Long.MIN_VALUE;
+
+	private static final int		MAGIC				= 0x52435231;
+	private static final int		VERSION				= 2;
+	private static final int		HEADER_BYTES		= 48;
+	private static final int		BLOCK_SIZE			= 128;
+	private static final int		WRITE_BUFFER_SIZE	= 1 << 20;
+	private static final int		CHUNK_BITS			= 30;
+	private static final long		CHUNK_MASK			= (1L << CHUNK_BITS) - 1;
+
+	private final RandomAccessFile	file;
+	private final MappedByteBuffer[]	chunks;
+	private final int				idCount;
+	private final int				clusterCount;
+	private final int				blockSize;
+	private final int				blockCount;
+	private final long				idColumnOffset;
+	private final long				clusterColumnOffset;
+	private final long				blockIndexOffset;
+
+	/**
+	 * Opens a result file for lookups.
+	 *
+	 * @param resultFile - the file written by {@link #write(ClusteringResult, File)}
+	 * @throws IOException Signals that an I/O exception has occurred, or that the file is not a result file.
+	 */
+	public ClusteringResultFile(File resultFile) throws IOException
+	{
+		super();
+		file = new RandomAccessFile(resultFile, "r");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			long length = channel.size();
+			if (length < HEADER_BYTES)
+				throw new IOException(resultFile + " is not a clustering result file");
+
+			// mapped in chunks of 1 GB, as a single MappedByteBuffer can not hold more than 2 GB. Aligned reads never straddle 2 chunks.
+			chunks = new MappedByteBuffer[(int) ((length + CHUNK_MASK) >>> CHUNK_BITS)];
+			for (int chunk = 0; chunk < chunks.length; chunk++)
+			{
+				long position = (long) chunk << CHUNK_BITS;
+				chunks[chunk] = channel.map(MapMode.READ_ONLY, position, Math.min(CHUNK_MASK + 1, length - position));
+			}
+
+			if (getInt(0) != MAGIC || getInt(4) != VERSION)
+				throw new IOException(resultFile + " is not a clustering result file of version " + VERSION);
+
+			idCount = getInt(8);
+			clusterCount = getInt(12);
+			blockSize = getInt(16);
+			blockCount = getInt(20);
+			idColumnOffset = getLong(24);
+			clusterColumnOffset = getLong(32);
+			blockIndexOffset = getLong(40);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the result to a file, through a FileChannel and a direct buffer.
+	 *
+	 * @param result - the result
+	 * @param resultFile - the file, an existing one is replaced
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void write(ClusteringResult result, File resultFile) throws IOException
+	{
+		int idCount = result.getIdCount();
+		long[] ids = new long[idCount];
+		long[] clusterIds = new long[idCount];
+		for (int index = 0; index < idCount; index++)
+		{
+			ids[index] = result.getId(index);
+			clusterIds[index] = result.getClusterId(result.getClusterOf(index));
+		}
+		sort(ids, clusterIds, 0, idCount - 1);
+
+		int blockCount = (idCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		long[] blockOffsets = new long[blockCount];
+
+		File temporaryFile = new File(resultFile.getPath() + ".tmp");
+		try (
+			RandomAccessFile out = new RandomAccessFile(temporaryFile, "rw");)
+		{
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+			channel.position(HEADER_BYTES);
+			long idColumnOffset = HEADER_BYTES;
+			long idColumnLength = 0;
+			for (int index = 0; index < idCount; index++)
+			{
+				if (buffer.remaining() < 10)
+					idColumnLength += flush(buffer, channel);
+
+				if (index % BLOCK_SIZE == 0)
+					blockOffsets[index / BLOCK_SIZE] = idColumnLength + buffer.position();
+				else
+					putVarint(buffer, ids[index] - ids[index - 1]);
+			}
+			idColumnLength += flush(buffer, channel);
+
+			long clusterColumnOffset = align(idColumnOffset + idColumnLength);
+			channel.position(clusterColumnOffset);
+			for (int index = 0; index < idCount; index++)
+			{
+				if (buffer.remaining() < 8)
+					flush(buffer, channel);
+				buffer.putLong(clusterIds[index]);
+			}
+			flush(buffer, channel);
+
+			long blockIndexOffset = clusterColumnOffset + 8L * idCount;
+			channel.position(blockIndexOffset);
+			for (int block = 0; block < blockCount; block++)
+			{
+				if (buffer.remaining() < 16)
+					flush(buffer, channel);
+				buffer.putLong(ids[block * BLOCK_SIZE]);
+				buffer.putLong(blockOffsets[block]);
+			}
+			flush(buffer, channel);
+
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(idCount).putInt(result.getClusterCount()).putInt(BLOCK_SIZE).putInt(blockCount);
+			buffer.putLong(idColumnOffset).putLong(clusterColumnOffset).putLong(blockIndexOffset);
+			buffer.flip();
+			channel.write(buffer, 0);
+		}
+		Files.move(temporaryFile.toPath(), resultFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		log.info("Wrote " + idCount + " ids of " + result.getClusterCount() + " clusters to " + resultFile + " :: " + resultFile.length() + " bytes");
+	}
+
+	/**
+	 * Writes the original id of every code of the result as UTF-8 text, one code and its id per line, separated by a tab.
+	 *
+	 * @param result - the result
+	 * @param idEncoder - the encoder the ids of the result were encoded with
+	 * @param idFile - the file, an existing one is overwritten
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void writeIds(ClusteringResult result, IdEncoder idEncoder, File idFile) throws IOException
+	{
+		try (
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(idFile), "UTF-8"), WRITE_BUFFER_SIZE);)
+		{
+			for (int index = 0; index < result.getIdCount(); index++)
+			{
+				long code = result.getId(index);
+				out.write(Long.toString(code));
+				out.write('\t');
+				out.write(idEncoder.toString(code));
+				out.write('\n');
+			}
+		}
+		log.info("Wrote the " + idEncoder.getType() + " ids of " + result.getIdCount() + " codes to " + idFile);
+	}
+
+	/**
+	 * Gets the number of ids in the file.
+	 *
+	 * @return the id count
+	 */
+	public int getIdCount()
+	{
+		return idCount;
+	}
+
+	/**
+	 * Gets the number of clusters in the file.
+	 *
+	 * @return the cluster count
+	 */
+	public int getClusterCount()
+	{
+		return clusterCount;
+	}
+
+	/**
+	 * Gets the clusterID of an id. Safe to be called by many threads at once.
+	 *
+	 * @param id the id
+	 * @return the clusterID, or {@link #NO_CLUSTER} if the id is not in the file
+	 */
+	public long getClusterId(long id)
+	{
+		// the last block whose first id is not greater than the id
+		int low = 0;
+		int high = blockCount - 1;
+		int block = -1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			if (getLong(blockIndexOffset + 16L * middle) <= id)
+			{
+				block = middle;
+				low = middle + 1;
+			}
+			else
+				high = middle - 1;
+		}
+		if (block == -1)
+			return NO_CLUSTER;
+
+		long current = getLong(blockIndexOffset + 16L * block);
+		long position = idColumnOffset + getLong(blockIndexOffset + 16L * block + 8);
+		int index = block * blockSize;
+		int blockEnd = Math.min(index + blockSize, idCount);
+
+		while (current < id && ++index < blockEnd)
+		{
+			long delta = 0;
+			int shift = 0;
+			byte b;
+			do
+			{
+				b = getByte(position++);
+				delta |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			}
+			while (b < 0);
+			current += delta;
+		}
+
+		return current == id && index < blockEnd ? getLong(clusterColumnOffset + 8L * index) : NO_CLUSTER;
+	}
+
+	/**
+	 * Reads all the ids of the file, in ascending order, and their clusterIDs.
+	 *
+	 * @param ids - filled with the ids, at least {@link #getIdCount()} long
+	 * @param clusterIds - filled with the clusterID of every id, at least {@link #getIdCount()} long
+	 */
+	public void readAll(long[] ids, long[] clusterIds)
+	{
+		long position = idColumnOffset;
+		for (int index = 0; index < idCount; index++)
+		{
+			if (index % blockSize == 0)
+			{
+				ids[index] = getLong(blockIndexOffset + 16L * (index / blockSize));
+			}
+			else
+			{
+				long delta = 0;
+				int shift = 0;
+				byte b;
+				do
+				{
+					b = getByte(position++);
+					delta |= (long) (b & 0x7F) << shift;
+					shift += 7;
+				}
+				while (b < 0);
+				ids[index] = ids[index - 1] + delta;
+			}
+			clusterIds[index] = getLong(clusterColumnOffset + 8L * index);
+		}
+	}
+
+	/**
+	 * Closes the file. The mapping itself is released once it is garbage collected.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		file.close();
+	}
+
+	private byte getByte(long position)
+	{
+		return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+	}
+
+	private int getInt(long position)
+	{
+		return chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & CHUNK_MASK));
+	}
+
+	private long getLong(long position)
+	{
+		return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+	}
+
+	private static long align(long offset)
+	{
+		return (offset + 7) & ~7L;
+	}
+
+	private static int flush(ByteBuffer buffer, FileChannel channel) throws IOException
+	{
+		buffer.flip();
+		int written = buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+		return written;
+	}
+
+	private static void putVarint(ByteBuffer buffer, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Sorts the ids ascending, moving their clusterIDs along. A quicksort recursing into the smaller half only.
+	 */
+	static void sort(long[] ids, long[] clusterIds, int from, int to)
+	{
+		while (to - from >= 16)
+		{
+			long pivot = ids[(from + to) >>> 1];
+			int i = from;
+			int j = to;
+			while (i <= j)
+			{
+				while (ids[i] < pivot)
+					i++;
+				while (ids[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(ids, clusterIds, i++, j--);
+			}
+
+			if (j - from < to - i)
+			{
+				sort(ids, clusterIds, from, j);
+				from = i;
+			}
+			else
+			{
+				sort(ids, clusterIds, i, to);
+				to = j;
+			}
+		}
+
+		for (int i = from + 1; i <= to; i++)
+		{
+			for (int j = i; j > from && ids[j] < ids[j - 1]; j--)
+				swap(ids, clusterIds, j, j - 1);
+		}
+	}
+
+	private static void swap(long[] ids, long[] clusterIds, int i, int j)
+	{
+		long id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+
+		long clusterId = clusterIds[i];
+		clusterIds[i] = clusterIds[j];
+		clusterIds[j] = clusterId;
+	}
+}
@@ -0,0 +1,244 @@
+package com.kartik.rapid.io;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.IncrementalClusterer;
+
+
+/**
+ * The Class ClusteringStateStore.
+ * Persists the state of an {@link IncrementalClusterer} to a local directory after a run and restores it for the next one.
+ *
+ * dictionary.bin - the original ids in the order of their simple keys
+ * forest.bin - the root of every simple key, ie the union-find forest with its paths fully compressed
+ * bigrams.bin - the fingerprint of every bigram seen so far and its representative simple key
+ * state.properties - the version of the state and the start of the run it belongs to. It is removed first and written last, so a run
+ * which died while saving leaves no state behind instead of a half written one.
+ *
+ * Every file is written to a temporary file, forced to the disk and moved in place, and the directory is forced as well, as the
+ * checkpoints of {@link RunCheckpoint} are. A state of an older version is ignored, so the next run clusters the table from scratch.
+ */
+public class ClusteringStateStore
+{
+	static final Logger			log				= Logger.getLogger(ClusteringStateStore.class);
+
+	private static final String	DICTIONARY_FILE	= "dictionary.bin";
+	private static final String	FOREST_FILE		= "forest.bin";
+	private static final String	BIGRAMS_FILE		= "bigrams.bin";
+	private static final String	STATE_FILE		= "state.properties";
+	private static final String	LAST_RUN_START	= "lastRunStart";
+	private static final String	STATE_VERSION	= "stateVersion";
+	private static final String	VERSION			= "2";
+	private static final int	BUFFER_SIZE		= 1 << 20;
+
+	private File				stateDirectory;
+
+	/**
+	 * Instantiates a new clustering state store.
+	 *
+	 * @param stateDirectory - the directory the state is kept in
+	 */
+	public ClusteringStateStore(File stateDirectory)
+	{
+		super();
+		this.stateDirectory = stateDirectory;
+	}
+
+	/**
+	 * Checks whether a complete state of a previous run exists, saved by this version.
+	 *
+	 * @return true if a state exists
+	 */
+	public boolean exists()
+	{
+		if (new File(stateDirectory, STATE_FILE).isFile() == false)
+			return false;
+
+		try
+		{
+			String version = readState().getProperty(STATE_VERSION);
+			if (VERSION.equals(version))
+				return true;
+			log.warn("Ignoring the clustering state of version " + version + " in " + stateDirectory + ", the table is clustered from scratch");
+		}
+		catch (IOException e)
+		{
+			log.warn("Ignoring the unreadable clustering state in " + stateDirectory + ", the table is clustered from scratch :: " + e);
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the start of the run which saved the state. Rows modified at or after it have to be read by the next run.
+	 *
+	 * @return the last run start
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public Timestamp getLastRunStart() throws IOException
+	{
+		return Timestamp.valueOf(readState().getProperty(LAST_RUN_START));
+	}
+
+	/**
+	 * Saves the state of the clusterer.
+	 *
+	 * @param clusterer - the clusterer
+	 * @param runStart - the start of the run, ie the database time at which the rows were read
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void save(IncrementalClusterer clusterer, Timestamp runStart) throws IOException
+	{
+		if (stateDirectory.isDirectory() == false && stateDirectory.mkdirs() == false)
+			throw new IOException("Could not create state directory " + stateDirectory);
+
+		int idCount = clusterer.getIDCount();
+		long[] fingerprints = new long[clusterer.getBiGramCount()];
+		int[] representatives = new int[fingerprints.length];
+		int biGramCount = clusterer.copyBiGramRepresentatives(fingerprints, representatives);
+		log.info("Saving clustering state of " + idCount + " ids and " + biGramCount + " bigrams to " + stateDirectory);
+
+		try (
+			FileOutputStream fileOut = new FileOutputStream(temporaryFileOf(DICTIONARY_FILE));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));)
+		{
+			out.writeInt(idCount);
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				out.writeLong(clusterer.getKey(simpleKey));
+			out.flush();
+			fileOut.getFD().sync();
+		}
+
+		try (
+			FileOutputStream fileOut = new FileOutputStream(temporaryFileOf(FOREST_FILE));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));)
+		{
+			out.writeInt(idCount);
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				out.writeInt(clusterer.getRoot(simpleKey));
+			out.flush();
+			fileOut.getFD().sync();
+		}
+
+		try (
+			FileOutputStream fileOut = new FileOutputStream(temporaryFileOf(BIGRAMS_FILE));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));)
+		{
+			out.writeInt(biGramCount);
+			for (int i = 0; i < biGramCount; i++)
+			{
+				out.writeLong(fingerprints[i]);
+				out.writeInt(representatives[i]);
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		}
+
+		Properties state = new Properties();
+		state.setProperty(STATE_VERSION, VERSION);
+		state.setProperty(LAST_RUN_START, runStart.toString());
+		try (
+			FileOutputStream out = new FileOutputStream(temporaryFileOf(STATE_FILE));)
+		{
+			state.store(out, "RapidClustering incremental state");
+			out.getFD().sync();
+		}
+
+		// the data files are only moved in once the previous state is gone, so a crash never pairs them with the wrong state.properties
+		File stateFile = new File(stateDirectory, STATE_FILE);
+		if (stateFile.exists() && stateFile.delete() == false)
+			throw new IOException("Could not remove the previous state " + stateFile);
+		RunCheckpoint.forceDirectory(stateDirectory);
+
+		moveInPlace(DICTIONARY_FILE);
+		moveInPlace(FOREST_FILE);
+		moveInPlace(BIGRAMS_FILE);
+		moveInPlace(STATE_FILE);
+	}
+
+	/**
+	 * Loads the state saved by the previous run.
+	 *
+	 * @param additionalIDCount - room for the new ids the next delta can bring in
+	 * @return the restored clusterer
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public IncrementalClusterer load(int additionalIDCount) throws IOException
+	{
+		if (exists() == false)
+			throw new IOException("No complete clustering state found in " + stateDirectory);
+
+		long[] keys;
+		try (
+			DataInputStream in = openForRead(DICTIONARY_FILE);)
+		{
+			keys = new long[in.readInt()];
+			for (int simpleKey = 0; simpleKey < keys.length; simpleKey++)
+				keys[simpleKey] = in.readLong();
+		}
+
+		int[] roots;
+		try (
+			DataInputStream in = openForRead(FOREST_FILE);)
+		{
+			roots = new int[in.readInt()];
+			for (int simpleKey = 0; simpleKey < roots.length; simpleKey++)
+				roots[simpleKey] = in.readInt();
+		}
+
+		long[] fingerprints;
+		int[] representatives;
+		try (
+			DataInputStream in = openForRead(BIGRAMS_FILE);)
+		{
+			int biGramCount = in.readInt();
+			fingerprints = new long[biGramCount];
+			representatives = new int[biGramCount];
+			for (int i = 0; i < biGramCount; i++)
+			{
+				fingerprints[i] = in.readLong();
+				representatives[i] = in.readInt();
+			}
+		}
+
+		log.info("Loaded clustering state of " + keys.length + " ids and " + fingerprints.length + " bigrams from " + stateDirectory);
+		return IncrementalClusterer.restore(keys, roots, fingerprints, representatives, additionalIDCount);
+	}
+
+	private Properties readState() throws IOException
+	{
+		Properties state = new Properties();
+		try (
+			FileInputStream in = new FileInputStream(new File(stateDirectory, STATE_FILE));)
+		{
+			state.load(in);
+		}
+		return state;
+	}
+
+	private File temporaryFileOf(String fileName)
+	{
+		return new File(stateDirectory, fileName + ".tmp");
+	}
+
+	private void moveInPlace(String fileName) throws IOException
+	{
+		RunCheckpoint.replace(temporaryFileOf(fileName), new File(stateDirectory, fileName));
+	}
+
+	private DataInputStream openForRead(String fileName) throws IOException
+	{
+		return new DataInputStream(new BufferedInputStream(new FileInputStream(new File(stateDirectory, fileName)), BUFFER_SIZE));
+	}
+}
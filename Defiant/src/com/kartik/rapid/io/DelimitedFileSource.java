@@ -0,0 +1,457 @@
+package com.kartik.rapid.io;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.BiGramSink;
+import com.kartik.rapid.logic.IdEncoder;
+import com.kartik.rapid.logic.NumericIdEncoder;
+import com.kartik.rapid.utility.BiGramUtility;
+import com.kartik.rapid.utility.FingerprintBuffer;
+import com.kartik.rapid.utility.RunMetrics;
+import com.kartik.rapid.utility.StopBiGramFilter;
+
+
+/**
+ * The Class DelimitedFileSource.
+ * Reads the rows from a UTF-8 flat file, for instance the nightly extract of the input table, instead of from the database.
+ * Every line is a row, its fields separated by the columnDelim. The first field is the id and all the following ones are
+ * description columns, which are tokenized on the dataDelim and padded with the endnodeStr exactly as the rows of the table are.
+ * Empty fields and the literal "null" count as null columns, the way Oracle returns an empty string. Empty lines are skipped.
+ *
+ * The file is mapped segment by segment through {@link FileChannel#map} and every line is decoded into one reused char buffer,
+ * which is tokenized in place. Hence no String is created per line or per column, and the file is read at the speed of the disk.
+ *
+ * A partition of the file is a range of its bytes, partition / partitionCount of its size on, moved forward to the start of a line, so
+ * every line belongs to exactly one partition. The lines of an id are not kept together, the coordinator of a partitioned run joins them.
+ */
+public class DelimitedFileSource implements InputSource
+{
+	static final Logger				log						= Logger.getLogger(DelimitedFileSource.class);
+
+	private static final int		DEFAULT_SEGMENT_SIZE	= 1 << 28;
+	private static final Charset	UTF8					= Charset.forName("UTF-8");
+
+	private final File				file;
+	private final String			columnDelim;
+	private final BiGramUtility		biGramGenerator;
+	private final int				segmentSize;
+
+	private long					totalRowCount			= -1;
+	private RunMetrics				metrics;
+	private int						partition;
+	private int						partitionCount			= 1;
+	private IdEncoder				idEncoder				= new NumericIdEncoder();
+
+	/**
+	 * Instantiates a new delimited file source, mapping 256 MB at a time.
+	 *
+	 * @param file - the file
+	 * @param columnDelim - the delimiter between the fields of a line
+	 * @param dataDelim - The delimiter using which data is to be tokenized
+	 * @param endnodeStr - The String which is used to buffer / pad the single token elements to generate a combination.
+	 */
+	public DelimitedFileSource(File file, String columnDelim, String dataDelim, String endnodeStr)
+	{
+		this(file, columnDelim, dataDelim, endnodeStr, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Instantiates a new delimited file source.
+	 *
+	 * @param file - the file
+	 * @param columnDelim - the delimiter between the fields of a line
+	 * @param dataDelim - The delimiter using which data is to be tokenized
+	 * @param endnodeStr - The String which is used to buffer / pad the single token elements to generate a combination.
+	 * @param segmentSize - the number of bytes mapped at a time, which bounds the length of a line
+	 */
+	public DelimitedFileSource(File file, String columnDelim, String dataDelim, String endnodeStr, int segmentSize)
+	{
+		super();
+		if (columnDelim.isEmpty())
+			throw new IllegalArgumentException("columnDelim must not be empty");
+
+		this.file = file;
+		this.columnDelim = columnDelim;
+		this.segmentSize = segmentSize;
+		biGramGenerator = new BiGramUtility(dataDelim, endnodeStr);
+	}
+
+	@Override
+	public void setMetrics(RunMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void setIdEncoder(IdEncoder idEncoder)
+	{
+		this.idEncoder = idEncoder;
+	}
+
+	@Override
+	public void setStopBiGramFilter(StopBiGramFilter stopBiGramFilter)
+	{
+		biGramGenerator.setStopBiGramFilter(stopBiGramFilter);
+	}
+
+	@Override
+	public void setPartition(int partition, int partitionCount)
+	{
+		if (partitionCount < 1 || partition < 0 || partition >= partitionCount)
+			throw new IllegalArgumentException("partition has to be from 0 to " + (partitionCount - 1) + " but was " + partition);
+
+		this.partition = partition;
+		this.partitionCount = partitionCount;
+		totalRowCount = -1;
+	}
+
+	/**
+	 * Counts the lines of the file, or of its partition, in a single pass over the mapped bytes. Empty lines are counted as well.
+	 */
+	@Override
+	public long getTotalRowCount() throws IOException
+	{
+		if (totalRowCount != -1)
+			return totalRowCount;
+
+		long lineCount = 0;
+		byte lastByte = '\n';
+		try (
+			RandomAccessFile in = new RandomAccessFile(file, "r");)
+		{
+			FileChannel channel = in.getChannel();
+			long start = getPartitionStart(channel, partition);
+			long size = getPartitionStart(channel, partition + 1);
+			for (long position = start; position < size; position += segmentSize)
+			{
+				MappedByteBuffer segment = channel.map(MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+				for (int i = 0; i < segment.limit(); i++)
+				{
+					if (segment.get(i) == '\n')
+						lineCount++;
+				}
+				lastByte = segment.get(segment.limit() - 1);
+			}
+		}
+
+		// a last line without a line break
+		totalRowCount = lastByte == '\n' ? lineCount : lineCount + 1;
+		log.info("Counted " + totalRowCount + " lines in " + file);
+		return totalRowCount;
+	}
+
+	@Override
+	public int read(BiGramSink sink) throws IOException
+	{
+		log.info("Reading rows from " + file + (partitionCount == 1 ? "" : " :: partition " + partition + " of " + partitionCount));
+		return read(sink, 1, false);
+	}
+
+	/**
+	 * Reads a sample of the lines, picked by their line number. Only the lines sampled are decoded and tokenized.
+	 */
+	@Override
+	public int readSample(BiGramSink sink, double sampleFraction) throws IOException
+	{
+		if (sampleFraction <= 0 || sampleFraction > 1)
+			throw new IllegalArgumentException("sampleFraction has to be above 0 and at most 1 but was " + sampleFraction);
+
+		log.info("Reading a sample of " + sampleFraction + " of the rows from " + file);
+		return read(sink, sampleFraction, true);
+	}
+
+	private int read(BiGramSink sink, double sampleFraction, boolean wholeFile) throws IOException
+	{
+		LineReader reader = new LineReader(sink, sampleFraction);
+
+		try (
+			RandomAccessFile in = new RandomAccessFile(file, "r");)
+		{
+			// a partition is read as if its range were all of the file
+			FileChannel channel = in.getChannel();
+			long position = wholeFile ? 0 : getPartitionStart(channel, partition);
+			long size = wholeFile ? channel.size() : getPartitionStart(channel, partition + 1);
+			while (position < size)
+			{
+				MappedByteBuffer segment = channel.map(MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+				boolean lastSegment = position + segment.limit() == size;
+
+				// only whole lines are read from a segment, the next segment starts with the line which did not fit
+				int lineStart = 0;
+				for (int i = 0; i < segment.limit(); i++)
+				{
+					if (segment.get(i) == '\n')
+					{
+						reader.readLine(segment, lineStart, i);
+						lineStart = i + 1;
+					}
+				}
+
+				if (lastSegment && lineStart < segment.limit())
+					reader.readLine(segment, lineStart, segment.limit());
+				else if (lineStart == 0 && lastSegment == false)
+					throw new IOException("Line " + (reader.lineNumber + 1) + " of " + file + " is longer than the segment size of " + segmentSize + " bytes");
+
+				position += lastSegment ? segment.limit() : lineStart;
+			}
+		}
+		reader.addRead();
+
+		log.info("Read " + reader.rowCount + " rows out of " + reader.lineNumber + " lines from " + file);
+		return reader.rowCount;
+	}
+
+	/**
+	 * Gets the offset of the first line of a partition, the start of the first line at or after partition / partitionCount of the size.
+	 * The partition after the last one starts at the end of the file.
+	 */
+	private long getPartitionStart(FileChannel channel, int partition) throws IOException
+	{
+		long size = channel.size();
+		if (partition == 0 || partition == partitionCount)
+			return partition == 0 ? 0 : size;
+
+		long offset = size / partitionCount * partition;
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		for (long position = offset - 1; position < size; position += buffer.limit())
+		{
+			buffer.clear();
+			channel.read(buffer, position);
+			buffer.flip();
+			for (int i = 0; i < buffer.limit(); i++)
+			{
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Decodes and tokenizes the lines, reusing its buffers for all of them.
+	 */
+	private class LineReader
+	{
+		private final BiGramSink		sink;
+		private final FingerprintBuffer	rowFingerprints	= new FingerprintBuffer();
+		private final CharsetDecoder	decoder			= UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharWindow		field			= new CharWindow();
+		private char[]					line			= new char[4096];
+		private CharBuffer				lineBuffer		= CharBuffer.wrap(line);
+		private long					lineNumber;
+		private int						rowCount;
+		private long					readStart		= System.nanoTime();
+		private long					generationNanos;
+		private long					linesAdded;
+		private final long				sampleLimit;
+
+		LineReader(BiGramSink sink, double sampleFraction)
+		{
+			this.sink = sink;
+			sampleLimit = sampleFraction >= 1 ? Long.MAX_VALUE : (long) (sampleFraction * (1L << 53));
+		}
+
+		void readLine(MappedByteBuffer segment, int start, int end) throws IOException
+		{
+			lineNumber++;
+			if (sampleLimit != Long.MAX_VALUE && isSampled() == false)
+				return;
+
+			int length = decode(segment, start, end);
+			if (length > 0 && line[length - 1] == '\r')
+				length--;
+			if (length == 0)
+				return;
+
+			int idEnd = indexOfDelim(0, length);
+			if (idEnd == -1)
+				idEnd = length;
+			long id = parseId(idEnd);
+
+			rowFingerprints.clear();
+			boolean generateID = false;
+			long generationStart = System.nanoTime();
+			int fieldStart = idEnd + columnDelim.length();
+			while (fieldStart <= length)
+			{
+				int fieldEnd = indexOfDelim(fieldStart, length);
+				if (fieldEnd == -1)
+					fieldEnd = length;
+				generateID |= addField(fieldStart, fieldEnd);
+				fieldStart = fieldEnd + columnDelim.length();
+			}
+			generationNanos += System.nanoTime() - generationStart;
+
+			// finished processing current row .. going for next one
+			if (generateID)
+			{
+				rowCount++;
+				if (rowFingerprints.size() > 0)
+					sink.accept(id, rowFingerprints.getFingerprints(), rowFingerprints.size());
+			}
+
+			// counter used for logging purposes.
+			if (lineNumber % 1000000 == 0)
+			{
+				log.info("Reading line --> " + lineNumber + " :: Rows read " + rowCount);
+				addRead();
+			}
+		}
+
+		/**
+		 * Picks a line by the fractional part of lineNumber times the golden ratio, which spreads the lines picked evenly over the file.
+		 */
+		private boolean isSampled()
+		{
+			return (lineNumber * 0x9E3779B97F4A7C15L) >>> 11 < sampleLimit;
+		}
+
+		/**
+		 * Adds the reading since the last call to the metrics, if any.
+		 */
+		void addRead()
+		{
+			if (metrics == null)
+				return;
+
+			long readEnd = System.nanoTime();
+			metrics.addRead(readEnd - readStart, generationNanos, lineNumber - linesAdded);
+			readStart = readEnd;
+			generationNanos = 0;
+			linesAdded = lineNumber;
+		}
+
+		/**
+		 * Decodes the bytes of the line into the line buffer. Plain ASCII is copied over directly, anything else goes through the decoder.
+		 */
+		private int decode(MappedByteBuffer segment, int start, int end)
+		{
+			int length = end - start;
+			if (line.length < length)
+			{
+				line = new char[Math.max(length, line.length * 2)];
+				lineBuffer = CharBuffer.wrap(line);
+			}
+
+			for (int i = 0; i < length; i++)
+			{
+				byte b = segment.get(start + i);
+				if (b < 0)
+					return decodeNonAscii(segment, start, end, i);
+				line[i] = (char) b;
+			}
+			return length;
+		}
+
+		private int decodeNonAscii(MappedByteBuffer segment, int start, int end, int asciiLength)
+		{
+			// UTF-8 never decodes to more chars than it has bytes
+			lineBuffer.clear().position(asciiLength);
+			segment.limit(end).position(start + asciiLength);
+			decoder.reset();
+			CoderResult result = decoder.decode(segment, lineBuffer, true);
+			if (result.isUnderflow())
+				decoder.flush(lineBuffer);
+			segment.clear();
+			return lineBuffer.position();
+		}
+
+		private int indexOfDelim(int from, int to)
+		{
+			int delimLength = columnDelim.length();
+			for (int i = from; i <= to - delimLength; i++)
+			{
+				int matched = 0;
+				while (matched < delimLength && line[i + matched] == columnDelim.charAt(matched))
+					matched++;
+				if (matched == delimLength)
+					return i;
+			}
+			return -1;
+		}
+
+		private boolean addField(int start, int end)
+		{
+			int length = end - start;
+			if (length == 0)
+				return false;
+			if (length == 4 && (line[start] | 0x20) == 'n' && (line[start + 1] | 0x20) == 'u' && (line[start + 2] | 0x20) == 'l' && (line[start + 3] | 0x20) == 'l')
+				return false;
+
+			field.set(line, start, end);
+			biGramGenerator.generateBiGramFingerprints(field, rowFingerprints);
+			return true;
+		}
+
+		private long parseId(int end) throws IOException
+		{
+			field.set(line, 0, end);
+			try
+			{
+				return idEncoder.encode(field);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IOException("Line " + lineNumber + " of " + file + " does not start with an id of type " + idEncoder.getType(), e);
+			}
+		}
+	}
+
+	/**
+	 * A window onto a char array, handed to the bigram generator as the value of a column without copying it into a String.
+	 */
+	private static class CharWindow implements CharSequence
+	{
+		private char[]	chars;
+		private int		start;
+		private int		end;
+
+		void set(char[] chars, int start, int end)
+		{
+			this.chars = chars;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int length()
+		{
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return chars[start + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to)
+		{
+			CharWindow window = new CharWindow();
+			window.set(chars, start + from, start + to);
+			return window;
+		}
+
+		@Override
+		public String toString()
+		{
+			return new String(chars, start, end - start);
+		}
+	}
+}
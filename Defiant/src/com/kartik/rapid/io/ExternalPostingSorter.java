@@ -0,0 +1,464 @@
+package com.kartik.rapid.io;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.BiGramSink;
+import com.kartik.rapid.logic.PostingCursor;
+
+
+/**
+ * The Class ExternalPostingSorter.
+ * Groups (bigram fingerprint, id) postings by bigram with an external merge sort, for inputs whose postings do not fit the heap.
+ * Postings are collected in a buffer sized by the memory budget. Whenever it fills up, it is sorted by fingerprint and written to
+ * a run file in the spill directory. {@link #cursor()} then merges all the runs, so every bigram's postings come out one after the other.
+ * The heap taken by the postings stays within the budget however large the input is, and the runs are only ever read and written sequentially.
+ *
+ * More than {@link #MAX_MERGE_WIDTH} runs are first merged in batches into longer runs, to keep the open files and the read buffers bounded.
+ * The run files are removed as soon as they are merged, and on {@link #close()}.
+ */
+public class ExternalPostingSorter implements BiGramSink, Closeable
+{
+	static final Logger				log					= Logger.getLogger(ExternalPostingSorter.class);
+
+	/** The largest number of runs merged at once. */
+	public static final int			MAX_MERGE_WIDTH		= 128;
+
+	private static final int		POSTING_BYTES		= 16;
+	private static final int		MIN_BUFFER_SIZE		= 1 << 13;
+	private static final int		WRITE_BUFFER_SIZE	= 1 << 16;
+	private static final int		INSERTION_SORT_SIZE	= 16;
+
+	private final File				spillDirectory;
+	private final long				memoryBudget;
+	private final List<File>		runs				= new ArrayList<>();
+
+	private long[]					fingerprints;
+	private long[]					ids;
+	private int						bufferedCount;
+	private long					postingCount;
+
+	/**
+	 * Instantiates a new external posting sorter.
+	 *
+	 * @param spillDirectory - the directory the run files are written to
+	 * @param memoryBudget - the bytes of heap the buffered postings and the merge buffers may take
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public ExternalPostingSorter(File spillDirectory, long memoryBudget) throws IOException
+	{
+		super();
+		if (spillDirectory.isDirectory() == false && spillDirectory.mkdirs() == false)
+			throw new IOException("Could not create spill directory " + spillDirectory);
+		if (memoryBudget < POSTING_BYTES * 1024)
+			throw new IllegalArgumentException("memoryBudget has to be at least " + POSTING_BYTES * 1024 + " bytes but was " + memoryBudget);
+
+		this.spillDirectory = spillDirectory;
+		this.memoryBudget = memoryBudget;
+
+		int capacity = (int) Math.min(memoryBudget / POSTING_BYTES, Integer.MAX_VALUE - 8);
+		fingerprints = new long[capacity];
+		ids = new long[capacity];
+	}
+
+	@Override
+	public void accept(long id, long[] biGramFingerprints, int count)
+	{
+		for (int i = 0; i < count; i++)
+			add(biGramFingerprints[i], id);
+	}
+
+	/**
+	 * Adds a posting, spilling the buffer to a new run first if it is full.
+	 *
+	 * @param fingerprint the fingerprint of the bigram
+	 * @param id the id
+	 */
+	public void add(long fingerprint, long id)
+	{
+		if (fingerprints == null)
+			throw new IllegalStateException("Postings can not be added once the merge has started");
+
+		if (bufferedCount == fingerprints.length)
+		{
+			try
+			{
+				spill();
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException("Could not spill postings to " + spillDirectory, e);
+			}
+		}
+
+		fingerprints[bufferedCount] = fingerprint;
+		ids[bufferedCount] = id;
+		bufferedCount++;
+		postingCount++;
+	}
+
+	/**
+	 * Gets the number of postings added.
+	 *
+	 * @return the posting count
+	 */
+	public long getPostingCount()
+	{
+		return postingCount;
+	}
+
+	/**
+	 * Gets the number of run files written so far.
+	 *
+	 * @return the run count
+	 */
+	public int getRunCount()
+	{
+		return runs.size();
+	}
+
+	/**
+	 * Ends the input and opens the cursor over all the postings, grouped by bigram. If everything fit in the buffer, the buffer is
+	 * walked directly, otherwise its remainder is spilled as the last run and the buffer is freed before the runs are merged.
+	 * Can only be called once.
+	 *
+	 * @return the cursor
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public PostingCursor cursor() throws IOException
+	{
+		if (fingerprints == null)
+			throw new IllegalStateException("The cursor of an ExternalPostingSorter can only be opened once");
+
+		if (runs.isEmpty())
+		{
+			sortBuffer();
+			final long[] fingerprints = this.fingerprints;
+			final long[] ids = this.ids;
+			final int count = bufferedCount;
+			this.fingerprints = null;
+			this.ids = null;
+
+			return new PostingCursor()
+			{
+				private int	posting	= -1;
+
+				@Override
+				public boolean isGroupedByBiGram()
+				{
+					return true;
+				}
+
+				@Override
+				public boolean next()
+				{
+					return ++posting < count;
+				}
+
+				@Override
+				public long getFingerprint()
+				{
+					return fingerprints[posting];
+				}
+
+				@Override
+				public long getId()
+				{
+					return ids[posting];
+				}
+			};
+		}
+
+		if (bufferedCount > 0)
+			spill();
+		fingerprints = null;
+		ids = null;
+
+		List<File> pending = new ArrayList<>(runs);
+		while (pending.size() > MAX_MERGE_WIDTH)
+		{
+			log.info("Merging " + pending.size() + " runs in batches of " + MAX_MERGE_WIDTH);
+			List<File> mergedRuns = new ArrayList<>();
+			for (int from = 0; from < pending.size(); from += MAX_MERGE_WIDTH)
+				mergedRuns.add(mergeToRun(new ArrayList<>(pending.subList(from, Math.min(from + MAX_MERGE_WIDTH, pending.size())))));
+			pending = mergedRuns;
+		}
+
+		log.info("Merging " + pending.size() + " runs of " + postingCount + " postings");
+		return new MergeCursor(openRuns(pending));
+	}
+
+	/**
+	 * Removes all the run files which are left.
+	 */
+	@Override
+	public void close()
+	{
+		for (File run : runs)
+			removeRun(run);
+		runs.clear();
+		fingerprints = null;
+		ids = null;
+	}
+
+	private void spill() throws IOException
+	{
+		sortBuffer();
+
+		File run = File.createTempFile("run", ".bin", spillDirectory);
+		runs.add(run);
+		try (
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), WRITE_BUFFER_SIZE));)
+		{
+			for (int i = 0; i < bufferedCount; i++)
+			{
+				out.writeLong(fingerprints[i]);
+				out.writeLong(ids[i]);
+			}
+		}
+
+		log.info("Spilled run " + runs.size() + " of " + bufferedCount + " postings to " + run);
+		bufferedCount = 0;
+	}
+
+	private File mergeToRun(List<File> batch) throws IOException
+	{
+		File run = File.createTempFile("run", ".bin", spillDirectory);
+		runs.add(run);
+		MergeCursor merge = new MergeCursor(openRuns(batch));
+		try (
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), bufferSize(batch.size() + 1)));)
+		{
+			while (merge.next())
+			{
+				out.writeLong(merge.getFingerprint());
+				out.writeLong(merge.getId());
+			}
+		}
+		finally
+		{
+			merge.close();
+		}
+		return run;
+	}
+
+	private List<RunReader> openRuns(List<File> batch) throws IOException
+	{
+		List<RunReader> readers = new ArrayList<>(batch.size());
+		try
+		{
+			for (File run : batch)
+				readers.add(new RunReader(run, bufferSize(batch.size())));
+		}
+		catch (IOException e)
+		{
+			for (RunReader reader : readers)
+				reader.close();
+			throw e;
+		}
+		return readers;
+	}
+
+	/**
+	 * Splits the budget over the streams open at the same time.
+	 */
+	private int bufferSize(int streamCount)
+	{
+		return (int) Math.max(MIN_BUFFER_SIZE, Math.min(memoryBudget / streamCount, 1 << 24));
+	}
+
+	private void removeRun(File run)
+	{
+		if (run.delete() == false && run.exists())
+			log.warn("Could not remove run " + run);
+	}
+
+	/**
+	 * Sorts the buffered postings by fingerprint. A quicksort on the 2 parallel arrays, recursing into the smaller half only,
+	 * so that no boxing or extra array is needed and the stack stays shallow.
+	 */
+	private void sortBuffer()
+	{
+		sort(0, bufferedCount - 1);
+	}
+
+	private void sort(int from, int to)
+	{
+		while (to - from >= INSERTION_SORT_SIZE)
+		{
+			int middle = (from + to) >>> 1;
+			if (fingerprints[middle] < fingerprints[from])
+				swap(middle, from);
+			if (fingerprints[to] < fingerprints[from])
+				swap(to, from);
+			if (fingerprints[to] < fingerprints[middle])
+				swap(to, middle);
+			long pivot = fingerprints[middle];
+
+			int i = from;
+			int j = to;
+			while (i <= j)
+			{
+				while (fingerprints[i] < pivot)
+					i++;
+				while (fingerprints[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(i++, j--);
+			}
+
+			if (j - from < to - i)
+			{
+				sort(from, j);
+				from = i;
+			}
+			else
+			{
+				sort(i, to);
+				to = j;
+			}
+		}
+
+		for (int i = from + 1; i <= to; i++)
+		{
+			for (int j = i; j > from && fingerprints[j] < fingerprints[j - 1]; j--)
+				swap(j, j - 1);
+		}
+	}
+
+	private void swap(int i, int j)
+	{
+		long fingerprint = fingerprints[i];
+		fingerprints[i] = fingerprints[j];
+		fingerprints[j] = fingerprint;
+
+		long id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+	}
+
+	/**
+	 * Reads a run file posting by posting and removes it once it is exhausted.
+	 */
+	private class RunReader
+	{
+		private final File				run;
+		private final DataInputStream	in;
+		private long					fingerprint;
+		private long					id;
+
+		RunReader(File run, int bufferSize) throws IOException
+		{
+			this.run = run;
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), bufferSize));
+		}
+
+		boolean advance() throws IOException
+		{
+			try
+			{
+				fingerprint = in.readLong();
+				id = in.readLong();
+				return true;
+			}
+			catch (EOFException e)
+			{
+				close();
+				return false;
+			}
+		}
+
+		void close() throws IOException
+		{
+			in.close();
+			runs.remove(run);
+			removeRun(run);
+		}
+	}
+
+	/**
+	 * The k-way merge of runs, a priority queue holding every run which is not exhausted yet, ordered by its current fingerprint.
+	 */
+	private class MergeCursor implements PostingCursor
+	{
+		private final PriorityQueue<RunReader>	queue;
+		private RunReader						current;
+
+		MergeCursor(List<RunReader> readers) throws IOException
+		{
+			queue = new PriorityQueue<>(Math.max(readers.size(), 1), new Comparator<RunReader>()
+			{
+				@Override
+				public int compare(RunReader r1, RunReader r2)
+				{
+					return Long.compare(r1.fingerprint, r2.fingerprint);
+				}
+			});
+
+			for (RunReader reader : readers)
+			{
+				if (reader.advance())
+					queue.add(reader);
+			}
+		}
+
+		@Override
+		public boolean isGroupedByBiGram()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean next()
+		{
+			try
+			{
+				if (current != null && current.advance())
+					queue.add(current);
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException("Could not read run " + current.run, e);
+			}
+
+			current = queue.poll();
+			return current != null;
+		}
+
+		@Override
+		public long getFingerprint()
+		{
+			return current.fingerprint;
+		}
+
+		@Override
+		public long getId()
+		{
+			return current.id;
+		}
+
+		void close() throws IOException
+		{
+			if (current != null)
+				current.close();
+			for (RunReader reader : queue)
+				reader.close();
+			queue.clear();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.kartik.rapid.io;
+
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import com.kartik.rapid.logic.BiGramSink;
+import com.kartik.rapid.logic.IdEncoder;
+import com.kartik.rapid.utility.RunMetrics;
+import com.kartik.rapid.utility.StopBiGramFilter;
+
+
+/**
+ * InputSource -
+ * Where the rows to be clustered come from, the input table behind {@link com.kartik.rapid.dao.InputTableDao} or a flat file
+ * read by {@link DelimitedFileSource}. A source hands every row, as its id and the bigram fingerprints of its description columns,
+ * to a {@link BiGramSink}, so every sink based ingestion works on every source alike.
+ */
+public interface InputSource
+{
+	/**
+	 * Gets the number of rows of the source, an upper bound of the distinct ids it holds.
+	 *
+	 * @return the total row count
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws SQLException the SQL exception
+	 */
+	long getTotalRowCount() throws IOException, SQLException;
+
+	/**
+	 * Reads all the rows into the sink. Rows with nothing but null columns are skipped.
+	 *
+	 * @param sink - the sink every row with at least one bigram is handed to
+	 * @return the number of rows which had at least one non null column, the distinctIDCount to cluster with
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws SQLException the SQL exception
+	 */
+	int read(BiGramSink sink) throws IOException, SQLException;
+
+	/**
+	 * Reads a random sample of about sampleFraction of the rows into the sink, for a pre-pass such as a
+	 * {@link com.kartik.rapid.logic.BiGramFrequencySketch}. Unlike {@link #read(BiGramSink)} nothing is prepared for the clustering.
+	 *
+	 * @param sink - the sink every sampled row with at least one bigram is handed to
+	 * @param sampleFraction - the fraction of the rows to read, 1 for all of them
+	 * @return the number of sampled rows which had at least one non null column
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws SQLException the SQL exception
+	 */
+	int readSample(BiGramSink sink, double sampleFraction) throws IOException, SQLException;
+
+	/**
+	 * Sets the stop bigrams to be left out of the bigrams the rows are read into.
+	 *
+	 * @param stopBiGramFilter the stop bigram filter, null to keep all the bigrams
+	 */
+	void setStopBiGramFilter(StopBiGramFilter stopBiGramFilter);
+
+	/**
+	 * Restricts {@link #read(BiGramSink)} and {@link #getTotalRowCount()} to one of partitionCount disjoint slices of the rows, for the
+	 * worker processes of a partitioned run. A sample is still taken from all the rows, so that every worker finds the same stop bigrams.
+	 *
+	 * @param partition - the slice to read, from 0 to partitionCount - 1
+	 * @param partitionCount - the number of slices, 1 to read all the rows
+	 */
+	void setPartition(int partition, int partitionCount);
+
+	/**
+	 * Sets the encoder the ids of the rows are turned into the long ids handed to the sink with. Numeric ids are read as they are by default.
+	 *
+	 * @param idEncoder the id encoder
+	 */
+	void setIdEncoder(IdEncoder idEncoder);
+
+	/**
+	 * Sets the metrics the reading adds its scan and bigram generation time and its row count to.
+	 *
+	 * @param metrics the metrics of the run, null not to collect any
+	 */
+	void setMetrics(RunMetrics metrics);
+}
@@ -0,0 +1,196 @@
+package com.kartik.rapid.io;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.BiGramSink;
+import com.kartik.rapid.logic.PostingCursor;
+
+
+/**
+ * The Class MappedPostingStore.
+ * An append only store of (bigram fingerprint, id) postings kept off the heap, in a file mapped segment by segment through
+ * {@link FileChannel#map}. Every posting takes 16 bytes, the fingerprint followed by the id, in the native byte order.
+ * The heap only holds the segment references, so the store can outgrow -Xmx many times and the OS page cache decides which
+ * parts of it stay in memory. Postings are written in the order the rows arrive and are read back in that order by {@link #cursor()}.
+ *
+ * The file is scratch space. It is removed on {@link #close()}, or on exit where the platform refuses to delete a file which is still mapped.
+ */
+public class MappedPostingStore implements BiGramSink, Closeable
+{
+	static final Logger				log						= Logger.getLogger(MappedPostingStore.class);
+
+	private static final int		POSTING_BYTES			= 16;
+	private static final int		DEFAULT_SEGMENT_SIZE	= 1 << 28;
+
+	private final File				file;
+	private final RandomAccessFile	randomAccessFile;
+	private final int				postingsPerSegment;
+
+	private MappedByteBuffer[]		segments				= new MappedByteBuffer[0];
+	private long					postingCount;
+
+	/**
+	 * Instantiates a new mapped posting store with segments of 256 MB.
+	 *
+	 * @param file - the file backing the store. An existing file is overwritten.
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public MappedPostingStore(File file) throws IOException
+	{
+		this(file, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Instantiates a new mapped posting store.
+	 *
+	 * @param file - the file backing the store. An existing file is overwritten.
+	 * @param segmentSize - the number of bytes mapped at a time, rounded down to whole postings
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public MappedPostingStore(File file, int segmentSize) throws IOException
+	{
+		super();
+		if (segmentSize < POSTING_BYTES)
+			throw new IllegalArgumentException("segmentSize has to hold at least one posting but was " + segmentSize);
+
+		this.file = file;
+		postingsPerSegment = segmentSize / POSTING_BYTES;
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(0);
+	}
+
+	@Override
+	public void accept(long id, long[] biGramFingerprints, int count)
+	{
+		for (int i = 0; i < count; i++)
+			append(biGramFingerprints[i], id);
+	}
+
+	/**
+	 * Appends a posting.
+	 *
+	 * @param fingerprint the fingerprint of the bigram
+	 * @param id the id
+	 */
+	public void append(long fingerprint, long id)
+	{
+		int segment = (int) (postingCount / postingsPerSegment);
+		if (segment == segments.length)
+			mapSegment(segment);
+
+		int offset = (int) (postingCount % postingsPerSegment) * POSTING_BYTES;
+		segments[segment].putLong(offset, fingerprint);
+		segments[segment].putLong(offset + 8, id);
+		postingCount++;
+	}
+
+	/**
+	 * Gets the number of postings appended so far.
+	 *
+	 * @return the posting count
+	 */
+	public long getPostingCount()
+	{
+		return postingCount;
+	}
+
+	/**
+	 * Opens a cursor over the postings appended so far, in the order they were appended.
+	 * Postings appended after the cursor was opened are not walked by it.
+	 *
+	 * @return the cursor
+	 */
+	public PostingCursor cursor()
+	{
+		final MappedByteBuffer[] segments = this.segments;
+		final long postingCount = this.postingCount;
+		final int postingsPerSegment = this.postingsPerSegment;
+
+		return new PostingCursor()
+		{
+			private long	posting	= -1;
+			private int		segment;
+			private int		offset;
+
+			@Override
+			public boolean isGroupedByBiGram()
+			{
+				return false;
+			}
+
+			@Override
+			public boolean next()
+			{
+				if (posting + 1 >= postingCount)
+					return false;
+
+				posting++;
+				segment = (int) (posting / postingsPerSegment);
+				offset = (int) (posting % postingsPerSegment) * POSTING_BYTES;
+				return true;
+			}
+
+			@Override
+			public long getFingerprint()
+			{
+				return segments[segment].getLong(offset);
+			}
+
+			@Override
+			public long getId()
+			{
+				return segments[segment].getLong(offset + 8);
+			}
+		};
+	}
+
+	/**
+	 * Closes the file and removes it. The segments are only unmapped once they are garbage collected, hence the store
+	 * and its cursors must not be used any more.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		segments = new MappedByteBuffer[0];
+		randomAccessFile.close();
+
+		if (file.delete() == false)
+		{
+			log.warn("Could not remove the posting store " + file + " while it is still mapped, it will be removed on exit");
+			file.deleteOnExit();
+		}
+	}
+
+	private void mapSegment(int segment)
+	{
+		long segmentBytes = (long) postingsPerSegment * POSTING_BYTES;
+		try
+		{
+			MappedByteBuffer buffer = randomAccessFile.getChannel().map(MapMode.READ_WRITE, segment * segmentBytes, segmentBytes);
+			buffer.order(ByteOrder.nativeOrder());
+
+			segments = Arrays.copyOf(segments, segment + 1);
+			segments[segment] = buffer;
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Could not map segment " + segment + " of the posting store " + file, e);
+		}
+
+		if (segment > 0 && segment % 16 == 0)
+			log.info("Posting store " + file + " grew to " + (segment + 1) + " segments");
+	}
+}
@@ -0,0 +1,370 @@
+package com.kartik.rapid.io;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.PostingCursor;
+import com.kartik.rapid.logic.StreamingClusterer;
+
+
+/**
+ * The Class PartitionSnapshot.
+ * The partial clustering of one worker process of a partitioned run, written once the worker has read its slice of the rows and read back
+ * by the coordinator, which merges the snapshots of all the workers through a {@link com.kartik.rapid.logic.PartitionMerger}.
+ *
+ * header - magic, version, the partition and the partition count, the id count and the bigram count
+ * dictionary - the original ids in the order of their simple keys
+ * forest - the root simple key of every simple key, ie the union-find forest with its paths fully compressed
+ * boundary - every bigram of the partition as its fingerprint and the root of the ids which have it, in ascending order of the fingerprints,
+ * so that the boundaries of all the partitions are merged by bigram in a single pass
+ *
+ * A snapshot is written to a temporary file first and then moved in place, so the coordinator never reads a half written one.
+ */
+public class PartitionSnapshot implements Closeable
+{
+	static final Logger				log					= Logger.getLogger(PartitionSnapshot.class);
+
+	private static final int		MAGIC				= 0x52505031;
+	private static final int		VERSION				= 1;
+	private static final int		BUFFER_SIZE			= 1 << 20;
+	private static final int		INSERTION_SORT_SIZE	= 16;
+
+	private final File				snapshotFile;
+	private final DataInputStream	in;
+	private final int				partition;
+	private final int				partitionCount;
+	private final int				biGramCount;
+	private final long[]			keys;
+	private final int[]				roots;
+
+	private int						remainingBiGrams;
+	private long					fingerprint;
+	private int						root;
+
+	/**
+	 * Opens a snapshot and reads its dictionary and forest. The boundary is read by the cursor of {@link #mergeBoundaries(List)}.
+	 *
+	 * @param snapshotFile - the file written by {@link #write(StreamingClusterer, int, int, File)}
+	 * @throws IOException Signals that an I/O exception has occurred, or that the file is not a partition snapshot.
+	 */
+	public PartitionSnapshot(File snapshotFile) throws IOException
+	{
+		super();
+		this.snapshotFile = snapshotFile;
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), BUFFER_SIZE));
+		try
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(snapshotFile + " is not a partition snapshot of version " + VERSION);
+			partition = in.readInt();
+			partitionCount = in.readInt();
+			int idCount = in.readInt();
+			biGramCount = in.readInt();
+
+			keys = new long[idCount];
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				keys[simpleKey] = in.readLong();
+
+			roots = new int[idCount];
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				roots[simpleKey] = in.readInt();
+		}
+		catch (EOFException e)
+		{
+			in.close();
+			throw new IOException(snapshotFile + " is truncated", e);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			in.close();
+			throw e;
+		}
+		remainingBiGrams = biGramCount;
+	}
+
+	/**
+	 * Writes the partial clustering of a partition.
+	 *
+	 * @param clusterer - the clusterer all the rows of the partition were read into
+	 * @param partition - the partition
+	 * @param partitionCount - the number of partitions of the run
+	 * @param snapshotFile - the file, an existing one is replaced
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void write(StreamingClusterer clusterer, int partition, int partitionCount, File snapshotFile) throws IOException
+	{
+		int idCount = clusterer.getIDCount();
+		long[] fingerprints = new long[clusterer.getBiGramCount()];
+		int[] biGramRoots = new int[fingerprints.length];
+		int biGramCount = clusterer.copyBiGramRepresentatives(fingerprints, biGramRoots);
+		for (int i = 0; i < biGramCount; i++)
+			biGramRoots[i] = clusterer.getRoot(biGramRoots[i]);
+		sort(fingerprints, biGramRoots, 0, biGramCount - 1);
+
+		log.info("Writing partition " + partition + " of " + partitionCount + " :: " + idCount + " ids and " + biGramCount + " bigrams to " + snapshotFile);
+		File temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+		try (
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile), BUFFER_SIZE));)
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(partition);
+			out.writeInt(partitionCount);
+			out.writeInt(idCount);
+			out.writeInt(biGramCount);
+
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				out.writeLong(clusterer.getKey(simpleKey));
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				out.writeInt(clusterer.getRoot(simpleKey));
+			for (int i = 0; i < biGramCount; i++)
+			{
+				out.writeLong(fingerprints[i]);
+				out.writeInt(biGramRoots[i]);
+			}
+		}
+		Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Gets the file the snapshot of a partition is exchanged through.
+	 *
+	 * @param partitionDirectory - the directory shared by the workers and the coordinator of the run
+	 * @param partition - the partition
+	 * @return the snapshot file
+	 */
+	public static File getFile(File partitionDirectory, int partition)
+	{
+		return new File(partitionDirectory, "partition-" + partition + ".bin");
+	}
+
+	/**
+	 * Opens the cursor over the boundaries of all the snapshots, merged by bigram. Every posting is a bigram of a partition and the original
+	 * id of the root of the ids of the partition which have it. Can only be walked once.
+	 *
+	 * @param snapshots - the snapshots of all the partitions
+	 * @return the cursor, grouped by bigram
+	 */
+	public static PostingCursor mergeBoundaries(List<PartitionSnapshot> snapshots)
+	{
+		return new BoundaryCursor(snapshots);
+	}
+
+	/**
+	 * Gets the partition.
+	 *
+	 * @return the partition
+	 */
+	public int getPartition()
+	{
+		return partition;
+	}
+
+	/**
+	 * Gets the number of partitions of the run which wrote the snapshot.
+	 *
+	 * @return the partition count
+	 */
+	public int getPartitionCount()
+	{
+		return partitionCount;
+	}
+
+	/**
+	 * Gets the number of ids of the partition.
+	 *
+	 * @return the id count
+	 */
+	public int getIDCount()
+	{
+		return keys.length;
+	}
+
+	/**
+	 * Gets the number of bigrams of the boundary.
+	 *
+	 * @return the bigram count
+	 */
+	public int getBiGramCount()
+	{
+		return biGramCount;
+	}
+
+	/**
+	 * Gets the original ids, in the order of their simple keys.
+	 *
+	 * @return the keys
+	 */
+	public long[] getKeys()
+	{
+		return keys;
+	}
+
+	/**
+	 * Gets the root simple key of every simple key.
+	 *
+	 * @return the roots
+	 */
+	public int[] getRoots()
+	{
+		return roots;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	/**
+	 * Moves to the next bigram of the boundary.
+	 *
+	 * @return true if there is one
+	 */
+	private boolean advance()
+	{
+		if (remainingBiGrams == 0)
+			return false;
+
+		try
+		{
+			fingerprint = in.readLong();
+			root = in.readInt();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException("Could not read the boundary of " + snapshotFile, e);
+		}
+		remainingBiGrams--;
+		return true;
+	}
+
+	/**
+	 * Sorts the boundary by fingerprint. A quicksort on the 2 parallel arrays, recursing into the smaller half only.
+	 */
+	private static void sort(long[] fingerprints, int[] roots, int from, int to)
+	{
+		while (to - from >= INSERTION_SORT_SIZE)
+		{
+			int middle = (from + to) >>> 1;
+			if (fingerprints[middle] < fingerprints[from])
+				swap(fingerprints, roots, middle, from);
+			if (fingerprints[to] < fingerprints[from])
+				swap(fingerprints, roots, to, from);
+			if (fingerprints[to] < fingerprints[middle])
+				swap(fingerprints, roots, to, middle);
+			long pivot = fingerprints[middle];
+
+			int i = from;
+			int j = to;
+			while (i <= j)
+			{
+				while (fingerprints[i] < pivot)
+					i++;
+				while (fingerprints[j] > pivot)
+					j--;
+				if (i <= j)
+					swap(fingerprints, roots, i++, j--);
+			}
+
+			if (j - from < to - i)
+			{
+				sort(fingerprints, roots, from, j);
+				from = i;
+			}
+			else
+			{
+				sort(fingerprints, roots, i, to);
+				to = j;
+			}
+		}
+
+		for (int i = from + 1; i <= to; i++)
+		{
+			for (int j = i; j > from && fingerprints[j] < fingerprints[j - 1]; j--)
+				swap(fingerprints, roots, j, j - 1);
+		}
+	}
+
+	private static void swap(long[] fingerprints, int[] roots, int i, int j)
+	{
+		long fingerprint = fingerprints[i];
+		fingerprints[i] = fingerprints[j];
+		fingerprints[j] = fingerprint;
+
+		int root = roots[i];
+		roots[i] = roots[j];
+		roots[j] = root;
+	}
+
+	/**
+	 * The k-way merge of the boundaries, a priority queue holding every snapshot which is not exhausted yet, ordered by its current fingerprint.
+	 */
+	private static class BoundaryCursor implements PostingCursor
+	{
+		private final PriorityQueue<PartitionSnapshot>	queue;
+		private PartitionSnapshot						current;
+
+		BoundaryCursor(List<PartitionSnapshot> snapshots)
+		{
+			queue = new PriorityQueue<>(Math.max(snapshots.size(), 1), new Comparator<PartitionSnapshot>()
+			{
+				@Override
+				public int compare(PartitionSnapshot s1, PartitionSnapshot s2)
+				{
+					return Long.compare(s1.fingerprint, s2.fingerprint);
+				}
+			});
+
+			for (PartitionSnapshot snapshot : snapshots)
+			{
+				if (snapshot.advance())
+					queue.add(snapshot);
+			}
+		}
+
+		@Override
+		public boolean isGroupedByBiGram()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean next()
+		{
+			if (current != null && current.advance())
+				queue.add(current);
+
+			current = queue.poll();
+			return current != null;
+		}
+
+		@Override
+		public long getFingerprint()
+		{
+			return current.fingerprint;
+		}
+
+		@Override
+		public long getId()
+		{
+			return current.keys[current.root];
+		}
+	}
+}
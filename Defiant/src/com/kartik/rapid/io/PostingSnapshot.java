@@ -0,0 +1,561 @@
+package com.kartik.rapid.io;
+
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.BiGramIndex;
+import com.kartik.rapid.logic.PostingCursor;
+
+
+/**
+ * The Class PostingSnapshot.
+ * A binary snapshot of the bigram postings read by the ingestion, so that the clustering can be run again on the very same input
+ * without going to the database. It is written bigram by bigram by a {@link Writer} and read back either as a {@link PostingCursor}
+ * straight into RapidCore or as the posting map itself.
+ *
+ * header - magic, version and the distinctIDCount of the ingestion
+ * one record per bigram - the UTF-8 bigram, prefixed by its length, then its posting list. A snapshot of a {@link BiGramIndex}, which
+ * only knows the fingerprints of its bigrams, has the fingerprint in hex in place of the bigram. A posting list is the id count followed by
+ * the ids in ascending order, the first one zigzag coded and every following one as the difference to the previous one, all as varints.
+ * trailer - the bigram count, the posting count and the CRC32 of everything before the trailer
+ *
+ * The bigram of a record sits right before its posting list, so the writer never holds more than one bigram and the cursor just skips it.
+ */
+public class PostingSnapshot implements Closeable
+{
+	static final Logger				log				= Logger.getLogger(PostingSnapshot.class);
+
+	private static final int		MAGIC			= 0x52505331;
+	private static final int		VERSION			= 1;
+	private static final int		HEADER_BYTES	= 12;
+	private static final int		TRAILER_BYTES	= 24;
+	private static final int		BUFFER_SIZE		= 1 << 20;
+	private static final Charset	UTF8			= Charset.forName("UTF-8");
+
+	private final File				snapshotFile;
+	private final RandomAccessFile	file;
+	private final int				distinctIDCount;
+	private final long				biGramCount;
+	private final long				postingCount;
+	private final long				checksum;
+	private final long				dataEnd;
+
+	/**
+	 * Opens a snapshot. Its checksum is verified once it has been read through.
+	 *
+	 * @param snapshotFile - the file written by a {@link Writer}
+	 * @throws IOException Signals that an I/O exception has occurred, or that the file is not a complete snapshot.
+	 */
+	public PostingSnapshot(File snapshotFile) throws IOException
+	{
+		super();
+		this.snapshotFile = snapshotFile;
+		file = new RandomAccessFile(snapshotFile, "r");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			dataEnd = channel.size() - TRAILER_BYTES;
+			if (dataEnd < HEADER_BYTES)
+				throw new IOException(snapshotFile + " is not a posting snapshot");
+
+			ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException(snapshotFile + " is not a posting snapshot of version " + VERSION);
+			distinctIDCount = header.getInt();
+
+			ByteBuffer trailer = readFully(channel, dataEnd, TRAILER_BYTES);
+			biGramCount = trailer.getLong();
+			postingCount = trailer.getLong();
+			checksum = trailer.getLong();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes a whole posting map as a snapshot.
+	 *
+	 * @param dataMap - the bigram to ids map
+	 * @param distinctIDCount - the distinctIDCount the map was built with
+	 * @param snapshotFile - the file, an existing one is overwritten
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void write(Map<?, Set<Long>> dataMap, int distinctIDCount, File snapshotFile) throws IOException
+	{
+		try (
+			Writer writer = new Writer(snapshotFile, distinctIDCount);)
+		{
+			for (Entry<?, Set<Long>> entry : dataMap.entrySet())
+				writer.add(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Writes a whole bigram index as a snapshot, every bigram as the hex of its fingerprint.
+	 *
+	 * @param index - the bigram index
+	 * @param distinctIDCount - the distinctIDCount the index was built with
+	 * @param snapshotFile - the file, an existing one is overwritten
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void write(BiGramIndex index, int distinctIDCount, File snapshotFile) throws IOException
+	{
+		long[] postingIds = new long[16];
+		try (
+			Writer writer = new Writer(snapshotFile, distinctIDCount);)
+		{
+			for (int biGram = 0; biGram < index.getBiGramCount(); biGram++)
+			{
+				int count = 0;
+				for (int posting = index.getFirstPosting(biGram); posting != BiGramIndex.END_OF_LIST; posting = index.getNextPosting(posting))
+				{
+					if (count == postingIds.length)
+						postingIds = Arrays.copyOf(postingIds, count * 2);
+					postingIds[count++] = index.getPostingId(posting);
+				}
+				writer.add(Long.toHexString(index.getFingerprint(biGram)), postingIds, count);
+			}
+		}
+	}
+
+	/**
+	 * Gets the distinctIDCount of the ingestion, to be handed to RapidCore.
+	 *
+	 * @return the distinct id count
+	 */
+	public int getDistinctIDCount()
+	{
+		return distinctIDCount;
+	}
+
+	/**
+	 * Gets the number of bigrams in the snapshot.
+	 *
+	 * @return the bigram count
+	 */
+	public long getBiGramCount()
+	{
+		return biGramCount;
+	}
+
+	/**
+	 * Gets the number of postings in the snapshot.
+	 *
+	 * @return the posting count
+	 */
+	public long getPostingCount()
+	{
+		return postingCount;
+	}
+
+	/**
+	 * Opens a cursor over all the postings, grouped by bigram. The fingerprint of a posting is the number of its bigram in the snapshot.
+	 * A cursor which is read through throws if the checksum does not match, so a damaged snapshot can not silently yield a result.
+	 *
+	 * @return the cursor
+	 */
+	public PostingCursor cursor()
+	{
+		return new SnapshotCursor();
+	}
+
+	/**
+	 * Reads the whole snapshot back into a posting map, with the bigrams as strings.
+	 *
+	 * @return the bigram to ids map
+	 * @throws IOException Signals that an I/O exception has occurred, or that the checksum does not match.
+	 */
+	public Map<Object, Set<Long>> readDataMap() throws IOException
+	{
+		Map<Object, Set<Long>> dataMap = new HashMap<>((int) Math.min(biGramCount * 4 / 3 + 1, Integer.MAX_VALUE));
+		RecordReader reader = new RecordReader();
+		while (reader.hasNextRecord())
+		{
+			String biGram = reader.readBiGram();
+			int count = reader.readCount();
+			Set<Long> ids = new HashSet<>(count * 4 / 3 + 1);
+			for (int i = 0; i < count; i++)
+				ids.add(reader.readId());
+			dataMap.put(biGram, ids);
+		}
+		reader.verify();
+		return dataMap;
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		file.close();
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException();
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static long zigzag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * The streaming writer of a snapshot, adding one bigram with its posting list at a time. The snapshot is complete once the writer is closed.
+	 */
+	public static class Writer implements Closeable
+	{
+		private final RandomAccessFile	file;
+		private final FileChannel		channel;
+		private final ByteBuffer		buffer	= ByteBuffer.allocate(BUFFER_SIZE);
+		private final CRC32				crc		= new CRC32();
+		private long[]					ids		= new long[16];
+		private long					biGramCount;
+		private long					postingCount;
+
+		/**
+		 * Starts a new snapshot.
+		 *
+		 * @param snapshotFile - the file, an existing one is overwritten
+		 * @param distinctIDCount - the distinctIDCount of the ingestion
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		public Writer(File snapshotFile, int distinctIDCount) throws IOException
+		{
+			super();
+			file = new RandomAccessFile(snapshotFile, "rw");
+			file.setLength(0);
+			channel = file.getChannel();
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(distinctIDCount);
+		}
+
+		/**
+		 * Adds a bigram with its posting list. Every bigram must only be added once.
+		 *
+		 * @param biGram - the bigram, written as its string
+		 * @param postingIds - the distinct ids having the bigram
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		public void add(Object biGram, Collection<Long> postingIds) throws IOException
+		{
+			int count = postingIds.size();
+			ensureIdCapacity(count);
+			int i = 0;
+			for (Long id : postingIds)
+				ids[i++] = id;
+			addRecord(biGram, count);
+		}
+
+		/**
+		 * Adds a bigram with the first count ids of postingIds, which may repeat an id. Every bigram must only be added once.
+		 *
+		 * @param biGram - the bigram, written as its string
+		 * @param postingIds - the ids having the bigram, left as they are
+		 * @param count - the number of ids
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		public void add(Object biGram, long[] postingIds, int count) throws IOException
+		{
+			ensureIdCapacity(count);
+			System.arraycopy(postingIds, 0, ids, 0, count);
+			addRecord(biGram, count);
+		}
+
+		private void ensureIdCapacity(int count)
+		{
+			if (ids.length < count)
+				ids = new long[Math.max(count, ids.length * 2)];
+		}
+
+		/**
+		 * Writes the bigram and the first count ids, sorted and without repeats.
+		 */
+		private void addRecord(Object biGram, int count) throws IOException
+		{
+			byte[] key = biGram.toString().getBytes(UTF8);
+			putVarint(key.length);
+			for (int offset = 0; offset < key.length;)
+			{
+				if (buffer.hasRemaining() == false)
+					flush(true);
+				int length = Math.min(key.length - offset, buffer.remaining());
+				buffer.put(key, offset, length);
+				offset += length;
+			}
+
+			Arrays.sort(ids, 0, count);
+			int distinctCount = 0;
+			for (int i = 0; i < count; i++)
+			{
+				if (i == 0 || ids[i] != ids[distinctCount - 1])
+					ids[distinctCount++] = ids[i];
+			}
+
+			putVarint(distinctCount);
+			for (int i = 0; i < distinctCount; i++)
+				putVarint(i == 0 ? zigzag(ids[0]) : ids[i] - ids[i - 1]);
+
+			biGramCount++;
+			postingCount += distinctCount;
+		}
+
+		/**
+		 * Writes the trailer and closes the file.
+		 *
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				flush(true);
+				buffer.putLong(biGramCount).putLong(postingCount).putLong(crc.getValue());
+				flush(false);
+				log.info("Wrote a snapshot of " + biGramCount + " biGrams with " + postingCount + " postings");
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+
+		private void putVarint(long value) throws IOException
+		{
+			if (buffer.remaining() < 10)
+				flush(true);
+			while ((value & ~0x7FL) != 0)
+			{
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+
+		private void flush(boolean checksummed) throws IOException
+		{
+			buffer.flip();
+			if (checksummed)
+				crc.update(buffer.array(), 0, buffer.limit());
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Reads the records one after the other through a buffer of its own, checksumming every byte as it comes in.
+	 */
+	private class RecordReader
+	{
+		private final CRC32	crc		= new CRC32();
+		private ByteBuffer	buffer	= ByteBuffer.allocate(BUFFER_SIZE);
+		private long		position;
+		private long		recordsRead;
+		private boolean		firstId;
+		private long		previousId;
+
+		RecordReader() throws IOException
+		{
+			buffer.flip();
+			ensure(HEADER_BYTES);
+			buffer.position(HEADER_BYTES);
+		}
+
+		boolean hasNextRecord()
+		{
+			return recordsRead < biGramCount;
+		}
+
+		String readBiGram() throws IOException
+		{
+			int length = (int) readVarint();
+			if (length > buffer.capacity())
+			{
+				ByteBuffer larger = ByteBuffer.allocate(length);
+				larger.put(buffer).flip();
+				buffer = larger;
+			}
+			ensure(length);
+			String biGram = new String(buffer.array(), buffer.position(), length, UTF8);
+			buffer.position(buffer.position() + length);
+			recordsRead++;
+			return biGram;
+		}
+
+		void skipBiGram() throws IOException
+		{
+			long length = readVarint();
+			while (length > 0)
+			{
+				ensure(1);
+				int skipped = (int) Math.min(length, buffer.remaining());
+				buffer.position(buffer.position() + skipped);
+				length -= skipped;
+			}
+			recordsRead++;
+		}
+
+		int readCount() throws IOException
+		{
+			firstId = true;
+			return (int) readVarint();
+		}
+
+		long readId() throws IOException
+		{
+			long value = readVarint();
+			previousId = firstId ? unzigzag(value) : previousId + value;
+			firstId = false;
+			return previousId;
+		}
+
+		void verify() throws IOException
+		{
+			if (buffer.hasRemaining() || position != dataEnd || crc.getValue() != checksum)
+				throw new IOException(snapshotFile + " is damaged, its checksum does not match");
+		}
+
+		private long readVarint() throws IOException
+		{
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do
+			{
+				ensure(1);
+				b = buffer.get();
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			}
+			while (b < 0);
+			return value;
+		}
+
+		/**
+		 * Makes sure at least n bytes are buffered, reading on in the records if not. The trailer is never read into the buffer.
+		 */
+		private void ensure(int n) throws IOException
+		{
+			if (buffer.remaining() >= n)
+				return;
+
+			buffer.compact();
+			FileChannel channel = file.getChannel();
+			while (buffer.position() < n)
+			{
+				int start = buffer.position();
+				buffer.limit((int) Math.min(buffer.capacity(), start + dataEnd - position));
+				int read = channel.read(buffer, position);
+				if (read <= 0)
+					throw new EOFException(snapshotFile + " ends before its last record");
+				crc.update(buffer.array(), start, read);
+				position += read;
+			}
+			buffer.flip();
+		}
+	}
+
+	/**
+	 * The cursor over the records, skipping the bigrams themselves as only their posting lists matter to the clustering.
+	 */
+	private class SnapshotCursor implements PostingCursor
+	{
+		private final RecordReader	reader;
+		private long				biGram	= -1;
+		private int					remaining;
+		private long				id;
+
+		SnapshotCursor()
+		{
+			try
+			{
+				reader = new RecordReader();
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException("Could not read snapshot " + snapshotFile, e);
+			}
+		}
+
+		@Override
+		public boolean isGroupedByBiGram()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean next()
+		{
+			try
+			{
+				while (remaining == 0)
+				{
+					if (reader.hasNextRecord() == false)
+					{
+						reader.verify();
+						return false;
+					}
+					reader.skipBiGram();
+					remaining = reader.readCount();
+					biGram++;
+				}
+
+				id = reader.readId();
+				remaining--;
+				return true;
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException("Could not read snapshot " + snapshotFile, e);
+			}
+		}
+
+		@Override
+		public long getFingerprint()
+		{
+			return biGram;
+		}
+
+		@Override
+		public long getId()
+		{
+			return id;
+		}
+	}
+}
@@ -19,8 +19,50 @@ public class RapidClusteringProperties
 	public static final String	ENDNODE_STR		= "endnodeStr";
 	public static final String	TABLE_NAME		= "tableName";
 	public static final String	ID_COLUMN			= "idColumn";
+	public static final String	ID_TYPE				= "idType";
 	public static final String	DESCRIPTION_COLUMNS	= "descriptionColumns";
 	public static final String	CONNECTION_STRING	= "connectionString";
+	public static final String	INCREMENTAL_MODE	= "incrementalMode";
+	public static final String	MODIFIED_COLUMN	= "modifiedColumn";
+	public static final String	STATE_DIRECTORY	= "stateDirectory";
+	public static final String	INGESTION_MODE	= "ingestionMode";
+	public static final String	SPILL_DIRECTORY	= "spillDirectory";
+	public static final String	SORT_BUDGET_MB	= "sortBudgetMB";
+	public static final String	HEAP_BUDGET_MB	= "heapBudgetMB";
+	public static final String	PLAN_SAMPLE_FRACTION	= "planSampleFraction";
+	public static final String	READER_THREADS	= "readerThreads";
+	public static final String	WORKER_THREADS	= "workerThreads";
+	public static final String	FETCH_SIZE		= "fetchSize";
+	public static final String	BACK_UPDATE_WRITERS	= "backUpdateWriters";
+	public static final String	STAGING_TABLE		= "stagingTable";
+	public static final String	RESULT_FILE			= "resultFile";
+	public static final String	WRITE_BACK_BASELINE	= "writeBackBaseline";
+	public static final String	CHECKPOINT_DIRECTORY		= "checkpointDirectory";
+	public static final String	CHECKPOINT_BIGRAMS			= "checkpointBiGrams";
+	public static final String	CHECKPOINT_MAX_OVERHEAD		= "checkpointMaxOverhead";
+	public static final String	SNAPSHOT_FILE		= "snapshotFile";
+	public static final String	INPUT_SOURCE		= "inputSource";
+	public static final String	INPUT_FILE			= "inputFile";
+	public static final String	METRICS_REPORT		= "metricsReport";
+	public static final String	STOP_BIGRAM_MAX_ROWS		= "stopBiGramMaxRows";
+	public static final String	STOP_BIGRAM_MAX_FRACTION	= "stopBiGramMaxFraction";
+	public static final String	STOP_BIGRAM_SAMPLE_FRACTION	= "stopBiGramSampleFraction";
+	public static final String	STOP_BIGRAM_SKETCH_WIDTH	= "stopBiGramSketchWidth";
+	public static final String	CLUSTERING_ENGINE			= "clusteringEngine";
+	public static final String	MINHASH_BANDS				= "minHashBands";
+	public static final String	MINHASH_ROWS_PER_BAND		= "minHashRowsPerBand";
+	public static final String	MINHASH_JACCARD_THRESHOLD	= "minHashJaccardThreshold";
+	public static final String	MINHASH_SHINGLE_SIZE		= "minHashShingleSize";
+	public static final String	MINHASH_BUCKET_CANDIDATES	= "minHashBucketCandidates";
+	public static final String	PARTITION_ROLE				= "partitionRole";
+	public static final String	PARTITION_COUNT				= "partitionCount";
+	public static final String	PARTITION					= "partition";
+	public static final String	PARTITION_DIRECTORY			= "partitionDirectory";
+	public static final String	LOOKUP_PORT					= "lookupPort";
+	public static final String	LOOKUP_THREADS				= "lookupThreads";
+	public static final String	LOOKUP_PAGE_SIZE			= "lookupPageSize";
+	public static final String	LOOKUP_CACHE_SIZE			= "lookupCacheSize";
+	public static final String	LOOKUP_RELOAD_SECONDS		= "lookupReloadSeconds";
 
 	static
 	{
@@ -43,7 +85,7 @@ public class RapidClusteringProperties
 	public static String getProperty(String key)
 	{
 		String value;
-		value = rcProperties.getProperty(key);
+		value = lookUp(key);
 		log.debug("Key " + key + " has value " + value);
 
 		if (value == null || value.isEmpty())
@@ -51,4 +93,35 @@ public class RapidClusteringProperties
 
 		return value;
 	}
+
+	/**
+	 * Gets an optional property, falling back to the default value when the key is missing or empty.
+	 *
+	 * @param key the key
+	 * @param defaultValue the default value
+	 * @return the value
+	 */
+	public static String getProperty(String key, String defaultValue)
+	{
+		String value = lookUp(key);
+		log.debug("Key " + key + " has value " + value);
+
+		if (value == null || value.isEmpty())
+			return defaultValue;
+
+		return value;
+	}
+
+	/**
+	 * Looks the key up in the system properties first, so that a -Dkey=value on the command line overrides RapidClustering.properties,
+	 * eg to start the worker processes of a partitioned run with their own partition.
+	 */
+	private static String lookUp(String key)
+	{
+		String value = System.getProperty(key);
+		if (value != null)
+			return value;
+
+		return rcProperties.getProperty(key);
+	}
 }
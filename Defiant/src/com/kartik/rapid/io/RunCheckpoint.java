@@ -0,0 +1,385 @@
+package com.kartik.rapid.io;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.logic.BiGramSink;
+import com.kartik.rapid.logic.StreamingClusterer;
+import com.kartik.rapid.pojo.ClusteringResult;
+import com.kartik.rapid.utility.RunMetrics;
+import com.kartik.rapid.utility.RunMetrics.Phase;
+
+
+/**
+ * The Class RunCheckpoint.
+ * The checkpoints of a run over the table which can be resumed where it died instead of being started over. The rows are read in ascending
+ * order of their ids and clustered while they are read by a {@link StreamingClusterer}, so the position of the ingestion is the last id read
+ * and the state is the clusterer, which are saved together every checkpointBiGrams postings. Once the last row is in the result is saved,
+ * and the write back then saves the number of rows of every batch it commits. A run finds the last of these in the checkpoint directory:
+ *
+ * ingestion.ckpt - the last id read, the counts of the clusterer, its dictionary, its forest with the paths fully compressed and the root of
+ * the representative of every bigram, which is unioned with the later ids of the bigram as the representative itself would be
+ * result.ckpt - the result, as a {@link ClusteringResultFile}, read back in ascending order of the ids for the write back
+ * writeback.ckpt - the number of rows of the result, in ascending order of the ids, committed to the table and the last id of them
+ *
+ * Every file is written to a temporary file, forced to the disk and moved in place, and the directory is forced as well, so a crash leaves
+ * either the previous checkpoint or the new one. A checkpoint of the ingestion writes all of the state, so its cost grows with the ids and
+ * bigrams read. The next one is only taken once the run went on for long enough that the checkpoints take no more than maxOverhead of its time.
+ * The time and bytes of all the checkpoints are added to the metrics.
+ *
+ * The table is expected not to change between a run and its resume.
+ */
+public class RunCheckpoint
+{
+	static final Logger			log					= Logger.getLogger(RunCheckpoint.class);
+
+	private static final int	MAGIC				= 0x52434b31;
+	private static final int	VERSION				= 1;
+	private static final int	BUFFER_SIZE			= 1 << 20;
+	private static final String	INGESTION_FILE		= "ingestion.ckpt";
+	private static final String	RESULT_FILE			= "result.ckpt";
+	private static final String	WRITE_BACK_FILE		= "writeback.ckpt";
+
+	private final File			directory;
+	private final long			biGramInterval;
+	private final double		maxOverhead;
+	private final RunMetrics	metrics;
+
+	private long				lastId;
+	private long				rowCount;
+
+	/**
+	 * Instantiates the checkpoints of a run.
+	 *
+	 * @param directory - the directory the checkpoints are kept in, created if missing
+	 * @param biGramInterval - the number of postings read between 2 checkpoints of the ingestion, at least
+	 * @param maxOverhead - the largest share of the time of the run the checkpoints of the ingestion may take, above 0 and at most 1
+	 * @param metrics - the metrics the checkpoints are added to, null not to collect any
+	 * @throws IOException Signals that the directory could not be created.
+	 */
+	public RunCheckpoint(File directory, long biGramInterval, double maxOverhead, RunMetrics metrics) throws IOException
+	{
+		super();
+		if (biGramInterval < 1 || maxOverhead <= 0 || maxOverhead > 1)
+			throw new IllegalArgumentException("biGramInterval has to be at least 1 and maxOverhead above 0 and at most 1 but were " + biGramInterval + " and "
+				+ maxOverhead);
+		if (directory.isDirectory() == false && directory.mkdirs() == false)
+			throw new IOException("Could not create checkpoint directory " + directory);
+
+		this.directory = directory;
+		this.biGramInterval = biGramInterval;
+		this.maxOverhead = maxOverhead;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Restores the clusterer of the last checkpoint of the ingestion, if there is one.
+	 *
+	 * @return the clusterer, null to start reading from the first row
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public StreamingClusterer loadIngestion() throws IOException
+	{
+		File file = new File(directory, INGESTION_FILE);
+		if (file.exists() == false)
+			return null;
+
+		try (
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));)
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file + " is not a checkpoint of version " + VERSION);
+
+			lastId = in.readLong();
+			rowCount = in.readLong();
+			long postingCount = in.readLong();
+			long unionCount = in.readLong();
+			long mergeCount = in.readLong();
+			int idCount = in.readInt();
+			int biGramCount = in.readInt();
+
+			long[] keys = new long[idCount];
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				keys[simpleKey] = in.readLong();
+			int[] roots = new int[idCount];
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				roots[simpleKey] = in.readInt();
+			long[] fingerprints = new long[biGramCount];
+			int[] representatives = new int[biGramCount];
+			for (int i = 0; i < biGramCount; i++)
+			{
+				fingerprints[i] = in.readLong();
+				representatives[i] = in.readInt();
+			}
+
+			log.info("Resuming the ingestion after id " + lastId + " :: " + rowCount + " rows, " + idCount + " ids and " + biGramCount + " bigrams read before");
+			return StreamingClusterer.restore(keys, roots, fingerprints, representatives, postingCount, unionCount, mergeCount);
+		}
+	}
+
+	/**
+	 * Gets the last id read before the checkpoint of the ingestion loaded, the rows from the next id on are still to be read.
+	 *
+	 * @return the last id
+	 */
+	public long getLastId()
+	{
+		return lastId;
+	}
+
+	/**
+	 * Wraps the clusterer of the ingestion into the sink the rows are read into, in ascending order of their ids, which checkpoints the
+	 * clusterer along with the last id read every biGramInterval postings. The idColumn need not be unique, so the checkpoint is only taken
+	 * before the first row of a new id: a resume reads the rows after the last id, which would skip the other rows of an id split by it.
+	 *
+	 * @param clusterer - the clusterer, new or restored by {@link #loadIngestion()}
+	 * @return the sink
+	 */
+	public BiGramSink checkpointing(final StreamingClusterer clusterer)
+	{
+		return new BiGramSink()
+		{
+			private long	postingsSinceCheckpoint;
+			private long	nextCheckpointNanos;
+
+			@Override
+			public void accept(long id, long[] biGramFingerprints, int count)
+			{
+				if (id != lastId && postingsSinceCheckpoint >= biGramInterval && System.nanoTime() >= nextCheckpointNanos)
+				{
+					long checkpointStart = System.nanoTime();
+					try
+					{
+						saveIngestion(clusterer);
+					}
+					catch (IOException e)
+					{
+						throw new RuntimeException("Could not checkpoint the ingestion to " + directory, e);
+					}
+					// the run has to go on for (1 - maxOverhead) / maxOverhead times as long as the checkpoint took before the next one
+					long checkpointNanos = System.nanoTime() - checkpointStart;
+					nextCheckpointNanos = checkpointStart + (long) (checkpointNanos / maxOverhead);
+					postingsSinceCheckpoint = 0;
+				}
+
+				clusterer.accept(id, biGramFingerprints, count);
+				lastId = id;
+				rowCount++;
+				postingsSinceCheckpoint += count;
+			}
+		};
+	}
+
+	private void saveIngestion(StreamingClusterer clusterer) throws IOException
+	{
+		long saveStart = System.nanoTime();
+		int idCount = clusterer.getIDCount();
+		long[] fingerprints = new long[clusterer.getBiGramCount()];
+		int[] representatives = new int[fingerprints.length];
+		int biGramCount = clusterer.copyBiGramRepresentatives(fingerprints, representatives);
+
+		File file = new File(directory, INGESTION_FILE);
+		File temporaryFile = new File(directory, INGESTION_FILE + ".tmp");
+		try (
+			FileOutputStream fileOut = new FileOutputStream(temporaryFile);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));)
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(lastId);
+			out.writeLong(rowCount);
+			out.writeLong(clusterer.getPostingCount());
+			out.writeLong(clusterer.getUnionCount());
+			out.writeLong(clusterer.getMergeCount());
+			out.writeInt(idCount);
+			out.writeInt(biGramCount);
+
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				out.writeLong(clusterer.getKey(simpleKey));
+			for (int simpleKey = 0; simpleKey < idCount; simpleKey++)
+				out.writeInt(clusterer.getRoot(simpleKey));
+			for (int i = 0; i < biGramCount; i++)
+			{
+				out.writeLong(fingerprints[i]);
+				out.writeInt(clusterer.getRoot(representatives[i]));
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		}
+		replace(temporaryFile, file);
+
+		log.info("Checkpointed the ingestion after id " + lastId + " :: " + rowCount + " rows, " + idCount + " ids and " + biGramCount + " bigrams, "
+			+ file.length() + " bytes in " + (System.nanoTime() - saveStart) / 1000000 + " ms");
+		addCheckpoint(saveStart, file.length());
+	}
+
+	/**
+	 * Loads the result saved once the ingestion was over, if there is one.
+	 *
+	 * @return the result, in ascending order of the ids, null if the ingestion is not over yet
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public ClusteringResult loadResult() throws IOException
+	{
+		File file = new File(directory, RESULT_FILE);
+		if (file.exists() == false)
+			return null;
+
+		long[] ids;
+		long[] clusterIds;
+		try (
+			ClusteringResultFile resultFile = new ClusteringResultFile(file);)
+		{
+			ids = new long[resultFile.getIdCount()];
+			clusterIds = new long[resultFile.getIdCount()];
+			resultFile.readAll(ids, clusterIds);
+		}
+		log.info("Loaded the result of " + ids.length + " ids checkpointed at the end of the ingestion");
+		return AssignmentDiff.group(ids, clusterIds, ids.length);
+	}
+
+	/**
+	 * Saves the result of the ingestion, after which the checkpoint of the ingestion is not needed any more.
+	 *
+	 * @param result the result
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void saveResult(ClusteringResult result) throws IOException
+	{
+		long saveStart = System.nanoTime();
+		File file = new File(directory, RESULT_FILE);
+		File temporaryFile = new File(directory, RESULT_FILE + ".tmp");
+		ClusteringResultFile.write(result, temporaryFile);
+		try (
+			FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.WRITE);)
+		{
+			channel.force(true);
+		}
+		replace(temporaryFile, file);
+		addCheckpoint(saveStart, file.length());
+
+		Files.deleteIfExists(new File(directory, WRITE_BACK_FILE).toPath());
+		Files.deleteIfExists(new File(directory, INGESTION_FILE).toPath());
+	}
+
+	/**
+	 * Gets the number of rows of the result, in ascending order of the ids, which were committed to the table before. Checked against
+	 * the last id committed, the write back starts over if the result does not match it.
+	 *
+	 * @param result the result loaded by {@link #loadResult()}
+	 * @return the committed row count
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public int getCommittedRowCount(ClusteringResult result) throws IOException
+	{
+		File file = new File(directory, WRITE_BACK_FILE);
+		if (file.exists() == false)
+			return 0;
+
+		try (
+			DataInputStream in = new DataInputStream(new FileInputStream(file));)
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file + " is not a checkpoint of version " + VERSION);
+
+			int committedRowCount = in.readInt();
+			long lastCommittedId = in.readLong();
+			if (committedRowCount < 1 || committedRowCount > result.getIdCount() || result.getId(committedRowCount - 1) != lastCommittedId)
+			{
+				log.warn("The " + committedRowCount + " rows up to id " + lastCommittedId + " committed before do not match the result, writing it back from the start");
+				return 0;
+			}
+
+			log.info("Resuming the write back after id " + lastCommittedId + " :: " + committedRowCount + " of " + result.getIdCount() + " rows committed before");
+			return committedRowCount;
+		}
+	}
+
+	/**
+	 * Saves the number of rows committed to the table by the write back, called after every batch committed.
+	 *
+	 * @param committedRowCount - the number of rows of the result, in ascending order of the ids, committed so far
+	 * @param lastCommittedId - the id of the last of them
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void saveCommittedRows(int committedRowCount, long lastCommittedId) throws IOException
+	{
+		long saveStart = System.nanoTime();
+		File file = new File(directory, WRITE_BACK_FILE);
+		File temporaryFile = new File(directory, WRITE_BACK_FILE + ".tmp");
+		try (
+			FileOutputStream fileOut = new FileOutputStream(temporaryFile);
+			DataOutputStream out = new DataOutputStream(fileOut);)
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(committedRowCount);
+			out.writeLong(lastCommittedId);
+			out.flush();
+			fileOut.getFD().sync();
+		}
+		replace(temporaryFile, file);
+		addCheckpoint(saveStart, file.length());
+	}
+
+	/**
+	 * Removes all the checkpoints, once the run is over.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void clear() throws IOException
+	{
+		Files.deleteIfExists(new File(directory, WRITE_BACK_FILE).toPath());
+		Files.deleteIfExists(new File(directory, RESULT_FILE).toPath());
+		Files.deleteIfExists(new File(directory, INGESTION_FILE).toPath());
+		log.info("Cleared the checkpoints in " + directory);
+	}
+
+	/**
+	 * Moves the temporary file, already forced to the disk, in place of the file and forces the directory, so the move is durable too.
+	 */
+	static void replace(File temporaryFile, File file) throws IOException
+	{
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory(file.getAbsoluteFile().getParentFile());
+	}
+
+	/**
+	 * Forces the directory to the disk, so the files moved into or removed from it are durable.
+	 */
+	static void forceDirectory(File directory)
+	{
+		try (
+			FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);)
+		{
+			channel.force(true);
+		}
+		catch (IOException e)
+		{
+			// not every platform can open a directory, a move is atomic all the same
+			log.debug("Could not force the directory " + directory + " :: " + e);
+		}
+	}
+
+	private void addCheckpoint(long saveStart, long bytes)
+	{
+		if (metrics != null)
+		{
+			metrics.addPhaseNanos(Phase.CHECKPOINT, System.nanoTime() - saveStart);
+			metrics.addCheckpoint(bytes);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.utility.CountMinSketch;
+import com.kartik.rapid.utility.LongIntHashMap;
+import com.kartik.rapid.utility.StopBiGramFilter;
+
+
+/**
+ * BiGramFrequencySketch -
+ * The pre-pass which finds the stop bigrams of the input. Every row handed to it counts once for each of its distinct bigrams in a
+ * {@link CountMinSketch}, so the sketch estimates the number of rows of every bigram, its document frequency, in a fixed amount of memory.
+ * A bigram whose estimate exceeds maxRows when one of its rows is added becomes a stop bigram, and {@link #createFilter()} hands all of
+ * them over as a {@link StopBiGramFilter}. Since the estimates are upper bounds, a rare bigram may be taken for a stop bigram now and
+ * then, but no bigram of more than maxRows of the rows sketched is missed.
+ *
+ * The pre-pass may read a sample of the rows only, for which maxRows is scaled down by the sampleFraction and the estimates up again.
+ */
+public class BiGramFrequencySketch implements BiGramSink
+{
+	static final Logger				log				= Logger.getLogger(BiGramFrequencySketch.class);
+
+	private final CountMinSketch	sketch;
+	private final long				maxRows;
+	private final double			sampleFraction;
+	private final long				maxSampledRows;
+
+	private final LongIntHashMap	stopBiGrams		= new LongIntHashMap(1024);
+	private long[]					stopFingerprints	= new long[1024];
+	private long[]					rowFingerprints	= new long[64];
+	private long					rowCount;
+
+	/**
+	 * Instantiates a new bigram frequency sketch.
+	 *
+	 * @param width - the counters per row of the sketch, check {@link CountMinSketch}
+	 * @param depth - the rows of the sketch
+	 * @param maxRows - the number of rows of the whole input a bigram may have without being a stop bigram
+	 * @param sampleFraction - the fraction of the rows of the input the pre-pass reads, 1 for all of them
+	 */
+	public BiGramFrequencySketch(int width, int depth, long maxRows, double sampleFraction)
+	{
+		super();
+		if (sampleFraction <= 0 || sampleFraction > 1)
+			throw new IllegalArgumentException("sampleFraction has to be above 0 and at most 1 but was " + sampleFraction);
+
+		sketch = new CountMinSketch(width, depth);
+		this.maxRows = maxRows;
+		this.sampleFraction = sampleFraction;
+		maxSampledRows = (long) (maxRows * sampleFraction);
+	}
+
+	@Override
+	public void accept(long id, long[] biGramFingerprints, int count)
+	{
+		rowCount++;
+
+		// a bigram counts once per row, however often the row repeats it
+		if (rowFingerprints.length < count)
+			rowFingerprints = new long[Math.max(count, rowFingerprints.length * 2)];
+		System.arraycopy(biGramFingerprints, 0, rowFingerprints, 0, count);
+		Arrays.sort(rowFingerprints, 0, count);
+
+		for (int i = 0; i < count; i++)
+		{
+			long fingerprint = rowFingerprints[i];
+			if (i > 0 && fingerprint == rowFingerprints[i - 1])
+				continue;
+
+			if (sketch.add(fingerprint) > maxSampledRows && stopBiGrams.putIfAbsent(fingerprint, stopBiGrams.size()) == LongIntHashMap.NO_VALUE)
+			{
+				int stopBiGram = stopBiGrams.size() - 1;
+				if (stopBiGram == stopFingerprints.length)
+					stopFingerprints = Arrays.copyOf(stopFingerprints, stopBiGram * 2);
+				stopFingerprints[stopBiGram] = fingerprint;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of rows sketched.
+	 *
+	 * @return the row count
+	 */
+	public long getRowCount()
+	{
+		return rowCount;
+	}
+
+	/**
+	 * Gets the number of stop bigrams found so far.
+	 *
+	 * @return the stop bigram count
+	 */
+	public int getStopBiGramCount()
+	{
+		return stopBiGrams.size();
+	}
+
+	/**
+	 * Creates the filter of the stop bigrams found, with the number of rows of every one of them estimated for the whole input.
+	 *
+	 * @return the stop bigram filter
+	 */
+	public StopBiGramFilter createFilter()
+	{
+		int count = stopBiGrams.size();
+		long[] fingerprints = Arrays.copyOf(stopFingerprints, count);
+		long[] estimatedRows = new long[count];
+		for (int i = 0; i < count; i++)
+			estimatedRows[i] = Math.round(sketch.estimate(fingerprints[i]) / sampleFraction);
+
+		log.info("Found " + count + " stop bigrams of more than " + maxRows + " rows in " + rowCount + " rows sketched :: the estimates are most likely within "
+			+ Math.round(sketch.getErrorBound() / sampleFraction) + " rows of the counts");
+		return new StopBiGramFilter(fingerprints, estimatedRows, maxRows);
+	}
+}
@@ -0,0 +1,226 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.kartik.rapid.utility.LongIntHashMap;
+
+
+/**
+ * BiGramIndex -
+ * The compact replacement of the Map&lt;Object, Set&lt;Long&gt;&gt; built from the input table. Bigrams are keyed by their 64 bit
+ * fingerprint in a primitive {@link LongIntHashMap}, which numbers them 0 .. biGramCount-1. The postings of all the bigrams
+ * live in fixed size long[] & int[] slabs, each bigram owning a singly linked list through them, newest posting first.
+ * A posting hence costs 12 bytes and growing the index only ever allocates one more slab, nothing is copied.
+ *
+ * Rows are expected one at a time, as a {@link BiGramSink}. A posting whose id equals the newest posting of its bigram is dropped,
+ * which removes the duplicates a row produces when it repeats a bigram.
+ */
+public class BiGramIndex implements BiGramSink
+{
+	/** Terminates the posting list of a bigram. */
+	public static final int		END_OF_LIST	= -1;
+
+	private static final int	SLAB_BITS		= 20;
+	private static final int	SLAB_SIZE		= 1 << SLAB_BITS;
+	private static final int	SLAB_MASK		= SLAB_SIZE - 1;
+
+	private final LongIntHashMap	biGramOrdinals;
+	private long[]				fingerprints;
+	private int[]				heads;
+	private int[]				postingCounts;
+	private int					biGramCount;
+
+	private long[][]			idSlabs		= new long[0][];
+	private int[][]				nextSlabs	= new int[0][];
+	private int					totalPostingCount;
+
+	/**
+	 * Instantiates a new bigram index presized for expectedBiGramCount bigrams.
+	 *
+	 * @param expectedBiGramCount - the expected number of distinct bigrams
+	 */
+	public BiGramIndex(int expectedBiGramCount)
+	{
+		super();
+		int capacity = Math.max(expectedBiGramCount, 16);
+		biGramOrdinals = new LongIntHashMap(capacity);
+		fingerprints = new long[capacity];
+		heads = new int[capacity];
+		postingCounts = new int[capacity];
+	}
+
+	/**
+	 * Adapts a bigram map as built by InputTableDao.createDataMapFromTable. Every entry with a non null key becomes a bigram
+	 * of its own, so distinct keys are never merged whatever their fingerprints.
+	 *
+	 * @param dataMap the data map
+	 * @return the bigram index holding the same posting lists
+	 */
+	public static BiGramIndex of(Map<?, Set<Long>> dataMap)
+	{
+		BiGramIndex index = new BiGramIndex(dataMap.size());
+		for (Entry<?, Set<Long>> entry : dataMap.entrySet())
+		{
+			// BiGram cant be null or a 0 length string .. hence ignore such entries
+			if (entry.getKey() == null || entry.getValue() == null || entry.getValue().isEmpty())
+				continue;
+
+			int biGram = index.newBiGram(0);
+			for (Long id : entry.getValue())
+				index.addPosting(biGram, id);
+		}
+		return index;
+	}
+
+	@Override
+	public void accept(long id, long[] biGramFingerprints, int count)
+	{
+		for (int i = 0; i < count; i++)
+			addPosting(biGramFingerprints[i], id);
+	}
+
+	/**
+	 * Adds a posting of id to the bigram with the fingerprint, creating the bigram if it is seen for the first time.
+	 *
+	 * @param fingerprint the fingerprint of the bigram
+	 * @param id the id
+	 */
+	public void addPosting(long fingerprint, long id)
+	{
+		int biGram = biGramOrdinals.putIfAbsent(fingerprint, biGramCount);
+		if (biGram == LongIntHashMap.NO_VALUE)
+			biGram = newBiGram(fingerprint);
+
+		addPosting(biGram, id);
+	}
+
+	/**
+	 * Gets the number of distinct bigrams.
+	 *
+	 * @return the bigram count
+	 */
+	public int getBiGramCount()
+	{
+		return biGramCount;
+	}
+
+	/**
+	 * Gets the number of postings across all the bigrams.
+	 *
+	 * @return the total posting count
+	 */
+	public int getTotalPostingCount()
+	{
+		return totalPostingCount;
+	}
+
+	/**
+	 * Gets the fingerprint of a bigram. Bigrams adapted from a map have no fingerprint and return 0.
+	 *
+	 * @param biGram the bigram, 0 .. biGramCount-1
+	 * @return the fingerprint
+	 */
+	public long getFingerprint(int biGram)
+	{
+		return fingerprints[biGram];
+	}
+
+	/**
+	 * Gets the bigram with the fingerprint.
+	 *
+	 * @param fingerprint the fingerprint
+	 * @return the bigram, or {@link LongIntHashMap#NO_VALUE} if no such bigram was added
+	 */
+	public int getBiGram(long fingerprint)
+	{
+		return biGramOrdinals.get(fingerprint);
+	}
+
+	/**
+	 * Gets the number of postings of a bigram.
+	 *
+	 * @param biGram the bigram, 0 .. biGramCount-1
+	 * @return the posting count
+	 */
+	public int getPostingCount(int biGram)
+	{
+		return postingCounts[biGram];
+	}
+
+	/**
+	 * Gets the newest posting of a bigram, the start of its posting list.
+	 *
+	 * @param biGram the bigram, 0 .. biGramCount-1
+	 * @return the posting, or {@link #END_OF_LIST} if the bigram has none
+	 */
+	public int getFirstPosting(int biGram)
+	{
+		return heads[biGram];
+	}
+
+	/**
+	 * Gets the posting following the posting in the list of its bigram.
+	 *
+	 * @param posting the posting
+	 * @return the next posting, or {@link #END_OF_LIST}
+	 */
+	public int getNextPosting(int posting)
+	{
+		return nextSlabs[posting >>> SLAB_BITS][posting & SLAB_MASK];
+	}
+
+	/**
+	 * Gets the id of a posting.
+	 *
+	 * @param posting the posting
+	 * @return the id
+	 */
+	public long getPostingId(int posting)
+	{
+		return idSlabs[posting >>> SLAB_BITS][posting & SLAB_MASK];
+	}
+
+	private int newBiGram(long fingerprint)
+	{
+		if (biGramCount == heads.length)
+		{
+			int capacity = heads.length + (heads.length >> 1);
+			fingerprints = Arrays.copyOf(fingerprints, capacity);
+			heads = Arrays.copyOf(heads, capacity);
+			postingCounts = Arrays.copyOf(postingCounts, capacity);
+		}
+
+		fingerprints[biGramCount] = fingerprint;
+		heads[biGramCount] = END_OF_LIST;
+		return biGramCount++;
+	}
+
+	private void addPosting(int biGram, long id)
+	{
+		int head = heads[biGram];
+		if (head != END_OF_LIST && getPostingId(head) == id)
+			return;
+
+		if (totalPostingCount == Integer.MAX_VALUE)
+			throw new IllegalStateException("BiGramIndex can not hold more than " + Integer.MAX_VALUE + " postings");
+
+		int posting = totalPostingCount++;
+		int slab = posting >>> SLAB_BITS;
+		if (slab == idSlabs.length)
+		{
+			idSlabs = Arrays.copyOf(idSlabs, slab + 1);
+			nextSlabs = Arrays.copyOf(nextSlabs, slab + 1);
+			idSlabs[slab] = new long[SLAB_SIZE];
+			nextSlabs[slab] = new int[SLAB_SIZE];
+		}
+
+		idSlabs[slab][posting & SLAB_MASK] = id;
+		nextSlabs[slab][posting & SLAB_MASK] = head;
+		heads[biGram] = posting;
+		postingCounts[biGram]++;
+	}
+}
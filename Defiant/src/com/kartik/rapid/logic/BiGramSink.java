@@ -0,0 +1,19 @@
+package com.kartik.rapid.logic;
+
+
+/**
+ * BiGramSink -
+ * Receives the rows of the input one at a time, each as its id and the fingerprints of all its bigrams.
+ * Rows are the natural unit of ingestion, every structure built from the input is fed through this interface.
+ */
+public interface BiGramSink
+{
+	/**
+	 * Called once for every row which has at least one bigram.
+	 *
+	 * @param id the id of the row
+	 * @param biGramFingerprints the fingerprints of the bigrams of the row. The array is reused for the next row, so it must not be kept.
+	 * @param count the number of valid entries in biGramFingerprints
+	 */
+	void accept(long id, long[] biGramFingerprints, int count);
+}
@@ -0,0 +1,210 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.kartik.rapid.pojo.ClusteringResult;
+import com.kartik.rapid.utility.RunMetrics;
+import com.kartik.rapid.utility.RunMetrics.Phase;
+
+
+/**
+ * ClusteringResultBuilder -
+ * Coalesces a dictionary and the forest clustered over its simple keys into the compact form of {@link ClusteringResult}.
+ * The members are grouped with a counting sort on the cluster of every simple key, so apart from the result itself only
+ * two int arrays of the id count are needed. Looking up the roots is the only part which chases pointers, hence for large
+ * inputs it is spread across a ForkJoinPool. That is safe on any forest once the unions are over, since find only ever
+ * shortcuts a node to one of its ancestors and concurrent finds can at worst redo each other's work.
+ *
+ * Given a {@link RunMetrics}, the root lookups are timed as the final compression and the rest as the coalescing. The depth of every
+ * key is measured before its root is looked up, which is the path length its find walks, and the size of every cluster is recorded.
+ */
+final class ClusteringResultBuilder
+{
+	private static final int	PARALLEL_THRESHOLD	= 1 << 20;
+	private static final int	LEAF_SIZE			= 1 << 16;
+
+	private ClusteringResultBuilder()
+	{
+	}
+
+	/**
+	 * Builds the result of all the clusters, numbering them 0 .. clusterCount-1 in the order their first member was met.
+	 * The clusterID of a cluster is canonical, its smallest id. For numeric ids that depends on nothing but the members, so the same
+	 * cluster gets the same clusterID in every run, whatever order the input is read in.
+	 *
+	 * @param dictionary the dictionary
+	 * @param forest the forest
+	 * @param threadCount the number of threads the roots may be looked up with
+	 * @param metrics the metrics of the run, may be null
+	 * @return the clustering result
+	 */
+	static ClusteringResult build(SimpleKeyDictionary dictionary, DisjointSetForest forest, int threadCount, RunMetrics metrics)
+	{
+		return build(dictionary, forest, threadCount, null, metrics);
+	}
+
+	/**
+	 * Builds the result of only those clusters whose root is in includedRoots, with all their members. The clusterID of a cluster is
+	 * its smallest id, as in {@link #build(SimpleKeyDictionary, DisjointSetForest, int, RunMetrics)}, so a cluster gets the same clusterID
+	 * whether the table was clustered from scratch or incrementally.
+	 *
+	 * @param dictionary the dictionary
+	 * @param forest the forest
+	 * @param threadCount the number of threads the roots may be looked up with
+	 * @param includedRoots the roots of the clusters to be included
+	 * @param metrics the metrics of the run, may be null
+	 * @return the clustering result
+	 */
+	static ClusteringResult buildForRoots(SimpleKeyDictionary dictionary, DisjointSetForest forest, int threadCount, BitSet includedRoots, RunMetrics metrics)
+	{
+		return build(dictionary, forest, threadCount, includedRoots, metrics);
+	}
+
+	private static ClusteringResult build(SimpleKeyDictionary dictionary, DisjointSetForest forest, int threadCount, BitSet includedRoots, RunMetrics metrics)
+	{
+		int keyCount = dictionary.size();
+		if (metrics != null)
+			metrics.addFindPathLengths(measurePathLengths(forest, keyCount));
+
+		long compressionStart = System.nanoTime();
+		int[] roots = findRoots(forest, keyCount, threadCount);
+		long coalescingStart = System.nanoTime();
+
+		// number the clusters & count the included ids
+		int[] clusterOfRoot = new int[keyCount];
+		Arrays.fill(clusterOfRoot, -1);
+		int clusterCount = 0;
+		int idCount = 0;
+		for (int simpleKey = 0; simpleKey < keyCount; simpleKey++)
+		{
+			int root = roots[simpleKey];
+			if (includedRoots != null && includedRoots.get(root) == false)
+				continue;
+
+			if (clusterOfRoot[root] == -1)
+				clusterOfRoot[root] = clusterCount++;
+			idCount++;
+		}
+
+		long[] ids = new long[idCount];
+		int[] assignment = new int[idCount];
+		long[] clusterIds = new long[clusterCount];
+		Arrays.fill(clusterIds, Long.MAX_VALUE);
+		int[] offsets = new int[clusterCount + 1];
+
+		int index = 0;
+		for (int simpleKey = 0; simpleKey < keyCount; simpleKey++)
+		{
+			int root = roots[simpleKey];
+			int cluster = clusterOfRoot[root];
+			if (cluster == -1)
+				continue;
+
+			ids[index] = dictionary.getKey(simpleKey);
+			assignment[index] = cluster;
+			if (ids[index] < clusterIds[cluster])
+				clusterIds[cluster] = ids[index];
+			offsets[cluster + 1]++;
+			index++;
+		}
+
+		for (int cluster = 0; cluster < clusterCount; cluster++)
+			offsets[cluster + 1] += offsets[cluster];
+
+		// scatter every id to the next free position of its cluster, reusing the roots array as the cursors
+		int[] cursors = roots;
+		System.arraycopy(offsets, 0, cursors, 0, clusterCount);
+		long[] memberIds = new long[idCount];
+		for (index = 0; index < idCount; index++)
+			memberIds[cursors[assignment[index]]++] = ids[index];
+
+		ClusteringResult result = new ClusteringResult(ids, assignment, memberIds, offsets, clusterIds);
+		if (metrics != null)
+		{
+			metrics.addPhaseNanos(Phase.FINAL_COMPRESSION, coalescingStart - compressionStart);
+			metrics.addPhaseNanos(Phase.COALESCING, System.nanoTime() - coalescingStart);
+			for (int cluster = 0; cluster < clusterCount; cluster++)
+				metrics.addCluster(offsets[cluster + 1] - offsets[cluster]);
+		}
+		return result;
+	}
+
+	/**
+	 * Measures the depth of every key, without shortening any path.
+	 */
+	private static long[] measurePathLengths(DisjointSetForest forest, int keyCount)
+	{
+		long[] lengthHistogram = new long[RunMetrics.BUCKET_COUNT];
+		for (int simpleKey = 0; simpleKey < keyCount; simpleKey++)
+		{
+			int length = 0;
+			for (int key = simpleKey, parent = forest.getParent(key); parent != key; key = parent, parent = forest.getParent(key))
+				length++;
+			lengthHistogram[RunMetrics.pathLengthBucket(length)]++;
+		}
+		return lengthHistogram;
+	}
+
+	private static int[] findRoots(DisjointSetForest forest, int keyCount, int threadCount)
+	{
+		int[] roots = new int[keyCount];
+
+		if (threadCount > 1 && keyCount >= PARALLEL_THRESHOLD)
+		{
+			ForkJoinPool pool = new ForkJoinPool(threadCount);
+			try
+			{
+				pool.invoke(new FindRootsTask(forest, roots, 0, keyCount));
+			}
+			finally
+			{
+				pool.shutdown();
+			}
+		}
+		else
+		{
+			for (int simpleKey = 0; simpleKey < keyCount; simpleKey++)
+				roots[simpleKey] = forest.find(simpleKey);
+		}
+		return roots;
+	}
+
+	/**
+	 * Looks up the roots of a range of simple keys, halving the range into subtasks till it is small enough.
+	 */
+	private static class FindRootsTask extends RecursiveAction
+	{
+		private static final long			serialVersionUID	= 1L;
+
+		private final DisjointSetForest	forest;
+		private final int[]				roots;
+		private final int					from;
+		private final int					to;
+
+		FindRootsTask(DisjointSetForest forest, int[] roots, int from, int to)
+		{
+			this.forest = forest;
+			this.roots = roots;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= LEAF_SIZE)
+			{
+				for (int simpleKey = from; simpleKey < to; simpleKey++)
+					roots[simpleKey] = forest.find(simpleKey);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new FindRootsTask(forest, roots, from, middle), new FindRootsTask(forest, roots, middle, to));
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * ConcurrentIdDictionary -
+ * A lock free counterpart of {@link IdDictionary} for the multi-threaded clustering mode.
+ * Keys are claimed with a compareAndSet on an open addressing {@link AtomicLongArray}. The thread which wins the slot then takes the
+ * next simple key from a shared counter and publishes it in the value array, threads probing the same key meanwhile spin until it appears.
+ * The key 0 marks free slots and is hence kept aside in its own field.
+ *
+ * The table does not grow, so it must be sized with the real distinctIDCount up front. An {@link IllegalStateException} is thrown
+ * for the first key beyond it, after which {@link #size()} exceeds distinctIDCount. The slot claimed for that key is then marked
+ * overflowed rather than published, and from then on every thread adding or awaiting a key throws too, instead of spinning on a
+ * simple key which will never be published.
+ * The reverse table is a plain long[] and only meant to be read once all the writing threads have been joined.
+ */
+public class ConcurrentIdDictionary implements SimpleKeyDictionary
+{
+	// values are stored as simpleKey + 1 so that 0 means the slot is claimed but the simple key is not published yet
+	private static final int		UNPUBLISHED	= 0;
+	private static final int		ABSENT		= -1;
+	private static final int		OVERFLOWED	= -3;
+
+	private final AtomicLongArray	keys;
+	private final AtomicIntegerArray	values;
+	private final AtomicInteger		zeroKeyValue	= new AtomicInteger(ABSENT);
+	private final int				mask;
+
+	private final long[]			invertedMappingArray;
+	private final AtomicInteger		nextSimpleKey	= new AtomicInteger();
+	private volatile boolean		overflowed;
+
+	/**
+	 * Instantiates a new concurrent id dictionary for distinctIDCount keys.
+	 *
+	 * @param distinctIDCount - the number of distinct keys which will be added
+	 */
+	public ConcurrentIdDictionary(int distinctIDCount)
+	{
+		super();
+		// between 2 and 4 slots per key, which keeps the probe sequences short without ever having to grow
+		int capacity = Integer.highestOneBit(Math.max(distinctIDCount, 1));
+		capacity = capacity >= 1 << 28 ? 1 << 30 : capacity << 2;
+		keys = new AtomicLongArray(capacity);
+		values = new AtomicIntegerArray(capacity);
+		mask = capacity - 1;
+		invertedMappingArray = new long[distinctIDCount];
+	}
+
+	@Override
+	public int getOrAdd(long key)
+	{
+		if (overflowed)
+			throw overflow();
+		if (key == 0)
+			return getOrAddZeroKey();
+
+		int slot = slotOf(key);
+		while (true)
+		{
+			long slotKey = keys.get(slot);
+
+			if (slotKey == key)
+				return awaitSimpleKey(slot);
+
+			if (slotKey == 0)
+			{
+				if (keys.compareAndSet(slot, 0, key))
+				{
+					int simpleKey;
+					try
+					{
+						simpleKey = newSimpleKey(key);
+					}
+					catch (IllegalStateException e)
+					{
+						values.set(slot, OVERFLOWED);
+						throw e;
+					}
+					values.set(slot, simpleKey + 1);
+					return simpleKey;
+				}
+				// lost the slot to another thread, look at it again as it may have claimed the very same key
+				continue;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	@Override
+	public int get(long key)
+	{
+		if (key == 0)
+		{
+			int value = zeroKeyValue.get();
+			return value < 0 ? ABSENT : value;
+		}
+
+		int slot = slotOf(key);
+		long slotKey;
+		while ((slotKey = keys.get(slot)) != 0)
+		{
+			if (slotKey == key)
+				return awaitSimpleKey(slot);
+			slot = (slot + 1) & mask;
+		}
+		return ABSENT;
+	}
+
+	@Override
+	public long getKey(int simpleKey)
+	{
+		return invertedMappingArray[simpleKey];
+	}
+
+	@Override
+	public int size()
+	{
+		return nextSimpleKey.get();
+	}
+
+	private int getOrAddZeroKey()
+	{
+		// ABSENT -> claimed (-2) -> simpleKey or OVERFLOWED
+		while (true)
+		{
+			int value = zeroKeyValue.get();
+			if (value >= 0)
+				return value;
+			if (value == OVERFLOWED || overflowed)
+				throw overflow();
+
+			if (value == ABSENT && zeroKeyValue.compareAndSet(ABSENT, -2))
+			{
+				int simpleKey;
+				try
+				{
+					simpleKey = newSimpleKey(0);
+				}
+				catch (IllegalStateException e)
+				{
+					zeroKeyValue.set(OVERFLOWED);
+					throw e;
+				}
+				zeroKeyValue.set(simpleKey);
+				return simpleKey;
+			}
+			Thread.yield();
+		}
+	}
+
+	private int newSimpleKey(long key)
+	{
+		int simpleKey = nextSimpleKey.getAndIncrement();
+		if (simpleKey >= invertedMappingArray.length)
+		{
+			overflowed = true;
+			throw overflow();
+		}
+
+		invertedMappingArray[simpleKey] = key;
+		return simpleKey;
+	}
+
+	private int awaitSimpleKey(int slot)
+	{
+		int value;
+		while ((value = values.get(slot)) == UNPUBLISHED)
+		{
+			if (overflowed)
+				throw overflow();
+			Thread.yield();
+		}
+		if (value == OVERFLOWED)
+			throw overflow();
+		return value - 1;
+	}
+
+	private IllegalStateException overflow()
+	{
+		return new IllegalStateException("More than distinctIDCount " + invertedMappingArray.length + " distinct keys encountered");
+	}
+
+	private int slotOf(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
@@ -0,0 +1,100 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * ConcurrentUnionFind -
+ * A lock free disjoint set forest which any number of threads can union into at the same time.
+ * Parents live in an {@link AtomicIntegerArray}. A root is only ever linked with a compareAndSet which expects it to still be a root,
+ * and links always go from the lower to the higher ranked root of a fixed pseudo random ranking of the keys. Hence every path
+ * in the forest is strictly increasing in rank, which rules out cycles and keeps the expected depth logarithmic without a size array.
+ * find does path halving with a best effort compareAndSet, a lost race there only means a slightly longer path.
+ */
+public class ConcurrentUnionFind implements DisjointSetForest
+{
+	private final AtomicIntegerArray	parent;
+
+	/**
+	 * Instantiates a new concurrent union find where each of the keys 0 .. capacity-1 starts off as its own set.
+	 *
+	 * @param capacity - the number of keys the forest can hold
+	 */
+	public ConcurrentUnionFind(int capacity)
+	{
+		super();
+		parent = new AtomicIntegerArray(capacity);
+		for (int i = 0; i < capacity; i++)
+			parent.set(i, i);
+	}
+
+	@Override
+	public int find(int i)
+	{
+		while (true)
+		{
+			int p = parent.get(i);
+			if (p == i)
+				return i;
+
+			int grandParent = parent.get(p);
+			if (p != grandParent)
+				parent.compareAndSet(i, p, grandParent);
+			i = grandParent;
+		}
+	}
+
+	@Override
+	public boolean union(int a, int b)
+	{
+		while (true)
+		{
+			int rootA = find(a);
+			int rootB = find(b);
+
+			if (rootA == rootB)
+				return false;
+
+			// always hang the lower ranked root below the higher ranked one
+			if (outranks(rootA, rootB))
+			{
+				int swap = rootA;
+				rootA = rootB;
+				rootB = swap;
+			}
+
+			// fails only if some other thread linked rootA in the meantime, in which case the roots are looked up again
+			if (parent.compareAndSet(rootA, rootA, rootB))
+				return true;
+		}
+	}
+
+	@Override
+	public int getParent(int i)
+	{
+		return parent.get(i);
+	}
+
+	@Override
+	public int getCapacity()
+	{
+		return parent.length();
+	}
+
+	private static boolean outranks(int a, int b)
+	{
+		int rankA = rank(a);
+		int rankB = rank(b);
+		return rankA > rankB || (rankA == rankB && a > b);
+	}
+
+	/**
+	 * Scrambles the key into its rank. Ranking by the key itself would turn an ascending input into one long chain.
+	 */
+	private static int rank(int i)
+	{
+		int h = i * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,41 @@
+package com.kartik.rapid.logic;
+
+
+/**
+ * DisjointSetForest -
+ * The union-find contract RapidCore clusters against. Keys are the dense simple keys handed out by a {@link SimpleKeyDictionary}.
+ */
+public interface DisjointSetForest
+{
+	/**
+	 * Finds the root of the set containing key i.
+	 *
+	 * @param i the key
+	 * @return the root of the set containing i
+	 */
+	int find(int i);
+
+	/**
+	 * Merges the sets containing keys a and b.
+	 *
+	 * @param a the first key
+	 * @param b the second key
+	 * @return true if a and b were in different sets before the call
+	 */
+	boolean union(int a, int b);
+
+	/**
+	 * Gets the parent of key i, which is i itself for a root. Only meant for inspecting the shape of the forest.
+	 *
+	 * @param i the key
+	 * @return the parent of i
+	 */
+	int getParent(int i);
+
+	/**
+	 * Gets the capacity ie the number of keys the forest can hold.
+	 *
+	 * @return the capacity
+	 */
+	int getCapacity();
+}
@@ -0,0 +1,133 @@
+package com.kartik.rapid.logic;
+
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.utility.ExecutionPlan;
+import com.kartik.rapid.utility.ExecutionPlan.Mode;
+import com.kartik.rapid.utility.HyperLogLog;
+
+
+/**
+ * ExecutionPlanner -
+ * The pre-pass which picks the ingestion mode of a run. The rows handed to it, usually a sample of the input, are counted along with
+ * their postings, and their ids and bigram fingerprints are added to a {@link HyperLogLog} each. From these the distinct ids, distinct
+ * bigrams and postings of the whole input are estimated, and from those the heap every mode would take, of which {@link #plan} picks
+ * the fastest one fitting the heap budget.
+ *
+ * Ids and postings grow with the rows in proportion. Bigrams do not, as the rows read later mostly repeat the bigrams met already, so
+ * their count is extrapolated along Heaps' law, D(n) = k * n^beta, with beta taken from the distinct bigrams of the sample at half its
+ * rows and at all of them.
+ *
+ * The bytes per id, bigram and posting are those of the structures every mode builds, including the slack of the arrays and tables
+ * which double as they grow. They are estimates for planning, the structures grow past any count they are presized with.
+ */
+public class ExecutionPlanner implements BiGramSink
+{
+	static final Logger			log							= Logger.getLogger(ExecutionPlanner.class);
+
+	/** The dictionary, the forest and the result over an id, whatever the mode. */
+	static final int			ID_BYTES					= 80;
+	/** An id and a next link in the slabs of a {@link BiGramIndex}. */
+	static final int			INDEX_POSTING_BYTES			= 12;
+	/** A fingerprint, a head, a count and a hash table entry in a {@link BiGramIndex}. */
+	static final int			INDEX_BIGRAM_BYTES			= 48;
+	/** The first id of a bigram, in the {@link com.kartik.rapid.utility.LongIntHashMap} of the single scan of the mapped postings. */
+	static final int			REPRESENTATIVE_BYTES		= 32;
+	/** The least heap the postings get for sorting, however little the budget leaves them. */
+	static final long			MIN_SORT_BUDGET				= 16L << 20;
+
+	private static final int	PRECISION					= 14;
+
+	private final HyperLogLog	ids							= new HyperLogLog(PRECISION);
+	private final HyperLogLog	biGrams						= new HyperLogLog(PRECISION);
+	// the distinct bigrams met after 2^i rows
+	private final long[]		biGramCountAtPowerOf2Rows	= new long[64];
+	private long				rowCount;
+	private long				postingCount;
+
+	@Override
+	public void accept(long id, long[] biGramFingerprints, int count)
+	{
+		ids.add(id);
+		for (int i = 0; i < count; i++)
+			biGrams.add(biGramFingerprints[i]);
+
+		postingCount += count;
+		rowCount++;
+		if (Long.bitCount(rowCount) == 1)
+			biGramCountAtPowerOf2Rows[Long.numberOfTrailingZeros(rowCount)] = biGrams.estimate();
+	}
+
+	/**
+	 * Gets the number of rows handed to the planner.
+	 *
+	 * @return the row count
+	 */
+	public long getRowCount()
+	{
+		return rowCount;
+	}
+
+	/**
+	 * Plans a run over totalRowCount rows, of which the rows handed to the planner are a sample.
+	 *
+	 * @param totalRowCount - the number of rows of the whole input
+	 * @param heapBudget - the bytes of heap the run may take
+	 * @param sortBudget - the most bytes of heap the postings may take in {@link Mode#EXTERNAL}, less if the budget does not leave them as much
+	 * @return the plan
+	 */
+	public ExecutionPlan plan(long totalRowCount, long heapBudget, long sortBudget)
+	{
+		double scale = rowCount == 0 ? 0 : (double) Math.max(totalRowCount, rowCount) / rowCount;
+		long idCount = Math.min(Math.round(ids.estimate() * scale), Math.max(totalRowCount, rowCount));
+		long totalPostingCount = Math.round(postingCount * scale);
+		long biGramCount = Math.min(Math.round(biGrams.estimate() * Math.pow(scale, getHeapsExponent())), totalPostingCount);
+
+		long idBytes = idCount * ID_BYTES;
+		long[] heapBytes = new long[Mode.values().length];
+		heapBytes[Mode.HEAP.ordinal()] = idBytes + totalPostingCount * INDEX_POSTING_BYTES + biGramCount * INDEX_BIGRAM_BYTES;
+		heapBytes[Mode.MAPPED.ordinal()] = idBytes + biGramCount * REPRESENTATIVE_BYTES;
+		long externalSortBudget = Math.max(MIN_SORT_BUDGET, Math.min(sortBudget, heapBudget - idBytes));
+		heapBytes[Mode.EXTERNAL.ordinal()] = idBytes + externalSortBudget;
+
+		// the fastest mode which fits, the external one if none does, as it needs the least heap
+		Mode mode = Mode.EXTERNAL;
+		for (Mode candidate : Mode.values())
+		{
+			if (heapBytes[candidate.ordinal()] <= heapBudget)
+			{
+				mode = candidate;
+				break;
+			}
+		}
+
+		ExecutionPlan plan = new ExecutionPlan(mode, heapBudget, externalSortBudget, idCount, biGramCount, totalPostingCount, heapBytes);
+		log.info("Planned from " + rowCount + " of " + totalRowCount + " rows :: " + plan);
+		if (heapBytes[mode.ordinal()] > heapBudget)
+			log.warn("Even the external mode is estimated to need " + (heapBytes[mode.ordinal()] >> 20) + " MB, more than the heap budget of "
+				+ (heapBudget >> 20) + " MB");
+		return plan;
+	}
+
+	/**
+	 * Gets beta of D(n) = k * n^beta from the distinct bigrams at the last power of 2 of rows no more than half of the rows, and at all of them.
+	 * 1, ie as many new bigrams for every row as before, if the sample is too small to tell.
+	 */
+	double getHeapsExponent()
+	{
+		if (rowCount < 4)
+			return 1;
+
+		int halfPowerOf2 = 63 - Long.numberOfLeadingZeros(rowCount / 2);
+		long earlierCount = biGramCountAtPowerOf2Rows[halfPowerOf2];
+		long count = biGrams.estimate();
+		if (earlierCount == 0)
+			return 1;
+		if (count <= earlierCount)
+			return 0;
+
+		double exponent = Math.log((double) count / earlierCount) / Math.log((double) rowCount / (1L << halfPowerOf2));
+		return Math.max(0, Math.min(1, exponent));
+	}
+}
@@ -0,0 +1,85 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.Arrays;
+
+import com.kartik.rapid.utility.LongIntHashMap;
+
+
+/**
+ * IdDictionary -
+ * Converts user input of non consecutive long keys, to a ordered and consecutive int values called simple keys.
+ * This uniformity is important as an array of all these values is maintained, which gives the algo the reqd speed.
+ * Since its an array, there should not be any missing values as it leads to space wastage of the indices of the array.
+ *
+ * eg :: input 1 , 2 , 50 , 100 is converted to 0 , 1 , 2 , 3
+ *
+ * The forward direction is a primitive open addressing {@link LongIntHashMap} and the reverse direction a plain long[],
+ * so translating a key in either direction never allocates. Both grow as keys are added, doubling whenever they are full, so a
+ * distinctIDCount which is only an estimate costs a few copies when it is too low and never an ArrayIndexOutOfBoundsException.
+ */
+public class IdDictionary implements SimpleKeyDictionary
+{
+	/** The most keys a dictionary or a forest over it can hold, the largest length an array can have on all the common VMs. */
+	static final int				MAX_CAPACITY	= Integer.MAX_VALUE - 8;
+
+	private final LongIntHashMap	simplifiedMapping;
+	private long[]					invertedMappingArray;
+	private int						nextSimpleKey;
+
+	/**
+	 * Instantiates a new id dictionary presized for distinctIDCount keys.
+	 *
+	 * @param distinctIDCount - the number of distinct keys expected, more can be added
+	 */
+	public IdDictionary(int distinctIDCount)
+	{
+		super();
+		simplifiedMapping = new LongIntHashMap(distinctIDCount);
+		invertedMappingArray = new long[distinctIDCount];
+	}
+
+	@Override
+	public int getOrAdd(long key)
+	{
+		int simpleKey = simplifiedMapping.putIfAbsent(key, nextSimpleKey);
+		if (simpleKey != LongIntHashMap.NO_VALUE)
+			return simpleKey;
+
+		if (nextSimpleKey == invertedMappingArray.length)
+			invertedMappingArray = Arrays.copyOf(invertedMappingArray, grownCapacity(nextSimpleKey));
+		invertedMappingArray[nextSimpleKey] = key;
+		return nextSimpleKey++;
+	}
+
+	@Override
+	public int get(long key)
+	{
+		return simplifiedMapping.get(key);
+	}
+
+	@Override
+	public long getKey(int simpleKey)
+	{
+		return invertedMappingArray[simpleKey];
+	}
+
+	@Override
+	public int size()
+	{
+		return nextSimpleKey;
+	}
+
+	/**
+	 * Gets the capacity an array full at keyCount keys grows to, twice as many, but never beyond the largest array.
+	 *
+	 * @param keyCount - the number of keys the array holds
+	 * @return the grown capacity
+	 */
+	static int grownCapacity(int keyCount)
+	{
+		if (keyCount >= MAX_CAPACITY)
+			throw new IllegalStateException("Can not hold more than " + MAX_CAPACITY + " distinct keys");
+		return (int) Math.min(Math.max(16, 2L * keyCount), MAX_CAPACITY);
+	}
+}
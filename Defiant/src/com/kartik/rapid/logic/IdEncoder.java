@@ -0,0 +1,46 @@
+package com.kartik.rapid.logic;
+
+
+/**
+ * IdEncoder -
+ * Turns the ids of the input, whatever their type, into the long ids everything from the {@link BiGramSink} on works with, and back.
+ * Numeric ids are their own code. Any other id is given the next dense code by a dictionary of its type when it is first met, so
+ * the clustering never sees anything but longs and the original ids only come back when the result is written.
+ *
+ * The codes of a dictionary are only valid for the encoder which handed them out, they can not be compared across runs or processes.
+ * An encoder is not thread safe.
+ */
+public interface IdEncoder
+{
+	/**
+	 * Encodes an id. An id met before gets the code it got the first time.
+	 *
+	 * @param id the id, as read from the input. Only copied if it has not been met before, so it may be a reused buffer.
+	 * @return the code
+	 * @throws IllegalArgumentException if the id is not of the type of the encoder
+	 */
+	long encode(CharSequence id);
+
+	/**
+	 * Decodes a code into the id to be bound to a statement, a Long, a String or the 16 bytes of a UUID.
+	 *
+	 * @param code the code
+	 * @return the id
+	 */
+	Object decode(long code);
+
+	/**
+	 * Decodes a code into the text of its id.
+	 *
+	 * @param code the code
+	 * @return the id as text
+	 */
+	String toString(long code);
+
+	/**
+	 * Gets the type of the ids encoded.
+	 *
+	 * @return the id type
+	 */
+	IdType getType();
+}
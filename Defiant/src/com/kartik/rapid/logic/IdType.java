@@ -0,0 +1,34 @@
+package com.kartik.rapid.logic;
+
+
+/**
+ * IdType -
+ * The types of ids an input can have, each with its own {@link IdEncoder}.
+ */
+public enum IdType
+{
+	/** Integral ids of up to 64 bits, which are their own code. */
+	NUMERIC,
+	/** Text ids, eg VARCHAR keys or several key columns concatenated into one. */
+	STRING,
+	/** UUIDs kept in a RAW(16) column, read as 32 hex digits with or without the dashes. UUIDs kept as text are STRING ids. */
+	UUID;
+
+	/**
+	 * Creates an encoder of the ids of this type.
+	 *
+	 * @return the id encoder
+	 */
+	public IdEncoder newEncoder()
+	{
+		switch (this)
+		{
+			case STRING:
+				return new StringIdEncoder(1024);
+			case UUID:
+				return new UuidIdEncoder(1024);
+			default:
+				return new NumericIdEncoder();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.pojo.ClusteringResult;
+import com.kartik.rapid.utility.BiGramUtility;
+import com.kartik.rapid.utility.LongIntHashMap;
+
+
+/**
+ * IncrementalClusterer -
+ * Keeps the clustering of a table alive across runs, so that a daily refresh only has to read the rows which changed.
+ * The state is the {@link IdDictionary}, the {@link UnionFind} over its simple keys and an index of the fingerprint of every bigram
+ * seen so far to the simple key which first brought it in. A delta map is merged by unioning each of its keys with the representative
+ * of every one of its bigrams, new bigrams simply get the first key of their set as representative.
+ *
+ * The cluster id of a cluster is its smallest id, the same canonical id a full clustering gives it. It only changes when its cluster
+ * is merged with one holding a smaller id, so clusters not touched by a delta keep their ids and only the touched ones have to be
+ * written back.
+ * Merging is additive: a row which lost bigrams can not split its cluster, for that the table has to be clustered from scratch.
+ */
+public class IncrementalClusterer
+{
+	static final Logger				log	= Logger.getLogger(IncrementalClusterer.class);
+
+	private final IdDictionary		dictionary;
+	private final UnionFind			unionFind;
+	private final LongIntHashMap	biGramRepresentatives;
+	private final BitSet			touchedKeys	= new BitSet();
+
+	/**
+	 * Instantiates a new incremental clusterer without any state, for the very first run.
+	 *
+	 * @param distinctIDCount - the number of distinct ids the clusterer is presized for, it grows beyond
+	 */
+	public IncrementalClusterer(int distinctIDCount)
+	{
+		this(distinctIDCount, distinctIDCount);
+	}
+
+	private IncrementalClusterer(int distinctIDCount, int biGramCount)
+	{
+		super();
+		this.dictionary = new IdDictionary(distinctIDCount);
+		this.unionFind = new UnionFind(distinctIDCount);
+		this.biGramRepresentatives = new LongIntHashMap(biGramCount);
+	}
+
+	/**
+	 * Restores the clusterer persisted by a previous run.
+	 *
+	 * @param keys - the original keys, in the order of their simple keys
+	 * @param roots - the root simple key of every simple key
+	 * @param biGramFingerprints - the fingerprints of the bigrams seen so far
+	 * @param biGramRepresentatives - the representative simple key of every one of these bigrams
+	 * @param additionalIDCount - room for the new ids the next delta can bring in
+	 * @return the restored clusterer
+	 */
+	public static IncrementalClusterer restore(long[] keys, int[] roots, long[] biGramFingerprints, int[] biGramRepresentatives,
+		int additionalIDCount)
+	{
+		IncrementalClusterer clusterer = new IncrementalClusterer(keys.length + additionalIDCount, biGramFingerprints.length);
+
+		for (int simpleKey = 0; simpleKey < keys.length; simpleKey++)
+			clusterer.dictionary.getOrAdd(keys[simpleKey]);
+
+		for (int i = 0; i < biGramFingerprints.length; i++)
+			clusterer.biGramRepresentatives.putIfAbsent(biGramFingerprints[i], biGramRepresentatives[i]);
+
+		// a root is always restored as the root of its set, as restoring the forest is not supposed to renumber the clusters
+		for (int simpleKey = 0; simpleKey < roots.length; simpleKey++)
+		{
+			if (roots[simpleKey] != simpleKey)
+				clusterer.unionFind.linkToRoot(simpleKey, roots[simpleKey]);
+		}
+		return clusterer;
+	}
+
+	/**
+	 * Merges the bigram map of the changed rows into the state.
+	 *
+	 * @param deltaMap - the bigram map of the changed rows, as created by InputTableDao
+	 */
+	public void merge(Map<?, Set<Long>> deltaMap)
+	{
+		log.info("Merging " + deltaMap.size() + " bigrams into the clustering of " + dictionary.size() + " ids");
+
+		for (Entry<?, Set<Long>> entry : deltaMap.entrySet())
+		{
+			if (entry.getKey() == null || entry.getValue() == null || entry.getValue().isEmpty())
+				continue;
+
+			long fingerprint = BiGramUtility.fingerprint(entry.getKey().toString());
+			int representative = biGramRepresentatives.get(fingerprint);
+
+			for (Long key : entry.getValue())
+			{
+				int simpleKey = dictionary.getOrAdd(key);
+				touchedKeys.set(simpleKey);
+
+				if (representative == LongIntHashMap.NO_VALUE)
+				{
+					representative = simpleKey;
+					biGramRepresentatives.putIfAbsent(fingerprint, representative);
+				}
+				else
+				{
+					unionFind.union(representative, simpleKey);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the clusters which were touched by the merges since this clusterer was created or restored, with all their members.
+	 * On the very first run this is every cluster.
+	 *
+	 * @return the changed clusters, keyed by their cluster id
+	 */
+	public ClusteringResult getChangedClusters()
+	{
+		BitSet touchedRoots = new BitSet();
+		for (int simpleKey = touchedKeys.nextSetBit(0); simpleKey >= 0; simpleKey = touchedKeys.nextSetBit(simpleKey + 1))
+			touchedRoots.set(unionFind.find(simpleKey));
+
+		ClusteringResult result = ClusteringResultBuilder.buildForRoots(dictionary, unionFind, 1, touchedRoots, null);
+		log.info(result.getClusterCount() + " clusters with " + result.getIdCount() + " ids changed");
+
+		return result;
+	}
+
+	/**
+	 * Gets all the clusters of the state, those not touched by the merges included.
+	 *
+	 * @return the clusters, keyed by their cluster id
+	 */
+	public ClusteringResult getClusters()
+	{
+		ClusteringResult result = ClusteringResultBuilder.build(dictionary, unionFind, 1, null);
+		log.info(result.getClusterCount() + " clusters with " + result.getIdCount() + " ids in the state");
+
+		return result;
+	}
+
+	/**
+	 * Gets the number of ids in the state.
+	 *
+	 * @return the id count
+	 */
+	public int getIDCount()
+	{
+		return dictionary.size();
+	}
+
+	/**
+	 * Gets the original key of the simple key.
+	 *
+	 * @param simpleKey the simple key
+	 * @return the original key
+	 */
+	public long getKey(int simpleKey)
+	{
+		return dictionary.getKey(simpleKey);
+	}
+
+	/**
+	 * Gets the root of the simple key.
+	 *
+	 * @param simpleKey the simple key
+	 * @return the root
+	 */
+	public int getRoot(int simpleKey)
+	{
+		return unionFind.find(simpleKey);
+	}
+
+	/**
+	 * Gets the number of bigrams seen so far.
+	 *
+	 * @return the bigram count
+	 */
+	public int getBiGramCount()
+	{
+		return biGramRepresentatives.size();
+	}
+
+	/**
+	 * Copies the bigram fingerprint to representative simple key index into the 2 arrays, in no particular order.
+	 *
+	 * @param biGramFingerprints - the array the fingerprints are copied to, of at least {@link #getBiGramCount()} entries
+	 * @param representatives - the array the representative of every fingerprint is copied to, at the index of the fingerprint
+	 * @return the number of bigrams copied
+	 */
+	public int copyBiGramRepresentatives(long[] biGramFingerprints, int[] representatives)
+	{
+		return biGramRepresentatives.copyTo(biGramFingerprints, representatives);
+	}
+}
@@ -0,0 +1,356 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.pojo.ClusteringResult;
+import com.kartik.rapid.utility.LongIntHashMap;
+import com.kartik.rapid.utility.RunMetrics;
+
+
+/**
+ * MinHashClusterer -
+ * Clusters the rows by similarity instead of by connectivity. RapidCore links two ids as soon as they share a single bigram, which
+ * chains rows that have next to nothing in common into one cluster. Here two ids are only linked if the Jaccard similarity of their
+ * shingle sets is estimated to be at least jaccardThreshold.
+ *
+ * Every row gets a MinHash signature of bandCount x rowsPerBand hashes over its shingles, which are its bigrams or, with a shingleSize
+ * above 1, the runs of shingleSize consecutive bigrams. The signature is cut into bands and every band is hashed into a bucket, the
+ * locality sensitive hashing of the signatures. The first bucketCandidates ids of a bucket are kept as its candidates, and every later id
+ * of the bucket is compared with all of them which are not in its cluster already, signature against signature, and unioned with every
+ * one similar enough. 2 rows of similarity s share a bucket with a probability of 1 - (1 - s^rowsPerBand)^bandCount, which rises steeply
+ * around s = (1 / bandCount)^(1 / rowsPerBand), so the bands and rows are to be picked for that point to lie a little below the
+ * jaccardThreshold.
+ *
+ * The ids of a bucket beyond its candidates are compared but not kept. Two of them which are similar to each other, but to none of the
+ * candidates, are hence only unioned if they meet in another band. Buckets rarely hold more ids than a few near duplicates, so a
+ * handful of candidates compares nearly every pair sharing a bucket, while a bucket of many dissimilar ids, eg of a very common band,
+ * does not cost every row meeting it as many comparisons.
+ *
+ * The work per row is bound by its own bigrams, the number of hashes and the candidates, whatever the size of the posting lists. The heap
+ * taken is the {@link IdDictionary} and {@link UnionFind} over the ids, a signature of 4 bytes per hash per id, a long to int entry per
+ * bucket and 8 bytes per candidate, at most one per band per id.
+ * The hash functions are seeded with a constant, so a run clusters the same rows the same way every time.
+ */
+public class MinHashClusterer implements BiGramSink
+{
+	static final Logger				log			= Logger.getLogger(MinHashClusterer.class);
+
+	private static final int		PAGE_SHIFT	= 20;
+	private static final int		PAGE_MASK	= (1 << PAGE_SHIFT) - 1;
+	private static final long		SEED		= 0x5DEECE66DL;
+	private static final int		END_OF_LIST	= -1;
+
+	private final int				bandCount;
+	private final int				rowsPerBand;
+	private final int				hashCount;
+	private final int				shingleSize;
+	private final double			jaccardThreshold;
+	private final int				bucketCandidates;
+	private final int				minMatchingHashes;
+	private final long[]			multipliers;
+	private final long[]			addends;
+
+	private final IdDictionary		dictionary;
+	private final UnionFind			unionFind;
+	// the first candidate of every bucket, the later ones are linked from it in the pages of candidate keys and next links
+	private final LongIntHashMap	bucketHeads;
+	private int[][]					candidateKeyPages;
+	private int[][]					nextCandidatePages;
+	private int						candidateEntryCount;
+	private int[][]					signaturePages;
+	private final int[]				signature;
+
+	private long					rowCount;
+	private long					candidateCount;
+	private long					unionCount;
+	private long					mergeCount;
+	private RunMetrics				metrics;
+
+	/**
+	 * Instantiates a new min hash clusterer.
+	 *
+	 * @param distinctIDCount - the number of distinct ids the clusterer is presized for, eg the row count of the table, it grows beyond
+	 * @param bandCount - the number of bands of a signature
+	 * @param rowsPerBand - the number of hashes of a band
+	 * @param jaccardThreshold - the estimated Jaccard similarity from which on 2 ids are unioned, 0 to union every 2 ids sharing a bucket
+	 * @param shingleSize - the number of consecutive bigrams of a shingle, 1 to use the bigrams themselves
+	 * @param bucketCandidates - the number of ids of a bucket every later id of the bucket is compared with
+	 */
+	public MinHashClusterer(int distinctIDCount, int bandCount, int rowsPerBand, double jaccardThreshold, int shingleSize, int bucketCandidates)
+	{
+		super();
+		if (bandCount < 1 || rowsPerBand < 1 || shingleSize < 1 || bucketCandidates < 1)
+			throw new IllegalArgumentException("bandCount, rowsPerBand, shingleSize and bucketCandidates have to be at least 1 but were " + bandCount + ", "
+				+ rowsPerBand + ", " + shingleSize + " and " + bucketCandidates);
+		if (jaccardThreshold < 0 || jaccardThreshold > 1)
+			throw new IllegalArgumentException("jaccardThreshold has to be from 0 to 1 but was " + jaccardThreshold);
+
+		this.bandCount = bandCount;
+		this.rowsPerBand = rowsPerBand;
+		this.shingleSize = shingleSize;
+		this.jaccardThreshold = jaccardThreshold;
+		this.bucketCandidates = bucketCandidates;
+		hashCount = bandCount * rowsPerBand;
+		minMatchingHashes = (int) Math.ceil(jaccardThreshold * hashCount);
+
+		// multiply, add and shift hashing of the 64 bit shingles to 32 bits, every hash with a random odd multiplier of its own
+		multipliers = new long[hashCount];
+		addends = new long[hashCount];
+		Random random = new Random(SEED);
+		for (int i = 0; i < hashCount; i++)
+		{
+			multipliers[i] = random.nextLong() | 1;
+			addends[i] = random.nextLong();
+		}
+
+		dictionary = new IdDictionary(distinctIDCount);
+		unionFind = new UnionFind(distinctIDCount);
+		bucketHeads = new LongIntHashMap(distinctIDCount);
+		candidateKeyPages = new int[4][];
+		nextCandidatePages = new int[4][];
+		signaturePages = new int[(int) (((long) distinctIDCount * hashCount + PAGE_MASK) >>> PAGE_SHIFT)][];
+		signature = new int[hashCount];
+	}
+
+	/**
+	 * Sets the metrics the clustering adds its counts to. The unions happen while the rows are read, so their time is part of the scan.
+	 *
+	 * @param metrics the metrics of the run, null not to collect any
+	 */
+	public void setMetrics(RunMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void accept(long id, long[] biGramFingerprints, int count)
+	{
+		int idCount = dictionary.size();
+		int simpleKey = dictionary.getOrAdd(id);
+		rowCount++;
+
+		computeSignature(biGramFingerprints, count);
+
+		// an id met again stands for the shingles of all its rows, the signature of a union being the minimum of the signatures
+		if (dictionary.size() == idCount)
+		{
+			for (int i = 0; i < hashCount; i++)
+				signature[i] = Math.min(signature[i], getSignatureHash(simpleKey, i));
+		}
+		storeSignature(simpleKey);
+
+		for (int band = 0; band < bandCount; band++)
+		{
+			int entry = bucketHeads.putIfAbsent(bucketOf(band), candidateEntryCount);
+			if (entry == LongIntHashMap.NO_VALUE)
+			{
+				addCandidate(simpleKey);
+				continue;
+			}
+
+			int keptCandidates = 0;
+			int lastEntry = END_OF_LIST;
+			boolean kept = false;
+			for (; entry != END_OF_LIST; lastEntry = entry, entry = getNextCandidate(entry))
+			{
+				keptCandidates++;
+				int candidate = getCandidateKey(entry);
+				// the id met again, or one unioned with it already, through an earlier candidate or band
+				if (candidate == simpleKey)
+				{
+					kept = true;
+					continue;
+				}
+				if (unionFind.find(candidate) == unionFind.find(simpleKey))
+					continue;
+
+				candidateCount++;
+				if (isSimilar(candidate))
+				{
+					unionCount++;
+					if (unionFind.union(candidate, simpleKey))
+						mergeCount++;
+				}
+			}
+
+			if (kept == false && keptCandidates < bucketCandidates)
+				setNextCandidate(lastEntry, addCandidate(simpleKey));
+		}
+	}
+
+	/**
+	 * Gets the number of rows added so far.
+	 *
+	 * @return the row count
+	 */
+	public long getRowCount()
+	{
+		return rowCount;
+	}
+
+	/**
+	 * Gets the number of pairs of ids compared so far, the ids of a row with the candidates of its buckets.
+	 *
+	 * @return the candidate count
+	 */
+	public long getCandidateCount()
+	{
+		return candidateCount;
+	}
+
+	/**
+	 * Gets the number of distinct ids added so far.
+	 *
+	 * @return the id count
+	 */
+	public int getIDCount()
+	{
+		return dictionary.size();
+	}
+
+	/**
+	 * Compresses the forest and builds the result of all the rows added so far.
+	 *
+	 * @return the clustering result
+	 */
+	public ClusteringResult getResult()
+	{
+		if (rowCount == 0)
+			throw new RuntimeException("Input has no data.");
+
+		log.info("Hashed " + rowCount + " rows into " + bucketHeads.size() + " buckets of " + bandCount + " bands x " + rowsPerBand + " hashes :: "
+			+ candidateCount + " candidates compared, " + unionCount + " of them at a Jaccard similarity of " + jaccardThreshold + " or more");
+		if (metrics != null)
+			metrics.addUnions(unionCount, mergeCount);
+
+		log.info("Performing FINAL Path Compression & coalescing the output of " + dictionary.size() + " ids");
+		ClusteringResult result = ClusteringResultBuilder.build(dictionary, unionFind, 1, metrics);
+		log.info("Generated " + result.getClusterCount() + " clusters");
+		return result;
+	}
+
+	private void computeSignature(long[] biGramFingerprints, int count)
+	{
+		for (int i = 0; i < hashCount; i++)
+			signature[i] = Integer.MAX_VALUE;
+
+		if (count <= shingleSize)
+		{
+			addShingle(shingleOf(biGramFingerprints, 0, count));
+			return;
+		}
+
+		for (int start = 0; start + shingleSize <= count; start++)
+			addShingle(shingleSize == 1 ? biGramFingerprints[start] : shingleOf(biGramFingerprints, start, start + shingleSize));
+	}
+
+	private static long shingleOf(long[] biGramFingerprints, int from, int to)
+	{
+		if (to - from == 1)
+			return biGramFingerprints[from];
+
+		long shingle = 0;
+		for (int i = from; i < to; i++)
+			shingle = (shingle ^ biGramFingerprints[i]) * 0x9E3779B97F4A7C15L;
+		return shingle ^ (shingle >>> 31);
+	}
+
+	private void addShingle(long shingle)
+	{
+		for (int i = 0; i < hashCount; i++)
+		{
+			int hash = (int) ((shingle * multipliers[i] + addends[i]) >>> 32);
+			if (hash < signature[i])
+				signature[i] = hash;
+		}
+	}
+
+	/**
+	 * Hashes a band of the signature along with the number of the band, so that equal bands of different numbers do not meet.
+	 */
+	private long bucketOf(int band)
+	{
+		long bucket = band * 0x9E3779B97F4A7C15L;
+		for (int i = band * rowsPerBand; i < (band + 1) * rowsPerBand; i++)
+			bucket = (bucket ^ (signature[i] & 0xFFFFFFFFL)) * 0xC2B2AE3D27D4EB4FL;
+		return bucket ^ (bucket >>> 29);
+	}
+
+	/**
+	 * Estimates the Jaccard similarity of the current row and an id as the fraction of their hashes which are equal.
+	 */
+	private boolean isSimilar(int simpleKey)
+	{
+		if (minMatchingHashes == 0)
+			return true;
+
+		int matching = 0;
+		for (int i = 0; i < hashCount; i++)
+		{
+			if (signature[i] == getSignatureHash(simpleKey, i) && ++matching >= minMatchingHashes)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Appends a candidate entry, at the end of no list yet.
+	 */
+	private int addCandidate(int simpleKey)
+	{
+		int entry = candidateEntryCount++;
+		int page = entry >>> PAGE_SHIFT;
+		if (page == candidateKeyPages.length)
+		{
+			candidateKeyPages = Arrays.copyOf(candidateKeyPages, page * 2);
+			nextCandidatePages = Arrays.copyOf(nextCandidatePages, page * 2);
+		}
+		if (candidateKeyPages[page] == null)
+		{
+			candidateKeyPages[page] = new int[1 << PAGE_SHIFT];
+			nextCandidatePages[page] = new int[1 << PAGE_SHIFT];
+		}
+		candidateKeyPages[page][entry & PAGE_MASK] = simpleKey;
+		nextCandidatePages[page][entry & PAGE_MASK] = END_OF_LIST;
+		return entry;
+	}
+
+	private int getCandidateKey(int entry)
+	{
+		return candidateKeyPages[entry >>> PAGE_SHIFT][entry & PAGE_MASK];
+	}
+
+	private int getNextCandidate(int entry)
+	{
+		return nextCandidatePages[entry >>> PAGE_SHIFT][entry & PAGE_MASK];
+	}
+
+	private void setNextCandidate(int entry, int next)
+	{
+		nextCandidatePages[entry >>> PAGE_SHIFT][entry & PAGE_MASK] = next;
+	}
+
+	private int getSignatureHash(int simpleKey, int i)
+	{
+		long index = (long) simpleKey * hashCount + i;
+		return signaturePages[(int) (index >>> PAGE_SHIFT)][(int) index & PAGE_MASK];
+	}
+
+	private void storeSignature(int simpleKey)
+	{
+		for (int i = 0; i < hashCount; i++)
+		{
+			long index = (long) simpleKey * hashCount + i;
+			int page = (int) (index >>> PAGE_SHIFT);
+			if (page == signaturePages.length)
+				signaturePages = Arrays.copyOf(signaturePages, Math.max(4, page * 2));
+			if (signaturePages[page] == null)
+				signaturePages[page] = new int[1 << PAGE_SHIFT];
+			signaturePages[page][(int) index & PAGE_MASK] = signature[i];
+		}
+	}
+}
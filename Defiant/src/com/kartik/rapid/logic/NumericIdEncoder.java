@@ -0,0 +1,62 @@
+package com.kartik.rapid.logic;
+
+
+/**
+ * NumericIdEncoder -
+ * The encoder of numeric ids, which are parsed straight from their characters and are their own code. Nothing is held per id.
+ */
+public class NumericIdEncoder implements IdEncoder
+{
+	@Override
+	public long encode(CharSequence id)
+	{
+		int end = id.length();
+		boolean negative = end > 0 && id.charAt(0) == '-';
+		int start = negative ? 1 : 0;
+		if (start == end || end - start > 18)
+			return parseSlowly(id);
+
+		long code = 0;
+		for (int i = start; i < end; i++)
+		{
+			int digit = id.charAt(i) - '0';
+			if (digit < 0 || digit > 9)
+				return parseSlowly(id);
+			code = code * 10 + digit;
+		}
+		return negative ? -code : code;
+	}
+
+	@Override
+	public Object decode(long code)
+	{
+		return code;
+	}
+
+	@Override
+	public String toString(long code)
+	{
+		return Long.toString(code);
+	}
+
+	@Override
+	public IdType getType()
+	{
+		return IdType.NUMERIC;
+	}
+
+	/**
+	 * Parses what the digit loop can not, ie ids of 19 digits, padded ids and ids which are not numeric at all.
+	 */
+	private static long parseSlowly(CharSequence id)
+	{
+		try
+		{
+			return Long.parseLong(id.toString().trim());
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Id " + id + " is not numeric", e);
+		}
+	}
+}
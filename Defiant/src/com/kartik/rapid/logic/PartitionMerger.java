@@ -0,0 +1,136 @@
+package com.kartik.rapid.logic;
+
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.pojo.ClusteringResult;
+import com.kartik.rapid.utility.LongIntHashMap;
+import com.kartik.rapid.utility.RunMetrics;
+
+
+/**
+ * PartitionMerger -
+ * The coordinator of a partitioned run, which merges the partial clusterings of the worker processes into the global one. Every worker
+ * clusters a slice of the rows on its own and hands over its ids with the root of every one of them, and a boundary index of its bigrams,
+ * each with the root of the ids which have it. See {@link com.kartik.rapid.io.PartitionSnapshot}.
+ *
+ * The forests of all the workers are replayed into a single {@link UnionFind} over a global {@link IdDictionary}, which also joins an id
+ * read by more than one worker. Then the boundary indexes are walked grouped by bigram and the roots of the partitions sharing a bigram
+ * are unioned, since their ids would have been unioned by that bigram had they been read by a single process. This leaves exactly the
+ * clusters of reading all the rows at once.
+ *
+ * The heap taken is the dictionary and the forest over all the ids, the boundary indexes are only walked.
+ */
+public class PartitionMerger
+{
+	static final Logger				log	= Logger.getLogger(PartitionMerger.class);
+
+	private final IdDictionary		dictionary;
+	private final UnionFind			unionFind;
+	private int						partitionCount;
+	private long					boundaryPostingCount;
+	private long					unionCount;
+	private long					mergeCount;
+	private RunMetrics				metrics;
+
+	/**
+	 * Instantiates a new partition merger.
+	 *
+	 * @param distinctIDCount - the number of distinct ids the merger is presized for, eg the sum of the ids of all the partitions, it grows beyond
+	 */
+	public PartitionMerger(int distinctIDCount)
+	{
+		super();
+		dictionary = new IdDictionary(distinctIDCount);
+		unionFind = new UnionFind(distinctIDCount);
+	}
+
+	/**
+	 * Sets the metrics the merge adds its counts to.
+	 *
+	 * @param metrics the metrics of the run, null not to collect any
+	 */
+	public void setMetrics(RunMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Adds the forest of a partition.
+	 *
+	 * @param keys - the original keys of the partition, in the order of its simple keys
+	 * @param roots - the root simple key of every simple key of the partition
+	 */
+	public void addForest(long[] keys, int[] roots)
+	{
+		if (keys.length != roots.length)
+			throw new IllegalArgumentException("Got " + keys.length + " keys but " + roots.length + " roots");
+
+		for (int simpleKey = 0; simpleKey < keys.length; simpleKey++)
+		{
+			int key = dictionary.getOrAdd(keys[simpleKey]);
+			if (roots[simpleKey] != simpleKey)
+				union(key, dictionary.getOrAdd(keys[roots[simpleKey]]));
+		}
+		partitionCount++;
+	}
+
+	/**
+	 * Unions the partitions sharing a bigram. Every posting of the cursor is the id of the root of the ids of a partition which have
+	 * its bigram, so there is at most one posting per partition and bigram. The forests of all the partitions have to be added first.
+	 *
+	 * @param cursor - the boundary postings of all the partitions, grouped by bigram
+	 */
+	public void addBoundary(PostingCursor cursor)
+	{
+		if (cursor.isGroupedByBiGram() == false)
+			throw new IllegalArgumentException("The boundary postings have to be grouped by bigram");
+
+		long fingerprint = 0;
+		int representative = -1;
+		while (cursor.next())
+		{
+			int key = dictionary.get(cursor.getId());
+			if (key == LongIntHashMap.NO_VALUE)
+				throw new IllegalStateException("Id " + cursor.getId() + " of the boundary is in none of the forests");
+
+			if (representative != -1 && cursor.getFingerprint() == fingerprint)
+				union(representative, key);
+			else
+			{
+				fingerprint = cursor.getFingerprint();
+				representative = key;
+			}
+			boundaryPostingCount++;
+		}
+	}
+
+	/**
+	 * Compresses the forest and builds the global result.
+	 *
+	 * @param threadCount - the number of threads the result is built with
+	 * @return the clustering result
+	 */
+	public ClusteringResult getResult(int threadCount)
+	{
+		if (dictionary.size() == 0)
+			throw new RuntimeException("Input has no data.");
+
+		log.info("Merged " + partitionCount + " partitions of " + dictionary.size() + " ids over " + boundaryPostingCount + " boundary postings :: "
+			+ mergeCount + " merges out of " + unionCount + " unions");
+		if (metrics != null)
+			metrics.addUnions(unionCount, mergeCount);
+
+		log.info("Performing FINAL Path Compression & coalescing the output of " + dictionary.size() + " ids");
+		ClusteringResult result = ClusteringResultBuilder.build(dictionary, unionFind, threadCount, metrics);
+		log.info("Generated " + result.getClusterCount() + " clusters");
+		return result;
+	}
+
+	private void union(int a, int b)
+	{
+		unionCount++;
+		if (unionFind.union(a, b))
+			mergeCount++;
+	}
+}
@@ -0,0 +1,39 @@
+package com.kartik.rapid.logic;
+
+
+/**
+ * PostingCursor -
+ * A forward only walk over (bigram fingerprint, id) postings, for inputs which are scanned instead of being held as a {@link BiGramIndex}.
+ * The postings may come in any order, but a cursor which delivers all the postings of a bigram one after the other should say so
+ * through {@link #isGroupedByBiGram()}, check {@link RapidCore#performQuickClustering(PostingCursor, int)}.
+ */
+public interface PostingCursor
+{
+	/**
+	 * Tells whether all the postings of a bigram are walked one after the other.
+	 *
+	 * @return true if the postings are grouped by bigram
+	 */
+	boolean isGroupedByBiGram();
+
+	/**
+	 * Moves to the next posting.
+	 *
+	 * @return true if there is one, false once all the postings have been walked
+	 */
+	boolean next();
+
+	/**
+	 * Gets the fingerprint of the bigram of the current posting.
+	 *
+	 * @return the fingerprint
+	 */
+	long getFingerprint();
+
+	/**
+	 * Gets the id of the current posting.
+	 *
+	 * @return the id
+	 */
+	long getId();
+}
@@ -1,16 +1,23 @@
 package com.kartik.rapid.logic;
 
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import oracle.net.aso.d;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.log4j.Logger;
 
 import com.kartik.rapid.pojo.ClusteringResult;
+import com.kartik.rapid.utility.LongIntHashMap;
+import com.kartik.rapid.utility.RunMetrics;
+import com.kartik.rapid.utility.RunMetrics.Phase;
 
 
 /**
@@ -22,17 +29,29 @@ import com.kartik.rapid.pojo.ClusteringResult;
  */
 public class RapidCore<T>
 {
-	private Integer			nextSimpleKey		= 0;
-
-	private Integer[]			mapping;
-	private Long[]				invertedMappingArray;
-	private Map<Long, Integer>	simplifiedMapping	= new HashMap<>();
+	private SimpleKeyDictionary	dictionary;
+	private DisjointSetForest	unionFind;
+	private RunMetrics			metrics;
 
 	static final Logger			log				= Logger.getLogger(RapidCore.class);
 
+	/** The number of bigrams between two progress logs. */
+	private static final long	PROGRESS_INTERVAL	= 1000000;
+
+	/**
+	 * Sets the metrics the clustering adds its timings and counts to.
+	 *
+	 * @param metrics the metrics of the run, null not to collect any
+	 */
+	public void setMetrics(RunMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
 	/**
 	 * The main processing method which is responsible for performing the actual rapid clustering.
 	 * Takes a Map of generic objects and set of keys. The keys are not important as Clusters are totally based on the value.
+	 * Every set of values is a group of keys which share a bigram, so all of them are unioned into the same cluster.
 	 *
 	 * @author Kartik Iyer.
 	 * @param dataMap - The input map which has a generic key, and Set of long values. the keys are ignored during clustering.
@@ -41,203 +60,281 @@ public class RapidCore<T>
 	 * @return A ClusteringResult object with 2 fields via which the result can be extracted.
 	 */
 	public ClusteringResult performQuickClustering(Map<T, Set<Long>> dataMap, int distinctIDCount)
+	{
+		return performQuickClustering(dataMap, distinctIDCount, 1);
+	}
+
+	/**
+	 * Performs the rapid clustering of a bigram map on threadCount threads.
+	 * The map is adapted into a {@link BiGramIndex} first, check {@link #performQuickClustering(BiGramIndex, int, int)}.
+	 *
+	 * @param dataMap - The input map which has a generic key, and Set of long values. the keys are ignored during clustering.
+	 * @param distinctIDCount - The distinct id count is NOT the bigram count. This is max count of all the distinct values possibly present in the input value part of the map.
+	 * @param threadCount - the number of threads used for clustering.
+	 * @return A ClusteringResult object with 2 fields via which the result can be extracted.
+	 */
+	public ClusteringResult performQuickClustering(Map<T, Set<Long>> dataMap, int distinctIDCount, int threadCount)
 	{
 		if(dataMap == null || dataMap.size() < 1 )
 			throw new RuntimeException("Input has no data.");
 
-		long algoStartTime = System.currentTimeMillis();
+		log.info("Adapting the data map of " + dataMap.size() + " biGrams into a BiGramIndex");
+		return performQuickClustering(BiGramIndex.of(dataMap), distinctIDCount, threadCount);
+	}
 
-		log.info("Starting Rapid Clustering");
-		log.info("Creating arrays with size of distinctIDCount :: " + distinctIDCount);
-		Integer[] bigArray = new Integer[distinctIDCount];
-		mapping = new Integer[distinctIDCount];
-		invertedMappingArray = new Long[distinctIDCount];
+	/**
+	 * Performs the rapid clustering of a bigram index on threadCount threads.
+	 * With a single thread the bigrams are walked one after the other into a {@link UnionFind}. With more, the bigrams are split
+	 * across a ForkJoinPool and every worker unions straight into a shared {@link ConcurrentUnionFind} through a {@link ConcurrentIdDictionary}.
+	 * Both paths produce the same partition of the keys, and as every cluster is named by its smallest id, the same cluster ids.
+	 *
+	 * @param index - The bigram index, as built by InputTableDao createBiGramIndexFromTable.
+	 * @param distinctIDCount - The distinct id count is NOT the bigram count. This is max count of all the distinct ids possibly present in the postings of the index.
+	 * @param threadCount - the number of threads used for clustering.
+	 * @return A ClusteringResult object with 2 fields via which the result can be extracted.
+	 */
+	public ClusteringResult performQuickClustering(BiGramIndex index, int distinctIDCount, int threadCount)
+	{
+		if (index == null || index.getBiGramCount() < 1)
+			throw new RuntimeException("Input has no data.");
 
-		log.debug("Populating the mapping entries where initially each entry points to itself");
-		// populate the mapping entries .. at start, each entry points to itself.. this will change as prog executes..
-		for (int i = 0; i < mapping.length; i++)
-			mapping[i] = i;
+		return performQuickClustering(new BiGramIndex[] { index }, index.getBiGramCount(), index.getTotalPostingCount(), distinctIDCount, threadCount);
+	}
+
+	/**
+	 * Performs the rapid clustering of a sharded bigram index on threadCount threads. No bigram is in more than one shard,
+	 * so the shards are simply clustered as one index, check {@link #performQuickClustering(BiGramIndex, int, int)}.
+	 *
+	 * @param index - The sharded bigram index, as built by InputTableDao createBiGramIndexFromTable with several reader threads.
+	 * @param distinctIDCount - The distinct id count is NOT the bigram count. This is max count of all the distinct ids possibly present in the postings of the index.
+	 * @param threadCount - the number of threads used for clustering.
+	 * @return A ClusteringResult object with 2 fields via which the result can be extracted.
+	 */
+	public ClusteringResult performQuickClustering(ShardedBiGramIndex index, int distinctIDCount, int threadCount)
+	{
+		if (index == null || index.getBiGramCount() < 1)
+			throw new RuntimeException("Input has no data.");
 
-		int nextClusterID = 0;
-		boolean generateNewId = false;
-		int size = dataMap.keySet().size(); // 3903,072 vs 8678,388
+		return performQuickClustering(index.getShards(), index.getBiGramCount(), index.getTotalPostingCount(), distinctIDCount, threadCount);
+	}
 
-		log.info("Starting processing of " + size + " biGrams ");
-		int mainLoopCounter = 0;
+	private ClusteringResult performQuickClustering(BiGramIndex[] shards, long size, long totalPostingCount, int distinctIDCount, int threadCount)
+	{
+		if (threadCount < 1)
+			throw new IllegalArgumentException("threadCount has to be at least 1 but was " + threadCount);
 
+		long algoStartTime = System.currentTimeMillis();
 
-		for (T biGram : dataMap.keySet())
-		{
-			// BiGram cant be null or a 0 length string .. hence ignore such entries
-			if (biGram != null /*&& biGram.isEmpty() == false*/)
-			{
-				long startTime = System.currentTimeMillis();
+		log.info("Starting Rapid Clustering on " + threadCount + " thread(s)");
+		log.info("Creating arrays with size of distinctIDCount :: " + distinctIDCount);
+		log.info("Starting processing of " + size + " biGrams with " + totalPostingCount + " postings");
 
-				// .. NEW CLUSTER ID WILL BE GENERATED ie it will be INCREMENTED only if ClusterID was assigned in below steps
-				if (generateNewId)
-					nextClusterID++;
+		if (threadCount == 1)
+			unionSequentially(shards, size, distinctIDCount);
+		else
+		{
+			dictionary = new ConcurrentIdDictionary(distinctIDCount);
+			unionFind = new ConcurrentUnionFind(distinctIDCount);
 
-				Set<Long> currentSet = dataMap.get(biGram);
+			UnionCounts counts = newUnionCounts();
+			final List<PostingListUnionTask> tasks = new ArrayList<>(shards.length);
+			for (BiGramIndex index : shards)
+				tasks.add(new PostingListUnionTask(index, 0, index.getBiGramCount(), dictionary, unionFind, counts));
 
-				// Set of integers in currentSet cant be 0 , ie currentSet cant be empty ..  ignore such entries
-				if (currentSet != null && currentSet.size() > 0)
+			ForkJoinPool pool = new ForkJoinPool(threadCount);
+			try
+			{
+				pool.invoke(new RecursiveAction()
 				{
-					// Single key entry encountered
-					if (currentSet.size() == 1)
-					{
-						int singleElement = getSimplifiedMapping(currentSet.iterator().next());
-						log.trace(currentSet.iterator().next() + " :: " + singleElement);
-
-						// encountered for the first time .. thus make an entry
-						if (bigArray[singleElement] == null)
-						{
-							bigArray[singleElement] = nextClusterID;
-							generateNewId = true;
-						}
-
-						// Single key set entry repeated .. which already exists so do nothing
-						// if (bigArray[singleElement] != null)
-						else
-							generateNewId = false;
-					}
-					else
+					private static final long	serialVersionUID	= 1L;
+
+					@Override
+					protected void compute()
 					{
-						// Assume clusters wont be formed, this will only change if null entry in bigArray is encountered, in which case, generateNewId = true
-						generateNewId = false;
-						// used to keep track of changes and to implement the PREV condition
-						int prevKeyCluster = -1;
-
-						log.trace("currentSet is "+currentSet);
-
-						// ----------------------------- START OF A CLUSTERED IP SET -----------------------------
-						for (Long key : currentSet)
-						{
-							int simpleKey = getSimplifiedMapping(key);
-
-							log.trace("Original key was "+key + " :: " + " simpleKey is " + simpleKey );
-
-							// KEY doesnt belong to a cluster.. so assign it a new cluster
-							if (bigArray[simpleKey] == null)
-							{
-								log.trace("SimpleKey " + simpleKey + " doesnt belong to a cluster.. so assign it a new cluster");
-								if (prevKeyCluster != -1 && prevKeyCluster != nextClusterID)
-								{
-									if (nextClusterID < prevKeyCluster)
-									{
-										log.fatal("Fatal error in clusterID generation. NextCLusterID < PreviousClusterID is not possible");
-										throw new RuntimeException();
-									}
-									if (compressAndGetParent(prevKeyCluster) != nextClusterID)
-									{
-										log.trace(" Setting mapping[" + compressAndGetParent(prevKeyCluster) + "] as " + nextClusterID);
-										mapping[compressAndGetParent(prevKeyCluster)] = nextClusterID;
-									}
-								}
-
-								// for a valid condition
-								bigArray[simpleKey] = nextClusterID;
-								// current clusterID will be prev one for next iteration.
-								prevKeyCluster = nextClusterID;
-								generateNewId = true;
-							}
-
-							// KEY already belongs to a cluster
-							else
-							{
-								int assignedClusterId = bigArray[simpleKey];
-
-								log.trace("SimpleKey " + simpleKey + " already belongs to a cluster");
-								// first entry in the set wont have any previous value to compare with
-								if (prevKeyCluster == -1)
-									prevKeyCluster = assignedClusterId;
-
-								// there is gonna be new cluster formation !!!
-								// make prev cluster point to new cluster ie make set lesserCluster to greaterCluster for maintaining consistency
-								if (prevKeyCluster != -1 && prevKeyCluster != assignedClusterId)
-								{
-									int lesserCluster, greaterCluster;
-									int parentCluster1 = compressAndGetParent(prevKeyCluster);
-									int parentCluster2 = compressAndGetParent(assignedClusterId);
-
-									if (parentCluster1 != parentCluster2)
-									{
-										if (parentCluster1 < parentCluster2)
-										{
-											lesserCluster = parentCluster1;
-											greaterCluster = parentCluster2;
-										}
-										else
-										{
-											lesserCluster = parentCluster2;
-											greaterCluster = parentCluster1;
-										}
-
-										log.trace("Making lesserCluster cluster point to greaterCluster");
-										log.trace("mapping[" + lesserCluster + "] = " + greaterCluster);
-										mapping[lesserCluster] = greaterCluster;
-									}
-								}
-
-								// current key will be prevKey in next iteration.
-								if (prevKeyCluster != assignedClusterId)
-									prevKeyCluster = assignedClusterId;
-							}
-						}
-						// ----------------------------- END OF THE CLUSTERED IP SET -----------------------------
+						invokeAll(tasks);
 					}
-
-				}
-
-				// counter used for logging purposes.
-				mainLoopCounter++;
-				if (mainLoopCounter % 10000 == 0)
-					log.info("Bigrams Processed --> " + mainLoopCounter + " :: Total -->  " + size + " :: MILIseconds Taken " + ((System.currentTimeMillis() - startTime)));
-//				log.info("Took " + ((System.currentTimeMillis() - startTime)) + " MILIseconds to process --> " + mainLoopCounter + " outta " + size);
-
+				});
+				publish(counts, true);
+			}
+			catch (IllegalStateException e)
+			{
+				// the tasks cut short by the first failure may still be running, they fail on the overflowed dictionary as well
+				awaitTermination(pool);
+				// the postings they unioned are unioned again below, only the time they took is kept
+				publish(counts, false);
+				// the lock free dictionary can not grow, if the ids outnumber distinctIDCount they are clustered again by the growing one
+				if (dictionary.size() <= distinctIDCount)
+					throw e;
+				log.warn("Met more than the " + distinctIDCount + " ids expected, clustering again on a single thread");
+				unionSequentially(shards, size, dictionary.size());
+				threadCount = 1;
+			}
+			finally
+			{
+				awaitTermination(pool);
 			}
 		}
 
 		log.info("BiGram processing completed successfully");
 		log.info("Total bigrams processed :: " + size);
 
-		log.info("Performing FINAL Path Compression for faster access");
-		// NOTE TO SELF :- ONLY COMPACT ENTRIES EQUAL TO THE CLUSTERS GENERATED
-		for (int i = 0; i <= nextClusterID; i++)
-			mapping[i] = compressAndGetParent(i);
+		log.info("Performing FINAL Path Compression & coalescing the output of " + dictionary.size() + " ids");
+		ClusteringResult result = ClusteringResultBuilder.build(dictionary, unionFind, threadCount, metrics);
+		log.info("Generated " + result.getClusterCount() + " clusters");
 
-		log.info("Coalescing the output");
+		log.info(" -- FINALE -- ");
+		log.info("Total time required for Rapid Clustering is " + ((System.currentTimeMillis()-algoStartTime)/1000) + " seconds " );
 
-		// at this point each index of bigArray has a value which corresponds to its mapping.
-		// so iterate thru all of them, get their clusterID ..
-		// create a map of sets
-		// keys is the clusterID and values is all the indices of bigArray which have 'clusterID' as value..
+		return result;
+	}
 
-		log.info("Generating 2 result maps .. clusterSet & parentIdClusterMapping");
-		Map<Integer, Set<Long>> clusterSet = new HashMap<>();
-		Map<Long, Integer> parentIdClusterMapping = new HashMap<>();
+	/**
+	 * Shuts the pool down and waits till all its tasks ended, those which were still running when another task failed included.
+	 */
+	private static void awaitTermination(ForkJoinPool pool)
+	{
+		pool.shutdown();
+		try
+		{
+			while (pool.awaitTermination(1, TimeUnit.MINUTES) == false)
+				log.warn("Waiting for the union tasks to end");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
 
-		for (int simpleKey = 0; simpleKey < bigArray.length; simpleKey++)
+	/**
+	 * Unions the bigrams of the shards one block after the other into an {@link IdDictionary} and a {@link UnionFind}, which both grow
+	 * if the ids outnumber distinctIDCount. They are not thread safe, so the result is built from them on a single thread too.
+	 * Every PROGRESS_INTERVAL bigrams the time taken by them is logged.
+	 */
+	private void unionSequentially(BiGramIndex[] shards, long size, int distinctIDCount)
+	{
+		dictionary = new IdDictionary(distinctIDCount);
+		unionFind = new UnionFind(distinctIDCount);
+
+		UnionCounts counts = newUnionCounts();
+		BlockUnioner unioner = new BlockUnioner(dictionary, unionFind, counts);
+		long biGramCounter = 0;
+		long nextProgressLog = PROGRESS_INTERVAL;
+		long intervalStartTime = System.currentTimeMillis();
+		for (BiGramIndex index : shards)
 		{
-			Integer clusterID = mapping[bigArray[simpleKey]];
-			Long originalKey = invertedMappingArray[simpleKey];
+			for (int from = 0; from < index.getBiGramCount(); from += BlockUnioner.BLOCK_SIZE)
+			{
+				int to = Math.min(from + BlockUnioner.BLOCK_SIZE, index.getBiGramCount());
+				unioner.unionBlock(index, from, to);
 
-			parentIdClusterMapping.put(originalKey, clusterID);
+				// counter used for logging purposes.
+				biGramCounter += to - from;
+				if (biGramCounter >= nextProgressLog)
+				{
+					long now = System.currentTimeMillis();
+					log.info("Bigrams Processed --> " + biGramCounter + " :: Total -->  " + size + " :: MILIseconds Taken " + (now - intervalStartTime));
+					intervalStartTime = now;
+					nextProgressLog += PROGRESS_INTERVAL;
+				}
+			}
+		}
+		publish(counts, true);
+	}
 
-			if (clusterSet.get(clusterID) == null)
+	private UnionCounts newUnionCounts()
+	{
+		return metrics == null ? null : new UnionCounts();
+	}
+
+	private void publish(UnionCounts counts, boolean completed)
+	{
+		if (counts != null)
+			counts.publish(metrics, completed);
+	}
+
+	/**
+	 * Performs the rapid clustering of postings which are scanned once, in whatever order the cursor delivers them.
+	 * Nothing but the first key met for every bigram is remembered, each later posting of the bigram is unioned with it right away.
+	 * Hence the heap needed is bound by the distinct bigrams and ids, not by the postings, which can stay off the heap in a
+	 * {@link com.kartik.rapid.io.MappedPostingStore}. When the cursor groups the postings by bigram, as the merge of an
+	 * {@link com.kartik.rapid.io.ExternalPostingSorter} does, only the first key of the current bigram is remembered and the
+	 * bigrams do not take any heap at all. The scan is sequential, so this always runs on a single thread.
+	 *
+	 * @param postings - the cursor over the postings
+	 * @param distinctIDCount - The distinct id count is NOT the bigram count. This is max count of all the distinct ids possibly present in the postings.
+	 * @return A ClusteringResult object with 2 fields via which the result can be extracted.
+	 */
+	public ClusteringResult performQuickClustering(PostingCursor postings, int distinctIDCount)
+	{
+		long algoStartTime = System.currentTimeMillis();
+
+		log.info("Starting Rapid Clustering of scanned postings");
+		log.info("Creating arrays with size of distinctIDCount :: " + distinctIDCount);
+
+		dictionary = new IdDictionary(distinctIDCount);
+		unionFind = new UnionFind(distinctIDCount);
+		boolean grouped = postings.isGroupedByBiGram();
+		LongIntHashMap representatives = grouped ? null : new LongIntHashMap(distinctIDCount);
+
+		long scanStart = System.nanoTime();
+		long postingCounter = 0;
+		long biGramCounter = 0;
+		long unionCounter = 0;
+		long mergeCounter = 0;
+		long currentFingerprint = 0;
+		int currentRepresentative = LongIntHashMap.NO_VALUE;
+		while (postings.next())
+		{
+			int simpleKey = dictionary.getOrAdd(postings.getId());
+			if (grouped)
 			{
-				HashSet<Long> hs = new HashSet<>();
-				hs.add(originalKey);
-				clusterSet.put(clusterID, hs);
+				if (currentRepresentative == LongIntHashMap.NO_VALUE || postings.getFingerprint() != currentFingerprint)
+				{
+					currentFingerprint = postings.getFingerprint();
+					currentRepresentative = simpleKey;
+					biGramCounter++;
+				}
+				else
+				{
+					unionCounter++;
+					if (unionFind.union(currentRepresentative, simpleKey))
+						mergeCounter++;
+				}
 			}
 			else
 			{
-				clusterSet.get(clusterID).add(originalKey);
+				int representative = representatives.putIfAbsent(postings.getFingerprint(), simpleKey);
+				if (representative != LongIntHashMap.NO_VALUE)
+				{
+					unionCounter++;
+					if (unionFind.union(representative, simpleKey))
+						mergeCounter++;
+				}
 			}
+
+			// counter used for logging purposes.
+			if (++postingCounter % 10000000 == 0)
+				log.info("Postings Processed --> " + postingCounter + " :: MILIseconds Taken " + ((System.currentTimeMillis() - algoStartTime)));
+		}
+
+		if (postingCounter == 0)
+			throw new RuntimeException("Input has no data.");
+
+		if (grouped == false)
+			biGramCounter = representatives.size();
+		log.info("Scanned " + postingCounter + " postings of " + biGramCounter + " biGrams");
+
+		// reading, translating and unioning are interleaved posting by posting here, so they are booked as one union phase
+		if (metrics != null)
+		{
+			metrics.addPhaseNanos(Phase.UNION, System.nanoTime() - scanStart);
+			metrics.addPostings(postingCounter, biGramCounter);
+			metrics.addUnions(unionCounter, mergeCounter);
 		}
 
-		ClusteringResult result = new ClusteringResult();
-		result.setClusterSet(clusterSet);
-		result.setParentIdClusterMapping(parentIdClusterMapping);
+		log.info("Performing FINAL Path Compression & coalescing the output of " + dictionary.size() + " ids");
+		ClusteringResult result = ClusteringResultBuilder.build(dictionary, unionFind, 1, metrics);
+		log.info("Generated " + result.getClusterCount() + " clusters");
 
 		log.info(" -- FINALE -- ");
 		log.info("Total time required for Rapid Clustering is " + ((System.currentTimeMillis()-algoStartTime)/1000) + " seconds " );
@@ -245,67 +342,229 @@ public class RapidCore<T>
 		return result;
 	}
 
-
 	/**
-	 * Gets the simplified mapping. Converts user input of non consecutive long keys, to a ordered and consecutive int values.
-	 * This uniformity is important as an array of all these values is maintained, which gives the algo the reqd speed.
-	 * Since its an array, there should not be any missing values as it leads to space wastage of the indices of the array.
-	 *
-	 * eg :: input 1 , 2 , 50 , 100 is converted to 0 , 1 , 2 , 3
-	 *
-	 * @author Kartik Iyer
-	 *
-	 * @param key the key
-	 * @return the simplified mapping
+	 * Unions blocks of posting lists in 2 passes, first translating the ids of the lists into simple keys and then unioning
+	 * every key of a list with the first key of the list, as all of them share the same bigram. A single key list just registers
+	 * the key, so that it ends up as a cluster of its own. The unions happen in the same order as list by list, but the dictionary
+	 * and the union time of a block can be told apart with a few clock reads instead of 2 per posting, and are added to the
+	 * {@link UnionCounts} once per block along with the sizes of its lists. Lists too long to be buffered whole are processed in chunks.
 	 */
-	private Integer getSimplifiedMapping(Long key)
+	private static final class BlockUnioner
 	{
-		int simpleKey;
-		if (simplifiedMapping.get(key) != null)
+		static final int					BLOCK_SIZE			= 1024;
+		private static final int			MAX_BUFFERED_KEYS	= 1 << 16;
+
+		private final SimpleKeyDictionary	dictionary;
+		private final DisjointSetForest	unionFind;
+		private final UnionCounts			counts;
+
+		private int[]						keys				= new int[BLOCK_SIZE];
+		private int							keyCount;
+		private final int[]					listEnds			= new int[BLOCK_SIZE];
+		private int							listCount;
+
+		private final long[]				sizeHistogram		= new long[RunMetrics.BUCKET_COUNT];
+		private long						dictionaryNanos;
+		private long						unionNanos;
+		private long						postings;
+		private long						unions;
+		private long						merges;
+
+		BlockUnioner(SimpleKeyDictionary dictionary, DisjointSetForest unionFind, UnionCounts counts)
 		{
-			simpleKey = simplifiedMapping.get(key);
-			log.trace("Key " + key + " is has the value " + simpleKey);
+			this.dictionary = dictionary;
+			this.unionFind = unionFind;
+			this.counts = counts;
 		}
-		else
+
+		/**
+		 * Unions the posting lists of a range of at most {@link #BLOCK_SIZE} bigrams.
+		 *
+		 * @param index the bigram index
+		 * @param from the first bigram, inclusive
+		 * @param to the last bigram, exclusive
+		 */
+		void unionBlock(BiGramIndex index, int from, int to)
 		{
-			log.trace("Key " + key + " encountered for first time.. creating an entry in map and mapping it to " + nextSimpleKey);
-			simplifiedMapping.put(key, nextSimpleKey);
-			invertedMappingArray[nextSimpleKey] = key;
-			simpleKey = nextSimpleKey;
-			nextSimpleKey++;
+			long dictionaryStart = System.nanoTime();
+			for (int biGram = from; biGram < to; biGram++)
+			{
+				int postingCount = index.getPostingCount(biGram);
+				if (postingCount == 0)
+					continue;
+				if (counts != null)
+					sizeHistogram[RunMetrics.log2Bucket(postingCount)]++;
+				postings += postingCount;
+
+				if (keyCount + postingCount > MAX_BUFFERED_KEYS)
+					dictionaryStart = unionBufferedLists(dictionaryStart);
+				if (postingCount > MAX_BUFFERED_KEYS)
+				{
+					dictionaryStart = unionLongList(index, biGram, dictionaryStart);
+					continue;
+				}
+				if (keyCount + postingCount > keys.length)
+					keys = Arrays.copyOf(keys, Math.min(Math.max(keys.length * 2, keyCount + postingCount), MAX_BUFFERED_KEYS));
+
+				for (int posting = index.getFirstPosting(biGram); posting != BiGramIndex.END_OF_LIST; posting = index.getNextPosting(posting))
+					keys[keyCount++] = dictionary.getOrAdd(index.getPostingId(posting));
+				listEnds[listCount++] = keyCount;
+			}
+			unionBufferedLists(dictionaryStart);
+
+			if (counts != null)
+			{
+				counts.add(sizeHistogram, dictionaryNanos, unionNanos, postings, unions, merges);
+				Arrays.fill(sizeHistogram, 0);
+			}
+			dictionaryNanos = unionNanos = postings = unions = merges = 0;
+		}
+
+		/**
+		 * Unions the buffered lists, ending the dictionary pass which started at dictionaryStart.
+		 *
+		 * @return the time the union pass ended, which starts the next dictionary pass
+		 */
+		private long unionBufferedLists(long dictionaryStart)
+		{
+			long unionStart = System.nanoTime();
+			int listStart = 0;
+			for (int list = 0; list < listCount; list++)
+			{
+				int listEnd = listEnds[list];
+				unionKeys(keys[listStart], listStart + 1, listEnd);
+				listStart = listEnd;
+			}
+			keyCount = listCount = 0;
+
+			long unionEnd = System.nanoTime();
+			dictionaryNanos += unionStart - dictionaryStart;
+			unionNanos += unionEnd - unionStart;
+			return unionEnd;
+		}
+
+		/**
+		 * Unions a list longer than the key buffer, a buffer full at a time, with the first key of the list.
+		 *
+		 * @return the time the last union pass ended, which starts the next dictionary pass
+		 */
+		private long unionLongList(BiGramIndex index, int biGram, long dictionaryStart)
+		{
+			if (keys.length < MAX_BUFFERED_KEYS)
+				keys = new int[MAX_BUFFERED_KEYS];
+
+			int posting = index.getFirstPosting(biGram);
+			int firstKey = dictionary.getOrAdd(index.getPostingId(posting));
+			posting = index.getNextPosting(posting);
+			while (posting != BiGramIndex.END_OF_LIST)
+			{
+				int chunkLength = 0;
+				for (; posting != BiGramIndex.END_OF_LIST && chunkLength < keys.length; posting = index.getNextPosting(posting))
+					keys[chunkLength++] = dictionary.getOrAdd(index.getPostingId(posting));
+
+				long unionStart = System.nanoTime();
+				unionKeys(firstKey, 0, chunkLength);
+				long unionEnd = System.nanoTime();
+				dictionaryNanos += unionStart - dictionaryStart;
+				unionNanos += unionEnd - unionStart;
+				dictionaryStart = unionEnd;
+			}
+			return dictionaryStart;
+		}
+
+		private void unionKeys(int firstKey, int from, int to)
+		{
+			for (int key = from; key < to; key++)
+			{
+				if (unionFind.union(firstKey, keys[key]))
+					merges++;
+			}
+			unions += to - from;
 		}
-		return simpleKey;
 	}
 
 	/**
-	 * Finds the parent of the clusterID and also performs path Compression for increasing speed.
-	 * Makes recursive calls to the getParentRecursive method to get the desired info.
-	 *
-	 * @author Kartik Iyer
-	 * @param i the key of which parent is to be found
-	 * @return the parent of the key i
+	 * The counts and times of the {@link BlockUnioner}s of one pass over the bigrams, which are only added to the metrics once the pass
+	 * completed. A parallel pass cut short by an overflowed dictionary is followed by a sequential one over the same postings, so only
+	 * the time it took is added, not its counts.
 	 */
-	private int compressAndGetParent(int i)
+	private static final class UnionCounts
 	{
-		int parent = getParentRecursive(i);
-		mapping[i] = parent;
-		log.trace("Returning parent " + parent + " for key " + i);
-		return parent;
+		private final AtomicLongArray	sizeHistogram	= new AtomicLongArray(RunMetrics.BUCKET_COUNT);
+		private final AtomicLong		dictionaryNanos	= new AtomicLong();
+		private final AtomicLong		unionNanos		= new AtomicLong();
+		private final AtomicLong		postings		= new AtomicLong();
+		private final AtomicLong		unions			= new AtomicLong();
+		private final AtomicLong		merges			= new AtomicLong();
+
+		void add(long[] blockSizeHistogram, long blockDictionaryNanos, long blockUnionNanos, long blockPostings, long blockUnions, long blockMerges)
+		{
+			for (int bucket = 0; bucket < blockSizeHistogram.length; bucket++)
+			{
+				if (blockSizeHistogram[bucket] != 0)
+					sizeHistogram.addAndGet(bucket, blockSizeHistogram[bucket]);
+			}
+			dictionaryNanos.addAndGet(blockDictionaryNanos);
+			unionNanos.addAndGet(blockUnionNanos);
+			postings.addAndGet(blockPostings);
+			unions.addAndGet(blockUnions);
+			merges.addAndGet(blockMerges);
+		}
+
+		/**
+		 * Adds the times of the pass to the metrics, and its counts if the pass completed.
+		 */
+		void publish(RunMetrics metrics, boolean completed)
+		{
+			metrics.addPhaseNanos(Phase.DICTIONARY, dictionaryNanos.get());
+			metrics.addPhaseNanos(Phase.UNION, unionNanos.get());
+			if (completed == false)
+				return;
+
+			long[] histogram = new long[sizeHistogram.length()];
+			for (int bucket = 0; bucket < histogram.length; bucket++)
+				histogram[bucket] = sizeHistogram.get(bucket);
+			metrics.addPostingLists(histogram, postings.get());
+			metrics.addUnions(unions.get(), merges.get());
+		}
 	}
 
 	/**
-	 * Recursively gets the parent.
-	 *
-	 * @author : Kartik Iyer
-	 *
-	 * @param i the i
-	 * @return the recursive parent.
+	 * Unions a range of bigrams, halving the range into subtasks till it is small enough to be processed on the current thread.
 	 */
-	private int getParentRecursive(int i)
+	private static class PostingListUnionTask extends RecursiveAction
 	{
-		if (mapping[i] == i)
-			return i;
-		else
-			return compressAndGetParent(mapping[i]);
+		private static final long			serialVersionUID	= 1L;
+
+		private final BiGramIndex			index;
+		private final int					from;
+		private final int					to;
+		private final SimpleKeyDictionary	dictionary;
+		private final DisjointSetForest	unionFind;
+		private final UnionCounts			counts;
+
+		PostingListUnionTask(BiGramIndex index, int from, int to, SimpleKeyDictionary dictionary, DisjointSetForest unionFind, UnionCounts counts)
+		{
+			this.index = index;
+			this.from = from;
+			this.to = to;
+			this.dictionary = dictionary;
+			this.unionFind = unionFind;
+			this.counts = counts;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= BlockUnioner.BLOCK_SIZE)
+			{
+				new BlockUnioner(dictionary, unionFind, counts).unionBlock(index, from, to);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new PostingListUnionTask(index, from, middle, dictionary, unionFind, counts),
+				new PostingListUnionTask(index, middle, to, dictionary, unionFind, counts));
+		}
 	}
 }
@@ -0,0 +1,140 @@
+package com.kartik.rapid.logic;
+
+
+/**
+ * ShardedBiGramIndex -
+ * A {@link BiGramIndex} split by fingerprint into shards, so that many threads can fill it at the same time.
+ * Every bigram lives in exactly one shard, hence the shards can be clustered one after the other, or side by side, as if they were one index.
+ *
+ * Threads do not write into the shards directly but through a {@link Writer} of their own. A writer stages the postings of every shard
+ * locally and only takes the lock of a shard to move a full stage into it, so the locks are taken once per few hundred postings.
+ */
+public class ShardedBiGramIndex
+{
+	private static final int	STAGE_SIZE	= 512;
+
+	private final BiGramIndex[]	shards;
+	private final int			shardShift;
+
+	/**
+	 * Instantiates a new sharded bigram index.
+	 *
+	 * @param shardCount - the number of shards, rounded up to a power of 2
+	 * @param expectedBiGramCount - the expected number of distinct bigrams across all the shards
+	 */
+	public ShardedBiGramIndex(int shardCount, int expectedBiGramCount)
+	{
+		super();
+		int shardBits = 32 - Integer.numberOfLeadingZeros(Math.max(shardCount, 1) - 1);
+		shards = new BiGramIndex[1 << shardBits];
+		shardShift = 64 - shardBits;
+
+		for (int shard = 0; shard < shards.length; shard++)
+			shards[shard] = new BiGramIndex(expectedBiGramCount / shards.length);
+	}
+
+	/**
+	 * Opens a new writer. A writer must only be used by one thread, and must be flushed before the index is read.
+	 *
+	 * @return the writer
+	 */
+	public Writer newWriter()
+	{
+		return new Writer();
+	}
+
+	/**
+	 * Gets the shards. They must not be modified.
+	 *
+	 * @return the shards
+	 */
+	public BiGramIndex[] getShards()
+	{
+		return shards;
+	}
+
+	/**
+	 * Gets the number of distinct bigrams across all the shards.
+	 *
+	 * @return the bigram count
+	 */
+	public long getBiGramCount()
+	{
+		long biGramCount = 0;
+		for (BiGramIndex shard : shards)
+			biGramCount += shard.getBiGramCount();
+		return biGramCount;
+	}
+
+	/**
+	 * Gets the number of postings across all the shards.
+	 *
+	 * @return the total posting count
+	 */
+	public long getTotalPostingCount()
+	{
+		long totalPostingCount = 0;
+		for (BiGramIndex shard : shards)
+			totalPostingCount += shard.getTotalPostingCount();
+		return totalPostingCount;
+	}
+
+	private int shardOf(long fingerprint)
+	{
+		// the fingerprints are well mixed, so their top bits spread them evenly. shardShift is 64 for a single shard, which java reads as 0.
+		return shards.length == 1 ? 0 : (int) (fingerprint >>> shardShift);
+	}
+
+	/**
+	 * The sink of a single thread into the sharded index.
+	 */
+	public class Writer implements BiGramSink
+	{
+		private final long[][]	stagedFingerprints	= new long[shards.length][STAGE_SIZE];
+		private final long[][]	stagedIds			= new long[shards.length][STAGE_SIZE];
+		private final int[]		stagedCounts		= new int[shards.length];
+
+		private Writer()
+		{
+			super();
+		}
+
+		@Override
+		public void accept(long id, long[] biGramFingerprints, int count)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				int shard = shardOf(biGramFingerprints[i]);
+				if (stagedCounts[shard] == STAGE_SIZE)
+					flush(shard);
+
+				stagedFingerprints[shard][stagedCounts[shard]] = biGramFingerprints[i];
+				stagedIds[shard][stagedCounts[shard]] = id;
+				stagedCounts[shard]++;
+			}
+		}
+
+		/**
+		 * Moves all the staged postings into the shards.
+		 */
+		public void flush()
+		{
+			for (int shard = 0; shard < shards.length; shard++)
+				flush(shard);
+		}
+
+		private void flush(int shard)
+		{
+			if (stagedCounts[shard] == 0)
+				return;
+
+			BiGramIndex index = shards[shard];
+			synchronized (index)
+			{
+				for (int i = 0; i < stagedCounts[shard]; i++)
+					index.addPosting(stagedFingerprints[shard][i], stagedIds[shard][i]);
+			}
+			stagedCounts[shard] = 0;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.kartik.rapid.logic;
+
+
+/**
+ * SimpleKeyDictionary -
+ * Translates the original long keys of the input into dense simple keys 0 .. size-1 and back.
+ * Check {@link IdDictionary} for the details of why RapidCore works on simple keys.
+ */
+public interface SimpleKeyDictionary
+{
+	/**
+	 * Gets the simple key of the key, creating an entry if the key is encountered for the first time.
+	 *
+	 * @param key the original key
+	 * @return the simple key
+	 */
+	int getOrAdd(long key);
+
+	/**
+	 * Gets the simple key of the key without creating an entry.
+	 *
+	 * @param key the original key
+	 * @return the simple key, or a negative value if the key was never added
+	 */
+	int get(long key);
+
+	/**
+	 * Gets the original key which was mapped to the simple key.
+	 *
+	 * @param simpleKey the simple key
+	 * @return the original key
+	 */
+	long getKey(int simpleKey);
+
+	/**
+	 * Gets the number of keys added so far.
+	 *
+	 * @return the size
+	 */
+	int size();
+}
@@ -0,0 +1,235 @@
+package com.kartik.rapid.logic;
+
+
+import org.apache.log4j.Logger;
+
+import com.kartik.rapid.pojo.ClusteringResult;
+import com.kartik.rapid.utility.LongIntHashMap;
+import com.kartik.rapid.utility.RunMetrics;
+
+
+/**
+ * StreamingClusterer -
+ * Clusters the rows while they are being read, without ever holding a posting list. Clustering only needs to know which ids are
+ * connected, so it is enough to remember, for every bigram, the simple key of the first id which brought it in. Every later id
+ * of the bigram is unioned with that representative the moment its row arrives.
+ *
+ * The heap taken is the {@link IdDictionary} and {@link UnionFind} over the ids plus a long to int entry per distinct bigram, whatever
+ * the number of postings. Once the last row is in, only the final path compression of {@link #getResult()} is left to do.
+ */
+public class StreamingClusterer implements BiGramSink
+{
+	static final Logger				log	= Logger.getLogger(StreamingClusterer.class);
+
+	private final IdDictionary		dictionary;
+	private final UnionFind			unionFind;
+	private final LongIntHashMap	biGramRepresentatives;
+	private long					postingCount;
+	private long					unionCount;
+	private long					mergeCount;
+	private RunMetrics				metrics;
+
+	/**
+	 * Instantiates a new streaming clusterer.
+	 *
+	 * @param distinctIDCount - the number of distinct ids the clusterer is presized for, eg the row count of the table, it grows beyond
+	 */
+	public StreamingClusterer(int distinctIDCount)
+	{
+		super();
+		dictionary = new IdDictionary(distinctIDCount);
+		unionFind = new UnionFind(distinctIDCount);
+		biGramRepresentatives = new LongIntHashMap(distinctIDCount);
+	}
+
+	/**
+	 * Restores a clusterer checkpointed while the rows were read, so that the rows after the checkpoint can be added to it.
+	 *
+	 * @param keys - the original keys, in the order of their simple keys
+	 * @param roots - the root simple key of every simple key
+	 * @param fingerprints - the fingerprints of the bigrams
+	 * @param representatives - the simple key every later id of the bigram of the same index is to be unioned with
+	 * @param postingCount - the number of postings added before
+	 * @param unionCount - the number of unions done before
+	 * @param mergeCount - the number of those unions which merged 2 sets
+	 * @return the restored clusterer
+	 */
+	public static StreamingClusterer restore(long[] keys, int[] roots, long[] fingerprints, int[] representatives, long postingCount, long unionCount,
+		long mergeCount)
+	{
+		StreamingClusterer clusterer = new StreamingClusterer(keys.length);
+		for (int simpleKey = 0; simpleKey < keys.length; simpleKey++)
+			clusterer.dictionary.getOrAdd(keys[simpleKey]);
+
+		// a root is always restored as the root of its set, as restoring the forest is not supposed to renumber the clusters
+		for (int simpleKey = 0; simpleKey < roots.length; simpleKey++)
+		{
+			if (roots[simpleKey] != simpleKey)
+				clusterer.unionFind.linkToRoot(simpleKey, roots[simpleKey]);
+		}
+		for (int i = 0; i < fingerprints.length; i++)
+			clusterer.biGramRepresentatives.putIfAbsent(fingerprints[i], representatives[i]);
+
+		clusterer.postingCount = postingCount;
+		clusterer.unionCount = unionCount;
+		clusterer.mergeCount = mergeCount;
+		return clusterer;
+	}
+
+	/**
+	 * Sets the metrics the clustering adds its counts to. The unions happen while the rows are read, so their time is part of the scan.
+	 *
+	 * @param metrics the metrics of the run, null not to collect any
+	 */
+	public void setMetrics(RunMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void accept(long id, long[] biGramFingerprints, int count)
+	{
+		int simpleKey = dictionary.getOrAdd(id);
+		for (int i = 0; i < count; i++)
+			union(biGramFingerprints[i], simpleKey);
+	}
+
+	/**
+	 * Adds a single posting.
+	 *
+	 * @param fingerprint the fingerprint of the bigram
+	 * @param id the id
+	 */
+	public void addPosting(long fingerprint, long id)
+	{
+		union(fingerprint, dictionary.getOrAdd(id));
+	}
+
+	/**
+	 * Gets the number of postings added so far.
+	 *
+	 * @return the posting count
+	 */
+	public long getPostingCount()
+	{
+		return postingCount;
+	}
+
+	/**
+	 * Gets the number of postings whose bigram had a representative already, ie the number of unions done so far.
+	 *
+	 * @return the union count
+	 */
+	public long getUnionCount()
+	{
+		return unionCount;
+	}
+
+	/**
+	 * Gets the number of unions done so far which merged 2 sets.
+	 *
+	 * @return the merge count
+	 */
+	public long getMergeCount()
+	{
+		return mergeCount;
+	}
+
+	/**
+	 * Gets the number of distinct bigrams added so far.
+	 *
+	 * @return the bigram count
+	 */
+	public int getBiGramCount()
+	{
+		return biGramRepresentatives.size();
+	}
+
+	/**
+	 * Gets the number of distinct ids added so far.
+	 *
+	 * @return the id count
+	 */
+	public int getIDCount()
+	{
+		return dictionary.size();
+	}
+
+	/**
+	 * Gets the original key of the simple key.
+	 *
+	 * @param simpleKey the simple key
+	 * @return the original key
+	 */
+	public long getKey(int simpleKey)
+	{
+		return dictionary.getKey(simpleKey);
+	}
+
+	/**
+	 * Gets the root of the simple key, ie the simple key its cluster is known by so far.
+	 *
+	 * @param simpleKey the simple key
+	 * @return the root
+	 */
+	public int getRoot(int simpleKey)
+	{
+		return unionFind.find(simpleKey);
+	}
+
+	/**
+	 * Copies the bigram to representative simple key index, in no particular order.
+	 *
+	 * @param fingerprints - the array the fingerprints are copied to, of at least {@link #getBiGramCount()} entries
+	 * @param representatives - the array the representative of every fingerprint is copied to
+	 * @return the number of bigrams copied
+	 */
+	public int copyBiGramRepresentatives(long[] fingerprints, int[] representatives)
+	{
+		return biGramRepresentatives.copyTo(fingerprints, representatives);
+	}
+
+	/**
+	 * Logs the counts of the rows added and adds them to the metrics, once all of them are in. Called by {@link #getResult()}, so only a
+	 * clusterer whose result is never built, such as the one of a partition which is saved for the coordinator, has to call it itself.
+	 */
+	public void finish()
+	{
+		log.info("Streamed " + postingCount + " postings of " + biGramRepresentatives.size() + " biGrams");
+		if (metrics != null)
+		{
+			metrics.addPostings(postingCount, biGramRepresentatives.size());
+			metrics.addUnions(unionCount, mergeCount);
+		}
+	}
+
+	/**
+	 * Compresses the forest and builds the result of all the rows added so far.
+	 *
+	 * @return the clustering result
+	 */
+	public ClusteringResult getResult()
+	{
+		if (postingCount == 0)
+			throw new RuntimeException("Input has no data.");
+
+		finish();
+
+		log.info("Performing FINAL Path Compression & coalescing the output of " + dictionary.size() + " ids");
+		ClusteringResult result = ClusteringResultBuilder.build(dictionary, unionFind, 1, metrics);
+		log.info("Generated " + result.getClusterCount() + " clusters");
+		return result;
+	}
+
+	private void union(long fingerprint, int simpleKey)
+	{
+		int representative = biGramRepresentatives.putIfAbsent(fingerprint, simpleKey);
+		if (representative != LongIntHashMap.NO_VALUE)
+		{
+			unionCount++;
+			if (unionFind.union(representative, simpleKey))
+				mergeCount++;
+		}
+		postingCount++;
+	}
+}
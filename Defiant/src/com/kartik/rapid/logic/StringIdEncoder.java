@@ -0,0 +1,148 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.Arrays;
+
+
+/**
+ * StringIdEncoder -
+ * The dictionary of text ids, which hands out the codes 0, 1, 2 .. in the order the ids are first met. The ids are held in a String[]
+ * by their code and found through an open addressing table of codes, which compares the characters of the id looked up with the
+ * ones held, so an id met before is encoded without creating a String or boxing anything.
+ */
+public class StringIdEncoder implements IdEncoder
+{
+	private static final float	LOAD_FACTOR	= 0.75f;
+
+	private String[]			ids;
+	private int[]				hashes;
+	private int[]				slots;
+	private int					mask;
+	private int					size;
+
+	/**
+	 * Instantiates a new string id encoder.
+	 *
+	 * @param expectedSize - the expected number of distinct ids, the dictionary grows beyond it
+	 */
+	public StringIdEncoder(int expectedSize)
+	{
+		super();
+		ids = new String[Math.max(expectedSize, 16)];
+		hashes = new int[ids.length];
+		allocateSlots(Integer.highestOneBit((int) (ids.length / LOAD_FACTOR)) << 1);
+	}
+
+	@Override
+	public long encode(CharSequence id)
+	{
+		int hash = hash(id);
+		int slot = hash & mask;
+		while (slots[slot] != 0)
+		{
+			int code = slots[slot] - 1;
+			if (hashes[code] == hash && equals(ids[code], id))
+				return code;
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == ids.length)
+		{
+			ids = Arrays.copyOf(ids, size * 2);
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+		ids[size] = id.toString();
+		hashes[size] = hash;
+		slots[slot] = size + 1;
+		if (++size > slots.length * LOAD_FACTOR)
+			allocateSlots(slots.length * 2);
+		return size - 1;
+	}
+
+	/**
+	 * Finds the code of an id without encoding it. Safe to be called by many threads at once, as long as no id is encoded meanwhile.
+	 *
+	 * @param id the id
+	 * @return the code, or -1 if the id has not been met
+	 */
+	public long find(CharSequence id)
+	{
+		int hash = hash(id);
+		int slot = hash & mask;
+		while (slots[slot] != 0)
+		{
+			int code = slots[slot] - 1;
+			if (hashes[code] == hash && equals(ids[code], id))
+				return code;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	@Override
+	public Object decode(long code)
+	{
+		return ids[(int) code];
+	}
+
+	@Override
+	public String toString(long code)
+	{
+		return ids[(int) code];
+	}
+
+	@Override
+	public IdType getType()
+	{
+		return IdType.STRING;
+	}
+
+	/**
+	 * Gets the number of distinct ids encoded.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Allocates a table of slotCount slots, a power of 2, and puts the codes of all the ids held into it.
+	 */
+	private void allocateSlots(int slotCount)
+	{
+		slots = new int[slotCount];
+		mask = slotCount - 1;
+
+		for (int code = 0; code < size; code++)
+		{
+			int slot = hashes[code] & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = code + 1;
+		}
+	}
+
+	private static int hash(CharSequence id)
+	{
+		int hash = 0;
+		for (int i = 0; i < id.length(); i++)
+			hash = 31 * hash + id.charAt(i);
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean equals(String held, CharSequence id)
+	{
+		if (held.length() != id.length())
+			return false;
+
+		for (int i = 0; i < held.length(); i++)
+		{
+			if (held.charAt(i) != id.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
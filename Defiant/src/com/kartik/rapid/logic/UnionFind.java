@@ -0,0 +1,153 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.Arrays;
+
+/**
+ * UnionFind -
+ * A disjoint set forest over the dense int keys handed out by {@link RapidCore}.
+ * Everything is held in two primitive arrays, so a forest of n keys costs 8n bytes and not a single object per key.
+ * Union by size keeps the trees logarithmically shallow and find uses iterative path halving, hence there is no recursion
+ * and no chance of a StackOverflowError however long a chain the input builds.
+ *
+ * The forest grows along with the {@link IdDictionary} handing out its keys. A key beyond the capacity is a set of its own, and
+ * the arrays are doubled the first time such a key is unioned, so a capacity which was only an estimate is never too low.
+ */
+public class UnionFind implements DisjointSetForest
+{
+	private int[]		parent;
+	private int[]		size;
+	private int			setCount;
+
+	/**
+	 * Instantiates a new union find where each of the keys 0 .. capacity-1 starts off as its own set.
+	 *
+	 * @param capacity - the number of keys the forest is created for, it grows when a key beyond them is unioned
+	 */
+	public UnionFind(int capacity)
+	{
+		super();
+		parent = new int[capacity];
+		size = new int[capacity];
+		initialize(0, capacity);
+	}
+
+	private void initialize(int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			parent[i] = i;
+			size[i] = 1;
+		}
+		setCount += to - from;
+	}
+
+	/**
+	 * Grows the arrays to hold at least keyCount keys, every new key being a set of its own.
+	 */
+	private void grow(int keyCount)
+	{
+		int oldCapacity = parent.length;
+		int capacity = Math.max(keyCount, IdDictionary.grownCapacity(oldCapacity));
+		parent = Arrays.copyOf(parent, capacity);
+		size = Arrays.copyOf(size, capacity);
+		initialize(oldCapacity, capacity);
+	}
+
+	/**
+	 * Finds the root of the set containing key i. Every node visited is made to point to its grandparent on the way up,
+	 * which halves the path length for all subsequent lookups.
+	 *
+	 * @param i the key
+	 * @return the root of the set containing i
+	 */
+	@Override
+	public int find(int i)
+	{
+		if (i >= parent.length)
+			return i;
+
+		while (parent[i] != i)
+		{
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Merges the sets containing keys a and b. The smaller tree is always hung below the root of the larger one.
+	 *
+	 * @param a the first key
+	 * @param b the second key
+	 * @return true if a and b were in different sets before the call
+	 */
+	@Override
+	public boolean union(int a, int b)
+	{
+		if (a >= parent.length || b >= parent.length)
+			grow(Math.max(a, b) + 1);
+
+		int rootA = find(a);
+		int rootB = find(b);
+
+		if (rootA == rootB)
+			return false;
+
+		if (size[rootA] < size[rootB])
+		{
+			int swap = rootA;
+			rootA = rootB;
+			rootB = swap;
+		}
+
+		parent[rootB] = rootA;
+		size[rootA] += size[rootB];
+		setCount--;
+		return true;
+	}
+
+	@Override
+	public int getParent(int i)
+	{
+		return i < parent.length ? parent[i] : i;
+	}
+
+	/**
+	 * Hangs the untouched key i directly below root, leaving root as the root of the merged set whatever the sizes.
+	 * Used for restoring a persisted forest with the same roots it was saved with.
+	 *
+	 * @param i a key which is still a set of its own
+	 * @param root a root
+	 */
+	void linkToRoot(int i, int root)
+	{
+		if (i >= parent.length || root >= parent.length)
+			grow(Math.max(i, root) + 1);
+
+		parent[i] = root;
+		size[root] += size[i];
+		setCount--;
+	}
+
+	/**
+	 * Gets the number of disjoint sets, counting every untouched key up to the capacity as a set of its own.
+	 *
+	 * @return the set count
+	 */
+	public int getSetCount()
+	{
+		return setCount;
+	}
+
+	/**
+	 * Gets the capacity ie the number of keys this forest was created for, or has grown to.
+	 *
+	 * @return the capacity
+	 */
+	@Override
+	public int getCapacity()
+	{
+		return parent.length;
+	}
+}
@@ -0,0 +1,147 @@
+package com.kartik.rapid.logic;
+
+
+import java.util.Arrays;
+import java.util.UUID;
+
+
+/**
+ * UuidIdEncoder -
+ * The dictionary of UUID ids, which hands out the codes 0, 1, 2 .. in the order the ids are first met. A UUID is parsed from its hex
+ * digits into 2 longs, which are held in 2 long[] by their code and found through an open addressing table of codes. Hence a UUID
+ * takes 16 bytes and a slot, not a String or a {@link UUID} object, and an id met before is encoded without allocating anything.
+ */
+public class UuidIdEncoder implements IdEncoder
+{
+	private static final float	LOAD_FACTOR	= 0.75f;
+
+	private long[]				mostSignificantBits;
+	private long[]				leastSignificantBits;
+	private int[]				slots;
+	private int					mask;
+	private int					size;
+
+	/**
+	 * Instantiates a new uuid id encoder.
+	 *
+	 * @param expectedSize - the expected number of distinct ids, the dictionary grows beyond it
+	 */
+	public UuidIdEncoder(int expectedSize)
+	{
+		super();
+		mostSignificantBits = new long[Math.max(expectedSize, 16)];
+		leastSignificantBits = new long[mostSignificantBits.length];
+		allocateSlots(Integer.highestOneBit((int) (mostSignificantBits.length / LOAD_FACTOR)) << 1);
+	}
+
+	/**
+	 * Encodes a UUID given as 32 hex digits, in either case and with or without the dashes of its text form.
+	 */
+	@Override
+	public long encode(CharSequence id)
+	{
+		long most = 0;
+		long least = 0;
+		int digits = 0;
+		for (int i = 0; i < id.length(); i++)
+		{
+			char c = id.charAt(i);
+			if (c == '-')
+				continue;
+
+			int digit = Character.digit(c, 16);
+			if (digit == -1 || digits == 32)
+				throw new IllegalArgumentException("Id " + id + " is not a UUID");
+			if (digits < 16)
+				most = most << 4 | digit;
+			else
+				least = least << 4 | digit;
+			digits++;
+		}
+		if (digits != 32)
+			throw new IllegalArgumentException("Id " + id + " is not a UUID");
+
+		int slot = slotOf(most, least);
+		while (slots[slot] != 0)
+		{
+			int code = slots[slot] - 1;
+			if (mostSignificantBits[code] == most && leastSignificantBits[code] == least)
+				return code;
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == mostSignificantBits.length)
+		{
+			mostSignificantBits = Arrays.copyOf(mostSignificantBits, size * 2);
+			leastSignificantBits = Arrays.copyOf(leastSignificantBits, size * 2);
+		}
+		mostSignificantBits[size] = most;
+		leastSignificantBits[size] = least;
+		slots[slot] = size + 1;
+		if (++size > slots.length * LOAD_FACTOR)
+			allocateSlots(slots.length * 2);
+		return size - 1;
+	}
+
+	/**
+	 * Decodes a code into the 16 bytes of its UUID, most significant first, as held by a RAW(16) column.
+	 */
+	@Override
+	public Object decode(long code)
+	{
+		byte[] bytes = new byte[16];
+		long most = mostSignificantBits[(int) code];
+		long least = leastSignificantBits[(int) code];
+		for (int i = 0; i < 8; i++)
+		{
+			bytes[i] = (byte) (most >>> (56 - 8 * i));
+			bytes[8 + i] = (byte) (least >>> (56 - 8 * i));
+		}
+		return bytes;
+	}
+
+	@Override
+	public String toString(long code)
+	{
+		return new UUID(mostSignificantBits[(int) code], leastSignificantBits[(int) code]).toString();
+	}
+
+	@Override
+	public IdType getType()
+	{
+		return IdType.UUID;
+	}
+
+	/**
+	 * Gets the number of distinct ids encoded.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Allocates a table of slotCount slots, a power of 2, and puts the codes of all the ids held into it.
+	 */
+	private void allocateSlots(int slotCount)
+	{
+		slots = new int[slotCount];
+		mask = slotCount - 1;
+
+		for (int code = 0; code < size; code++)
+		{
+			int slot = slotOf(mostSignificantBits[code], leastSignificantBits[code]);
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = code + 1;
+		}
+	}
+
+	private int slotOf(long most, long least)
+	{
+		long h = (most ^ least * 0xC2B2AE3D27D4EB4FL) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
@@ -0,0 +1,15 @@
+package com.kartik.rapid.pojo;
+
+/**
+ * Callback for streaming a {@link ClusteringResult} without materializing its maps.
+ */
+public interface ClusterMemberVisitor
+{
+	/**
+	 * Called once for every parentId of the result.
+	 *
+	 * @param clusterID the clusterID of the cluster the parentId belongs to
+	 * @param parentId the parentId
+	 */
+	void visit(long clusterID, long parentId);
+}
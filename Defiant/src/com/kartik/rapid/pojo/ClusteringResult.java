@@ -1,67 +1,320 @@
 package com.kartik.rapid.pojo;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 /**
- * This class is the data object class. The performQuickClustering sets data into its 2 objects, clusterSet & parentIdClusterMapping.
- * clusterSet - Has grouping of all the parentIds which share the same cluster. (clusterID -- all parentIds belonging in that cluster)
- * parentIdClusterMapping - Has the one-to-one parentId--clusterID mapping for all the parentId keys present in the input
+ * This class is the data object class. The performQuickClustering sets data into it in a compact, array based form.
+ * memberIds - Has all the parentIds grouped by cluster. The members of cluster c are memberIds[offsets[c]] .. memberIds[offsets[c+1]-1]
+ * offsets - Has the start of every cluster in memberIds, followed by the total id count
+ * ids & assignment - Has the one-to-one parentId--cluster mapping for all the parentId keys present in the input, in the order the clustering met them
+ * clusterIds - Has the clusterID of every cluster. Clusters are numbered 0 .. clusterCount-1 unless the clustering supplied its own ids,
+ * as a full clustering does with the canonical clusterID of every cluster, the smallest parentId in it.
+ *
+ * The maps clusterMembers & clusterIdMapping, keyed by the long clusterIDs, and clusterSet & parentIdClusterMapping, keyed by Integer
+ * clusterIDs as they always were, are only materialized when asked for, as read-only views.
+ * Consumers which stream the result should use the primitive accessors instead, which neither box nor allocate.
  * @author : Kartik Iyer
  */
 public class ClusteringResult
 {
-	Map<Integer, Set<Long>>	clusterSet			= new HashMap<>();
-	Map<Long, Integer>		parentIdClusterMapping	= new HashMap<>();
+	private long[]					ids;
+	private int[]					assignment;
+	private long[]					memberIds;
+	private int[]					offsets;
+	private long[]					clusterIds;
+
+	private Map<Long, Set<Long>>	clusterMembers;
+	private Map<Long, Long>			clusterIdMapping;
+	private Map<Integer, Set<Long>>	clusterSet;
+	private Map<Long, Integer>		parentIdClusterMapping;
 
 	/**
-	 * Gets the cluster set.
+	 * Instantiates a new clustering result without any cluster, to be filled by {@link #setClusterSet(Map)} or
+	 * {@link #setParentIdClusterMapping(Map)}.
+	 */
+	public ClusteringResult()
+	{
+		this(new long[0], new int[0], new long[0], new int[1], null);
+	}
+
+	/**
+	 * Instantiates a new clustering result.
+	 *
+	 * @param ids - the parentIds, in the order the clustering met them
+	 * @param assignment - the cluster of every entry of ids
+	 * @param memberIds - the parentIds grouped by cluster
+	 * @param offsets - the start of every cluster in memberIds, followed by memberIds.length
+	 * @param clusterIds - the clusterID of every cluster, or null if the clusters are simply numbered 0 .. clusterCount-1
+	 */
+	public ClusteringResult(long[] ids, int[] assignment, long[] memberIds, int[] offsets, long[] clusterIds)
+	{
+		super();
+		this.ids = ids;
+		this.assignment = assignment;
+		this.memberIds = memberIds;
+		this.offsets = offsets;
+		this.clusterIds = clusterIds;
+	}
+
+	/**
+	 * Gets the number of clusters.
+	 *
+	 * @return the cluster count
+	 */
+	public int getClusterCount()
+	{
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Gets the clusterID of cluster c.
+	 *
+	 * @param c the cluster, 0 .. clusterCount-1
+	 * @return the clusterID
+	 */
+	public long getClusterId(int c)
+	{
+		return clusterIds == null ? c : clusterIds[c];
+	}
+
+	/**
+	 * Gets the number of parentIds in cluster c.
+	 *
+	 * @param c the cluster, 0 .. clusterCount-1
+	 * @return the cluster size
+	 */
+	public int getClusterSize(int c)
+	{
+		return offsets[c + 1] - offsets[c];
+	}
+
+	/**
+	 * Gets the i'th parentId of cluster c.
+	 *
+	 * @param c the cluster, 0 .. clusterCount-1
+	 * @param i the position within the cluster, 0 .. clusterSize-1
+	 * @return the parentId
+	 */
+	public long getMemberId(int c, int i)
+	{
+		return memberIds[offsets[c] + i];
+	}
+
+	/**
+	 * Gets the number of parentIds in the result.
+	 *
+	 * @return the id count
+	 */
+	public int getIdCount()
+	{
+		return ids.length;
+	}
+
+	/**
+	 * Gets the parentId at the index.
+	 *
+	 * @param index the index, 0 .. idCount-1
+	 * @return the parentId
+	 */
+	public long getId(int index)
+	{
+		return ids[index];
+	}
+
+	/**
+	 * Gets the cluster of the parentId at the index. Use {@link #getClusterId(int)} for its clusterID.
+	 *
+	 * @param index the index, 0 .. idCount-1
+	 * @return the cluster, 0 .. clusterCount-1
+	 */
+	public int getClusterOf(int index)
+	{
+		return assignment[index];
+	}
+
+	/**
+	 * Walks all the clusters and hands every parentId to the visitor, cluster after cluster.
+	 *
+	 * @param visitor the visitor
+	 */
+	public void forEachMember(ClusterMemberVisitor visitor)
+	{
+		for (int c = 0; c < offsets.length - 1; c++)
+		{
+			long clusterID = getClusterId(c);
+			for (int i = offsets[c]; i < offsets[c + 1]; i++)
+				visitor.visit(clusterID, memberIds[i]);
+		}
+	}
+
+	/**
+	 * Gets the cluster members.
 	 * Has grouping of all the parentIds which share the same cluster. (clusterID -- all parentIds belonging in that cluster)
+	 * Materialized on the first call, the returned map can not be modified.
 	 *
-	 * @author : Kartik Iyer
-	 * @return the cluster set
+	 * @return the cluster members, keyed by clusterID
 	 */
-	public Map<Integer, Set<Long>> getClusterSet()
+	public synchronized Map<Long, Set<Long>> getClusterMembers()
 	{
-		return clusterSet;
+		if (clusterMembers == null)
+		{
+			Map<Long, Set<Long>> map = new HashMap<>(getClusterCount() * 2);
+			for (int c = 0; c < getClusterCount(); c++)
+				map.put(getClusterId(c), membersOf(c));
+			clusterMembers = Collections.unmodifiableMap(map);
+		}
+		return clusterMembers;
 	}
 
 	/**
-	 * Sets the cluster set.
+	 * Gets the cluster id mapping.
+	 * Has the one-to-one parentId--clusterID mapping for all the parentId keys present in the input
+	 * Materialized on the first call, the returned map can not be modified.
+	 *
+	 * @return the clusterID of every parentId
+	 */
+	public synchronized Map<Long, Long> getClusterIdMapping()
+	{
+		if (clusterIdMapping == null)
+		{
+			Map<Long, Long> map = new HashMap<>(ids.length * 2);
+			for (int index = 0; index < ids.length; index++)
+				map.put(ids[index], getClusterId(assignment[index]));
+			clusterIdMapping = Collections.unmodifiableMap(map);
+		}
+		return clusterIdMapping;
+	}
+
+	/**
+	 * Gets the cluster set.
 	 * Has grouping of all the parentIds which share the same cluster. (clusterID -- all parentIds belonging in that cluster)
+	 * Materialized on the first call, the returned map can not be modified. Use {@link #getClusterMembers()} when the clusterIDs,
+	 * the smallest parentId of every cluster of a full clustering, may not fit an int.
 	 *
-	 * @author Kartik Iyer
-	 * @param clusterSet the cluster set
+	 * @author : Kartik Iyer
+	 * @return the cluster set
+	 * @throws IllegalStateException if a clusterID does not fit an int
 	 */
-	public void setClusterSet(Map<Integer, Set<Long>> clusterSet)
+	public synchronized Map<Integer, Set<Long>> getClusterSet()
 	{
-		this.clusterSet = clusterSet;
+		if (clusterSet == null)
+		{
+			Map<Integer, Set<Long>> map = new HashMap<>(getClusterCount() * 2);
+			for (int c = 0; c < getClusterCount(); c++)
+				map.put(getIntClusterId(c), membersOf(c));
+			clusterSet = Collections.unmodifiableMap(map);
+		}
+		return clusterSet;
 	}
 
 	/**
 	 * Gets the parent id cluster mapping.
 	 * Has the one-to-one parentId--clusterID mapping for all the parentId keys present in the input
+	 * Materialized on the first call, the returned map can not be modified. Use {@link #getClusterIdMapping()} when the clusterIDs
+	 * may not fit an int.
 	 *
 	 * @author : Kartik Iyer
 	 * @return the parent id cluster mapping
+	 * @throws IllegalStateException if a clusterID does not fit an int
 	 */
-	public Map<Long, Integer> getParentIdClusterMapping()
+	public synchronized Map<Long, Integer> getParentIdClusterMapping()
 	{
+		if (parentIdClusterMapping == null)
+		{
+			Map<Long, Integer> map = new HashMap<>(ids.length * 2);
+			for (int index = 0; index < ids.length; index++)
+				map.put(ids[index], getIntClusterId(assignment[index]));
+			parentIdClusterMapping = Collections.unmodifiableMap(map);
+		}
 		return parentIdClusterMapping;
 	}
 
+	/**
+	 * Sets the cluster set.
+	 * Has grouping of all the parentIds which share the same cluster. (clusterID -- all parentIds belonging in that cluster)
+	 * The result is rebuilt from the map, hence the parent id cluster mapping changes along. Not to be called while the result is read.
+	 *
+	 * @author Kartik Iyer
+	 * @param clusterSet the cluster set
+	 */
+	public synchronized void setClusterSet(Map<Integer, Set<Long>> clusterSet)
+	{
+		int idCount = 0;
+		for (Set<Long> members : clusterSet.values())
+			idCount += members.size();
+
+		long[] newIds = new long[idCount];
+		int[] newAssignment = new int[idCount];
+		int[] newOffsets = new int[clusterSet.size() + 1];
+		long[] newClusterIds = new long[clusterSet.size()];
+		int c = 0;
+		int i = 0;
+		for (Entry<Integer, Set<Long>> entry : clusterSet.entrySet())
+		{
+			newClusterIds[c] = entry.getKey();
+			newOffsets[c] = i;
+			for (Long id : entry.getValue())
+			{
+				newIds[i] = id;
+				newAssignment[i] = c;
+				i++;
+			}
+			c++;
+		}
+		newOffsets[c] = i;
+
+		// the ids are met cluster after cluster, hence they double as the members
+		this.ids = newIds;
+		this.assignment = newAssignment;
+		this.memberIds = newIds;
+		this.offsets = newOffsets;
+		this.clusterIds = newClusterIds;
+		this.clusterMembers = null;
+		this.clusterIdMapping = null;
+		this.clusterSet = null;
+		this.parentIdClusterMapping = null;
+	}
+
 	/**
 	 * Sets the parent id cluster mapping.
 	 * Has the one-to-one parentId--clusterID mapping for all the parentId keys present in the input
+	 * The result is rebuilt from the map, hence the cluster set changes along. Not to be called while the result is read.
 	 *
 	 * @author Kartik Iyer
 	 * @param parentIdClusterMapping the parent id cluster mapping
 	 */
-	public void setParentIdClusterMapping(Map<Long, Integer> parentIdClusterMapping)
+	public synchronized void setParentIdClusterMapping(Map<Long, Integer> parentIdClusterMapping)
 	{
-		this.parentIdClusterMapping = parentIdClusterMapping;
+		Map<Integer, Set<Long>> grouped = new LinkedHashMap<>();
+		for (Entry<Long, Integer> entry : parentIdClusterMapping.entrySet())
+		{
+			Set<Long> members = grouped.get(entry.getValue());
+			if (members == null)
+				grouped.put(entry.getValue(), members = new HashSet<>());
+			members.add(entry.getKey());
+		}
+		setClusterSet(grouped);
 	}
 
+	private Set<Long> membersOf(int c)
+	{
+		Set<Long> members = new HashSet<>(getClusterSize(c) * 2);
+		for (int i = offsets[c]; i < offsets[c + 1]; i++)
+			members.add(memberIds[i]);
+		return Collections.unmodifiableSet(members);
+	}
 
+	private int getIntClusterId(int c)
+	{
+		long clusterID = getClusterId(c);
+		if (clusterID != (int) clusterID)
+			throw new IllegalStateException("The clusterID " + clusterID + " does not fit an int, use the views keyed by long clusterIDs");
+		return (int) clusterID;
+	}
 }
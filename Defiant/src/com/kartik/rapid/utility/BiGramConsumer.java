@@ -0,0 +1,15 @@
+package com.kartik.rapid.utility;
+
+/**
+ * The Interface BiGramConsumer.
+ * Receives the bigrams of {@link BiGramUtility#generateBiGramFingerprints(CharSequence, BiGramConsumer)} as 64 bit fingerprints.
+ */
+public interface BiGramConsumer
+{
+	/**
+	 * Called once for every bigram generated.
+	 *
+	 * @param fingerprint the fingerprint of the bigram, as computed by {@link BiGramUtility#fingerprint(CharSequence)} on its String form
+	 */
+	void accept(long fingerprint);
+}
@@ -8,9 +8,19 @@ import java.util.List;
  */
 public class BiGramUtility
 {
+	private static final String	REGEX_META_CHARS	= ".$|()[{^?*+\\";
+
+	private static final long	FNV_OFFSET_BASIS	= 0xCBF29CE484222325L;
+	private static final long	FNV_PRIME			= 0x100000001B3L;
+
 	private String				dataDelim;
 	private String				endnodeStr;
 
+	// split() treats the delimiter as a regex, the in place tokenizer can only stand in for it when that regex is a plain literal
+	private boolean				literalDelim;
+	private FingerprintCollisionAudit	collisionAudit;
+	private StopBiGramFilter	stopBiGramFilter;
+
 	/**
 	 * Instantiates a new bi gram utility.
 	 *
@@ -22,6 +32,47 @@ public class BiGramUtility
 		super();
 		this.dataDelim = dataDelim;
 		this.endnodeStr = endnodeStr;
+
+		literalDelim = dataDelim.isEmpty() == false;
+		for (int i = 0; i < dataDelim.length(); i++)
+		{
+			if (REGEX_META_CHARS.indexOf(dataDelim.charAt(i)) != -1)
+				literalDelim = false;
+		}
+	}
+
+	/**
+	 * Sets the collision audit. While set, every fingerprint generated is also handed to the audit along with the String form of its
+	 * bigram, which costs the allocations the fingerprint API is meant to avoid. Pass null to switch the audit off again.
+	 *
+	 * @param collisionAudit the collision audit
+	 */
+	public void setCollisionAudit(FingerprintCollisionAudit collisionAudit)
+	{
+		this.collisionAudit = collisionAudit;
+	}
+
+	/**
+	 * Sets the stop bigram filter. While set, the fingerprints of the stop bigrams are left out of what generateBiGramFingerprints hands
+	 * to its consumer. A term made of stop bigrams only hands over nothing, it is not padded with the endnodeStr instead.
+	 * Pass null to switch the filter off again.
+	 *
+	 * @param stopBiGramFilter the stop bigram filter
+	 */
+	public void setStopBiGramFilter(StopBiGramFilter stopBiGramFilter)
+	{
+		this.stopBiGramFilter = stopBiGramFilter;
+	}
+
+	/**
+	 * Tells whether a bigram is a stop bigram of the filter set, naming the stop bigram after it if it has no name yet.
+	 *
+	 * @param biGram the String form of the bigram
+	 * @return true if a filter is set and the bigram is one of its stop bigrams
+	 */
+	public boolean isStopBiGram(String biGram)
+	{
+		return stopBiGramFilter != null && isStopBiGram(fingerprint(biGram), biGram);
 	}
 
 	/**
@@ -62,4 +113,224 @@ public class BiGramUtility
 
 		return termNodes;
 	}
+
+	/**
+	 * Generates the same bi grams as {@link #generateBiGram(String)}, but hands each of them to the consumer as a 64 bit fingerprint
+	 * instead of a String. The term is tokenized in place, so apart from the audit mode no String, array or list is created.
+	 * Consecutive duplicate tokens are skipped and a single token is padded with the endnodeStr, exactly as generateBiGram does.
+	 * Likewise empty tokens between two delimiters count as tokens and trailing ones are dropped, the way String.split drops them.
+	 *
+	 * @param termString the term string
+	 * @param consumer the consumer of the fingerprints
+	 */
+	public void generateBiGramFingerprints(CharSequence termString, BiGramConsumer consumer)
+	{
+		if (termString == null || isBlank(termString))
+			return;
+
+		if (literalDelim == false)
+		{
+			for (String biGram : generateBiGram(termString.toString()))
+				emit(biGram, consumer);
+			return;
+		}
+
+		int delimLength = dataDelim.length();
+		int length = termString.length();
+
+		// the link term is kept as a range of the term string. -1 till the first token is met.
+		int linkStart = -1;
+		int linkEnd = -1;
+		boolean emitted = false;
+		boolean pendingEmptyToken = false;
+
+		int tokenStart = 0;
+		while (tokenStart <= length)
+		{
+			int tokenEnd = indexOfDelim(termString, tokenStart);
+			if (tokenEnd == -1)
+				tokenEnd = length;
+
+			if (tokenEnd == tokenStart)
+			{
+				// an empty token only counts if a non empty one follows it. consecutive empty ones are duplicates anyway.
+				pendingEmptyToken = true;
+			}
+			else
+			{
+				if (pendingEmptyToken)
+				{
+					if (linkStart == -1)
+					{
+						linkStart = tokenStart;
+						linkEnd = tokenStart;
+					}
+					else if (linkEnd != linkStart)
+					{
+						emit(termString, linkStart, linkEnd, tokenStart, tokenStart, consumer);
+						emitted = true;
+						linkStart = tokenStart;
+						linkEnd = tokenStart;
+					}
+					pendingEmptyToken = false;
+				}
+
+				if (linkStart == -1)
+				{
+					linkStart = tokenStart;
+					linkEnd = tokenEnd;
+				}
+				else if (regionEquals(termString, linkStart, linkEnd, tokenStart, tokenEnd) == false)
+				{
+					emit(termString, linkStart, linkEnd, tokenStart, tokenEnd, consumer);
+					emitted = true;
+					linkStart = tokenStart;
+					linkEnd = tokenEnd;
+				}
+			}
+
+			tokenStart = tokenEnd + delimLength;
+		}
+
+		if (emitted == false && linkStart != -1)
+		{
+			long hash = hash(FNV_OFFSET_BASIS, termString, linkStart, linkEnd);
+			hash = hash(hash, dataDelim, 0, delimLength);
+			hash = hash(hash, endnodeStr, 0, endnodeStr.length());
+			long fingerprint = finish(hash);
+			if (collisionAudit != null)
+				collisionAudit.record(fingerprint, termString.subSequence(linkStart, linkEnd) + dataDelim + endnodeStr);
+			int stopBiGram = getStopBiGram(fingerprint);
+			if (stopBiGram != StopBiGramFilter.NOT_A_STOP_BIGRAM)
+			{
+				if (stopBiGramFilter.isNamed(stopBiGram) == false)
+					stopBiGramFilter.name(stopBiGram, termString.subSequence(linkStart, linkEnd) + dataDelim + endnodeStr);
+				return;
+			}
+			consumer.accept(fingerprint);
+		}
+	}
+
+	/**
+	 * Computes the 64 bit fingerprint of a bigram from its String form. This is the fingerprint generateBiGramFingerprints emits for it.
+	 * FNV-1a over the UTF-16 chars followed by the murmur3 finalizer, which spreads the bits of short bigrams over the whole long.
+	 *
+	 * @param biGram the bigram
+	 * @return the fingerprint
+	 */
+	public static long fingerprint(CharSequence biGram)
+	{
+		return finish(hash(FNV_OFFSET_BASIS, biGram, 0, biGram.length()));
+	}
+
+	private void emit(CharSequence termString, int linkStart, int linkEnd, int tokenStart, int tokenEnd, BiGramConsumer consumer)
+	{
+		long hash = hash(FNV_OFFSET_BASIS, termString, linkStart, linkEnd);
+		hash = hash(hash, dataDelim, 0, dataDelim.length());
+		long fingerprint = finish(hash(hash, termString, tokenStart, tokenEnd));
+
+		if (collisionAudit != null)
+			collisionAudit.record(fingerprint, termString.subSequence(linkStart, linkEnd) + dataDelim + termString.subSequence(tokenStart, tokenEnd));
+		int stopBiGram = getStopBiGram(fingerprint);
+		if (stopBiGram != StopBiGramFilter.NOT_A_STOP_BIGRAM)
+		{
+			if (stopBiGramFilter.isNamed(stopBiGram) == false)
+				stopBiGramFilter.name(stopBiGram, termString.subSequence(linkStart, linkEnd) + dataDelim + termString.subSequence(tokenStart, tokenEnd));
+			return;
+		}
+		consumer.accept(fingerprint);
+	}
+
+	private void emit(String biGram, BiGramConsumer consumer)
+	{
+		long fingerprint = fingerprint(biGram);
+		if (collisionAudit != null)
+			collisionAudit.record(fingerprint, biGram);
+		if (stopBiGramFilter != null && isStopBiGram(fingerprint, biGram))
+			return;
+		consumer.accept(fingerprint);
+	}
+
+	private int getStopBiGram(long fingerprint)
+	{
+		return stopBiGramFilter == null ? StopBiGramFilter.NOT_A_STOP_BIGRAM : stopBiGramFilter.getStopBiGram(fingerprint);
+	}
+
+	private boolean isStopBiGram(long fingerprint, String biGram)
+	{
+		int stopBiGram = stopBiGramFilter.getStopBiGram(fingerprint);
+		if (stopBiGram == StopBiGramFilter.NOT_A_STOP_BIGRAM)
+			return false;
+
+		if (stopBiGramFilter.isNamed(stopBiGram) == false)
+			stopBiGramFilter.name(stopBiGram, biGram);
+		return true;
+	}
+
+	private int indexOfDelim(CharSequence termString, int from)
+	{
+		int last = termString.length() - dataDelim.length();
+		for (int i = from; i <= last; i++)
+		{
+			if (regionEquals(termString, i, i + dataDelim.length(), dataDelim))
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean regionEquals(CharSequence s, int start, int end, CharSequence other)
+	{
+		for (int i = start; i < end; i++)
+		{
+			if (s.charAt(i) != other.charAt(i - start))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean regionEquals(CharSequence s, int start1, int end1, int start2, int end2)
+	{
+		if (end1 - start1 != end2 - start2)
+			return false;
+
+		for (int i = 0; i < end1 - start1; i++)
+		{
+			if (s.charAt(start1 + i) != s.charAt(start2 + i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Same test as termString.trim().equals("") without creating the trimmed String.
+	 */
+	private static boolean isBlank(CharSequence termString)
+	{
+		for (int i = 0; i < termString.length(); i++)
+		{
+			if (termString.charAt(i) > ' ')
+				return false;
+		}
+		return true;
+	}
+
+	private static long hash(long hash, CharSequence s, int start, int end)
+	{
+		for (int i = start; i < end; i++)
+		{
+			hash ^= s.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	private static long finish(long hash)
+	{
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
 }
@@ -0,0 +1,148 @@
+package com.kartik.rapid.utility;
+
+
+/**
+ * The Class CountMinSketch.
+ * Estimates how often every key was added in a fixed amount of memory, whatever the number of distinct keys. Every key is counted
+ * in one counter of each of the depth rows of width counters and its estimate is the smallest of them. The estimate never falls below
+ * the true count, and with the counters updated conservatively, ie only the smallest ones are incremented, it rarely exceeds it by more
+ * than e / width of all the adds, with a probability of failure of e^-depth.
+ *
+ * The keys are expected to be well spread already, as the bigram fingerprints are. The counters are ints, so no key can be counted
+ * beyond Integer.MAX_VALUE.
+ */
+public class CountMinSketch
+{
+	private final int[]	counters;
+	private final int	width;
+	private final int	depth;
+	private final int	mask;
+	private long		totalCount;
+
+	/**
+	 * Instantiates a new count min sketch.
+	 *
+	 * @param width - the counters per row, rounded up to a power of 2
+	 * @param depth - the number of rows
+	 */
+	public CountMinSketch(int width, int depth)
+	{
+		super();
+		if (width < 1 || width > 1 << 26 || depth < 1 || depth > 16)
+			throw new IllegalArgumentException("width has to be from 1 to 2^26 and depth from 1 to 16 but were " + width + " and " + depth);
+
+		int roundedWidth = 1;
+		while (roundedWidth < width)
+			roundedWidth <<= 1;
+
+		this.width = roundedWidth;
+		this.depth = depth;
+		mask = roundedWidth - 1;
+		counters = new int[roundedWidth * depth];
+	}
+
+	/**
+	 * Adds the key once.
+	 *
+	 * @param key the key
+	 * @return the estimate of the key, this add included
+	 */
+	public long add(long key)
+	{
+		int h1 = hash1(key);
+		int h2 = hash2(key);
+
+		int min = Integer.MAX_VALUE;
+		for (int row = 0; row < depth; row++)
+			min = Math.min(min, counters[slot(row, h1, h2)]);
+
+		totalCount++;
+		if (min == Integer.MAX_VALUE)
+			return min;
+
+		// conservative update, the counters above the smallest one already account for this add
+		for (int row = 0; row < depth; row++)
+		{
+			int slot = slot(row, h1, h2);
+			if (counters[slot] == min)
+				counters[slot] = min + 1;
+		}
+		return min + 1;
+	}
+
+	/**
+	 * Estimates the number of times the key was added.
+	 *
+	 * @param key the key
+	 * @return the estimate, never less than the true count
+	 */
+	public long estimate(long key)
+	{
+		int h1 = hash1(key);
+		int h2 = hash2(key);
+
+		int min = Integer.MAX_VALUE;
+		for (int row = 0; row < depth; row++)
+			min = Math.min(min, counters[slot(row, h1, h2)]);
+		return min;
+	}
+
+	/**
+	 * Gets the number of adds so far.
+	 *
+	 * @return the total count
+	 */
+	public long getTotalCount()
+	{
+		return totalCount;
+	}
+
+	/**
+	 * Gets the number of counters per row.
+	 *
+	 * @return the width
+	 */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/**
+	 * Gets the number of rows.
+	 *
+	 * @return the depth
+	 */
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 * Gets the overestimate an estimate exceeds its true count by with a probability of 1 - e^-depth at most, e / width of all the adds.
+	 *
+	 * @return the error bound
+	 */
+	public long getErrorBound()
+	{
+		return (long) Math.ceil(Math.E / width * totalCount);
+	}
+
+	/**
+	 * The slot of a row is picked by double hashing, h1 + row * h2, which is as good as depth independent hash functions.
+	 */
+	private int slot(int row, int h1, int h2)
+	{
+		return row * width + ((h1 + row * h2) & mask);
+	}
+
+	private static int hash1(long key)
+	{
+		return (int) key;
+	}
+
+	private static int hash2(long key)
+	{
+		// odd, so that the rows never all fall on the same column
+		return (int) (key >>> 32) | 1;
+	}
+}
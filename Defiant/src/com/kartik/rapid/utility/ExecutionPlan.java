@@ -0,0 +1,108 @@
+package com.kartik.rapid.utility;
+
+
+/**
+ * The Class ExecutionPlan.
+ * The ingestion mode picked for a run by a {@link com.kartik.rapid.logic.ExecutionPlanner} pre-pass, along with what the pre-pass
+ * estimated the input to hold and the heap every mode was estimated to need for it. The plan is listed in the run metrics, where the
+ * estimates can be told apart from the actual counts of the run.
+ */
+public class ExecutionPlan
+{
+	/**
+	 * The ingestion modes a plan picks from, from the fastest to the one needing the least heap.
+	 */
+	public enum Mode
+	{
+		/** The postings are held on the heap, in a bigram index. */
+		HEAP,
+		/** The postings are appended to a memory mapped file, only the first id of every bigram is held on the heap. */
+		MAPPED,
+		/** The postings are sorted into runs on disk, within a sort budget of heap. */
+		EXTERNAL
+	}
+
+	private final Mode		mode;
+	private final long		heapBudget;
+	private final long		sortBudget;
+	private final long		estimatedIdCount;
+	private final long		estimatedBiGramCount;
+	private final long		estimatedPostingCount;
+	private final long[]	estimatedHeapBytes;
+
+	/**
+	 * Instantiates a new execution plan.
+	 *
+	 * @param mode - the mode picked
+	 * @param heapBudget - the bytes of heap the run may take
+	 * @param sortBudget - the bytes of heap the postings may take in {@link Mode#EXTERNAL}
+	 * @param estimatedIdCount - the estimated number of distinct ids
+	 * @param estimatedBiGramCount - the estimated number of distinct bigrams
+	 * @param estimatedPostingCount - the estimated number of postings
+	 * @param estimatedHeapBytes - the bytes of heap every mode is estimated to need, in the order of {@link Mode}
+	 */
+	public ExecutionPlan(Mode mode, long heapBudget, long sortBudget, long estimatedIdCount, long estimatedBiGramCount, long estimatedPostingCount,
+		long[] estimatedHeapBytes)
+	{
+		super();
+		if (estimatedHeapBytes.length != Mode.values().length)
+			throw new IllegalArgumentException("Got " + estimatedHeapBytes.length + " heap estimates for " + Mode.values().length + " modes");
+
+		this.mode = mode;
+		this.heapBudget = heapBudget;
+		this.sortBudget = sortBudget;
+		this.estimatedIdCount = estimatedIdCount;
+		this.estimatedBiGramCount = estimatedBiGramCount;
+		this.estimatedPostingCount = estimatedPostingCount;
+		this.estimatedHeapBytes = estimatedHeapBytes;
+	}
+
+	public Mode getMode()
+	{
+		return mode;
+	}
+
+	public long getHeapBudget()
+	{
+		return heapBudget;
+	}
+
+	public long getSortBudget()
+	{
+		return sortBudget;
+	}
+
+	public long getEstimatedIdCount()
+	{
+		return estimatedIdCount;
+	}
+
+	public long getEstimatedBiGramCount()
+	{
+		return estimatedBiGramCount;
+	}
+
+	public long getEstimatedPostingCount()
+	{
+		return estimatedPostingCount;
+	}
+
+	/**
+	 * Gets the bytes of heap a mode is estimated to need.
+	 *
+	 * @param mode the mode
+	 * @return the estimated heap bytes
+	 */
+	public long getEstimatedHeapBytes(Mode mode)
+	{
+		return estimatedHeapBytes[mode.ordinal()];
+	}
+
+	@Override
+	public String toString()
+	{
+		return mode + " within a heap budget of " + (heapBudget >> 20) + " MB :: ~" + estimatedIdCount + " ids, ~" + estimatedBiGramCount + " bigrams, ~"
+			+ estimatedPostingCount + " postings, heap needed " + (getEstimatedHeapBytes(Mode.HEAP) >> 20) + " MB heap, "
+			+ (getEstimatedHeapBytes(Mode.MAPPED) >> 20) + " MB mapped, " + (getEstimatedHeapBytes(Mode.EXTERNAL) >> 20) + " MB external";
+	}
+}
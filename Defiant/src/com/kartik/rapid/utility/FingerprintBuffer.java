@@ -0,0 +1,50 @@
+package com.kartik.rapid.utility;
+
+import java.util.Arrays;
+
+/**
+ * The Class FingerprintBuffer.
+ * A reusable, growable long[] collecting the bigram fingerprints of one row. Cleared and refilled for every row, so once it has grown
+ * to the size of the longest row it never allocates again.
+ */
+public class FingerprintBuffer implements BiGramConsumer
+{
+	private long[]	fingerprints	= new long[64];
+	private int		size;
+
+	@Override
+	public void accept(long fingerprint)
+	{
+		if (size == fingerprints.length)
+			fingerprints = Arrays.copyOf(fingerprints, size << 1);
+		fingerprints[size++] = fingerprint;
+	}
+
+	/**
+	 * Empties the buffer for the next row.
+	 */
+	public void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * Gets the number of fingerprints in the buffer.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Gets the backing array. Only the first {@link #size()} entries are valid.
+	 *
+	 * @return the fingerprints
+	 */
+	public long[] getFingerprints()
+	{
+		return fingerprints;
+	}
+}
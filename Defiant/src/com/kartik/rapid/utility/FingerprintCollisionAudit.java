@@ -0,0 +1,72 @@
+package com.kartik.rapid.utility;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The Class FingerprintCollisionAudit.
+ * Verifies the bigram fingerprints of a run. Once set on a {@link BiGramUtility}, every fingerprint is also recorded with the String form
+ * of its bigram. Two different bigrams with the same fingerprint are a collision and get logged and counted, and every fingerprint is
+ * checked to be the fingerprint of its own String form. Keeps every distinct bigram in memory, so meant for sampling runs only.
+ */
+public class FingerprintCollisionAudit
+{
+	static final Logger			log			= Logger.getLogger(FingerprintCollisionAudit.class);
+
+	private Map<Long, String>	biGrams		= new HashMap<>();
+	private long				recordCount;
+	private long				collisionCount;
+
+	/**
+	 * Records a fingerprint with the String form of its bigram.
+	 *
+	 * @param fingerprint the fingerprint
+	 * @param biGram the bigram
+	 */
+	public synchronized void record(long fingerprint, String biGram)
+	{
+		recordCount++;
+
+		if (BiGramUtility.fingerprint(biGram) != fingerprint)
+			throw new IllegalStateException("Fingerprint " + fingerprint + " is not the fingerprint of bigram '" + biGram + "'");
+
+		String previous = biGrams.put(fingerprint, biGram);
+		if (previous != null && previous.equals(biGram) == false)
+		{
+			collisionCount++;
+			log.warn("Fingerprint collision :: '" + previous + "' and '" + biGram + "' both hash to " + fingerprint);
+		}
+	}
+
+	/**
+	 * Gets the number of fingerprints recorded.
+	 *
+	 * @return the record count
+	 */
+	public synchronized long getRecordCount()
+	{
+		return recordCount;
+	}
+
+	/**
+	 * Gets the number of distinct bigrams recorded.
+	 *
+	 * @return the distinct bigram count
+	 */
+	public synchronized int getDistinctBiGramCount()
+	{
+		return biGrams.size();
+	}
+
+	/**
+	 * Gets the number of collisions found.
+	 *
+	 * @return the collision count
+	 */
+	public synchronized long getCollisionCount()
+	{
+		return collisionCount;
+	}
+}
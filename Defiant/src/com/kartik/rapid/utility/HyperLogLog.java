@@ -0,0 +1,95 @@
+package com.kartik.rapid.utility;
+
+
+/**
+ * The Class HyperLogLog.
+ * Estimates the number of distinct keys added in a fixed amount of memory, whatever the number of keys. Every key is hashed to 64 bits,
+ * the first precision bits of the hash pick one of 2^precision registers and the register keeps the longest run of leading zeros seen in
+ * the rest of the hashes. The harmonic mean of the registers then estimates the distinct count with a standard error of
+ * 1.04 / sqrt(2^precision), 0.8% for a precision of 14 in 16 KB. While many registers are still empty the count of those is used instead,
+ * which is exact enough for small counts. With 64 bit hashes no correction is needed for large ones.
+ *
+ * Any long keys can be added, ids as well as bigram fingerprints, as they are mixed before being hashed.
+ */
+public class HyperLogLog
+{
+	private final byte[]	registers;
+	private final int		precision;
+
+	/**
+	 * Instantiates a new hyper log log.
+	 *
+	 * @param precision - the number of bits picking the register, from 4 to 18
+	 */
+	public HyperLogLog(int precision)
+	{
+		super();
+		if (precision < 4 || precision > 18)
+			throw new IllegalArgumentException("precision has to be from 4 to 18 but was " + precision);
+
+		this.precision = precision;
+		registers = new byte[1 << precision];
+	}
+
+	/**
+	 * Adds the key.
+	 *
+	 * @param key the key
+	 */
+	public void add(long key)
+	{
+		long hash = mix(key);
+		int register = (int) (hash >>> (64 - precision));
+		// the marker bit caps the run at 64 - precision zeros, for a hash whose remaining bits are all 0
+		int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+		if (rank > registers[register])
+			registers[register] = (byte) rank;
+	}
+
+	/**
+	 * Estimates the number of distinct keys added.
+	 *
+	 * @return the estimate
+	 */
+	public long estimate()
+	{
+		int m = registers.length;
+		double sum = 0;
+		int emptyRegisters = 0;
+		for (byte register : registers)
+		{
+			sum += 1.0 / (1L << register);
+			if (register == 0)
+				emptyRegisters++;
+		}
+
+		double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && emptyRegisters > 0)
+			estimate = m * Math.log((double) m / emptyRegisters);
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Gets the relative standard error of the estimates.
+	 *
+	 * @return the standard error
+	 */
+	public double getStandardError()
+	{
+		return 1.04 / Math.sqrt(registers.length);
+	}
+
+	/**
+	 * The finalizer of MurmurHash3, which spreads even consecutive keys over all the bits.
+	 */
+	private static long mix(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		key *= 0xC4CEB9FE1A85EC53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
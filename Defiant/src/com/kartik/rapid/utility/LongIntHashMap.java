@@ -0,0 +1,182 @@
+package com.kartik.rapid.utility;
+
+
+/**
+ * The Class LongIntHashMap.
+ * A primitive long to int hash map using open addressing with linear probing over two parallel arrays.
+ * Neither keys nor values are ever boxed and no object is allocated per entry, which is what makes it usable on the
+ * hot paths where a HashMap&lt;Long, Integer&gt; would create two objects per lookup.
+ *
+ * The key 0 is used to mark free slots, hence an actual 0 key is kept aside in its own field.
+ * Entries can not be removed.
+ */
+public class LongIntHashMap
+{
+	/** Returned by the lookup methods when a key is not present. */
+	public static final int		NO_VALUE		= -1;
+
+	private static final float	LOAD_FACTOR	= 0.75f;
+	private static final int	MAX_CAPACITY	= 1 << 30;
+
+	private long[]				keys;
+	private int[]				values;
+	private int					mask;
+	private int					resizeThreshold;
+	private int					size;
+
+	private boolean				hasZeroKey;
+	private int					zeroKeyValue;
+
+	/**
+	 * Instantiates a new long int hash map which can hold expectedSize entries without having to rehash.
+	 *
+	 * @param expectedSize - the expected number of entries
+	 */
+	public LongIntHashMap(int expectedSize)
+	{
+		super();
+		allocate(tableSizeFor(expectedSize));
+	}
+
+	/**
+	 * Gets the value mapped to the key.
+	 *
+	 * @param key the key
+	 * @return the value, or {@link #NO_VALUE} if the key is not present
+	 */
+	public int get(long key)
+	{
+		if (key == 0)
+			return hasZeroKey ? zeroKeyValue : NO_VALUE;
+
+		int slot = slotOf(key);
+		while (keys[slot] != 0)
+		{
+			if (keys[slot] == key)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Maps the key to the value, unless the key is already present. The lookup and the insert share a single probe sequence.
+	 *
+	 * @param key the key
+	 * @param value the value to be stored if the key is absent
+	 * @return the value already mapped to the key, or {@link #NO_VALUE} if the key was absent and has now been inserted
+	 */
+	public int putIfAbsent(long key, int value)
+	{
+		if (key == 0)
+		{
+			if (hasZeroKey)
+				return zeroKeyValue;
+			hasZeroKey = true;
+			zeroKeyValue = value;
+			size++;
+			return NO_VALUE;
+		}
+
+		int slot = slotOf(key);
+		while (keys[slot] != 0)
+		{
+			if (keys[slot] == key)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size > resizeThreshold)
+			rehash(keys.length << 1);
+		return NO_VALUE;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Copies all the entries into the 2 arrays, in no particular order.
+	 *
+	 * @param keysOut - the array the keys are copied to, of at least {@link #size()} entries
+	 * @param valuesOut - the array the values are copied to, the value of a key at the index of the key
+	 * @return the number of entries copied
+	 */
+	public int copyTo(long[] keysOut, int[] valuesOut)
+	{
+		int count = 0;
+		if (hasZeroKey)
+		{
+			keysOut[count] = 0;
+			valuesOut[count++] = zeroKeyValue;
+		}
+
+		for (int slot = 0; slot < keys.length; slot++)
+		{
+			if (keys[slot] != 0)
+			{
+				keysOut[count] = keys[slot];
+				valuesOut[count++] = values[slot];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Spreads the bits of the key so that sequential ids do not end up in sequential slots.
+	 *
+	 * @param key the key
+	 * @return the slot where probing starts
+	 */
+	private int slotOf(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private void rehash(int newCapacity)
+	{
+		if (newCapacity > MAX_CAPACITY)
+			throw new IllegalStateException("LongIntHashMap can not grow beyond " + MAX_CAPACITY + " slots");
+
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(newCapacity);
+
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldKeys[i] != 0)
+			{
+				int slot = slotOf(oldKeys[i]);
+				while (keys[slot] != 0)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		resizeThreshold = (int) (capacity * LOAD_FACTOR);
+	}
+
+	private static int tableSizeFor(int expectedSize)
+	{
+		long required = (long) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR) + 1;
+		if (required > MAX_CAPACITY)
+			return MAX_CAPACITY;
+		return Integer.highestOneBit((int) required - 1) << 1;
+	}
+}
@@ -0,0 +1,663 @@
+package com.kartik.rapid.utility;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * The Class RunMetrics.
+ * Collects where the time and the memory of one clustering run go, phase by phase, along with the counts and distributions which
+ * explain them. Every part of the run which is handed a RunMetrics adds to it, a part which is handed none skips the bookkeeping.
+ * All the methods are thread safe. The hot loops add to it once per block of work and never per posting.
+ *
+ * The metrics can be watched live through JMX, check {@link #register()}, and are written as a JSON report at the end of the run.
+ * Histograms of sizes have logarithmic buckets, bucket 0 counting the zeros and bucket b the values from 2^(b-1) to 2^b - 1.
+ * The find path length histogram has a bucket per length, the last bucket counting everything longer.
+ */
+public class RunMetrics implements RunMetricsMBean
+{
+	static final Logger			log				= Logger.getLogger(RunMetrics.class);
+
+	/** The object name the metrics are registered with. */
+	public static final String	OBJECT_NAME		= "com.kartik.rapid:type=RunMetrics";
+
+	/** The number of buckets of every histogram. */
+	public static final int		BUCKET_COUNT	= 64;
+
+	/** The number of stop bigrams listed by the report. */
+	private static final int	TOP_STOP_BIGRAMS	= 20;
+
+	/**
+	 * The phases of a run.
+	 */
+	public enum Phase
+	{
+		/** Reading the input, including handing the rows to their sink. */
+		SCAN,
+		/** Tokenizing the rows and fingerprinting their bigrams. */
+		BIGRAM_GENERATION,
+		/** Translating the ids into simple keys. */
+		DICTIONARY,
+		/** Unioning the simple keys of every posting list. */
+		UNION,
+		/** Finding the root of every simple key once the unions are over. */
+		FINAL_COMPRESSION,
+		/** Grouping the ids by cluster into the result. */
+		COALESCING,
+		/** Writing the result out, back to the table or to a file. */
+		WRITE_BACK,
+		/** Saving the checkpoints a run can be resumed from. */
+		CHECKPOINT
+	}
+
+	private final long				startNanos			= System.nanoTime();
+	private volatile long			endNanos;
+
+	private final AtomicLongArray	phaseNanos			= new AtomicLongArray(Phase.values().length);
+	private final AtomicLong		rowCount			= new AtomicLong();
+	private final AtomicLong		postingCount		= new AtomicLong();
+	private final AtomicLong		postingListCount	= new AtomicLong();
+	private final AtomicLong		unionCount			= new AtomicLong();
+	private final AtomicLong		mergeCount			= new AtomicLong();
+	private final AtomicLong		findCount			= new AtomicLong();
+	private final AtomicLong		idCount				= new AtomicLong();
+	private final AtomicLong		clusterCount		= new AtomicLong();
+	private final AtomicLong		writtenBackRowCount	= new AtomicLong();
+	private final AtomicLong		unchangedRowCount	= new AtomicLong();
+	private final AtomicLong		checkpointCount		= new AtomicLong();
+	private final AtomicLong		checkpointBytes		= new AtomicLong();
+
+	private final AtomicLongArray	postingListSizes	= new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLongArray	findPathLengths		= new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLongArray	clusterSizes		= new AtomicLongArray(BUCKET_COUNT);
+
+	private volatile StopBiGramFilter	stopBiGramFilter;
+	private volatile ExecutionPlan		executionPlan;
+
+	/**
+	 * Instantiates new metrics, starting the clock of the run. The peak heap usage of the JVM is reset, so that the peak reported is the one of this run.
+	 */
+	public RunMetrics()
+	{
+		super();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				pool.resetPeakUsage();
+		}
+	}
+
+	/**
+	 * Gets the log2 bucket of a size.
+	 *
+	 * @param size the size
+	 * @return the bucket
+	 */
+	public static int log2Bucket(long size)
+	{
+		return 64 - Long.numberOfLeadingZeros(size);
+	}
+
+	/**
+	 * Gets the bucket of a find path length.
+	 *
+	 * @param length the path length
+	 * @return the bucket
+	 */
+	public static int pathLengthBucket(int length)
+	{
+		return Math.min(length, BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * Adds the time spent in a phase.
+	 *
+	 * @param phase the phase
+	 * @param nanos the nanoseconds spent
+	 */
+	public void addPhaseNanos(Phase phase, long nanos)
+	{
+		phaseNanos.addAndGet(phase.ordinal(), nanos);
+	}
+
+	/**
+	 * Gets the time spent in a phase so far.
+	 *
+	 * @param phase the phase
+	 * @return the nanoseconds spent, summed over all the threads
+	 */
+	public long getPhaseNanos(Phase phase)
+	{
+		return phaseNanos.get(phase.ordinal());
+	}
+
+	/**
+	 * Adds rows read from the input.
+	 *
+	 * @param rows the number of rows
+	 */
+	public void addRows(long rows)
+	{
+		rowCount.addAndGet(rows);
+	}
+
+	/**
+	 * Adds a stretch of reading the input. The bigram generation is booked as a phase of its own, the rest of the time as the scan.
+	 *
+	 * @param readNanos the nanoseconds spent reading, the bigram generation included
+	 * @param generationNanos the nanoseconds of it spent generating the bigrams
+	 * @param rows the number of rows read
+	 */
+	public void addRead(long readNanos, long generationNanos, long rows)
+	{
+		phaseNanos.addAndGet(Phase.SCAN.ordinal(), readNanos - generationNanos);
+		phaseNanos.addAndGet(Phase.BIGRAM_GENERATION.ordinal(), generationNanos);
+		rowCount.addAndGet(rows);
+	}
+
+	/**
+	 * Adds the posting lists unioned by a block of work, as a histogram of their sizes. The sizes are the log2 buckets of {@link #log2Bucket(long)}.
+	 *
+	 * @param sizeHistogram the number of posting lists per bucket, which is left as it was
+	 * @param postings the number of postings in the lists
+	 */
+	public void addPostingLists(long[] sizeHistogram, long postings)
+	{
+		long lists = addAll(postingListSizes, sizeHistogram);
+		postingListCount.addAndGet(lists);
+		postingCount.addAndGet(postings);
+	}
+
+	/**
+	 * Adds postings which were not unioned list by list, as the scan based clustering does.
+	 *
+	 * @param postings the number of postings
+	 * @param postingLists the number of posting lists, ie distinct bigrams
+	 */
+	public void addPostings(long postings, long postingLists)
+	{
+		postingCount.addAndGet(postings);
+		postingListCount.addAndGet(postingLists);
+	}
+
+	/**
+	 * Adds union calls.
+	 *
+	 * @param unions the number of union calls, each of which finds 2 roots
+	 * @param merges the number of union calls which merged 2 sets
+	 */
+	public void addUnions(long unions, long merges)
+	{
+		unionCount.addAndGet(unions);
+		mergeCount.addAndGet(merges);
+		findCount.addAndGet(2 * unions);
+	}
+
+	/**
+	 * Adds the find path lengths of the final compression.
+	 *
+	 * @param lengthHistogram the number of finds per path length bucket, check {@link #pathLengthBucket(int)}
+	 */
+	public void addFindPathLengths(long[] lengthHistogram)
+	{
+		findCount.addAndGet(addAll(findPathLengths, lengthHistogram));
+	}
+
+	/**
+	 * Adds a cluster to the cluster size distribution.
+	 *
+	 * @param size the number of ids in the cluster
+	 */
+	public void addCluster(int size)
+	{
+		clusterSizes.incrementAndGet(log2Bucket(size));
+		clusterCount.incrementAndGet();
+		idCount.addAndGet(size);
+	}
+
+	/**
+	 * Adds the rows of a back update.
+	 *
+	 * @param writtenRows the number of rows whose cluster id was written or cleared
+	 * @param unchangedRows the number of rows left alone, as their cluster id did not change
+	 */
+	public void addWriteBack(long writtenRows, long unchangedRows)
+	{
+		writtenBackRowCount.addAndGet(writtenRows);
+		unchangedRowCount.addAndGet(unchangedRows);
+	}
+
+	/**
+	 * Adds a checkpoint saved, whose time is added to the {@link Phase#CHECKPOINT} phase.
+	 *
+	 * @param bytes the size of the checkpoint
+	 */
+	public void addCheckpoint(long bytes)
+	{
+		checkpointCount.incrementAndGet();
+		checkpointBytes.addAndGet(bytes);
+	}
+
+	/**
+	 * Sets the stop bigrams left out of the run, which the report then lists.
+	 *
+	 * @param stopBiGramFilter the stop bigram filter
+	 */
+	public void setStopBiGramFilter(StopBiGramFilter stopBiGramFilter)
+	{
+		this.stopBiGramFilter = stopBiGramFilter;
+	}
+
+	/**
+	 * Sets the plan the ingestion mode of the run was picked by, which the report then lists.
+	 *
+	 * @param executionPlan the execution plan
+	 */
+	public void setExecutionPlan(ExecutionPlan executionPlan)
+	{
+		this.executionPlan = executionPlan;
+	}
+
+	/**
+	 * Stops the clock of the run.
+	 */
+	public void finish()
+	{
+		endNanos = System.nanoTime();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, replacing the ones of an earlier run of the same JVM.
+	 *
+	 * @return the object name registered
+	 * @throws JMException the JMX exception
+	 */
+	public ObjectName register() throws JMException
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name))
+			server.unregisterMBean(name);
+		server.registerMBean(this, name);
+		log.info("Registered the run metrics as " + name);
+		return name;
+	}
+
+	/**
+	 * Writes the report to a file, UTF-8 encoded.
+	 *
+	 * @param reportFile the file, an existing one is overwritten
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeReport(File reportFile) throws IOException
+	{
+		try (
+			Writer out = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");)
+		{
+			out.write(getReport());
+			out.write('\n');
+		}
+		log.info("Wrote the run metrics to " + reportFile);
+	}
+
+	@Override
+	public long getElapsedMillis()
+	{
+		return ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1000000;
+	}
+
+	@Override
+	public long getScanNanos()
+	{
+		return getPhaseNanos(Phase.SCAN);
+	}
+
+	@Override
+	public long getBiGramGenerationNanos()
+	{
+		return getPhaseNanos(Phase.BIGRAM_GENERATION);
+	}
+
+	@Override
+	public long getDictionaryNanos()
+	{
+		return getPhaseNanos(Phase.DICTIONARY);
+	}
+
+	@Override
+	public long getUnionNanos()
+	{
+		return getPhaseNanos(Phase.UNION);
+	}
+
+	@Override
+	public long getFinalCompressionNanos()
+	{
+		return getPhaseNanos(Phase.FINAL_COMPRESSION);
+	}
+
+	@Override
+	public long getCoalescingNanos()
+	{
+		return getPhaseNanos(Phase.COALESCING);
+	}
+
+	@Override
+	public long getWriteBackNanos()
+	{
+		return getPhaseNanos(Phase.WRITE_BACK);
+	}
+
+	@Override
+	public long getCheckpointNanos()
+	{
+		return getPhaseNanos(Phase.CHECKPOINT);
+	}
+
+	@Override
+	public long getRowCount()
+	{
+		return rowCount.get();
+	}
+
+	@Override
+	public long getPostingCount()
+	{
+		return postingCount.get();
+	}
+
+	@Override
+	public long getPostingListCount()
+	{
+		return postingListCount.get();
+	}
+
+	@Override
+	public long getUnionCount()
+	{
+		return unionCount.get();
+	}
+
+	@Override
+	public long getMergeCount()
+	{
+		return mergeCount.get();
+	}
+
+	@Override
+	public long getFindCount()
+	{
+		return findCount.get();
+	}
+
+	@Override
+	public long getIdCount()
+	{
+		return idCount.get();
+	}
+
+	@Override
+	public long getClusterCount()
+	{
+		return clusterCount.get();
+	}
+
+	@Override
+	public long getCheckpointCount()
+	{
+		return checkpointCount.get();
+	}
+
+	@Override
+	public long getCheckpointBytes()
+	{
+		return checkpointBytes.get();
+	}
+
+	@Override
+	public long getWrittenBackRowCount()
+	{
+		return writtenBackRowCount.get();
+	}
+
+	@Override
+	public long getUnchangedRowCount()
+	{
+		return unchangedRowCount.get();
+	}
+
+	/**
+	 * Gets the sum of the peak usages of all the heap pools since the metrics were created.
+	 */
+	@Override
+	public int getStopBiGramCount()
+	{
+		StopBiGramFilter filter = stopBiGramFilter;
+		return filter == null ? 0 : filter.size();
+	}
+
+	@Override
+	public long getPeakHeapBytes()
+	{
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	@Override
+	public long[] getPostingListSizeHistogram()
+	{
+		return snapshot(postingListSizes);
+	}
+
+	@Override
+	public long[] getFindPathLengthHistogram()
+	{
+		return snapshot(findPathLengths);
+	}
+
+	@Override
+	public long[] getClusterSizeHistogram()
+	{
+		return snapshot(clusterSizes);
+	}
+
+	@Override
+	public String getReport()
+	{
+		StringBuilder report = new StringBuilder(1024);
+		report.append("{\"elapsedMillis\":").append(getElapsedMillis());
+
+		report.append(",\"phaseNanos\":{");
+		for (Phase phase : Phase.values())
+		{
+			if (phase.ordinal() > 0)
+				report.append(',');
+			report.append('"').append(phase.name().toLowerCase()).append("\":").append(getPhaseNanos(phase));
+		}
+		report.append('}');
+
+		report.append(",\"rows\":").append(getRowCount());
+		report.append(",\"postings\":").append(getPostingCount());
+		report.append(",\"postingLists\":").append(getPostingListCount());
+		report.append(",\"unions\":").append(getUnionCount());
+		report.append(",\"merges\":").append(getMergeCount());
+		report.append(",\"finds\":").append(getFindCount());
+		report.append(",\"ids\":").append(getIdCount());
+		report.append(",\"clusters\":").append(getClusterCount());
+		report.append(",\"writtenBackRows\":").append(getWrittenBackRowCount());
+		report.append(",\"unchangedRows\":").append(getUnchangedRowCount());
+		report.append(",\"checkpoints\":").append(getCheckpointCount());
+		report.append(",\"checkpointBytes\":").append(getCheckpointBytes());
+		report.append(",\"peakHeapBytes\":").append(getPeakHeapBytes());
+
+		report.append(",\"postingListSizeLog2Histogram\":");
+		appendHistogram(report, getPostingListSizeHistogram());
+		report.append(",\"findPathLengthHistogram\":");
+		appendHistogram(report, getFindPathLengthHistogram());
+		report.append(",\"clusterSizeLog2Histogram\":");
+		appendHistogram(report, getClusterSizeHistogram());
+
+		StopBiGramFilter filter = stopBiGramFilter;
+		if (filter != null)
+		{
+			report.append(",\"stopBiGrams\":");
+			appendStopBiGrams(report, filter);
+		}
+
+		ExecutionPlan plan = executionPlan;
+		if (plan != null)
+		{
+			report.append(",\"plan\":");
+			appendExecutionPlan(report, plan);
+		}
+
+		return report.append('}').toString();
+	}
+
+	/**
+	 * Appends the execution plan as a JSON object, with the heap estimated for every mode.
+	 */
+	private static void appendExecutionPlan(StringBuilder report, ExecutionPlan plan)
+	{
+		report.append("{\"mode\":\"").append(plan.getMode().name().toLowerCase()).append('"');
+		report.append(",\"heapBudget\":").append(plan.getHeapBudget());
+		report.append(",\"sortBudget\":").append(plan.getSortBudget());
+		report.append(",\"estimatedIds\":").append(plan.getEstimatedIdCount());
+		report.append(",\"estimatedBiGrams\":").append(plan.getEstimatedBiGramCount());
+		report.append(",\"estimatedPostings\":").append(plan.getEstimatedPostingCount());
+		report.append(",\"estimatedHeapBytes\":{");
+		for (ExecutionPlan.Mode mode : ExecutionPlan.Mode.values())
+		{
+			if (mode.ordinal() > 0)
+				report.append(',');
+			report.append('"').append(mode.name().toLowerCase()).append("\":").append(plan.getEstimatedHeapBytes(mode));
+		}
+		report.append("}}");
+	}
+
+	/**
+	 * Appends the stop bigrams as a JSON object, with the TOP_STOP_BIGRAMS of most rows listed one by one.
+	 */
+	private static void appendStopBiGrams(StringBuilder report, final StopBiGramFilter filter)
+	{
+		report.append("{\"maxRows\":").append(filter.getMaxRows());
+		report.append(",\"count\":").append(filter.size());
+		report.append(",\"estimatedPostings\":").append(filter.getEstimatedPostingCount());
+
+		Integer[] stopBiGrams = new Integer[filter.size()];
+		for (int i = 0; i < stopBiGrams.length; i++)
+			stopBiGrams[i] = i;
+		Arrays.sort(stopBiGrams, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Long.compare(filter.getEstimatedRows(b), filter.getEstimatedRows(a));
+			}
+		});
+
+		report.append(",\"top\":[");
+		for (int i = 0; i < Math.min(stopBiGrams.length, TOP_STOP_BIGRAMS); i++)
+		{
+			int stopBiGram = stopBiGrams[i];
+			if (i > 0)
+				report.append(',');
+			report.append("{\"biGram\":");
+			appendString(report, filter.getName(stopBiGram));
+			report.append(",\"fingerprint\":\"").append(Long.toHexString(filter.getFingerprint(stopBiGram)));
+			report.append("\",\"estimatedRows\":").append(filter.getEstimatedRows(stopBiGram)).append('}');
+		}
+		report.append("]}");
+	}
+
+	/**
+	 * Appends a value as a JSON string, escaped and quoted, or as null.
+	 *
+	 * @param report the JSON built
+	 * @param value the value
+	 */
+	public static void appendString(StringBuilder report, String value)
+	{
+		if (value == null)
+		{
+			report.append("null");
+			return;
+		}
+
+		report.append('"');
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				report.append('\\').append(c);
+			else if (c < ' ')
+				report.append(String.format("\\u%04x", (int) c));
+			else
+				report.append(c);
+		}
+		report.append('"');
+	}
+
+	private static long addAll(AtomicLongArray histogram, long[] counts)
+	{
+		long total = 0;
+		for (int bucket = 0; bucket < counts.length; bucket++)
+		{
+			if (counts[bucket] != 0)
+			{
+				histogram.addAndGet(bucket, counts[bucket]);
+				total += counts[bucket];
+			}
+		}
+		return total;
+	}
+
+	private static long[] snapshot(AtomicLongArray histogram)
+	{
+		long[] counts = new long[histogram.length()];
+		for (int bucket = 0; bucket < counts.length; bucket++)
+			counts[bucket] = histogram.get(bucket);
+		return counts;
+	}
+
+	/**
+	 * Appends the histogram as a JSON array, without the empty buckets at its end.
+	 */
+	private static void appendHistogram(StringBuilder report, long[] counts)
+	{
+		int length = counts.length;
+		while (length > 0 && counts[length - 1] == 0)
+			length--;
+
+		report.append('[');
+		for (int bucket = 0; bucket < length; bucket++)
+		{
+			if (bucket > 0)
+				report.append(',');
+			report.append(counts[bucket]);
+		}
+		report.append(']');
+	}
+}
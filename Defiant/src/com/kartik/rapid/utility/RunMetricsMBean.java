@@ -0,0 +1,69 @@
+package com.kartik.rapid.utility;
+
+
+/**
+ * RunMetricsMBean -
+ * The JMX view of a {@link RunMetrics}, readable with jconsole or any other JMX client while the run is going on.
+ * The phase timings are in nanoseconds, summed over all the threads which worked on the phase.
+ */
+public interface RunMetricsMBean
+{
+	long getElapsedMillis();
+
+	long getScanNanos();
+
+	long getBiGramGenerationNanos();
+
+	long getDictionaryNanos();
+
+	long getUnionNanos();
+
+	long getFinalCompressionNanos();
+
+	long getCoalescingNanos();
+
+	long getWriteBackNanos();
+
+	long getCheckpointNanos();
+
+	long getRowCount();
+
+	long getPostingCount();
+
+	long getPostingListCount();
+
+	long getUnionCount();
+
+	long getMergeCount();
+
+	long getFindCount();
+
+	long getIdCount();
+
+	long getClusterCount();
+
+	long getWrittenBackRowCount();
+
+	long getUnchangedRowCount();
+
+	long getCheckpointCount();
+
+	long getCheckpointBytes();
+
+	int getStopBiGramCount();
+
+	long getPeakHeapBytes();
+
+	long[] getPostingListSizeHistogram();
+
+	long[] getFindPathLengthHistogram();
+
+	long[] getClusterSizeHistogram();
+
+	/**
+	 * Gets the report of the run so far, as a JSON object.
+	 *
+	 * @return the report
+	 */
+	String getReport();
+}
@@ -0,0 +1,148 @@
+package com.kartik.rapid.utility;
+
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * The Class StopBiGramFilter.
+ * The stop bigrams of a run, the bigrams shared by so many rows, such as boilerplate phrases, that their posting lists cost the most
+ * union time while collapsing everything they touch into one giant cluster. Once set on a {@link BiGramUtility}, the fingerprints of the
+ * stop bigrams are left out of what it generates, so they never make it into a posting list. The stop bigrams are found by a
+ * {@link com.kartik.rapid.logic.BiGramFrequencySketch} pre-pass over the input.
+ *
+ * A stop bigram gets the String form of the first bigram met with its fingerprint as its name, for the run report. The filter is
+ * read only otherwise, so a single one can be shared by the threads generating the bigrams.
+ */
+public class StopBiGramFilter
+{
+	/** Returned by {@link #getStopBiGram(long)} for a fingerprint which is not a stop bigram. */
+	public static final int						NOT_A_STOP_BIGRAM	= LongIntHashMap.NO_VALUE;
+
+	private final LongIntHashMap				ordinals;
+	private final long[]						fingerprints;
+	private final long[]						estimatedRows;
+	private final AtomicReferenceArray<String>	names;
+	private final long							maxRows;
+
+	/**
+	 * Instantiates a new stop bigram filter.
+	 *
+	 * @param fingerprints - the fingerprints of the stop bigrams
+	 * @param estimatedRows - the estimated number of rows of every stop bigram
+	 * @param maxRows - the number of rows a bigram had to exceed to be a stop bigram
+	 */
+	public StopBiGramFilter(long[] fingerprints, long[] estimatedRows, long maxRows)
+	{
+		super();
+		if (fingerprints.length != estimatedRows.length)
+			throw new IllegalArgumentException("Got " + fingerprints.length + " fingerprints but " + estimatedRows.length + " row estimates");
+
+		this.fingerprints = fingerprints;
+		this.estimatedRows = estimatedRows;
+		this.maxRows = maxRows;
+		names = new AtomicReferenceArray<>(fingerprints.length);
+		ordinals = new LongIntHashMap(fingerprints.length);
+		for (int i = 0; i < fingerprints.length; i++)
+			ordinals.putIfAbsent(fingerprints[i], i);
+	}
+
+	/**
+	 * Gets the stop bigram of a fingerprint.
+	 *
+	 * @param fingerprint the fingerprint
+	 * @return the ordinal of the stop bigram, or {@link #NOT_A_STOP_BIGRAM}
+	 */
+	public int getStopBiGram(long fingerprint)
+	{
+		return ordinals.get(fingerprint);
+	}
+
+	/**
+	 * Tells whether a stop bigram has been named yet.
+	 *
+	 * @param stopBiGram the ordinal of the stop bigram
+	 * @return true if named
+	 */
+	public boolean isNamed(int stopBiGram)
+	{
+		return names.get(stopBiGram) != null;
+	}
+
+	/**
+	 * Names a stop bigram, unless it already has a name.
+	 *
+	 * @param stopBiGram the ordinal of the stop bigram
+	 * @param biGram the String form of the bigram
+	 */
+	public void name(int stopBiGram, String biGram)
+	{
+		names.compareAndSet(stopBiGram, null, biGram);
+	}
+
+	/**
+	 * Gets the number of stop bigrams.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return fingerprints.length;
+	}
+
+	/**
+	 * Gets the fingerprint of a stop bigram.
+	 *
+	 * @param stopBiGram the ordinal of the stop bigram
+	 * @return the fingerprint
+	 */
+	public long getFingerprint(int stopBiGram)
+	{
+		return fingerprints[stopBiGram];
+	}
+
+	/**
+	 * Gets the estimated number of rows of a stop bigram.
+	 *
+	 * @param stopBiGram the ordinal of the stop bigram
+	 * @return the estimated rows
+	 */
+	public long getEstimatedRows(int stopBiGram)
+	{
+		return estimatedRows[stopBiGram];
+	}
+
+	/**
+	 * Gets the name of a stop bigram.
+	 *
+	 * @param stopBiGram the ordinal of the stop bigram
+	 * @return the String form of the bigram, null if it has not been met since the filter was set
+	 */
+	public String getName(int stopBiGram)
+	{
+		return names.get(stopBiGram);
+	}
+
+	/**
+	 * Gets the number of rows a bigram had to exceed to be a stop bigram.
+	 *
+	 * @return the max rows
+	 */
+	public long getMaxRows()
+	{
+		return maxRows;
+	}
+
+	/**
+	 * Gets the estimated number of postings left out, the sum of the estimated rows of the stop bigrams.
+	 *
+	 * @return the estimated postings
+	 */
+	public long getEstimatedPostingCount()
+	{
+		long postings = 0;
+		for (long rows : estimatedRows)
+			postings += rows;
+		return postings;
+	}
+}
@@ -0,0 +1,163 @@
+package com.kartik.rapid.dao;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kartik.rapid.logic.BiGramIndex;
+import com.kartik.rapid.logic.RapidCore;
+import com.kartik.rapid.logic.ShardedBiGramIndex;
+import com.kartik.rapid.pojo.ClusteringResult;
+
+
+/**
+ * Checks that reading a table over several connections and workers, {@link InputTableDao#createBiGramIndexFromTable(int, int, int)},
+ * gives the same partition as reading it over a single connection, on an embedded H2 database standing in for the Oracle one.
+ */
+public class InputTableDaoTest
+{
+	private static final int[][]	READERS_AND_WORKERS	= { { 1, 1 }, { 2, 3 }, { 3, 2 }, { 4, 4 }, { 7, 2 } };
+	private static final String		CONNECTION_STRING	= "jdbc:h2:mem:rapid;DB_CLOSE_DELAY=-1";
+
+	private Connection				connection;
+
+	@Before
+	public void createTable() throws SQLException
+	{
+		connection = DriverManager.getConnection(CONNECTION_STRING);
+		try (
+			Statement stmt = connection.createStatement();)
+		{
+			stmt.execute("create table INPUT (ID bigint primary key, NAME varchar(100), CITY varchar(100))");
+		}
+	}
+
+	@After
+	public void dropTable() throws SQLException
+	{
+		try (
+			Statement stmt = connection.createStatement();)
+		{
+			stmt.execute("drop table INPUT");
+		}
+		connection.close();
+	}
+
+	@Test
+	public void idRangeNotDividingEvenlyGivesTheSamePartition() throws Exception
+	{
+		// 1003 ids, which no reader count above 1 divides evenly
+		Random random = new Random(1);
+		for (long id = 1; id <= 1003; id++)
+			insert(id, randomWords(random), randomWords(random));
+
+		assertSamePartitionOnEveryReaderCount();
+	}
+
+	@Test
+	public void emptyIdRangesGiveTheSamePartition() throws Exception
+	{
+		// 2 dense runs of ids far apart, so the readers of the ranges in between select no rows at all
+		Random random = new Random(2);
+		for (long id = 10; id < 400; id++)
+			insert(id, randomWords(random), randomWords(random));
+		for (long id = 5000000; id < 5000300; id++)
+			insert(id, randomWords(random), randomWords(random));
+
+		assertSamePartitionOnEveryReaderCount();
+	}
+
+	@Test
+	public void nullColumnsGiveTheSamePartition() throws Exception
+	{
+		Random random = new Random(3);
+		for (long id = 1; id <= 800; id++)
+		{
+			int nulls = random.nextInt(4);
+			insert(id, nulls == 1 || nulls == 3 ? null : randomWords(random), nulls == 2 || nulls == 3 ? null : randomWords(random));
+		}
+
+		assertSamePartitionOnEveryReaderCount();
+	}
+
+	@Test
+	public void emptyTableGivesAnEmptyIndex() throws Exception
+	{
+		assertEquals(0, newDao().createBiGramIndexFromTable().getBiGramCount());
+		for (int[] readersAndWorkers : READERS_AND_WORKERS)
+		{
+			InputTableDao dao = newDao();
+			ShardedBiGramIndex index = dao.createBiGramIndexFromTable(readersAndWorkers[0], readersAndWorkers[1], 10);
+			assertEquals(0, index.getBiGramCount());
+			assertEquals(Integer.valueOf(0), dao.getDistinctIDCount());
+		}
+	}
+
+	private void assertSamePartitionOnEveryReaderCount() throws Exception
+	{
+		InputTableDao singleDao = newDao();
+		BiGramIndex single = singleDao.createBiGramIndexFromTable();
+		ClusteringResult expected = new RapidCore<String>().performQuickClustering(single, singleDao.getDistinctIDCount(), 1);
+		assertTrue(expected.getClusterCount() > 1);
+
+		for (int[] readersAndWorkers : READERS_AND_WORKERS)
+		{
+			String name = readersAndWorkers[0] + " readers and " + readersAndWorkers[1] + " workers";
+			InputTableDao dao = newDao();
+			// a small fetch size, so every reader fetches its range in several round trips
+			ShardedBiGramIndex index = dao.createBiGramIndexFromTable(readersAndWorkers[0], readersAndWorkers[1], 17);
+			assertEquals(name, singleDao.getDistinctIDCount(), dao.getDistinctIDCount());
+			assertEquals(name, single.getBiGramCount(), index.getBiGramCount());
+			assertEquals(name, single.getTotalPostingCount(), index.getTotalPostingCount());
+
+			ClusteringResult result = new RapidCore<String>().performQuickClustering(index, dao.getDistinctIDCount(), readersAndWorkers[1]);
+			assertEquals(name, expected.getClusterIdMapping(), result.getClusterIdMapping());
+		}
+	}
+
+	private static InputTableDao newDao()
+	{
+		return new InputTableDao("INPUT", "ID", "NAME,CITY", "|", CONNECTION_STRING, " ", "EOL");
+	}
+
+	private void insert(long id, String name, String city) throws SQLException
+	{
+		try (
+			PreparedStatement ps = connection.prepareStatement("insert into INPUT (ID, NAME, CITY) values (?, ?, ?)");)
+		{
+			ps.setLong(1, id);
+			setNullable(ps, 2, name);
+			setNullable(ps, 3, city);
+			ps.executeUpdate();
+		}
+	}
+
+	private static void setNullable(PreparedStatement ps, int index, String value) throws SQLException
+	{
+		if (value == null)
+			ps.setNull(index, Types.VARCHAR);
+		else
+			ps.setString(index, value);
+	}
+
+	/**
+	 * One or two words out of a small vocabulary, so that rows share bigrams and form clusters of several sizes.
+	 */
+	private static String randomWords(Random random)
+	{
+		String words = "w" + random.nextInt(600);
+		return random.nextBoolean() ? words : words + " w" + random.nextInt(600);
+	}
+}
@@ -0,0 +1,126 @@
+package com.kartik.rapid.logic;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.kartik.rapid.io.ClusteringStateStore;
+import com.kartik.rapid.pojo.ClusteringResult;
+
+
+/**
+ * Checks that an incremental clustering names its clusters as a full clustering of the same rows does, before and after its state
+ * was saved and restored, so both modes can write back into the same cluster id column.
+ */
+public class IncrementalClustererTest
+{
+	@Rule
+	public TemporaryFolder	folder	= new TemporaryFolder();
+
+	@Test
+	public void firstRunGivesTheClusterIdsOfAFullClustering()
+	{
+		Map<String, Set<Long>> map = randomBiGramMap(new Random(1), 0, 4000);
+
+		IncrementalClusterer clusterer = new IncrementalClusterer(16);
+		clusterer.merge(map);
+
+		Map<Long, Long> expected = fullClustering(map);
+		assertEquals(expected, clusterer.getChangedClusters().getClusterIdMapping());
+		assertEquals(expected, clusterer.getClusters().getClusterIdMapping());
+	}
+
+	@Test
+	public void restoredRunGivesTheClusterIdsOfAFullClustering() throws Exception
+	{
+		Random random = new Random(2);
+		Map<String, Set<Long>> map = randomBiGramMap(random, 0, 4000);
+		IncrementalClusterer clusterer = new IncrementalClusterer(16);
+		clusterer.merge(map);
+
+		ClusteringStateStore store = new ClusteringStateStore(folder.newFolder("state"));
+		store.save(clusterer, new Timestamp(0));
+
+		// the delta brings in new ids as well as new bigrams of the ids clustered before
+		Map<String, Set<Long>> delta = randomBiGramMap(random, 2000, 6000);
+		IncrementalClusterer restored = store.load(16);
+		restored.merge(delta);
+
+		for (Map.Entry<String, Set<Long>> entry : delta.entrySet())
+		{
+			Set<Long> ids = map.get(entry.getKey());
+			if (ids == null)
+				map.put(entry.getKey(), ids = new HashSet<>());
+			ids.addAll(entry.getValue());
+		}
+		Map<Long, Long> expected = fullClustering(map);
+		assertEquals(expected, restored.getClusters().getClusterIdMapping());
+
+		ClusteringResult changed = restored.getChangedClusters();
+		assertTrue(changed.getIdCount() > 0);
+		for (Map.Entry<Long, Long> entry : changed.getClusterIdMapping().entrySet())
+			assertEquals(expected.get(entry.getKey()), entry.getValue());
+	}
+
+	@Test
+	public void biGramsOfMoreThan64KBSurviveTheState() throws Exception
+	{
+		StringBuilder longBiGram = new StringBuilder();
+		while (longBiGram.length() <= 70000)
+			longBiGram.append("w\u06DE");
+
+		Map<String, Set<Long>> map = new HashMap<>();
+		map.put(longBiGram.toString(), new HashSet<>(Arrays.asList(1L, 2L)));
+		IncrementalClusterer clusterer = new IncrementalClusterer(16);
+		clusterer.merge(map);
+
+		ClusteringStateStore store = new ClusteringStateStore(folder.newFolder("state"));
+		store.save(clusterer, new Timestamp(0));
+
+		// the bigram is known to the restored state, so a new id of it joins the cluster of the ids saved
+		map.put(longBiGram.toString(), new HashSet<>(Arrays.asList(3L)));
+		IncrementalClusterer restored = store.load(16);
+		restored.merge(map);
+		assertEquals(Long.valueOf(1), restored.getClusters().getClusterIdMapping().get(3L));
+	}
+
+	private static Map<Long, Long> fullClustering(Map<String, Set<Long>> map)
+	{
+		Set<Long> ids = new HashSet<>();
+		for (Set<Long> biGramIds : map.values())
+			ids.addAll(biGramIds);
+		return new RapidCore<String>().performQuickClustering(map, ids.size()).getClusterIdMapping();
+	}
+
+	/**
+	 * Bigrams of 1 to 3 ids out of fromId to toId - 1, drawn from a vocabulary small enough for later maps to repeat bigrams of earlier ones.
+	 */
+	private static Map<String, Set<Long>> randomBiGramMap(Random random, long fromId, long toId)
+	{
+		Map<String, Set<Long>> map = new HashMap<>();
+		for (int i = 0; i < (toId - fromId) / 2; i++)
+		{
+			String biGram = "b" + random.nextInt(5000);
+			Set<Long> ids = map.get(biGram);
+			if (ids == null)
+				map.put(biGram, ids = new HashSet<>());
+			int idCount = 1 + random.nextInt(3);
+			for (int j = 0; j < idCount; j++)
+				ids.add(fromId + random.nextInt((int) (toId - fromId)));
+		}
+		return map;
+	}
+}
@@ -0,0 +1,140 @@
+package com.kartik.rapid.logic;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.kartik.rapid.pojo.ClusteringResult;
+
+
+/**
+ * Checks that the clustering of a {@link BiGramIndex} gives the partition of a breadth first search over the ids and bigrams,
+ * cluster ids included, whatever the number of threads it runs on.
+ */
+public class RapidCoreTest
+{
+	private static final int[]	THREAD_COUNTS	= { 1, 2, 4, 8 };
+
+	@Test
+	public void randomPostingsGiveTheSamePartitionOnAnyThreadCount()
+	{
+		for (long seed = 1; seed <= 5; seed++)
+		{
+			Random random = new Random(seed);
+			BiGramIndex index = new BiGramIndex(16);
+			// few postings per bigram over many ids, which leaves clusters of all sizes, as well as ids of their own
+			for (int biGram = 0; biGram < 20000; biGram++)
+			{
+				long fingerprint = random.nextLong();
+				int postingCount = 1 + random.nextInt(3);
+				for (int posting = 0; posting < postingCount; posting++)
+					index.addPosting(fingerprint, random.nextInt(30000) - 100);
+			}
+			assertSamePartitionAsOracle("seed " + seed, index);
+		}
+	}
+
+	@Test
+	public void chainedIdsGiveOneClusterOnAnyThreadCount()
+	{
+		// every bigram links two consecutive ids, the bigrams in a shuffled order so the threads union into the same long paths
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < 50000; i++)
+			order.add(i);
+		Collections.shuffle(order, new Random(7));
+
+		BiGramIndex index = new BiGramIndex(16);
+		for (int i : order)
+		{
+			index.addPosting(i, i);
+			index.addPosting(i, i + 1);
+		}
+
+		ClusteringResult result = assertSamePartitionAsOracle("chain", index);
+		assertEquals(1, result.getClusterCount());
+		assertEquals(0, result.getClusterId(0));
+	}
+
+	/**
+	 * Clusters the index on every thread count and checks each result against the oracle, returning the result of the last one.
+	 */
+	private static ClusteringResult assertSamePartitionAsOracle(String name, BiGramIndex index)
+	{
+		Map<Long, Long> expected = connectedComponents(index);
+		ClusteringResult result = null;
+		for (int threadCount : THREAD_COUNTS)
+		{
+			result = new RapidCore<String>().performQuickClustering(index, expected.size(), threadCount);
+			assertEquals(name + " on " + threadCount + " threads", expected, result.getClusterIdMapping());
+			assertEquals(name + " on " + threadCount + " threads", new HashSet<>(expected.values()).size(), result.getClusterCount());
+		}
+		return result;
+	}
+
+	/**
+	 * The oracle, a breadth first search over the graph of ids and bigrams, naming every component by its smallest id.
+	 */
+	private static Map<Long, Long> connectedComponents(BiGramIndex index)
+	{
+		Map<Long, List<Integer>> biGramsOfId = new HashMap<>();
+		for (int biGram = 0; biGram < index.getBiGramCount(); biGram++)
+		{
+			for (int posting = index.getFirstPosting(biGram); posting != BiGramIndex.END_OF_LIST; posting = index.getNextPosting(posting))
+			{
+				long id = index.getPostingId(posting);
+				List<Integer> biGrams = biGramsOfId.get(id);
+				if (biGrams == null)
+					biGramsOfId.put(id, biGrams = new ArrayList<>());
+				biGrams.add(biGram);
+			}
+		}
+
+		Map<Long, Long> clusterIdOf = new HashMap<>();
+		Set<Integer> visitedBiGrams = new HashSet<>();
+		for (Long start : biGramsOfId.keySet())
+		{
+			if (clusterIdOf.containsKey(start))
+				continue;
+
+			List<Long> component = new ArrayList<>();
+			ArrayDeque<Long> queue = new ArrayDeque<>();
+			clusterIdOf.put(start, start);
+			queue.add(start);
+			long min = start;
+			while (queue.isEmpty() == false)
+			{
+				long id = queue.poll();
+				component.add(id);
+				min = Math.min(min, id);
+				for (int biGram : biGramsOfId.get(id))
+				{
+					if (visitedBiGrams.add(biGram) == false)
+						continue;
+					for (int posting = index.getFirstPosting(biGram); posting != BiGramIndex.END_OF_LIST; posting = index.getNextPosting(posting))
+					{
+						long other = index.getPostingId(posting);
+						if (clusterIdOf.containsKey(other) == false)
+						{
+							clusterIdOf.put(other, other);
+							queue.add(other);
+						}
+					}
+				}
+			}
+			for (long id : component)
+				clusterIdOf.put(id, min);
+		}
+		return clusterIdOf;
+	}
+}
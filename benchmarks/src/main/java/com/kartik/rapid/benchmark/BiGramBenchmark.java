@@ -0,0 +1,85 @@
+package com.kartik.rapid.benchmark;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.kartik.rapid.utility.BiGramConsumer;
+import com.kartik.rapid.utility.BiGramUtility;
+
+
+/**
+ * Benchmarks the String and the fingerprint flavour of BiGramUtility's bigram generation over synthetic column values.
+ * Reported per column value.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BiGramBenchmark
+{
+	static final int		ROW_COUNT	= 100000;
+	static final String		DATA_DELIM	= " ";
+	static final String		ENDNODE_STR	= "EOL";
+
+	@Param({ "12" })
+	private int				maxWordsPerColumn;
+
+	@Param({ "1.1" })
+	private double			zipfExponent;
+
+	private SyntheticRows	rows;
+	private BiGramUtility	biGramGenerator;
+
+	@Setup(Level.Trial)
+	public void generate()
+	{
+		rows = new SyntheticRows(ROW_COUNT, 1, 50000, maxWordsPerColumn, zipfExponent, DATA_DELIM, 42);
+		biGramGenerator = new BiGramUtility(DATA_DELIM, ENDNODE_STR);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROW_COUNT)
+	public void generateBiGram(Blackhole blackhole)
+	{
+		for (int row = 0; row < ROW_COUNT; row++)
+		{
+			List<String> biGrams = biGramGenerator.generateBiGram(rows.getValue(row, 0));
+			blackhole.consume(biGrams);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROW_COUNT)
+	public void generateBiGramFingerprints(final Blackhole blackhole)
+	{
+		BiGramConsumer consumer = new BiGramConsumer()
+		{
+			@Override
+			public void accept(long fingerprint)
+			{
+				blackhole.consume(fingerprint);
+			}
+		};
+
+		for (int row = 0; row < ROW_COUNT; row++)
+			biGramGenerator.generateBiGramFingerprints(rows.getValue(row, 0), consumer);
+	}
+}
@@ -0,0 +1,155 @@
+package com.kartik.rapid.benchmark;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.kartik.rapid.pojo.ClusteringResult;
+
+
+/**
+ * ConnectedComponentsOracle -
+ * The reference the benchmarks check RapidCore against. It deliberately shares no code with it: the ids are numbered with a
+ * plain HashMap, the posting lists are turned into an adjacency list and the components are found with a breadth first search.
+ * Slow and memory hungry, but obviously right.
+ */
+public class ConnectedComponentsOracle
+{
+	private final Map<Long, Integer>	indexOfId	= new HashMap<>();
+	private final int[]				componentOf;
+	private final int					componentCount;
+
+	/**
+	 * Computes the connected components of the ids of the data map, two ids being connected if they share a bigram.
+	 *
+	 * @param dataMap the data map
+	 */
+	public ConnectedComponentsOracle(Map<?, Set<Long>> dataMap)
+	{
+		// every posting list becomes a star around its first id, which connects exactly the same ids as a clique
+		int edgeCount = 0;
+		for (Set<Long> postings : dataMap.values())
+		{
+			for (Long id : postings)
+			{
+				if (indexOfId.containsKey(id) == false)
+					indexOfId.put(id, indexOfId.size());
+			}
+			edgeCount += Math.max(postings.size() - 1, 0);
+		}
+
+		int idCount = indexOfId.size();
+		int[] degree = new int[idCount + 1];
+		int[] from = new int[edgeCount];
+		int[] to = new int[edgeCount];
+		int edge = 0;
+		for (Set<Long> postings : dataMap.values())
+		{
+			int first = -1;
+			for (Long id : postings)
+			{
+				int index = indexOfId.get(id);
+				if (first == -1)
+				{
+					first = index;
+					continue;
+				}
+				from[edge] = first;
+				to[edge] = index;
+				degree[first + 1]++;
+				degree[index + 1]++;
+				edge++;
+			}
+		}
+
+		// compressed adjacency list
+		for (int i = 0; i < idCount; i++)
+			degree[i + 1] += degree[i];
+		int[] cursor = new int[idCount];
+		System.arraycopy(degree, 0, cursor, 0, idCount);
+		int[] adjacent = new int[edgeCount * 2];
+		for (edge = 0; edge < edgeCount; edge++)
+		{
+			adjacent[cursor[from[edge]]++] = to[edge];
+			adjacent[cursor[to[edge]]++] = from[edge];
+		}
+
+		componentOf = new int[idCount];
+		Arrays.fill(componentOf, -1);
+		int[] queue = new int[idCount];
+		int components = 0;
+		for (int start = 0; start < idCount; start++)
+		{
+			if (componentOf[start] != -1)
+				continue;
+
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = start;
+			componentOf[start] = components;
+			while (head < tail)
+			{
+				int node = queue[head++];
+				for (int i = degree[node]; i < degree[node + 1]; i++)
+				{
+					if (componentOf[adjacent[i]] == -1)
+					{
+						componentOf[adjacent[i]] = components;
+						queue[tail++] = adjacent[i];
+					}
+				}
+			}
+			components++;
+		}
+		componentCount = components;
+	}
+
+	/**
+	 * Gets the number of connected components.
+	 *
+	 * @return the component count
+	 */
+	public int getComponentCount()
+	{
+		return componentCount;
+	}
+
+	/**
+	 * Checks that the clusters of the result are exactly the connected components, whatever their clusterIDs.
+	 *
+	 * @param result the result
+	 * @throws IllegalStateException if the result is not the expected partition
+	 */
+	public void verify(ClusteringResult result)
+	{
+		if (result.getIdCount() != indexOfId.size())
+			throw new IllegalStateException("Expected " + indexOfId.size() + " ids but the result has " + result.getIdCount());
+		if (result.getClusterCount() != componentCount)
+			throw new IllegalStateException("Expected " + componentCount + " clusters but the result has " + result.getClusterCount());
+
+		boolean[] seen = new boolean[componentCount];
+		for (int c = 0; c < result.getClusterCount(); c++)
+		{
+			int component = componentOf(result.getMemberId(c, 0));
+			if (seen[component])
+				throw new IllegalStateException("Component " + component + " is split across several clusters");
+			seen[component] = true;
+
+			for (int i = 1; i < result.getClusterSize(c); i++)
+			{
+				if (componentOf(result.getMemberId(c, i)) != component)
+					throw new IllegalStateException("Cluster " + result.getClusterId(c) + " mixes several components");
+			}
+		}
+	}
+
+	private int componentOf(long id)
+	{
+		Integer index = indexOfId.get(id);
+		if (index == null)
+			throw new IllegalStateException("Id " + id + " is not part of the input");
+		return componentOf[index];
+	}
+}
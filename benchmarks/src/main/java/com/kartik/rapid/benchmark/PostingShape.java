@@ -0,0 +1,17 @@
+package com.kartik.rapid.benchmark;
+
+
+/**
+ * The shapes of connectivity {@link SyntheticPostings} can generate.
+ */
+public enum PostingShape
+{
+	/** Every posting list draws its ids uniformly, giving the usual mix of a few large and many small clusters. */
+	RANDOM,
+
+	/** Posting lists cover windows of consecutive ids which overlap by one, so all ids end up in one long chain. */
+	CHAIN,
+
+	/** A quarter of the posting lists always contain one of a few hub ids, which pulls most ids into one giant component. */
+	GIANT
+}
@@ -0,0 +1,128 @@
+package com.kartik.rapid.benchmark;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kartik.rapid.io.PostingSnapshot;
+import com.kartik.rapid.logic.RapidCore;
+import com.kartik.rapid.pojo.ClusteringResult;
+
+
+/**
+ * Benchmarks loading a saved posting map, the GZIP compressed java serialization StandAloneClient used to write against a
+ * {@link PostingSnapshot}, read back as a map or clustered straight from its cursor. The clustered snapshot is checked against the
+ * {@link ConnectedComponentsOracle} of the map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class PostingSnapshotBenchmark
+{
+	@Param({ "500000" })
+	private int					idCount;
+
+	@Param({ "1000000" })
+	private int					biGramCount;
+
+	@Param({ "1000" })
+	private int					maxPostingLength;
+
+	@Param({ "1.5" })
+	private double				zipfExponent;
+
+	private SyntheticPostings	postings;
+	private ConnectedComponentsOracle	oracle;
+	private File				serializedFile;
+	private File				snapshotFile;
+	private ClusteringResult	lastResult;
+
+	@Setup(Level.Trial)
+	public void writeFiles() throws IOException
+	{
+		postings = new SyntheticPostings(idCount, biGramCount, maxPostingLength, zipfExponent, PostingShape.RANDOM, 42);
+		oracle = new ConnectedComponentsOracle(postings.getDataMap());
+
+		serializedFile = File.createTempFile("postings", ".gz");
+		try (
+			ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(serializedFile)));)
+		{
+			out.writeObject(postings.getDataMap());
+		}
+
+		snapshotFile = File.createTempFile("postings", ".snapshot");
+		PostingSnapshot.write(postings.getDataMap(), postings.getDistinctIDCount(), snapshotFile);
+	}
+
+	@Benchmark
+	public Object loadSerialized() throws IOException, ClassNotFoundException
+	{
+		try (
+			ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new FileInputStream(serializedFile)));)
+		{
+			return in.readObject();
+		}
+	}
+
+	@Benchmark
+	public Map<Object, Set<Long>> loadSnapshot() throws IOException
+	{
+		try (
+			PostingSnapshot snapshot = new PostingSnapshot(snapshotFile);)
+		{
+			return snapshot.readDataMap();
+		}
+	}
+
+	@Benchmark
+	public ClusteringResult clusterSnapshot() throws IOException
+	{
+		try (
+			PostingSnapshot snapshot = new PostingSnapshot(snapshotFile);)
+		{
+			lastResult = new RapidCore<Object>().performQuickClustering(snapshot.cursor(), snapshot.getDistinctIDCount());
+			return lastResult;
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void verify()
+	{
+		if (lastResult != null)
+			oracle.verify(lastResult);
+		lastResult = null;
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFiles()
+	{
+		serializedFile.delete();
+		snapshotFile.delete();
+	}
+}
@@ -0,0 +1,31 @@
+package com.kartik.rapid.benchmark;
+
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Entry point of the benchmarks jar. Takes the usual JMH command line, but always adds the GC profiler, so that every run
+ * reports gc.alloc.rate and gc.alloc.rate.norm next to the timings. Allocation is half the story of every change to the hot paths.
+ *
+ * java -jar benchmarks/target/benchmarks.jar [jmh options] [benchmark regexp]
+ */
+public class RapidBenchmarks
+{
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException
+	{
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+
+		if (commandLine.getIncludes().isEmpty())
+			options.include("com\\.kartik\\.rapid\\..*Benchmark");
+
+		new Runner(options.addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,77 @@
+package com.kartik.rapid.benchmark;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kartik.rapid.logic.RapidCore;
+import com.kartik.rapid.pojo.ClusteringResult;
+
+
+/**
+ * Benchmarks RapidCore.performQuickClustering on synthetic posting maps.
+ * The result of every iteration is checked against the {@link ConnectedComponentsOracle}, a fast but wrong clustering fails the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class RapidCoreBenchmark
+{
+	@Param({ "1000000" })
+	private int					idCount;
+
+	@Param({ "2000000" })
+	private int					biGramCount;
+
+	@Param({ "1000" })
+	private int					maxPostingLength;
+
+	@Param({ "1.5" })
+	private double				zipfExponent;
+
+	@Param({ "RANDOM", "CHAIN", "GIANT" })
+	private PostingShape		shape;
+
+	@Param({ "1", "4" })
+	private int					threadCount;
+
+	private SyntheticPostings	postings;
+	private ConnectedComponentsOracle	oracle;
+	private ClusteringResult	lastResult;
+
+	@Setup(Level.Trial)
+	public void generate()
+	{
+		postings = new SyntheticPostings(idCount, biGramCount, maxPostingLength, zipfExponent, shape, 42);
+		oracle = new ConnectedComponentsOracle(postings.getDataMap());
+	}
+
+	@Benchmark
+	public ClusteringResult performQuickClustering()
+	{
+		lastResult = new RapidCore<Object>().performQuickClustering(postings.getDataMap(), postings.getDistinctIDCount(), threadCount);
+		return lastResult;
+	}
+
+	@TearDown(Level.Iteration)
+	public void verify()
+	{
+		oracle.verify(lastResult);
+	}
+}
@@ -0,0 +1,96 @@
+package com.kartik.rapid.benchmark;
+
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * SyntheticPostings -
+ * Generates bigram posting maps of the same form InputTableDao.createDataMapFromTable produces, with a tunable number of ids,
+ * a zipfian posting list length distribution and a choice of {@link PostingShape}. Generation is seeded, so every fork of
+ * a benchmark clusters exactly the same input.
+ */
+public class SyntheticPostings
+{
+	private static final int	HUB_COUNT	= 8;
+
+	private final Map<Object, Set<Long>>	dataMap;
+	private final int						distinctIDCount;
+
+	/**
+	 * Generates a new posting map.
+	 *
+	 * @param idCount - the number of distinct ids to draw from
+	 * @param biGramCount - the number of bigrams
+	 * @param maxPostingLength - the length of the longest posting list
+	 * @param zipfExponent - the skew of the posting list lengths
+	 * @param shape - the shape of the connectivity
+	 * @param seed - the seed
+	 */
+	public SyntheticPostings(int idCount, int biGramCount, int maxPostingLength, double zipfExponent, PostingShape shape, long seed)
+	{
+		Random random = new Random(seed);
+		ZipfianSampler lengths = new ZipfianSampler(maxPostingLength, zipfExponent, random);
+		dataMap = new HashMap<>(biGramCount * 2);
+		Set<Long> ids = new HashSet<>(idCount * 2);
+
+		// sparse, non consecutive ids like the primary keys of a real table
+		long idStride = 7;
+		int chainStart = 0;
+
+		for (int biGram = 0; biGram < biGramCount; biGram++)
+		{
+			int length = Math.min(lengths.next(), idCount);
+			Set<Long> postings = new HashSet<>(length * 2);
+
+			switch (shape)
+			{
+				case CHAIN:
+					// at least 2 ids, or the window would not overlap with the next one
+					length = Math.max(length, 2);
+					for (int i = 0; i < length; i++)
+						postings.add((long) ((chainStart + i) % idCount) * idStride);
+					chainStart = (chainStart + Math.max(length - 1, 1)) % idCount;
+					break;
+
+				case GIANT:
+					if (biGram % 4 == 0)
+						postings.add((long) random.nextInt(HUB_COUNT) * idStride);
+					// fall through
+
+				default:
+					while (postings.size() < length)
+						postings.add((long) random.nextInt(idCount) * idStride);
+			}
+
+			ids.addAll(postings);
+			dataMap.put("bigram-" + biGram, postings);
+		}
+
+		distinctIDCount = ids.size();
+	}
+
+	/**
+	 * Gets the data map.
+	 *
+	 * @return the data map
+	 */
+	public Map<Object, Set<Long>> getDataMap()
+	{
+		return dataMap;
+	}
+
+	/**
+	 * Gets the distinct id count of the data map.
+	 *
+	 * @return the distinct id count
+	 */
+	public int getDistinctIDCount()
+	{
+		return distinctIDCount;
+	}
+}
@@ -0,0 +1,72 @@
+package com.kartik.rapid.benchmark;
+
+
+import java.util.Random;
+
+
+/**
+ * SyntheticRows -
+ * Generates description column values made of words drawn from a zipfian vocabulary, the way free text is skewed towards
+ * a few very common words. Used as the input of the bigram generation and ingestion benchmarks.
+ */
+public class SyntheticRows
+{
+	private final String[][]	columns;
+
+	/**
+	 * Generates new rows.
+	 *
+	 * @param rowCount - the number of rows
+	 * @param columnCount - the number of description columns per row
+	 * @param vocabularySize - the number of distinct words
+	 * @param maxWordsPerColumn - the largest number of words in a column value
+	 * @param zipfExponent - the skew of the word frequencies
+	 * @param dataDelim - the delimiter between the words
+	 * @param seed - the seed
+	 */
+	public SyntheticRows(int rowCount, int columnCount, int vocabularySize, int maxWordsPerColumn, double zipfExponent, String dataDelim, long seed)
+	{
+		Random random = new Random(seed);
+		ZipfianSampler words = new ZipfianSampler(vocabularySize, zipfExponent, random);
+		columns = new String[rowCount][columnCount];
+
+		StringBuilder value = new StringBuilder();
+		for (int row = 0; row < rowCount; row++)
+		{
+			for (int column = 0; column < columnCount; column++)
+			{
+				value.setLength(0);
+				int wordCount = 1 + random.nextInt(maxWordsPerColumn);
+				for (int word = 0; word < wordCount; word++)
+				{
+					if (word > 0)
+						value.append(dataDelim);
+					value.append("w").append(Integer.toString(words.next(), 36));
+				}
+				columns[row][column] = value.toString();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of rows.
+	 *
+	 * @return the row count
+	 */
+	public int getRowCount()
+	{
+		return columns.length;
+	}
+
+	/**
+	 * Gets a column value.
+	 *
+	 * @param row the row
+	 * @param column the column
+	 * @return the value
+	 */
+	public String getValue(int row, int column)
+	{
+		return columns[row][column];
+	}
+}
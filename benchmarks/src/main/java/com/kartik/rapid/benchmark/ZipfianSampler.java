@@ -0,0 +1,52 @@
+package com.kartik.rapid.benchmark;
+
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * ZipfianSampler -
+ * Draws values 1 .. maxValue with P(k) proportional to 1 / k^exponent, by binary searching a precomputed cumulative table.
+ * An exponent of 0 gives a uniform distribution, the larger the exponent the heavier the head.
+ */
+public class ZipfianSampler
+{
+	private final double[]	cumulative;
+	private final Random	random;
+
+	/**
+	 * Instantiates a new zipfian sampler.
+	 *
+	 * @param maxValue - the largest value drawn
+	 * @param exponent - the skew of the distribution
+	 * @param random - the source of randomness
+	 */
+	public ZipfianSampler(int maxValue, double exponent, Random random)
+	{
+		this.random = random;
+		cumulative = new double[maxValue];
+
+		double sum = 0;
+		for (int k = 1; k <= maxValue; k++)
+		{
+			sum += 1 / Math.pow(k, exponent);
+			cumulative[k - 1] = sum;
+		}
+		for (int k = 0; k < maxValue; k++)
+			cumulative[k] /= sum;
+	}
+
+	/**
+	 * Draws the next value.
+	 *
+	 * @return a value in 1 .. maxValue
+	 */
+	public int next()
+	{
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		if (index < 0)
+			index = -index - 1;
+		return Math.min(index, cumulative.length - 1) + 1;
+	}
+}
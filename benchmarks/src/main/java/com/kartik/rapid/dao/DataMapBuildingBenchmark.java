@@ -0,0 +1,132 @@
+package com.kartik.rapid.dao;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kartik.rapid.benchmark.SyntheticRows;
+import com.kartik.rapid.logic.BiGramIndex;
+import com.kartik.rapid.logic.StreamingClusterer;
+import com.kartik.rapid.pojo.ClusteringResult;
+
+
+/**
+ * Benchmarks the map building loop of InputTableDao.createDataMapFromTable against the index building one of createBiGramIndexFromTable,
+ * ie everything between the JDBC driver handing over a row and the row's bigrams sitting in the data map or index.
+ * clusterWhileReading goes as far as the clustering result, as the streaming clusterer has no separate clustering phase.
+ * The rows come from an in-memory result set, so the numbers contain neither the network nor the driver.
+ * Lives in the dao package to reach the package private loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class DataMapBuildingBenchmark
+{
+	private static final String	ID_COLUMN		= "ID";
+	private static final String	COLUMNS			= "NAME,ADDRESS,DESCRIPTION";
+	private static final String	COLUMN_DELIM	= "\u06DE";
+	private static final String	DATA_DELIM		= " ";
+
+	@Param({ "200000" })
+	private int					rowCount;
+
+	@Param({ "1.1" })
+	private double				zipfExponent;
+
+	private SyntheticRows		rows;
+	private InputTableDao		dao;
+
+	@Setup(Level.Trial)
+	public void generate()
+	{
+		rows = new SyntheticRows(rowCount, COLUMNS.split(",").length, 200000, 8, zipfExponent, DATA_DELIM, 42);
+		dao = new InputTableDao("BENCHMARK", ID_COLUMN, COLUMNS, COLUMN_DELIM, null, DATA_DELIM, "EOL");
+	}
+
+	@Benchmark
+	public Map<Object, Set<Long>> createDataMap() throws SQLException
+	{
+		Map<Object, Set<Long>> dataMap = new HashMap<Object, Set<Long>>();
+		dao.siphonRows(syntheticResultSet(rows, COLUMNS.split(",")), dataMap, rowCount);
+		return dataMap;
+	}
+
+	@Benchmark
+	public BiGramIndex createBiGramIndex() throws SQLException
+	{
+		BiGramIndex index = new BiGramIndex(rowCount);
+		dao.siphonRows(syntheticResultSet(rows, COLUMNS.split(",")), index, rowCount);
+		return index;
+	}
+
+	@Benchmark
+	public ClusteringResult clusterWhileReading() throws SQLException
+	{
+		StreamingClusterer clusterer = new StreamingClusterer(rowCount);
+		dao.siphonRows(syntheticResultSet(rows, COLUMNS.split(",")), clusterer, rowCount);
+		return clusterer.getResult();
+	}
+
+	/**
+	 * Creates a forward only result set over the synthetic rows, answering next() and getString() by column label or position
+	 * which is all the loops use. The id of row i is 7 * i, like a sparse primary key.
+	 */
+	static ResultSet syntheticResultSet(final SyntheticRows rows, final String[] columnLabels)
+	{
+		final Map<String, Integer> columnIndex = new HashMap<>();
+		for (int column = 0; column < columnLabels.length; column++)
+			columnIndex.put(columnLabels[column], column);
+
+		InvocationHandler handler = new InvocationHandler()
+		{
+			private int	row	= -1;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				switch (method.getName())
+				{
+					case "next":
+						return ++row < rows.getRowCount();
+					case "getString":
+						if (args[0] instanceof Integer)
+						{
+							int position = (Integer) args[0];
+							return position == 1 ? Long.toString(7L * row) : rows.getValue(row, position - 2);
+						}
+						if (ID_COLUMN.equals(args[0]))
+							return Long.toString(7L * row);
+						return rows.getValue(row, columnIndex.get(args[0]));
+					case "close":
+						return null;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			}
+		};
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, handler);
+	}
+}
@@ -0,0 +1,139 @@
+package com.kartik.rapid.dao;
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kartik.rapid.benchmark.ConnectedComponentsOracle;
+import com.kartik.rapid.benchmark.SyntheticRows;
+import com.kartik.rapid.logic.BiGramIndex;
+import com.kartik.rapid.logic.RapidCore;
+import com.kartik.rapid.logic.ShardedBiGramIndex;
+
+
+/**
+ * Benchmarks the whole table ingestion of InputTableDao, a single select against the partitioned pipeline of createBiGramIndexFromTable,
+ * on an in-memory H2 database standing in for the real one. Both include the cluster id column being dropped and added again.
+ * The index of every iteration is clustered and checked against the {@link ConnectedComponentsOracle} of the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class TableIngestionBenchmark
+{
+	private static final String	CONNECTION_STRING	= "jdbc:h2:mem:ingestion;DB_CLOSE_DELAY=-1";
+	private static final String	TABLE_NAME			= "BENCHMARK";
+	private static final String	ID_COLUMN			= "ID";
+	private static final String	COLUMNS				= "NAME,ADDRESS,DESCRIPTION";
+	private static final String	COLUMN_DELIM		= "\u06DE";
+	private static final String	DATA_DELIM			= " ";
+
+	@Param({ "200000" })
+	private int					rowCount;
+
+	@Param({ "1.1" })
+	private double				zipfExponent;
+
+	@Param({ "4" })
+	private int					readerCount;
+
+	@Param({ "4" })
+	private int					workerCount;
+
+	@Param({ "1000" })
+	private int					fetchSize;
+
+	private InputTableDao		dao;
+	private ConnectedComponentsOracle	oracle;
+	private Object				lastIndex;
+
+	@Setup(Level.Trial)
+	public void createTable() throws SQLException, ClassNotFoundException
+	{
+		SyntheticRows rows = new SyntheticRows(rowCount, COLUMNS.split(",").length, 200000, 8, zipfExponent, DATA_DELIM, 42);
+
+		try (
+			Connection conn = DriverManager.getConnection(CONNECTION_STRING);
+			Statement stmt = conn.createStatement();)
+		{
+			stmt.execute("drop table if exists " + TABLE_NAME);
+			stmt.execute("create table " + TABLE_NAME + " (" + ID_COLUMN + " bigint primary key, NAME varchar(200), ADDRESS varchar(200), DESCRIPTION varchar(200))");
+
+			try (
+				PreparedStatement pstmt = conn.prepareStatement("insert into " + TABLE_NAME + " values (?, ?, ?, ?)");)
+			{
+				for (int row = 0; row < rowCount; row++)
+				{
+					// sparse ids, like a primary key after deletes
+					pstmt.setLong(1, 7L * row);
+					for (int column = 0; column < 3; column++)
+						pstmt.setString(column + 2, rows.getValue(row, column));
+					pstmt.addBatch();
+					if (row % 5000 == 4999)
+						pstmt.executeBatch();
+				}
+				pstmt.executeBatch();
+			}
+		}
+
+		dao = new InputTableDao(TABLE_NAME, ID_COLUMN, COLUMNS, COLUMN_DELIM, CONNECTION_STRING, DATA_DELIM, "EOL");
+		oracle = new ConnectedComponentsOracle(dao.createDataMapFromTable());
+	}
+
+	@Benchmark
+	public BiGramIndex singleConnection() throws SQLException, ClassNotFoundException
+	{
+		BiGramIndex index = dao.createBiGramIndexFromTable();
+		lastIndex = index;
+		return index;
+	}
+
+	@Benchmark
+	public ShardedBiGramIndex partitioned() throws SQLException, ClassNotFoundException
+	{
+		ShardedBiGramIndex index = dao.createBiGramIndexFromTable(readerCount, workerCount, fetchSize);
+		lastIndex = index;
+		return index;
+	}
+
+	@TearDown(Level.Iteration)
+	public void verify()
+	{
+		if (lastIndex instanceof ShardedBiGramIndex)
+			oracle.verify(new RapidCore<Object>().performQuickClustering((ShardedBiGramIndex) lastIndex, dao.getDistinctIDCount(), workerCount));
+		else
+			oracle.verify(new RapidCore<Object>().performQuickClustering((BiGramIndex) lastIndex, dao.getDistinctIDCount(), 1));
+	}
+
+	@TearDown(Level.Trial)
+	public void dropTable() throws SQLException
+	{
+		try (
+			Connection conn = DriverManager.getConnection(CONNECTION_STRING);
+			Statement stmt = conn.createStatement();)
+		{
+			stmt.execute("drop table " + TABLE_NAME);
+		}
+	}
+}